@@ -15,6 +15,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.JFileChooser;
@@ -1134,4 +1136,230 @@ public class Util {
         System.arraycopy(arrayUnique, 0, arrayUnique, 0, index);
         return arrayUnique;
     }
+
+    /**
+     * Returns a thread factory creating daemon threads, i.e. threads which do
+     * not prevent the JVM from exiting when abandoned.
+     *
+     * @param threadName the name of the threads
+     *
+     * @return a thread factory creating daemon threads
+     */
+    public static ThreadFactory getDaemonThreadFactory(final String threadName) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error or a runtime exception, otherwise it is wrapped
+     * in the returned exception. Typical usage:
+     * {@code throw Util.getExecutionException(e, message);}
+     *
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     */
+    public static IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage) {
+        return getExecutionException(executionException, errorMessage, RuntimeException.class);
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error, a runtime exception, or an instance of the
+     * given type, otherwise it is wrapped in the returned exception. Typical
+     * usage: {@code throw Util.getExecutionException(e, message, IOException.class);}
+     *
+     * @param <X1> a type of exception to throw as is
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     * @param exceptionType1 a type of exception to throw as is
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     *
+     * @throws X1 the cause of the execution exception if of this type
+     */
+    public static <X1 extends Exception> IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage, Class<X1> exceptionType1)
+            throws X1 {
+        return getExecutionException(executionException, errorMessage, exceptionType1, exceptionType1, exceptionType1, exceptionType1, exceptionType1, exceptionType1);
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error, a runtime exception, or an instance of one of
+     * the given types, otherwise it is wrapped in the returned exception.
+     *
+     * @param <X1> a type of exception to throw as is
+     * @param <X2> a type of exception to throw as is
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     * @param exceptionType1 a type of exception to throw as is
+     * @param exceptionType2 a type of exception to throw as is
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     *
+     * @throws X1 the cause of the execution exception if of this type
+     * @throws X2 the cause of the execution exception if of this type
+     */
+    public static <X1 extends Exception, X2 extends Exception> IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage, Class<X1> exceptionType1, Class<X2> exceptionType2)
+            throws X1, X2 {
+        return getExecutionException(executionException, errorMessage, exceptionType1, exceptionType2, exceptionType2, exceptionType2, exceptionType2, exceptionType2);
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error, a runtime exception, or an instance of one of
+     * the given types, otherwise it is wrapped in the returned exception.
+     *
+     * @param <X1> a type of exception to throw as is
+     * @param <X2> a type of exception to throw as is
+     * @param <X3> a type of exception to throw as is
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     * @param exceptionType1 a type of exception to throw as is
+     * @param exceptionType2 a type of exception to throw as is
+     * @param exceptionType3 a type of exception to throw as is
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     *
+     * @throws X1 the cause of the execution exception if of this type
+     * @throws X2 the cause of the execution exception if of this type
+     * @throws X3 the cause of the execution exception if of this type
+     */
+    public static <X1 extends Exception, X2 extends Exception, X3 extends Exception> IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage, Class<X1> exceptionType1, Class<X2> exceptionType2, Class<X3> exceptionType3)
+            throws X1, X2, X3 {
+        return getExecutionException(executionException, errorMessage, exceptionType1, exceptionType2, exceptionType3, exceptionType3, exceptionType3, exceptionType3);
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error, a runtime exception, or an instance of one of
+     * the given types, otherwise it is wrapped in the returned exception.
+     *
+     * @param <X1> a type of exception to throw as is
+     * @param <X2> a type of exception to throw as is
+     * @param <X3> a type of exception to throw as is
+     * @param <X4> a type of exception to throw as is
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     * @param exceptionType1 a type of exception to throw as is
+     * @param exceptionType2 a type of exception to throw as is
+     * @param exceptionType3 a type of exception to throw as is
+     * @param exceptionType4 a type of exception to throw as is
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     *
+     * @throws X1 the cause of the execution exception if of this type
+     * @throws X2 the cause of the execution exception if of this type
+     * @throws X3 the cause of the execution exception if of this type
+     * @throws X4 the cause of the execution exception if of this type
+     */
+    public static <X1 extends Exception, X2 extends Exception, X3 extends Exception, X4 extends Exception> IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage, Class<X1> exceptionType1, Class<X2> exceptionType2, Class<X3> exceptionType3, Class<X4> exceptionType4)
+            throws X1, X2, X3, X4 {
+        return getExecutionException(executionException, errorMessage, exceptionType1, exceptionType2, exceptionType3, exceptionType4, exceptionType4, exceptionType4);
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error, a runtime exception, or an instance of one of
+     * the given types, otherwise it is wrapped in the returned exception.
+     *
+     * @param <X1> a type of exception to throw as is
+     * @param <X2> a type of exception to throw as is
+     * @param <X3> a type of exception to throw as is
+     * @param <X4> a type of exception to throw as is
+     * @param <X5> a type of exception to throw as is
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     * @param exceptionType1 a type of exception to throw as is
+     * @param exceptionType2 a type of exception to throw as is
+     * @param exceptionType3 a type of exception to throw as is
+     * @param exceptionType4 a type of exception to throw as is
+     * @param exceptionType5 a type of exception to throw as is
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     *
+     * @throws X1 the cause of the execution exception if of this type
+     * @throws X2 the cause of the execution exception if of this type
+     * @throws X3 the cause of the execution exception if of this type
+     * @throws X4 the cause of the execution exception if of this type
+     * @throws X5 the cause of the execution exception if of this type
+     */
+    public static <X1 extends Exception, X2 extends Exception, X3 extends Exception, X4 extends Exception, X5 extends Exception> IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage, Class<X1> exceptionType1, Class<X2> exceptionType2, Class<X3> exceptionType3, Class<X4> exceptionType4, Class<X5> exceptionType5)
+            throws X1, X2, X3, X4, X5 {
+        return getExecutionException(executionException, errorMessage, exceptionType1, exceptionType2, exceptionType3, exceptionType4, exceptionType5, exceptionType5);
+    }
+
+    /**
+     * Returns the exception to throw for an error which occurred in a task
+     * executed in another thread: the cause of the execution exception is
+     * thrown if it is an error, a runtime exception, or an instance of one of
+     * the given types, otherwise it is wrapped in the returned exception.
+     *
+     * @param <X1> a type of exception to throw as is
+     * @param <X2> a type of exception to throw as is
+     * @param <X3> a type of exception to throw as is
+     * @param <X4> a type of exception to throw as is
+     * @param <X5> a type of exception to throw as is
+     * @param <X6> a type of exception to throw as is
+     * @param executionException the execution exception
+     * @param errorMessage the message of the exception returned
+     * @param exceptionType1 a type of exception to throw as is
+     * @param exceptionType2 a type of exception to throw as is
+     * @param exceptionType3 a type of exception to throw as is
+     * @param exceptionType4 a type of exception to throw as is
+     * @param exceptionType5 a type of exception to throw as is
+     * @param exceptionType6 a type of exception to throw as is
+     *
+     * @return an illegal argument exception wrapping the cause of the
+     * execution exception
+     *
+     * @throws X1 the cause of the execution exception if of this type
+     * @throws X2 the cause of the execution exception if of this type
+     * @throws X3 the cause of the execution exception if of this type
+     * @throws X4 the cause of the execution exception if of this type
+     * @throws X5 the cause of the execution exception if of this type
+     * @throws X6 the cause of the execution exception if of this type
+     */
+    public static <X1 extends Exception, X2 extends Exception, X3 extends Exception, X4 extends Exception, X5 extends Exception, X6 extends Exception> IllegalArgumentException getExecutionException(ExecutionException executionException, String errorMessage, Class<X1> exceptionType1, Class<X2> exceptionType2, Class<X3> exceptionType3, Class<X4> exceptionType4, Class<X5> exceptionType5, Class<X6> exceptionType6)
+            throws X1, X2, X3, X4, X5, X6 {
+        Throwable cause = executionException.getCause();
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (exceptionType1.isInstance(cause)) {
+            throw exceptionType1.cast(cause);
+        } else if (exceptionType2.isInstance(cause)) {
+            throw exceptionType2.cast(cause);
+        } else if (exceptionType3.isInstance(cause)) {
+            throw exceptionType3.cast(cause);
+        } else if (exceptionType4.isInstance(cause)) {
+            throw exceptionType4.cast(cause);
+        } else if (exceptionType5.isInstance(cause)) {
+            throw exceptionType5.cast(cause);
+        } else if (exceptionType6.isInstance(cause)) {
+            throw exceptionType6.cast(cause);
+        }
+        return new IllegalArgumentException(errorMessage, cause);
+    }
 }
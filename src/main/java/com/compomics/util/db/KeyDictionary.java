@@ -0,0 +1,90 @@
+package com.compomics.util.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Bidirectional dictionary between object keys and numeric ids. The id of a
+ * key is its index in the list of keys, the list can hence be persisted as is
+ * and the dictionary rebuilt from it.
+ *
+ * @author Marc Vaudel
+ */
+public class KeyDictionary {
+
+    /**
+     * The keys indexed by id.
+     */
+    private final ArrayList<String> keys;
+    /**
+     * The ids indexed by key.
+     */
+    private final HashMap<String, Long> ids;
+
+    /**
+     * Constructor.
+     *
+     * @param keys the keys indexed by id, new keys will be appended to this
+     * list
+     */
+    public KeyDictionary(ArrayList<String> keys) {
+        this.keys = keys;
+        ids = new HashMap<String, Long>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            ids.put(keys.get(i), (long) i);
+        }
+    }
+
+    /**
+     * Returns the id of the given key, null if not in the dictionary.
+     *
+     * @param key the key
+     *
+     * @return the id of the given key
+     */
+    public synchronized Long getId(String key) {
+        return ids.get(key);
+    }
+
+    /**
+     * Returns the id of the given key and adds it to the dictionary if not
+     * present.
+     *
+     * @param key the key
+     *
+     * @return the id of the given key
+     */
+    public synchronized long addKey(String key) {
+        Long id = ids.get(key);
+        if (id == null) {
+            id = (long) keys.size();
+            keys.add(key);
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the key corresponding to the given id, null if not in the
+     * dictionary.
+     *
+     * @param id the id
+     *
+     * @return the corresponding key
+     */
+    public synchronized String getKey(long id) {
+        if (id < 0 || id >= keys.size()) {
+            return null;
+        }
+        return keys.get((int) id);
+    }
+
+    /**
+     * Returns the number of keys in the dictionary.
+     *
+     * @return the number of keys in the dictionary
+     */
+    public synchronized int size() {
+        return keys.size();
+    }
+}
@@ -731,7 +731,10 @@ public class ObjectsCache {
         }
 
         if (emptyCache && !readOnly) {
-            loadedObjectsMap.clear();
+            // keep the databases registered so that objects can still be added
+            for (HashMap<String, HashMap<String, CacheEntry>> dbMap : loadedObjectsMap.values()) {
+                dbMap.clear();
+            }
             loadedObjectKeysMutex.acquire();
             loadedObjectsKeys.clear();
             loadedObjectKeysMutex.release();
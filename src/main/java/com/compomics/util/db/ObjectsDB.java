@@ -55,6 +55,27 @@ public class ObjectsDB implements Serializable {
      * name.
      */
     private HashMap<String, ArrayList<String>> longKeysMap = new HashMap<String, ArrayList<String>>();
+    /**
+     * Dictionaries of the long keys indexed by table name, built from the long
+     * keys map when needed.
+     */
+    private transient HashMap<String, KeyDictionary> keyDictionaries = null;
+    /**
+     * Boolean indicating whether all keys shall be stored in the database as
+     * numeric ids.
+     */
+    private boolean numericKeys = false;
+    /**
+     * Map of the keys stored as numeric ids indexed by table name. These keys
+     * are saved incrementally in the numeric keys table and not with the other
+     * attributes.
+     */
+    private transient HashMap<String, ArrayList<String>> numericKeysMap = new HashMap<String, ArrayList<String>>();
+    /**
+     * The number of keys of the numeric keys map already saved in the
+     * database indexed by table name.
+     */
+    private transient HashMap<String, Integer> savedNumericKeys = new HashMap<String, Integer>();
     /**
      * Tables that have already been used. Will be null for projects older than
      * 4.7.0.
@@ -90,6 +111,15 @@ public class ObjectsDB implements Serializable {
      * The name of the table to use to log connections.
      */
     public static final String CONNECTION_LOG_TABLE = "connection_log_table";
+    /**
+     * Name for the attribute indicating whether all keys are stored as numeric
+     * ids.
+     */
+    public static final String NUMERIC_KEYS = "numeric_keys";
+    /**
+     * The table where to save the keys stored as numeric ids.
+     */
+    public static final String NUMERIC_KEYS_TABLE = "numeric_keys_table";
     /**
      * The cache to be used for the objects.
      */
@@ -110,6 +140,11 @@ public class ObjectsDB implements Serializable {
      * A boolean indicating whether the database is being queried.
      */
     private boolean loading = false;
+    /**
+     * A boolean indicating whether a transaction is open, in which case the
+     * changes are only committed upon commitTransaction.
+     */
+    private transient boolean inTransaction = false;
     /**
      * Mutex for the interaction with the database.
      */
@@ -402,7 +437,9 @@ public class ObjectsDB implements Serializable {
 
         dbMutex.acquire();
 
-        dbConnection.setAutoCommit(false);
+        if (!inTransaction) {
+            dbConnection.setAutoCommit(false);
+        }
 
         HashSet<String> tableContent = getTableContentFromDBNoMutex(tableName);
 
@@ -416,6 +453,7 @@ public class ObjectsDB implements Serializable {
             for (String objectKey : objects.keySet()) {
 
                 String correctedKey = correctKey(tableName, objectKey);
+                String originalKey = correctedKey.startsWith(LONG_KEY_PREFIX) ? getOriginalKey(tableName, correctedKey) : correctedKey;
 
                 if (debugContent) {
                     if (debugInteractions) {
@@ -435,7 +473,7 @@ public class ObjectsDB implements Serializable {
                     debugContentWriter.flush();
                 }
 
-                if (tableContent.contains(correctedKey)) {
+                if (tableContent.contains(originalKey)) {
                     updateKeys.put(objectKey, correctedKey);
                 } else {
                     ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -451,7 +489,7 @@ public class ObjectsDB implements Serializable {
                             if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
                                 insertStatement.executeBatch();
                                 insertStatement.clearParameters();
-                                dbConnection.commit();
+                                commitBatch();
                                 insertStatement.close();
                                 insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
                                 rowCounter = 0;
@@ -463,7 +501,7 @@ public class ObjectsDB implements Serializable {
                         bos.close();
                     }
 
-                    addedKeys.add(correctedKey);
+                    addedKeys.add(originalKey);
 
                     if (waitingHandler != null) {
                         waitingHandler.increaseSecondaryProgressCounter();
@@ -477,7 +515,7 @@ public class ObjectsDB implements Serializable {
             if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
                 insertStatement.executeBatch();
                 insertStatement.clearParameters();
-                dbConnection.commit();
+                commitBatch();
             }
 
             tableContent.addAll(addedKeys);
@@ -526,7 +564,7 @@ public class ObjectsDB implements Serializable {
                         if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
                             updateStatement.executeBatch();
                             updateStatement.clearParameters();
-                            dbConnection.commit();
+                            commitBatch();
                             updateStatement.close();
                             updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
                             rowCounter = 0;
@@ -549,18 +587,108 @@ public class ObjectsDB implements Serializable {
             if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
                 updateStatement.executeBatch();
                 updateStatement.clearParameters();
-                dbConnection.commit();
+                commitBatch();
             }
 
             // close the statement
         } finally {
             updateStatement.close();
         }
-        dbConnection.setAutoCommit(true);
+        if (!inTransaction) {
+            dbConnection.setAutoCommit(true);
+        }
 
         dbMutex.release();
     }
 
+    /**
+     * Commits a batch of changes unless a transaction is open.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    private void commitBatch() throws SQLException {
+        if (!inTransaction) {
+            dbConnection.commit();
+        }
+    }
+
+    /**
+     * Opens a transaction: the changes made to the database are not committed
+     * until commitTransaction or endTransaction is called. If the application
+     * stops before, the changes are rolled back when the database is opened
+     * again.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public void beginTransaction() throws SQLException, InterruptedException {
+        dbMutex.acquire();
+        try {
+            if (!inTransaction) {
+                dbConnection.setAutoCommit(false);
+                inTransaction = true;
+            }
+        } finally {
+            dbMutex.release();
+        }
+    }
+
+    /**
+     * Commits the changes made since the transaction was opened or last
+     * committed along with the database attributes. The transaction remains
+     * open.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * writing in the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public void commitTransaction() throws SQLException, IOException, InterruptedException {
+        if (!inTransaction) {
+            throw new IllegalArgumentException("No transaction open in database " + dbName + ".");
+        }
+        saveAttributes();
+        dbMutex.acquire();
+        try {
+            dbConnection.commit();
+        } finally {
+            dbMutex.release();
+        }
+    }
+
+    /**
+     * Commits the changes made since the transaction was opened or last
+     * committed and closes the transaction.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurs while
+     * writing in the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public void endTransaction() throws SQLException, IOException, InterruptedException {
+        commitTransaction();
+        dbMutex.acquire();
+        try {
+            dbConnection.setAutoCommit(true);
+            inTransaction = false;
+        } finally {
+            dbMutex.release();
+        }
+    }
+
+    /**
+     * Indicates whether a transaction is open.
+     *
+     * @return a boolean indicating whether a transaction is open
+     */
+    public boolean isInTransaction() {
+        return inTransaction;
+    }
+
     /**
      * Loads all objects from a table in the cache.
      *
@@ -1347,7 +1475,7 @@ public class ObjectsDB implements Serializable {
             if (debugInteractions) {
                 System.out.println(System.currentTimeMillis() + " Updating object, table: " + tableName + ", key: " + objectKey);
             }
-            PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
+            PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + correctedKey + "'");
             try {
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
                 try {
@@ -1403,10 +1531,63 @@ public class ObjectsDB implements Serializable {
      * while interacting with the database.
      */
     private void loadAttributes() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        numericKeysMap = new HashMap<String, ArrayList<String>>();
+        savedNumericKeys = new HashMap<String, Integer>();
         if (hasTable(DB_ATTRIBUTES)) {
+            if (usedTables != null) {
+                usedTables.add(DB_ATTRIBUTES);
+            }
             longTableNames = (ArrayList<String>) retrieveObject(DB_ATTRIBUTES, LONG_TABLE_NAMES, true, false);
             longKeysMap = (HashMap<String, ArrayList<String>>) retrieveObject(DB_ATTRIBUTES, LONG_KEY_PREFIX, true, false);
+            keyDictionaries = null;
+            Boolean numericKeysAttribute = (Boolean) retrieveObject(DB_ATTRIBUTES, NUMERIC_KEYS, true, false);
+            numericKeys = numericKeysAttribute != null && numericKeysAttribute;
             usedTables = (HashSet<String>) retrieveObject(DB_ATTRIBUTES, USED_TABLES_TABLE, true, false);
+            if (numericKeys && hasTable(NUMERIC_KEYS_TABLE)) {
+                loadNumericKeys();
+            }
+        }
+    }
+
+    /**
+     * Loads the keys stored as numeric ids from the numeric keys table.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database.
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database.
+     */
+    private void loadNumericKeys() throws SQLException, InterruptedException {
+        dbMutex.acquire();
+        try {
+            Statement stmt = dbConnection.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery("SELECT KEY_TABLE, KEY_ID, ORIGINAL_KEY FROM " + NUMERIC_KEYS_TABLE + " ORDER BY KEY_ID");
+                try {
+                    while (results.next()) {
+                        String tableName = results.getString(1);
+                        long id = results.getLong(2);
+                        ArrayList<String> keys = numericKeysMap.get(tableName);
+                        if (keys == null) {
+                            keys = new ArrayList<String>();
+                            numericKeysMap.put(tableName, keys);
+                        }
+                        if (id != keys.size()) {
+                            throw new IllegalArgumentException("Numeric key " + id + " of table " + tableName + " is not consistent with the dictionary of size " + keys.size() + ".");
+                        }
+                        keys.add(results.getString(3));
+                    }
+                } finally {
+                    results.close();
+                }
+            } finally {
+                stmt.close();
+            }
+            for (String tableName : numericKeysMap.keySet()) {
+                savedNumericKeys.put(tableName, numericKeysMap.get(tableName).size());
+            }
+        } finally {
+            dbMutex.release();
         }
     }
 
@@ -1448,6 +1629,88 @@ public class ObjectsDB implements Serializable {
                 insertObject(DB_ATTRIBUTES, USED_TABLES_TABLE, usedTables, false);
             }
         }
+
+        // numeric keys
+        if (inDB(DB_ATTRIBUTES, NUMERIC_KEYS, false)) {
+            updateObject(DB_ATTRIBUTES, NUMERIC_KEYS, numericKeys, false);
+        } else {
+            insertObject(DB_ATTRIBUTES, NUMERIC_KEYS, numericKeys, false);
+        }
+        if (numericKeys) {
+            saveNumericKeys();
+        }
+    }
+
+    /**
+     * Saves the keys stored as numeric ids which were added since the last
+     * save in the numeric keys table.
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database.
+     * @throws InterruptedException exception thrown if a threading error occurs
+     * while interacting with the database.
+     */
+    private void saveNumericKeys() throws SQLException, InterruptedException {
+
+        if (!hasTable(NUMERIC_KEYS_TABLE)) {
+            Statement stmt = dbConnection.createStatement();
+            dbMutex.acquire();
+            try {
+                stmt.execute("CREATE table " + NUMERIC_KEYS_TABLE + " ("
+                        + "KEY_TABLE VARCHAR(" + VARCHAR_MAX_LENGTH + "),"
+                        + "KEY_ID BIGINT,"
+                        + "ORIGINAL_KEY clob"
+                        + ")");
+            } finally {
+                stmt.close();
+                dbMutex.release();
+            }
+        }
+
+        ArrayList<String> tableNames;
+        synchronized (this) {
+            tableNames = new ArrayList<String>(numericKeysMap.keySet());
+        }
+
+        dbMutex.acquire();
+
+        if (!inTransaction) {
+            dbConnection.setAutoCommit(false);
+        }
+
+        try {
+            PreparedStatement insertStatement = dbConnection.prepareStatement("INSERT INTO " + NUMERIC_KEYS_TABLE + " VALUES (?, ?, ?)");
+            try {
+                for (String tableName : tableNames) {
+
+                    KeyDictionary keyDictionary = getKeyDictionary(tableName, false);
+                    Integer nSaved = savedNumericKeys.get(tableName);
+                    int firstId = nSaved == null ? 0 : nSaved;
+                    int size = keyDictionary.size();
+
+                    for (int id = firstId; id < size; id++) {
+                        insertStatement.setString(1, tableName);
+                        insertStatement.setLong(2, id);
+                        insertStatement.setString(3, keyDictionary.getKey(id));
+                        insertStatement.addBatch();
+                    }
+
+                    if (size > firstId) {
+                        insertStatement.executeBatch();
+                        insertStatement.clearParameters();
+                        savedNumericKeys.put(tableName, size);
+                    }
+                }
+                commitBatch();
+            } finally {
+                insertStatement.close();
+            }
+        } finally {
+            if (!inTransaction) {
+                dbConnection.setAutoCommit(true);
+            }
+            dbMutex.release();
+        }
     }
 
     /**
@@ -1477,7 +1740,16 @@ public class ObjectsDB implements Serializable {
         }
         dbMutex.release();
 
-        if (dbConnection != null) {
+        if (dbConnection != null && inTransaction) {
+            // discard the changes made since the last commit of the transaction
+            try {
+                dbConnection.rollback();
+                dbConnection.setAutoCommit(true);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            inTransaction = false;
+        } else if (dbConnection != null) {
             // try to save the long key indexes
             try {
                 saveAttributes();
@@ -1660,6 +1932,31 @@ public class ObjectsDB implements Serializable {
         return tableName;
     }
 
+    /**
+     * Returns the original name of a table as given to correctTableName,
+     * without quotation marks.
+     *
+     * @param tableName the name of the table as stored in the database, with
+     * or without quotation marks
+     *
+     * @return the original table name
+     */
+    public String getOriginalTableName(String tableName) {
+        if (tableName.startsWith("\"") && tableName.endsWith("\"")) {
+            tableName = tableName.substring(1, tableName.length() - 1);
+        }
+        try {
+            int index = Integer.parseInt(tableName);
+            if (index >= 0 && index < longTableNames.size()) {
+                String longTableName = longTableNames.get(index);
+                tableName = longTableName.substring(1, longTableName.length() - 1);
+            }
+        } catch (NumberFormatException e) {
+            // not a long table name
+        }
+        return tableName;
+    }
+
     /**
      * Indexes the long keys by a number.
      *
@@ -1674,15 +1971,14 @@ public class ObjectsDB implements Serializable {
         //String correctedKey = key.replaceAll("[^\\dA-Za-z ]", "");
         String correctedKey = key;
         if (longKeysMap != null && !correctedKey.startsWith(LONG_KEY_PREFIX)) {
-            if (longKeysMap.containsKey(tableName) && longKeysMap.get(tableName).contains(key)) {
-                correctedKey = LONG_KEY_PREFIX + longKeysMap.get(tableName).indexOf(key);
-            } else if (key.length() >= MAX_KEY_LENGTH) { // @TODO: find the optimal value
-                if (!longKeysMap.containsKey(tableName)) {
-                    longKeysMap.put(tableName, new ArrayList<String>());
-                }
-                int index = longKeysMap.get(tableName).size();
-                longKeysMap.get(tableName).add(key);
-                correctedKey = LONG_KEY_PREFIX + index;
+            KeyDictionary keyDictionary = getKeyDictionary(tableName, false);
+            Long id = keyDictionary == null ? null : keyDictionary.getId(key);
+            if (id != null) {
+                correctedKey = LONG_KEY_PREFIX + id;
+            } else if (key.length() >= MAX_KEY_LENGTH // @TODO: find the optimal value
+                    || isNumericTable(tableName)) {
+                keyDictionary = getKeyDictionary(tableName, true);
+                correctedKey = LONG_KEY_PREFIX + keyDictionary.addKey(key);
             }
         }
 
@@ -1704,12 +2000,95 @@ public class ObjectsDB implements Serializable {
     public String getOriginalKey(String tableName, String correctedKey) {
 
         String subKey = correctedKey.substring(LONG_KEY_PREFIX.length());
+        String originalKey = null;
         try {
-            Integer index = new Integer(subKey);
-            return longKeysMap.get(tableName).get(index);
+            long id = Long.parseLong(subKey);
+            KeyDictionary keyDictionary = getKeyDictionary(tableName, false);
+            if (keyDictionary != null) {
+                originalKey = keyDictionary.getKey(id);
+            }
         } catch (Exception e) {
             throw new IllegalArgumentException("An error occurred when getting the original key of " + correctedKey + ".");
         }
+        if (originalKey == null) {
+            throw new IllegalArgumentException("An error occurred when getting the original key of " + correctedKey + ".");
+        }
+        return originalKey;
+    }
+
+    /**
+     * Returns the dictionary of the long keys of the given table.
+     *
+     * @param tableName the table name
+     * @param create if true the dictionary will be created if not existing
+     *
+     * @return the dictionary of the long keys of the given table, null if
+     * none and create is false
+     */
+    private synchronized KeyDictionary getKeyDictionary(String tableName, boolean create) {
+        if (keyDictionaries == null) {
+            keyDictionaries = new HashMap<String, KeyDictionary>(longKeysMap.size());
+        }
+        KeyDictionary keyDictionary = keyDictionaries.get(tableName);
+        if (keyDictionary == null) {
+            HashMap<String, ArrayList<String>> keysMap = isNumericTable(tableName) ? numericKeysMap : longKeysMap;
+            ArrayList<String> keys = keysMap.get(tableName);
+            if (keys == null) {
+                if (!create) {
+                    return null;
+                }
+                keys = new ArrayList<String>();
+                keysMap.put(tableName, keys);
+            }
+            keyDictionary = new KeyDictionary(keys);
+            keyDictionaries.put(tableName, keyDictionary);
+        }
+        return keyDictionary;
+    }
+
+    /**
+     * Indicates whether the keys of the given table are all stored as numeric
+     * ids.
+     *
+     * @param tableName the table name
+     *
+     * @return a boolean indicating whether the keys of the given table are all
+     * stored as numeric ids
+     */
+    private boolean isNumericTable(String tableName) {
+        return numericKeys && !tableName.equals(DB_ATTRIBUTES) && !tableName.equals(CONNECTION_LOG_TABLE);
+    }
+
+    /**
+     * Indicates whether all keys are stored in the database as numeric ids.
+     *
+     * @return a boolean indicating whether all keys are stored in the
+     * database as numeric ids
+     */
+    public boolean isNumericKeys() {
+        return numericKeys;
+    }
+
+    /**
+     * Sets whether all keys shall be stored in the database as numeric ids.
+     * The keys are then translated using a dictionary which is saved
+     * incrementally in the database upon commit: only the keys added since the
+     * last commit are written. The whole dictionary is kept in memory. This
+     * must be set before objects are stored.
+     *
+     * @param numericKeys a boolean indicating whether all keys shall be stored
+     * in the database as numeric ids
+     */
+    public void setNumericKeys(boolean numericKeys) {
+        if (numericKeys != this.numericKeys && usedTables != null) {
+            for (String tableName : usedTables) {
+                if (!tableName.equals(DB_ATTRIBUTES) && !tableName.equals(CONNECTION_LOG_TABLE)) {
+                    throw new IllegalArgumentException("The key space cannot be changed after objects were stored in the database.");
+                }
+            }
+        }
+        this.numericKeys = numericKeys;
+        keyDictionaries = null;
     }
 
     /**
@@ -4,6 +4,7 @@ import com.compomics.util.Util;
 import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.IdentificationMatch.MatchType;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
@@ -22,6 +23,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class contains identification results.
@@ -1495,6 +1502,192 @@ public abstract class Identification extends ExperimentObject {
         }
     }
 
+    /**
+     * Creates the peptides and protein instances based on the spectrum matches
+     * using multiple threads. The spectrum matches are processed in parallel,
+     * the peptide and protein matches are aggregated in memory and saved in
+     * the database by batch at the end. Note that the attribute bestAssumption
+     * should be set for every spectrum match at this point, and that the
+     * peptide and protein matches are not in the cache after this operation.
+     *
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void buildPeptidesAndProteins(final WaitingHandler waitingHandler, final SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(getSpectrumIdentificationSize());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        final ConcurrentHashMap<String, PeptideMatch> peptideMatches = new ConcurrentHashMap<String, PeptideMatch>();
+        final ConcurrentHashMap<String, ProteinMatch> proteinMatches = new ConcurrentHashMap<String, ProteinMatch>();
+
+        ArrayList<String> spectrumMatchKeys = new ArrayList<String>(getSpectrumIdentificationSize());
+        for (HashSet<String> spectrumFileKeys : spectrumIdentificationMap.values()) {
+            spectrumMatchKeys.addAll(spectrumFileKeys);
+        }
+
+        int batchSize = 1000;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>(spectrumMatchKeys.size() / batchSize + 1);
+
+        try {
+            for (int start = 0; start < spectrumMatchKeys.size(); start += batchSize) {
+                final ArrayList<String> batch = new ArrayList<String>(spectrumMatchKeys.subList(start, Math.min(start + batchSize, spectrumMatchKeys.size())));
+                futures.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        for (String spectrumMatchKey : batch) {
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            buildPeptidesAndProteins(spectrumMatchKey, sequenceMatchingPreferences, peptideMatches, proteinMatches);
+                        }
+                        return batch.size();
+                    }
+                }));
+            }
+            pool.shutdown();
+
+            for (Future<Integer> future : futures) {
+                try {
+                    int nProcessed = future.get();
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter(nProcessed);
+                    }
+                } catch (ExecutionException e) {
+                    throw Util.getExecutionException(e, "An error occurred while building the peptides and proteins.", SQLException.class, IOException.class, ClassNotFoundException.class, InterruptedException.class);
+                }
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        HashMap<String, Object> peptideMatchesToSave = new HashMap<String, Object>(peptideMatches);
+        peptideIdentification.addAll(peptideMatches.keySet());
+        peptideMatches.clear();
+        identificationDB.addPeptideMatches(peptideMatchesToSave, null);
+        peptideMatchesToSave.clear();
+
+        HashMap<String, Object> proteinMatchesToSave = new HashMap<String, Object>(proteinMatches);
+        for (ProteinMatch proteinMatch : proteinMatches.values()) {
+            String proteinKey = proteinMatch.getKey();
+            if (!proteinIdentification.contains(proteinKey)) {
+                proteinIdentification.add(proteinKey);
+                for (String protein : proteinMatch.getTheoreticProteinsAccessions()) {
+                    HashSet<String> proteinKeys = proteinMap.get(protein);
+                    if (proteinKeys == null) {
+                        proteinKeys = new HashSet<String>();
+                        proteinMap.put(protein, proteinKeys);
+                    }
+                    proteinKeys.add(proteinKey);
+                }
+            }
+        }
+        proteinMatches.clear();
+        identificationDB.addProteinMatches(proteinMatchesToSave, null);
+    }
+
+    /**
+     * Adds the peptide and protein of the given spectrum match to the given
+     * maps. Peptide and protein matches already in the identification are
+     * retrieved from the database. The method has no effect if the best
+     * peptide assumption is null.
+     *
+     * @param spectrumMatchKey the key of the spectrum match
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param peptideMatches the peptide matches indexed by key
+     * @param proteinMatches the protein matches indexed by key
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    private void buildPeptidesAndProteins(String spectrumMatchKey, SequenceMatchingPreferences sequenceMatchingPreferences,
+            ConcurrentHashMap<String, PeptideMatch> peptideMatches, ConcurrentHashMap<String, ProteinMatch> proteinMatches)
+            throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        SpectrumMatch spectrumMatch = getSpectrumMatch(spectrumMatchKey);
+        if (spectrumMatch == null) {
+            throw new IllegalArgumentException("Spectrum match " + spectrumMatchKey + " not found.");
+        }
+        if (spectrumMatch.getBestPeptideAssumption() != null) {
+            Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+            if (peptide.getParentProteinsNoRemapping() == null) {
+                peptide.getParentProteins(sequenceMatchingPreferences);
+            }
+            String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+
+            PeptideMatch peptideMatch = peptideMatches.get(peptideKey);
+            if (peptideMatch == null) {
+                if (peptideIdentification.contains(peptideKey)) {
+                    peptideMatch = getPeptideMatch(peptideKey);
+                    if (peptideMatch == null) {
+                        throw new IllegalArgumentException("Peptide match " + peptideKey + " not found.");
+                    }
+                } else {
+                    peptideMatch = new PeptideMatch(peptide, peptideKey);
+                }
+                PeptideMatch previousMatch = peptideMatches.putIfAbsent(peptideKey, peptideMatch);
+                if (previousMatch != null) {
+                    peptideMatch = previousMatch;
+                }
+            }
+            synchronized (peptideMatch) {
+                peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
+            }
+
+            String proteinKey = ProteinMatch.getProteinMatchKey(peptide);
+
+            ProteinMatch proteinMatch = proteinMatches.get(proteinKey);
+            if (proteinMatch == null) {
+                if (proteinIdentification.contains(proteinKey)) {
+                    proteinMatch = getProteinMatch(proteinKey);
+                    if (proteinMatch == null) {
+                        throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
+                    }
+                } else {
+                    proteinMatch = new ProteinMatch(peptide, peptideKey);
+                    if (!proteinMatch.getKey().equals(proteinKey)) {
+                        throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + proteinMatch.getKey() + "."
+                                + " Peptide: " + peptideKey + " found in spectrum " + spectrumMatchKey + ".");
+                    }
+                }
+                ProteinMatch previousMatch = proteinMatches.putIfAbsent(proteinKey, proteinMatch);
+                if (previousMatch != null) {
+                    proteinMatch = previousMatch;
+                }
+            }
+            synchronized (proteinMatch) {
+                if (!proteinMatch.getPeptideMatchesKeys().contains(peptideKey)) {
+                    proteinMatch.addPeptideMatchKey(peptideKey);
+                }
+            }
+        }
+    }
+
     /**
      * Creates the peptides and protein instances based on the given spectrum
      * match. Note that only the best peptide assumption is used, the method has
@@ -1611,6 +1804,99 @@ public abstract class Identification extends ExperimentObject {
         }
     }
 
+    /**
+     * Starts an incremental import: the matches added are committed to the
+     * database in a single transaction at every checkpoint set using
+     * setImportCheckpoint. If the import is interrupted, the matches added
+     * after the last checkpoint are discarded and the import can be resumed
+     * from the checkpoint using resumeIncrementalImport.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void startIncrementalImport() throws SQLException, InterruptedException {
+        identificationDB.beginTransaction();
+    }
+
+    /**
+     * Resumes an interrupted incremental import. The connection to the
+     * database of the interrupted import must be established without
+     * deleting the old database. The spectrum matches committed at the last
+     * checkpoint are restored in the identification, the position where to
+     * resume every file can be retrieved using getImportCheckpoint.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public synchronized void resumeIncrementalImport() throws SQLException, InterruptedException {
+        HashMap<String, HashSet<String>> spectrumKeys = identificationDB.restoreTables();
+        spectrumIdentificationMap.clear();
+        spectrumIdentificationMap.putAll(spectrumKeys);
+        identificationDB.beginTransaction();
+    }
+
+    /**
+     * Commits the matches added since the last checkpoint along with the given
+     * checkpoint. No match should be added while setting the checkpoint.
+     *
+     * @param importCheckpoint the import checkpoint
+     * @param waitingHandler the waiting handler displaying the progress, can
+     * be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing in the database
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void setImportCheckpoint(ImportCheckpoint importCheckpoint, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        identificationDB.setImportCheckpoint(importCheckpoint, waitingHandler);
+    }
+
+    /**
+     * Returns the last checkpoint committed for the given identification
+     * file, null if none.
+     *
+     * @param fileName the name of the identification file
+     *
+     * @return the last checkpoint committed for the given file
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the checkpoint
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public ImportCheckpoint getImportCheckpoint(String fileName) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        return identificationDB.getImportCheckpoint(fileName);
+    }
+
+    /**
+     * Commits the matches added since the last checkpoint and ends the
+     * incremental import.
+     *
+     * @param waitingHandler the waiting handler displaying the progress, can
+     * be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing in the database
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void finishIncrementalImport(WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        identificationDB.endTransaction(waitingHandler);
+    }
+
     /**
      * Getter for the identification method used.
      *
@@ -1942,6 +2228,176 @@ public abstract class Identification extends ExperimentObject {
         return new ProteinMatchesIterator(this, proteinParameters, loadPeptides, peptideParameters, loadPsms, psmParameters, waitingHandler);
     }
 
+    /**
+     * Returns PSM iterators splitting all PSMs by spectrum file and key
+     * ranges. The iterators are independent and load their matches in the
+     * background, they can hence be processed by different threads without
+     * contention. Using more splits than threads balances the load when the
+     * splits are processed by a thread pool. The number of iterators returned
+     * can exceed the number of splits by the number of spectrum files.
+     *
+     * @param nSplits the number of splits
+     * @param psmParameters the parameters to load along with the matches
+     * @param loadAssumptions if true the assumptions will be loaded as well
+     * @param waitingHandler the waiting handler
+     *
+     * @return PSM iterators covering all PSMs
+     */
+    public ArrayList<PsmIterator> getPsmIterators(int nSplits, ArrayList<UrParameter> psmParameters, boolean loadAssumptions, WaitingHandler waitingHandler) {
+        int splitSize = getSplitSize(getSpectrumIdentificationSize(), nSplits);
+        ArrayList<PsmIterator> result = new ArrayList<PsmIterator>(nSplits);
+        for (String spectrumFile : getOrderedSpectrumFileNames()) {
+            ArrayList<String> spectrumKeys = new ArrayList<String>(getSpectrumIdentification(spectrumFile));
+            for (ArrayList<String> keys : splitKeys(spectrumKeys, splitSize)) {
+                result.add(new PsmIterator(spectrumFile, keys, this, psmParameters, loadAssumptions, waitingHandler));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns peptide matches iterators splitting all peptides by key ranges.
+     * The iterators are independent and load their matches in the background,
+     * they can hence be processed by different threads without contention.
+     *
+     * @param nSplits the number of splits
+     * @param peptideParameters the peptide parameters to load along with the
+     * matches
+     * @param loadPsms if true PSMs of the peptides will be loaded as well
+     * @param psmParameters the PSM parameters to load along with the PSMs
+     * @param waitingHandler the waiting handler
+     *
+     * @return peptide matches iterators covering all peptides
+     */
+    public ArrayList<PeptideMatchesIterator> getPeptideMatchesIterators(int nSplits, ArrayList<UrParameter> peptideParameters,
+            boolean loadPsms, ArrayList<UrParameter> psmParameters, WaitingHandler waitingHandler) {
+        ArrayList<String> peptideKeys = new ArrayList<String>(getPeptideIdentification());
+        ArrayList<PeptideMatchesIterator> result = new ArrayList<PeptideMatchesIterator>(nSplits);
+        for (ArrayList<String> keys : splitKeys(peptideKeys, getSplitSize(peptideKeys.size(), nSplits))) {
+            result.add(new PeptideMatchesIterator(keys, this, peptideParameters, loadPsms, psmParameters, waitingHandler));
+        }
+        return result;
+    }
+
+    /**
+     * Returns protein matches iterators splitting all proteins by key ranges.
+     * The iterators are independent and load their matches in the background,
+     * they can hence be processed by different threads without contention.
+     *
+     * @param nSplits the number of splits
+     * @param proteinParameters the protein parameters to load along with the
+     * matches
+     * @param loadPeptides if true the peptides corresponding to these proteins
+     * will be batch loaded along with the proteins
+     * @param peptideParameters the parameters to load along with the peptide
+     * matches
+     * @param loadPsms if true the PSMs of the peptides will be batch loaded
+     * along with the matches
+     * @param psmParameters the parameters to load along with the matches
+     * @param waitingHandler the waiting handler
+     *
+     * @return protein matches iterators covering all proteins
+     */
+    public ArrayList<ProteinMatchesIterator> getProteinMatchesIterators(int nSplits, ArrayList<UrParameter> proteinParameters, boolean loadPeptides,
+            ArrayList<UrParameter> peptideParameters, boolean loadPsms, ArrayList<UrParameter> psmParameters, WaitingHandler waitingHandler) {
+        ArrayList<String> proteinKeys = new ArrayList<String>(getProteinIdentification());
+        ArrayList<ProteinMatchesIterator> result = new ArrayList<ProteinMatchesIterator>(nSplits);
+        for (ArrayList<String> keys : splitKeys(proteinKeys, getSplitSize(proteinKeys.size(), nSplits))) {
+            result.add(new ProteinMatchesIterator(keys, this, proteinParameters, loadPeptides, peptideParameters, loadPsms, psmParameters, waitingHandler));
+        }
+        return result;
+    }
+
+    /**
+     * Builds a table of the scores of all spectrum identification assumptions.
+     * The spectrum matches are read once, the table can then be used for
+     * validation without accessing the database.
+     *
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * used to determine whether a peptide is decoy
+     * @param precursorMzs the measured precursor m/z indexed by spectrum key,
+     * can be null, the precursor error of the spectra not found is set to NaN
+     * @param waitingHandler the waiting handler displaying the progress and
+     * allowing canceling the process, can be null
+     *
+     * @return the table of scores, null if the process was canceled
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public PsmScoreTable getPsmScoreTable(SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+            HashMap<String, Double> precursorMzs, WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        PsmScoreTable psmScoreTable = new PsmScoreTable();
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(getSpectrumIdentificationSize());
+        }
+
+        PsmIterator psmIterator = getPsmIterator(true, null, waitingHandler);
+        SpectrumMatch spectrumMatch;
+        while ((spectrumMatch = psmIterator.next()) != null) {
+            String spectrumKey = spectrumMatch.getKey();
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = getAssumptions(spectrumKey, true);
+            if (assumptions != null) {
+                Double precursorMz = precursorMzs != null ? precursorMzs.get(spectrumKey) : null;
+                psmScoreTable.addAssumptions(spectrumKey, assumptions, precursorMz, searchParameters, sequenceMatchingPreferences);
+            }
+            if (waitingHandler != null) {
+                if (waitingHandler.isRunCanceled()) {
+                    return null;
+                }
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return psmScoreTable;
+    }
+
+    /**
+     * Returns the number of keys per split.
+     *
+     * @param nKeys the total number of keys
+     * @param nSplits the number of splits
+     *
+     * @return the number of keys per split
+     */
+    private static int getSplitSize(int nKeys, int nSplits) {
+        if (nSplits < 1) {
+            throw new IllegalArgumentException("The number of splits must be positive.");
+        }
+        return Math.max(1, (nKeys + nSplits - 1) / nSplits);
+    }
+
+    /**
+     * Splits the given keys in consecutive ranges of the given size.
+     *
+     * @param keys the keys to split
+     * @param splitSize the maximal number of keys per range
+     *
+     * @return the ranges of keys
+     */
+    private static ArrayList<ArrayList<String>> splitKeys(ArrayList<String> keys, int splitSize) {
+        ArrayList<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
+        for (int start = 0; start < keys.size(); start += splitSize) {
+            int end = Math.min(start + splitSize, keys.size());
+            result.add(new ArrayList<String>(keys.subList(start, end)));
+        }
+        return result;
+    }
+
     /**
      * Returns the identification database object used to interact with the
      * back-end database.
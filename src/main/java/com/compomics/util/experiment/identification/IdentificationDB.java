@@ -2,6 +2,7 @@ package com.compomics.util.experiment.identification;
 
 import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.experiment.identification.matches.CompactAssumptions;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
@@ -13,6 +14,7 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * This class uses a database to manage identification matches.
@@ -58,6 +60,10 @@ public class IdentificationDB implements Serializable {
      * The suffix for a PSM parameters table.
      */
     private static String psmParametersTableSuffix = "_psm_parameters";
+    /**
+     * The name of the table where the import checkpoints are stored.
+     */
+    private static String importCheckpointsTableName = "import_checkpoints";
     /**
      * List of all raw assumptions tables.
      */
@@ -228,7 +234,9 @@ public class IdentificationDB implements Serializable {
     }
 
     /**
-     * Updates the map of raw assumptions for a given spectrum.
+     * Updates the map of raw assumptions for a given spectrum. The assumptions
+     * are stored in a compact representation where identical peptides are
+     * shared when serialized, the given assumptions are not modified.
      *
      * @param spectrumKey the key of the spectrum
      * @param rawAssumptionsMap map of assumptions
@@ -241,7 +249,7 @@ public class IdentificationDB implements Serializable {
      */
     public void updateRawAssumptions(String spectrumKey, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> rawAssumptionsMap) throws SQLException, IOException, InterruptedException {
         String tableName = getRawAssumptionTable(spectrumKey);
-        objectsDB.updateObject(tableName, spectrumKey, rawAssumptionsMap);
+        objectsDB.updateObject(tableName, spectrumKey, new CompactAssumptions(rawAssumptionsMap, true));
     }
 
     /**
@@ -477,11 +485,18 @@ public class IdentificationDB implements Serializable {
     public HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> getRawAssumptions(String key, boolean useDB) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         String tableName = getRawAssumptionTable(key);
         checkTable(rawAssumptionsTables, tableName);
-        return (HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>) objectsDB.retrieveObject(tableName, key, useDB);
+        Object object = objectsDB.retrieveObject(tableName, key, useDB);
+        if (object instanceof CompactAssumptions) {
+            return ((CompactAssumptions) object).getAssumptionsMap();
+        }
+        // assumptions stored before the compact representation
+        return (HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>) object;
     }
 
     /**
-     * Adds raw assumptions for a given match to the database.
+     * Adds raw assumptions for a given match to the database. The assumptions
+     * are stored in a compact representation where identical peptides are
+     * shared when serialized, the given assumptions are not modified.
      *
      * @param spectrumKey the key of the spectrum
      * @param assumptions map of all assumptions
@@ -496,7 +511,7 @@ public class IdentificationDB implements Serializable {
     public void addRawAssumptions(String spectrumKey, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions) throws SQLException, IOException, InterruptedException {
         String tableName = getRawAssumptionTable(spectrumKey);
         checkTable(rawAssumptionsTables, tableName);
-        objectsDB.insertObject(tableName, spectrumKey, assumptions, true);
+        objectsDB.insertObject(tableName, spectrumKey, new CompactAssumptions(assumptions, true), true);
     }
 
     /**
@@ -588,6 +603,25 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(peptideTableName, peptideMatch.getKey(), peptideMatch, true);
     }
 
+    /**
+     * Adds a batch of peptide matches to the database. Matches already in the
+     * database are updated. The matches are not put in the cache.
+     *
+     * @param peptideMatches the peptide matches indexed by key
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addPeptideMatches(HashMap<String, Object> peptideMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.insertObjects(peptideTableName, peptideMatches, waitingHandler);
+    }
+
     /**
      * Returns the desired protein match.
      *
@@ -623,6 +657,25 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(proteinTableName, proteinMatch.getKey(), proteinMatch, true);
     }
 
+    /**
+     * Adds a batch of protein matches to the database. Matches already in the
+     * database are updated. The matches are not put in the cache.
+     *
+     * @param proteinMatches the protein matches indexed by key
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addProteinMatches(HashMap<String, Object> proteinMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.insertObjects(proteinTableName, proteinMatches, waitingHandler);
+    }
+
     /**
      * Adds an identification match to the database.
      *
@@ -1410,6 +1463,138 @@ public class IdentificationDB implements Serializable {
         return objectsDB;
     }
 
+    /**
+     * Opens a transaction on the database: the changes are only committed at
+     * every import checkpoint.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public void beginTransaction() throws SQLException, InterruptedException {
+        objectsDB.beginTransaction();
+    }
+
+    /**
+     * Saves the objects in cache to the database, stores the given checkpoint
+     * and commits the transaction. The checkpoint is hence committed together
+     * with all matches imported before it. No match should be added while
+     * saving the checkpoint.
+     *
+     * @param importCheckpoint the import checkpoint
+     * @param waitingHandler the waiting handler displaying the progress, can
+     * be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing in the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public void setImportCheckpoint(ImportCheckpoint importCheckpoint, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.getObjectsCache().saveCache(waitingHandler, true);
+        String tableName = objectsDB.correctTableName(importCheckpointsTableName);
+        if (!objectsDB.hasTable(tableName)) {
+            objectsDB.addTable(tableName);
+        }
+        String key = importCheckpoint.getFileName();
+        if (objectsDB.inDB(tableName, key, false)) {
+            objectsDB.updateObject(tableName, key, importCheckpoint, false);
+        } else {
+            objectsDB.insertObject(tableName, key, importCheckpoint, false);
+        }
+        objectsDB.commitTransaction();
+    }
+
+    /**
+     * Returns the last checkpoint committed for the given identification
+     * file, null if none.
+     *
+     * @param fileName the name of the identification file
+     *
+     * @return the last checkpoint committed for the given file
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the checkpoint
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public ImportCheckpoint getImportCheckpoint(String fileName) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        String tableName = objectsDB.correctTableName(importCheckpointsTableName);
+        if (!objectsDB.hasTable(tableName)) {
+            return null;
+        }
+        return (ImportCheckpoint) objectsDB.retrieveObject(tableName, fileName, true, false);
+    }
+
+    /**
+     * Saves the objects in cache to the database, commits and closes the
+     * transaction.
+     *
+     * @param waitingHandler the waiting handler displaying the progress, can
+     * be null
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing in the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public void endTransaction(WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.getObjectsCache().saveCache(waitingHandler, true);
+        objectsDB.endTransaction();
+    }
+
+    /**
+     * Restores the lists of match tables from the database, typically after
+     * reconnecting to the database of an interrupted import, and returns the
+     * keys of the spectrum matches stored.
+     *
+     * @return the keys of the spectrum matches stored indexed by spectrum file
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    public HashMap<String, HashSet<String>> restoreTables() throws SQLException, InterruptedException {
+        HashMap<String, HashSet<String>> spectrumKeys = new HashMap<String, HashSet<String>>();
+        for (String storedName : objectsDB.getTables()) {
+            String originalName = objectsDB.getOriginalTableName(storedName);
+            String tableName = objectsDB.correctTableName(originalName);
+            if (originalName.endsWith(psmTableSuffix)) {
+                addIfAbsent(psmTables, tableName);
+                String spectrumFile = originalName.substring(0, originalName.length() - psmTableSuffix.length());
+                spectrumKeys.put(spectrumFile, new HashSet<String>(objectsDB.getTableContent(tableName)));
+            } else if (originalName.endsWith(rawAssumptionsTableSuffix)) {
+                addIfAbsent(rawAssumptionsTables, tableName);
+            } else if (originalName.endsWith(assumptionsTableSuffix)) {
+                addIfAbsent(assumptionsTables, tableName);
+            } else if (originalName.endsWith(psmParametersTableSuffix)) {
+                addIfAbsent(psmParametersTables, tableName);
+            } else if (originalName.endsWith(peptideParametersTableSuffix)) {
+                addIfAbsent(peptideParametersTables, tableName);
+            } else if (originalName.endsWith(proteinParametersTableSuffix)) {
+                addIfAbsent(proteinParametersTables, tableName);
+            }
+        }
+        return spectrumKeys;
+    }
+
+    /**
+     * Adds a table name to a list of tables if not already present.
+     *
+     * @param tableList the list of tables
+     * @param tableName the table name
+     */
+    private synchronized void addIfAbsent(ArrayList<String> tableList, String tableName) {
+        if (!tableList.contains(tableName)) {
+            tableList.add(tableName);
+        }
+    }
+
     /**
      * Finishes queued operations and closes the db connection.
      *
@@ -0,0 +1,103 @@
+package com.compomics.util.experiment.identification;
+
+import java.io.Serializable;
+
+/**
+ * Position reached in an identification file during an incremental import.
+ * The checkpoint is committed to the database together with the matches
+ * imported before it, the import can hence be resumed from there.
+ *
+ * @author Marc Vaudel
+ */
+public class ImportCheckpoint implements Serializable {
+
+    /**
+     * The version UID for Serialization/Deserialization compatibility.
+     */
+    static final long serialVersionUID = 4817405928771358620L;
+    /**
+     * The name of the identification file.
+     */
+    private final String fileName;
+    /**
+     * The offset in bytes in the file up to which the content was imported.
+     */
+    private final long byteOffset;
+    /**
+     * The key of the last spectrum imported, can be null.
+     */
+    private final String lastSpectrumKey;
+    /**
+     * The number of spectra imported from the file.
+     */
+    private final long nSpectra;
+    /**
+     * Boolean indicating whether the file was entirely imported.
+     */
+    private final boolean complete;
+
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the identification file
+     * @param byteOffset the offset in bytes in the file up to which the content
+     * was imported
+     * @param lastSpectrumKey the key of the last spectrum imported, can be null
+     * @param nSpectra the number of spectra imported from the file
+     * @param complete boolean indicating whether the file was entirely
+     * imported
+     */
+    public ImportCheckpoint(String fileName, long byteOffset, String lastSpectrumKey, long nSpectra, boolean complete) {
+        this.fileName = fileName;
+        this.byteOffset = byteOffset;
+        this.lastSpectrumKey = lastSpectrumKey;
+        this.nSpectra = nSpectra;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the name of the identification file.
+     *
+     * @return the name of the identification file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the offset in bytes in the file up to which the content was
+     * imported.
+     *
+     * @return the offset in bytes
+     */
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    /**
+     * Returns the key of the last spectrum imported, null if not set.
+     *
+     * @return the key of the last spectrum imported
+     */
+    public String getLastSpectrumKey() {
+        return lastSpectrumKey;
+    }
+
+    /**
+     * Returns the number of spectra imported from the file.
+     *
+     * @return the number of spectra imported from the file
+     */
+    public long getNSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Indicates whether the file was entirely imported.
+     *
+     * @return a boolean indicating whether the file was entirely imported
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,578 @@
+package com.compomics.util.experiment.identification;
+
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.math.PermutationSort;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Append-only table of the scores of the spectrum identification assumptions.
+ * Every assumption is a row and the advocate, rank, score, decoy flag, charge,
+ * precursor error and spectrum are stored in primitive columns. Scores can
+ * hence be scanned and sorted for validation, FDR estimation or distribution
+ * fitting without deserializing the spectrum matches. The table can be saved
+ * to a file, when loaded the columns are read directly from the memory mapped
+ * file and the table is read only.
+ *
+ * The table is not synchronized: rows must be added by a single thread, once
+ * filled or loaded the table can be read by multiple threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoreTable {
+
+    /**
+     * Marker at the beginning of the file.
+     */
+    private static final int MAGIC = 0x50534d53;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The default initial capacity.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Boolean indicating whether the table was loaded from a file and is read
+     * only.
+     */
+    private final boolean readOnly;
+    /**
+     * The keys of the spectra indexed by id.
+     */
+    private final ArrayList<String> spectrumKeys;
+    /**
+     * The ids of the spectrum keys, null for read only tables.
+     */
+    private final HashMap<String, Integer> spectrumKeyIds;
+    /**
+     * The number of rows.
+     */
+    private int size = 0;
+    /**
+     * The spectrum id column.
+     */
+    private IntBuffer spectrumIds;
+    /**
+     * The advocate column.
+     */
+    private IntBuffer advocates;
+    /**
+     * The rank column.
+     */
+    private IntBuffer ranks;
+    /**
+     * The score column.
+     */
+    private DoubleBuffer scores;
+    /**
+     * The decoy column, 1 for decoy and 0 for target.
+     */
+    private ByteBuffer decoys;
+    /**
+     * The charge column.
+     */
+    private IntBuffer charges;
+    /**
+     * The precursor error column.
+     */
+    private DoubleBuffer precursorErrors;
+
+    /**
+     * Constructor for an empty table.
+     */
+    public PsmScoreTable() {
+        readOnly = false;
+        spectrumKeys = new ArrayList<String>();
+        spectrumKeyIds = new HashMap<String, Integer>();
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Loads a table saved using the save method. The columns are memory mapped
+     * and read from the file when accessed, the returned table is read only.
+     *
+     * @param file the file to load
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file or if the file is not a PSM score table
+     */
+    public PsmScoreTable(File file) throws IOException {
+
+        readOnly = true;
+        spectrumKeyIds = null;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            if (randomAccessFile.readInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a PSM score table.");
+            }
+            int headerLength = randomAccessFile.readInt();
+            byte[] header = new byte[headerLength];
+            randomAccessFile.readFully(header);
+
+            DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(header));
+            int version = headerStream.readInt();
+            if (version != VERSION) {
+                throw new IOException("PSM score table version " + version + " not supported.");
+            }
+            int nRows = headerStream.readInt();
+            int nKeys = headerStream.readInt();
+            spectrumKeys = new ArrayList<String>(nKeys);
+            for (int i = 0; i < nKeys; i++) {
+                spectrumKeys.add(headerStream.readUTF());
+            }
+            size = nRows;
+
+            // the mapping remains valid after the channel is closed
+            FileChannel channel = randomAccessFile.getChannel();
+            long position = 8 + headerLength;
+            spectrumIds = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nRows).asIntBuffer();
+            position += 4L * nRows;
+            advocates = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nRows).asIntBuffer();
+            position += 4L * nRows;
+            ranks = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nRows).asIntBuffer();
+            position += 4L * nRows;
+            scores = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * nRows).asDoubleBuffer();
+            position += 8L * nRows;
+            decoys = channel.map(FileChannel.MapMode.READ_ONLY, position, nRows);
+            position += nRows;
+            charges = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * nRows).asIntBuffer();
+            position += 4L * nRows;
+            precursorErrors = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * nRows).asDoubleBuffer();
+
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Saves the table to the given file.
+     *
+     * @param file the file where to save the table
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void save(File file) throws IOException {
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(VERSION);
+        header.writeInt(size);
+        int nKeys = spectrumKeys.size();
+        header.writeInt(nKeys);
+        for (int i = 0; i < nKeys; i++) {
+            header.writeUTF(spectrumKeys.get(i));
+        }
+        header.close();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(headerBytes.size());
+            headerBytes.writeTo(out);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(spectrumIds.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(advocates.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(ranks.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(scores.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeByte(decoys.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(charges.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(precursorErrors.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Allocates the columns with the given capacity, keeping the existing
+     * rows.
+     *
+     * @param capacity the capacity
+     */
+    private void allocate(int capacity) {
+        if (spectrumIds == null) {
+            spectrumIds = IntBuffer.allocate(capacity);
+            advocates = IntBuffer.allocate(capacity);
+            ranks = IntBuffer.allocate(capacity);
+            scores = DoubleBuffer.allocate(capacity);
+            decoys = ByteBuffer.allocate(capacity);
+            charges = IntBuffer.allocate(capacity);
+            precursorErrors = DoubleBuffer.allocate(capacity);
+        } else {
+            spectrumIds = IntBuffer.wrap(Arrays.copyOf(spectrumIds.array(), capacity));
+            advocates = IntBuffer.wrap(Arrays.copyOf(advocates.array(), capacity));
+            ranks = IntBuffer.wrap(Arrays.copyOf(ranks.array(), capacity));
+            scores = DoubleBuffer.wrap(Arrays.copyOf(scores.array(), capacity));
+            decoys = ByteBuffer.wrap(Arrays.copyOf(decoys.array(), capacity));
+            charges = IntBuffer.wrap(Arrays.copyOf(charges.array(), capacity));
+            precursorErrors = DoubleBuffer.wrap(Arrays.copyOf(precursorErrors.array(), capacity));
+        }
+    }
+
+    /**
+     * Appends a row to the table.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param advocate the advocate of the assumption
+     * @param rank the rank of the assumption
+     * @param score the score of the assumption
+     * @param decoy boolean indicating whether the assumption is a decoy
+     * @param charge the charge of the assumption
+     * @param precursorError the precursor error, NaN if not available
+     *
+     * @return the index of the row
+     */
+    public int add(String spectrumKey, int advocate, int rank, double score, boolean decoy, int charge, double precursorError) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Rows cannot be added to a PSM score table loaded from a file.");
+        }
+        if (size == spectrumIds.capacity()) {
+            if (size == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Maximal number of rows reached in the PSM score table.");
+            }
+            allocate((int) Math.min(Integer.MAX_VALUE, 2L * size));
+        }
+        Integer spectrumId = spectrumKeyIds.get(spectrumKey);
+        if (spectrumId == null) {
+            spectrumId = spectrumKeys.size();
+            spectrumKeys.add(spectrumKey);
+            spectrumKeyIds.put(spectrumKey, spectrumId);
+        }
+        int row = size;
+        spectrumIds.put(row, spectrumId);
+        advocates.put(row, advocate);
+        ranks.put(row, rank);
+        scores.put(row, score);
+        decoys.put(row, decoy ? (byte) 1 : (byte) 0);
+        charges.put(row, charge);
+        precursorErrors.put(row, precursorError);
+        size++;
+        return row;
+    }
+
+    /**
+     * Appends the given assumptions of a spectrum to the table. Tag
+     * assumptions are considered as target.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param assumptions the assumptions of the spectrum as found in the
+     * spectrum match
+     * @param precursorMz the measured precursor m/z, null if not available
+     * @param searchParameters the search parameters used to compute the
+     * precursor error
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * used to determine whether a peptide is decoy
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping a peptide to the proteins
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred while mapping a peptide to the proteins
+     * @throws SQLException exception thrown whenever an error occurred while
+     * mapping a peptide to the proteins
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while mapping a peptide to the proteins
+     */
+    public void addAssumptions(String spectrumKey, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions, Double precursorMz,
+            SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences)
+            throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+        for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions : assumptions.values()) {
+            for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : advocateAssumptions.values()) {
+                for (SpectrumIdentificationAssumption assumption : assumptionsAtScore) {
+                    boolean decoy = assumption instanceof PeptideAssumption
+                            && ((PeptideAssumption) assumption).getPeptide().isDecoy(sequenceMatchingPreferences);
+                    double precursorError = Double.NaN;
+                    if (precursorMz != null) {
+                        precursorError = assumption.getDeltaMass(precursorMz, searchParameters.isPrecursorAccuracyTypePpm(),
+                                searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
+                    }
+                    int charge = assumption.getIdentificationCharge() != null ? assumption.getIdentificationCharge().value : 0;
+                    Double score = assumption.getScore();
+                    add(spectrumKey, assumption.getAdvocate(), assumption.getRank(), score != null ? score : Double.NaN, decoy, charge, precursorError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the table was loaded from a file and is read only.
+     *
+     * @return a boolean indicating whether the table is read only
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the key of the spectrum of the given row.
+     *
+     * @param row the row
+     *
+     * @return the key of the spectrum
+     */
+    public String getSpectrumKey(int row) {
+        return spectrumKeys.get(spectrumIds.get(row));
+    }
+
+    /**
+     * Returns the advocate of the given row.
+     *
+     * @param row the row
+     *
+     * @return the advocate
+     */
+    public int getAdvocate(int row) {
+        return advocates.get(row);
+    }
+
+    /**
+     * Returns the rank of the given row.
+     *
+     * @param row the row
+     *
+     * @return the rank
+     */
+    public int getRank(int row) {
+        return ranks.get(row);
+    }
+
+    /**
+     * Returns the score of the given row.
+     *
+     * @param row the row
+     *
+     * @return the score
+     */
+    public double getScore(int row) {
+        return scores.get(row);
+    }
+
+    /**
+     * Returns a boolean indicating whether the given row is a decoy.
+     *
+     * @param row the row
+     *
+     * @return a boolean indicating whether the given row is a decoy
+     */
+    public boolean isDecoy(int row) {
+        return decoys.get(row) != 0;
+    }
+
+    /**
+     * Returns the charge of the given row.
+     *
+     * @param row the row
+     *
+     * @return the charge
+     */
+    public int getCharge(int row) {
+        return charges.get(row);
+    }
+
+    /**
+     * Returns the precursor error of the given row, NaN if not available.
+     *
+     * @param row the row
+     *
+     * @return the precursor error
+     */
+    public double getPrecursorError(int row) {
+        return precursorErrors.get(row);
+    }
+
+    /**
+     * Indicates whether the given row passes the given filters.
+     *
+     * @param row the row
+     * @param advocate the advocate, null for all advocates
+     * @param maxRank the maximal rank
+     * @param decoy the decoy status, null for both targets and decoys
+     *
+     * @return a boolean indicating whether the row passes the filters
+     */
+    private boolean accept(int row, Integer advocate, int maxRank, Boolean decoy) {
+        return (advocate == null || advocates.get(row) == advocate)
+                && ranks.get(row) <= maxRank
+                && (decoy == null || isDecoy(row) == decoy)
+                && !Double.isNaN(scores.get(row));
+    }
+
+    /**
+     * Returns the scores of the rows passing the given filters in the order of
+     * the table.
+     *
+     * @param advocate the advocate, null for all advocates
+     * @param maxRank the maximal rank
+     * @param decoy the decoy status, null for both targets and decoys
+     *
+     * @return the scores
+     */
+    public double[] getScores(Integer advocate, int maxRank, Boolean decoy) {
+        double[] result = new double[size];
+        int n = 0;
+        for (int row = 0; row < size; row++) {
+            if (accept(row, advocate, maxRank, decoy)) {
+                result[n++] = scores.get(row);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the value of a score sorted in ascending order from the best to
+     * the worst score.
+     *
+     * @param score the score
+     * @param higherIsBetter boolean indicating whether higher scores are
+     * better
+     *
+     * @return the value to sort
+     */
+    private static double getValue(double score, boolean higherIsBetter) {
+        double value = higherIsBetter ? -score : score;
+        return value == 0 ? 0.0 : value;
+    }
+
+    /**
+     * Sorts the rows passing the filters from the best to the worst score and
+     * estimates their target-decoy q-values. The values array receives the
+     * scores as returned by getValue and the rows array the corresponding
+     * rows, both sorted from the best to the worst score. The q-values are
+     * returned in the same order.
+     *
+     * @param advocate the advocate, null for all advocates
+     * @param maxRank the maximal rank
+     * @param higherIsBetter boolean indicating whether higher scores are
+     * better
+     * @param values array of the size of the table where to store the sorted
+     * values
+     * @param rows array of the size of the table where to store the sorted
+     * rows
+     *
+     * @return the q-values of the sorted rows
+     */
+    private double[] getSortedQValues(Integer advocate, int maxRank, boolean higherIsBetter, double[] values, int[] rows) {
+
+        int n = 0;
+        for (int row = 0; row < size; row++) {
+            if (accept(row, advocate, maxRank, null)) {
+                values[n] = getValue(scores.get(row), higherIsBetter);
+                rows[n] = row;
+                n++;
+            }
+        }
+        PermutationSort.sort(values, rows, 0, n);
+
+        // FDR at every score level from the best to the worst
+        double[] qValues = new double[n];
+        int nTarget = 0, nDecoy = 0;
+        for (int i = 0; i < n;) {
+            int j = i;
+            while (j < n && values[j] == values[i]) {
+                if (isDecoy(rows[j])) {
+                    nDecoy++;
+                } else {
+                    nTarget++;
+                }
+                j++;
+            }
+            double fdr = nTarget == 0 ? 1.0 : Math.min(1.0, ((double) nDecoy) / nTarget);
+            for (int k = i; k < j; k++) {
+                qValues[k] = fdr;
+            }
+            i = j;
+        }
+
+        // q-value: lowest FDR at this level or a worse one
+        for (int i = n - 2; i >= 0; i--) {
+            qValues[i] = Math.min(qValues[i], qValues[i + 1]);
+        }
+        return qValues;
+    }
+
+    /**
+     * Returns the most permissive score threshold at which the target-decoy
+     * FDR is below the given value, null if no score reaches this FDR.
+     *
+     * @param advocate the advocate, null for all advocates
+     * @param maxRank the maximal rank
+     * @param fdr the FDR as a fraction
+     * @param higherIsBetter boolean indicating whether higher scores are
+     * better
+     *
+     * @return the score threshold
+     */
+    public Double getScoreThreshold(Integer advocate, int maxRank, double fdr, boolean higherIsBetter) {
+        double[] values = new double[size];
+        double[] qValues = getSortedQValues(advocate, maxRank, higherIsBetter, values, new int[size]);
+        for (int i = qValues.length - 1; i >= 0; i--) {
+            if (qValues[i] <= fdr) {
+                return higherIsBetter ? -values[i] : values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the target-decoy q-value of every row. Rows not passing the
+     * filters get NaN.
+     *
+     * @param advocate the advocate, null for all advocates
+     * @param maxRank the maximal rank
+     * @param higherIsBetter boolean indicating whether higher scores are
+     * better
+     *
+     * @return the q-values indexed by row
+     */
+    public double[] getQValues(Integer advocate, int maxRank, boolean higherIsBetter) {
+        int[] rows = new int[size];
+        double[] qValues = getSortedQValues(advocate, maxRank, higherIsBetter, new double[size], rows);
+        double[] result = new double[size];
+        Arrays.fill(result, Double.NaN);
+        for (int i = 0; i < qValues.length; i++) {
+            result[rows[i]] = qValues[i];
+        }
+        return result;
+    }
+}
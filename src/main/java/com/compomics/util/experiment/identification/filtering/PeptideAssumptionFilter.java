@@ -5,19 +5,29 @@ import com.compomics.util.Util;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.preferences.DigestionPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
 
 /**
@@ -316,6 +326,23 @@ public class PeptideAssumptionFilter implements Serializable {
      */
     public boolean validatePrecursor(PeptideAssumption assumption, String spectrumKey, SpectrumFactory spectrumFactory, SearchParameters searchParameters) throws IOException, MzMLUnmarshallerException, InterruptedException {
         double precursorMz = spectrumFactory.getPrecursorMz(spectrumKey);
+        return validatePrecursor(assumption, precursorMz, searchParameters);
+    }
+
+    /**
+     * Validates the mass deviation of a peptide assumption.
+     *
+     * @param assumption the considered peptide assumption
+     * @param precursorMz the m/z of the precursor of the spectrum
+     * @param searchParameters the search parameters
+     *
+     * @return a boolean indicating whether the given assumption passes the
+     * filter
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public boolean validatePrecursor(PeptideAssumption assumption, double precursorMz, SearchParameters searchParameters) throws InterruptedException {
         int isotopeNumber = assumption.getIsotopeNumber(precursorMz, searchParameters.getMinIsotopicCorrection(), searchParameters.getMaxIsotopicCorrection());
         if (minIsotopes != null && isotopeNumber < minIsotopes) {
             return false;
@@ -327,6 +354,308 @@ public class PeptideAssumptionFilter implements Serializable {
         return (maxMassDeviation <= 0 || Math.abs(mzDeviation) <= maxMassDeviation);
     }
 
+    /**
+     * Removes the peptide assumptions not passing the filter from the given
+     * spectrum matches. The assumptions are validated using a pool of
+     * threads. The precursor m/z of every spectrum is retrieved only once
+     * before the validation, and peptides of the same sequence are mapped to
+     * the proteins only once. Assumptions other than peptide assumptions are
+     * not filtered.
+     *
+     * @param spectrumMatches the spectrum matches to filter
+     * @param spectrumFactory the spectrum factory used to get the precursors,
+     * if null the precursors are not validated
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param peptideMapper the peptide mapper to use for peptide to protein
+     * mapping, if null the default peptide mapper of the sequence factory is
+     * used
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler displaying the progress on
+     * the secondary progress bar, can be null
+     *
+     * @return the number of assumptions removed
+     *
+     * @throws IOException if an IOException occurs
+     * @throws MzMLUnmarshallerException if an MzMLUnmarshallerException occurs
+     * while reading a spectrum
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public int filterAssumptions(Iterable<SpectrumMatch> spectrumMatches, SpectrumFactory spectrumFactory, final SearchParameters searchParameters,
+            final SequenceMatchingPreferences sequenceMatchingPreferences, final SequenceMatchingPreferences ptmSequenceMatchingPreferences,
+            PeptideMapper peptideMapper, int nThreads, final WaitingHandler waitingHandler)
+            throws IOException, MzMLUnmarshallerException, SQLException, ClassNotFoundException, InterruptedException {
+
+        final ArrayList<SpectrumMatch> matches = new ArrayList<SpectrumMatch>();
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+            matches.add(spectrumMatch);
+        }
+        final PeptideMapper mapper = peptideMapper != null ? peptideMapper : SequenceFactory.getInstance().getDefaultPeptideMapper();
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(2 * matches.size());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        // get the precursors beforehand, the spectrum factory is not accessed concurrently
+        final double[] precursorMzs = new double[matches.size()];
+        for (int i = 0; i < matches.size(); i++) {
+            precursorMzs[i] = spectrumFactory == null ? Double.NaN : spectrumFactory.getPrecursorMz(matches.get(i).getKey());
+        }
+
+        // one peptide per sequence to map to the proteins
+        final ConcurrentHashMap<String, Peptide> peptidesToMap = new ConcurrentHashMap<String, Peptide>();
+        final ConcurrentHashMap<String, ArrayList<String>> sequenceProteins = new ConcurrentHashMap<String, ArrayList<String>>();
+
+        int batchSize = 1000;
+        int nRemoved = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+
+            // validate the peptides, modifications and precursors
+            ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(matches.size() / batchSize + 1);
+            for (int start = 0; start < matches.size(); start += batchSize) {
+                final int batchStart = start;
+                final int batchEnd = Math.min(start + batchSize, matches.size());
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int removed = 0;
+                        for (int i = batchStart; i < batchEnd; i++) {
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            removed += filterAssumptions(matches.get(i), precursorMzs[i], searchParameters, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, peptidesToMap);
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
+                        }
+                        return removed;
+                    }
+                });
+            }
+            nRemoved += executeTasks(pool, tasks);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return nRemoved;
+            }
+
+            // map every sequence once
+            tasks = new ArrayList<Callable<Integer>>(peptidesToMap.size() / batchSize + 1);
+            final ArrayList<Peptide> peptides = new ArrayList<Peptide>(peptidesToMap.values());
+            for (int start = 0; start < peptides.size(); start += batchSize) {
+                final int batchStart = start;
+                final int batchEnd = Math.min(start + batchSize, peptides.size());
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        for (int i = batchStart; i < batchEnd; i++) {
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            Peptide peptide = peptides.get(i);
+                            sequenceProteins.put(peptide.getSequence(), peptide.getParentProteins(sequenceMatchingPreferences, mapper));
+                        }
+                        return 0;
+                    }
+                });
+            }
+            executeTasks(pool, tasks);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return nRemoved;
+            }
+
+            // validate the proteins
+            tasks = new ArrayList<Callable<Integer>>(matches.size() / batchSize + 1);
+            for (int start = 0; start < matches.size(); start += batchSize) {
+                final int batchStart = start;
+                final int batchEnd = Math.min(start + batchSize, matches.size());
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int removed = 0;
+                        for (int i = batchStart; i < batchEnd; i++) {
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            removed += filterProteins(matches.get(i), sequenceMatchingPreferences, mapper, sequenceProteins);
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
+                        }
+                        return removed;
+                    }
+                });
+            }
+            nRemoved += executeTasks(pool, tasks);
+
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return nRemoved;
+    }
+
+    /**
+     * Removes the peptide assumptions of a spectrum match not passing the
+     * peptide, modification and precursor filters. The peptides of the
+     * remaining assumptions which are not mapped to proteins are added to the
+     * given map if no other peptide of the same sequence is present.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param precursorMz the m/z of the precursor, NaN if not available
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param peptidesToMap the peptides to map to proteins indexed by sequence
+     *
+     * @return the number of assumptions removed
+     *
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private int filterAssumptions(SpectrumMatch spectrumMatch, double precursorMz, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, ConcurrentHashMap<String, Peptide> peptidesToMap) throws InterruptedException {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap == null) {
+            return 0;
+        }
+        int removed = 0;
+        Iterator<HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> advocateIterator = assumptionsMap.values().iterator();
+        while (advocateIterator.hasNext()) {
+            Iterator<ArrayList<SpectrumIdentificationAssumption>> scoreIterator = advocateIterator.next().values().iterator();
+            while (scoreIterator.hasNext()) {
+                Iterator<SpectrumIdentificationAssumption> assumptionIterator = scoreIterator.next().iterator();
+                while (assumptionIterator.hasNext()) {
+                    SpectrumIdentificationAssumption assumption = assumptionIterator.next();
+                    if (assumption instanceof PeptideAssumption) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                        Peptide peptide = peptideAssumption.getPeptide();
+                        if (!validatePeptide(peptide, sequenceMatchingPreferences, searchParameters.getDigestionPreferences())
+                                || !validateModifications(peptide, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, searchParameters.getPtmSettings())
+                                || !Double.isNaN(precursorMz) && !validatePrecursor(peptideAssumption, precursorMz, searchParameters)) {
+                            assumptionIterator.remove();
+                            removed++;
+                        } else if (peptide.getParentProteinsNoRemapping() == null) {
+                            peptidesToMap.putIfAbsent(peptide.getSequence(), peptide);
+                        }
+                    }
+                }
+            }
+        }
+        removeEmptyEntries(assumptionsMap);
+        return removed;
+    }
+
+    /**
+     * Removes the peptide assumptions of a spectrum match not passing the
+     * protein filter. Peptides not mapped to proteins are given the proteins
+     * mapped for their sequence.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param peptideMapper the peptide mapper to use for peptide to protein
+     * mapping
+     * @param sequenceProteins the proteins mapped indexed by peptide sequence
+     *
+     * @return the number of assumptions removed
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private int filterProteins(SpectrumMatch spectrumMatch, SequenceMatchingPreferences sequenceMatchingPreferences, PeptideMapper peptideMapper,
+            ConcurrentHashMap<String, ArrayList<String>> sequenceProteins) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap : assumptionsMap.values()) {
+            for (ArrayList<SpectrumIdentificationAssumption> assumptions : advocateMap.values()) {
+                Iterator<SpectrumIdentificationAssumption> assumptionIterator = assumptions.iterator();
+                while (assumptionIterator.hasNext()) {
+                    SpectrumIdentificationAssumption assumption = assumptionIterator.next();
+                    if (assumption instanceof PeptideAssumption) {
+                        Peptide peptide = ((PeptideAssumption) assumption).getPeptide();
+                        if (peptide.getParentProteinsNoRemapping() == null) {
+                            ArrayList<String> proteins = sequenceProteins.get(peptide.getSequence());
+                            if (proteins != null) {
+                                peptide.setParentProteins(new ArrayList<String>(proteins));
+                            }
+                        }
+                        if (!validateProteins(peptide, sequenceMatchingPreferences, peptideMapper)) {
+                            assumptionIterator.remove();
+                            removed++;
+                        }
+                    }
+                }
+            }
+        }
+        removeEmptyEntries(assumptionsMap);
+        return removed;
+    }
+
+    /**
+     * Removes the scores without assumptions and the advocates without scores
+     * from an assumptions map.
+     *
+     * @param assumptionsMap the assumptions map
+     */
+    private static void removeEmptyEntries(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+        Iterator<HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> advocateIterator = assumptionsMap.values().iterator();
+        while (advocateIterator.hasNext()) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = advocateIterator.next();
+            Iterator<ArrayList<SpectrumIdentificationAssumption>> scoreIterator = advocateMap.values().iterator();
+            while (scoreIterator.hasNext()) {
+                if (scoreIterator.next().isEmpty()) {
+                    scoreIterator.remove();
+                }
+            }
+            if (advocateMap.isEmpty()) {
+                advocateIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Executes the given tasks on the given pool and returns the sum of their
+     * results.
+     *
+     * @param pool the pool of threads
+     * @param tasks the tasks to execute
+     *
+     * @return the sum of the results of the tasks
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private static int executeTasks(ExecutorService pool, ArrayList<Callable<Integer>> tasks) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>(tasks.size());
+        for (Callable<Integer> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        int result = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                result += future.get();
+            } catch (ExecutionException e) {
+                throw Util.getExecutionException(e, "An error occurred while filtering the assumptions.", IOException.class, SQLException.class, ClassNotFoundException.class, InterruptedException.class);
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns a boolean indicating whether unknown PTMs shall be removed.
      *
@@ -0,0 +1,292 @@
+package com.compomics.util.experiment.identification.matches;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Compact storage of the assumptions of a spectrum. The assumptions are stored
+ * in an array sorted by advocate and score, the scores in a primitive array.
+ * Optionally, assumptions carrying identical peptides are serialized with a
+ * single shared peptide object, which is then stored only once. The given
+ * assumptions are not modified, the shared peptides are only found in the
+ * deserialized objects.
+ *
+ * @author Marc Vaudel
+ */
+public class CompactAssumptions implements Serializable {
+
+    /**
+     * The version UID for Serialization/Deserialization compatibility.
+     */
+    static final long serialVersionUID = 5160833373468932512L;
+    /**
+     * The advocates in ascending order.
+     */
+    private final int[] advocates;
+    /**
+     * The index of the first assumption of every advocate, the last element
+     * is the number of assumptions.
+     */
+    private final int[] advocateStarts;
+    /**
+     * The scores of the assumptions, in ascending order for every advocate.
+     */
+    private final double[] scores;
+    /**
+     * The assumptions, serialized in writeObject.
+     */
+    private transient SpectrumIdentificationAssumption[] assumptions;
+    /**
+     * Boolean indicating whether identical peptides should be shared when
+     * serialized.
+     */
+    private final boolean sharePeptides;
+
+    /**
+     * Constructor.
+     *
+     * @param assumptionsMap the assumptions map: advocate id &gt; score &gt;
+     * list of assumptions
+     * @param sharePeptides if true, the peptide assumptions carrying identical
+     * peptides are serialized with a single shared peptide object
+     */
+    public CompactAssumptions(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap, boolean sharePeptides) {
+
+        this.sharePeptides = sharePeptides;
+
+        advocates = new int[assumptionsMap.size()];
+        int nAssumptions = 0, i = 0;
+        for (Integer advocate : assumptionsMap.keySet()) {
+            advocates[i++] = advocate;
+            for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : assumptionsMap.get(advocate).values()) {
+                nAssumptions += assumptionsAtScore.size();
+            }
+        }
+        Arrays.sort(advocates);
+
+        advocateStarts = new int[advocates.length + 1];
+        scores = new double[nAssumptions];
+        assumptions = new SpectrumIdentificationAssumption[nAssumptions];
+
+        int index = 0;
+        for (int j = 0; j < advocates.length; j++) {
+            advocateStarts[j] = index;
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(advocates[j]);
+            ArrayList<Double> advocateScores = new ArrayList<Double>(advocateMap.keySet());
+            Collections.sort(advocateScores);
+            for (Double score : advocateScores) {
+                for (SpectrumIdentificationAssumption assumption : advocateMap.get(score)) {
+                    scores[index] = score;
+                    assumptions[index] = assumption;
+                    index++;
+                }
+            }
+        }
+        advocateStarts[advocates.length] = index;
+    }
+
+    /**
+     * Writes the assumptions after the other fields. When peptides are
+     * shared, the peptide assumptions carrying a peptide identical to one
+     * already written are replaced by copies carrying this peptide.
+     *
+     * @param out the object output stream
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the object
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        if (!sharePeptides) {
+            out.writeObject(assumptions);
+            return;
+        }
+        SpectrumIdentificationAssumption[] sharedAssumptions = new SpectrumIdentificationAssumption[assumptions.length];
+        HashMap<String, ArrayList<Peptide>> peptidePool = new HashMap<String, ArrayList<Peptide>>();
+        for (int i = 0; i < assumptions.length; i++) {
+            SpectrumIdentificationAssumption assumption = assumptions[i];
+            if (assumption instanceof PeptideAssumption) {
+                PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                Peptide peptide = peptideAssumption.getPeptide();
+                Peptide sharedPeptide = getSharedPeptide(peptide, peptidePool);
+                if (sharedPeptide != peptide) {
+                    assumption = peptideAssumption.getCopy(sharedPeptide);
+                }
+            }
+            sharedAssumptions[i] = assumption;
+        }
+        out.writeObject(sharedAssumptions);
+    }
+
+    /**
+     * Reads the assumptions after the other fields.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the object
+     * @throws ClassNotFoundException exception thrown if a class of the
+     * serialized object is not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        assumptions = (SpectrumIdentificationAssumption[]) in.readObject();
+    }
+
+    /**
+     * Returns an identical peptide of the pool if any, adds the peptide to the
+     * pool and returns it otherwise.
+     *
+     * @param peptide the peptide
+     * @param peptidePool the peptides indexed by sequence
+     *
+     * @return the peptide to use
+     */
+    private static Peptide getSharedPeptide(Peptide peptide, HashMap<String, ArrayList<Peptide>> peptidePool) {
+        if (peptide == null || peptide.hasUrParams() || peptide.getVariantMatches() != null) {
+            return peptide;
+        }
+        ArrayList<Peptide> candidates = peptidePool.get(peptide.getSequence());
+        if (candidates == null) {
+            candidates = new ArrayList<Peptide>(1);
+            peptidePool.put(peptide.getSequence(), candidates);
+        }
+        for (Peptide candidate : candidates) {
+            if (candidate == peptide || isIdentical(candidate, peptide)) {
+                return candidate;
+            }
+        }
+        candidates.add(peptide);
+        return peptide;
+    }
+
+    /**
+     * Indicates whether two peptides of the same sequence are identical:
+     * same modifications with the same localization and same parent proteins.
+     *
+     * @param peptide1 the first peptide
+     * @param peptide2 the second peptide
+     *
+     * @return a boolean indicating whether the two peptides are identical
+     */
+    private static boolean isIdentical(Peptide peptide1, Peptide peptide2) {
+        ArrayList<String> proteins1 = peptide1.getParentProteinsNoRemapping();
+        ArrayList<String> proteins2 = peptide2.getParentProteinsNoRemapping();
+        if (proteins1 == null ? proteins2 != null : !proteins1.equals(proteins2)) {
+            return false;
+        }
+        ArrayList<ModificationMatch> modifications1 = peptide1.getModificationMatches();
+        ArrayList<ModificationMatch> modifications2 = peptide2.getModificationMatches();
+        int size1 = modifications1 == null ? 0 : modifications1.size();
+        int size2 = modifications2 == null ? 0 : modifications2.size();
+        if (size1 != size2) {
+            return false;
+        }
+        for (int i = 0; i < size1; i++) {
+            ModificationMatch modification1 = modifications1.get(i);
+            ModificationMatch modification2 = modifications2.get(i);
+            if (!modification1.isSameAs(modification2)
+                    || modification1.getModificationSite() != modification2.getModificationSite()
+                    || modification1.isConfident() != modification2.isConfident()
+                    || modification1.isInferred() != modification2.isInferred()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the assumptions as a map: advocate id &gt; score &gt; list of
+     * assumptions. The map is created upon every call, changes to the map are
+     * not reflected in this object.
+     *
+     * @return the assumptions map
+     */
+    public HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> getAssumptionsMap() {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> result = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(advocates.length);
+        for (int j = 0; j < advocates.length; j++) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>();
+            for (int i = advocateStarts[j]; i < advocateStarts[j + 1]; i++) {
+                ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore = advocateMap.get(scores[i]);
+                if (assumptionsAtScore == null) {
+                    assumptionsAtScore = new ArrayList<SpectrumIdentificationAssumption>(1);
+                    advocateMap.put(scores[i], assumptionsAtScore);
+                }
+                assumptionsAtScore.add(assumptions[i]);
+            }
+            result.put(advocates[j], advocateMap);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the advocates having assumptions in ascending order.
+     *
+     * @return the advocates
+     */
+    public int[] getAdvocates() {
+        return advocates.clone();
+    }
+
+    /**
+     * Returns the index of the given advocate in the advocates array, -1 if
+     * not found.
+     *
+     * @param advocate the advocate
+     *
+     * @return the index of the advocate
+     */
+    private int getAdvocateIndex(int advocate) {
+        int index = Arrays.binarySearch(advocates, advocate);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Returns the scores of the assumptions of the given advocate in ascending
+     * order.
+     *
+     * @param advocate the advocate
+     *
+     * @return the scores
+     */
+    public double[] getScores(int advocate) {
+        int index = getAdvocateIndex(advocate);
+        if (index == -1) {
+            return new double[0];
+        }
+        return Arrays.copyOfRange(scores, advocateStarts[index], advocateStarts[index + 1]);
+    }
+
+    /**
+     * Returns the assumptions of the given advocate sorted by ascending score.
+     *
+     * @param advocate the advocate
+     *
+     * @return the assumptions
+     */
+    public ArrayList<SpectrumIdentificationAssumption> getAssumptions(int advocate) {
+        int index = getAdvocateIndex(advocate);
+        if (index == -1) {
+            return new ArrayList<SpectrumIdentificationAssumption>(0);
+        }
+        return new ArrayList<SpectrumIdentificationAssumption>(Arrays.asList(assumptions).subList(advocateStarts[index], advocateStarts[index + 1]));
+    }
+
+    /**
+     * Returns the number of assumptions.
+     *
+     * @return the number of assumptions
+     */
+    public int size() {
+        return assumptions.length;
+    }
+}
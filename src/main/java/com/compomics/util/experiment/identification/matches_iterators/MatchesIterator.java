@@ -0,0 +1,342 @@
+package com.compomics.util.experiment.identification.matches_iterators;
+
+import com.compomics.util.Util;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Iterator on the keys of identification matches which loads the next matches
+ * in the identification cache in a background thread. The matches are loaded
+ * by batches, the given number of batches is loaded ahead of the iteration.
+ *
+ * @author Marc Vaudel
+ */
+public abstract class MatchesIterator {
+
+    /**
+     * The keys of the matches to iterate.
+     */
+    private final ArrayList<String> keys;
+    /**
+     * The total number of matches to load.
+     */
+    private final int nMatches;
+    /**
+     * The current index of the iterator.
+     */
+    private int index = -1;
+    /**
+     * The default batch size.
+     */
+    public final int defaultBatchSize = 1000;
+    /**
+     * The current batch size.
+     */
+    private int batchSize = defaultBatchSize;
+    /**
+     * The default number of batches loaded ahead of the iteration.
+     */
+    public final int defaultBatchesInFlight = 2;
+    /**
+     * The number of batches loaded ahead of the iteration.
+     */
+    private int batchesInFlight = defaultBatchesInFlight;
+    /**
+     * The index of the last key scheduled for loading.
+     */
+    private int loadingIndex = -1;
+    /**
+     * The batches scheduled for loading and not yet passed by the iteration.
+     */
+    private final LinkedList<Batch> batches = new LinkedList<Batch>();
+    /**
+     * The executor loading the batches, created when needed.
+     */
+    private ExecutorService pool = null;
+    /**
+     * The waiting handler.
+     */
+    protected final WaitingHandler waitingHandler;
+    /**
+     * The time when the first match was requested in nanoseconds.
+     */
+    private long startTime = -1;
+    /**
+     * The number of keys returned.
+     */
+    private final AtomicLong nReturned = new AtomicLong();
+    /**
+     * The time spent waiting for batches to be loaded in nanoseconds.
+     */
+    private final AtomicLong stallTime = new AtomicLong();
+    /**
+     * The time spent loading batches in nanoseconds.
+     */
+    private final AtomicLong loadingTime = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param keys the keys of the matches to iterate
+     * @param waitingHandler the waiting handler
+     */
+    protected MatchesIterator(ArrayList<String> keys, WaitingHandler waitingHandler) {
+        this.keys = keys;
+        nMatches = keys.size();
+        this.waitingHandler = waitingHandler;
+    }
+
+    /**
+     * Loads the matches of the given keys in the identification cache along
+     * with the desired parameters. Executed in a background thread.
+     *
+     * @param keysInBatch the keys of the matches to load
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    protected abstract void loadMatches(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+
+    /**
+     * Returns the key of the next match and makes sure that it is loaded in
+     * the identification cache. Null if the iterator is done iterating.
+     *
+     * @return the key of the next match
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    protected String nextKey() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        int threadIndex;
+        Future<Object> future = null;
+
+        synchronized (this) {
+            threadIndex = ++index;
+            if (threadIndex >= nMatches) {
+                return null;
+            }
+            if (startTime == -1) {
+                startTime = System.nanoTime();
+            }
+            scheduleBatches(threadIndex);
+            Iterator<Batch> it = batches.iterator();
+            while (it.hasNext()) {
+                Batch batch = it.next();
+                if (batch.lastIndex < threadIndex) {
+                    if (batch.future.isDone()) {
+                        it.remove();
+                    }
+                } else if (batch.firstIndex <= threadIndex) {
+                    future = batch.future;
+                    break;
+                }
+            }
+        }
+
+        if (future != null) {
+            if (future.isDone()) {
+                getResult(future);
+            } else {
+                long start = System.nanoTime();
+                getResult(future);
+                stallTime.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        nReturned.incrementAndGet();
+        return keys.get(threadIndex);
+    }
+
+    /**
+     * Schedules the loading of batches until the given number of batches is
+     * loaded ahead of the given index.
+     *
+     * @param threadIndex the index of the iteration
+     */
+    private void scheduleBatches(int threadIndex) {
+        int nAhead = 0;
+        for (Batch batch : batches) {
+            if (batch.lastIndex >= threadIndex) {
+                nAhead++;
+            }
+        }
+        while (loadingIndex < nMatches - 1 && (nAhead < batchesInFlight || loadingIndex < threadIndex)) {
+            int firstIndex = loadingIndex + 1;
+            int lastIndex = Math.min(loadingIndex + batchSize, nMatches - 1);
+            final ArrayList<String> keysInBatch = new ArrayList<String>(keys.subList(firstIndex, lastIndex + 1));
+            if (pool == null) {
+                // the thread stops when idle so that iterators not entirely consumed do not retain it
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Matches iterator loading");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                executor.allowCoreThreadTimeOut(true);
+                pool = executor;
+            }
+            Future<Object> future = pool.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                        long start = System.nanoTime();
+                        loadMatches(keysInBatch);
+                        loadingTime.addAndGet(System.nanoTime() - start);
+                    }
+                    return null;
+                }
+            });
+            batches.add(new Batch(firstIndex, lastIndex, future));
+            loadingIndex = lastIndex;
+            nAhead++;
+        }
+        if (loadingIndex == nMatches - 1 && pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the loading of a batch and throws the exception encountered,
+     * if any.
+     *
+     * @param future the future of the batch loading
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while retrieving the match
+     */
+    private void getResult(Future<Object> future) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw Util.getExecutionException(e, "An error occurred while loading the matches.", SQLException.class, IOException.class, ClassNotFoundException.class, InterruptedException.class);
+        }
+    }
+
+    /**
+     * Set the batch size.
+     *
+     * @param batchSize the batch size
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the number of batches loaded ahead of the iteration.
+     *
+     * @param batchesInFlight the number of batches loaded ahead of the
+     * iteration
+     */
+    public synchronized void setBatchesInFlight(int batchesInFlight) {
+        this.batchesInFlight = batchesInFlight;
+    }
+
+    /**
+     * Returns the number of matches returned so far.
+     *
+     * @return the number of matches returned so far
+     */
+    public long getNMatchesReturned() {
+        return nReturned.get();
+    }
+
+    /**
+     * Returns the number of matches returned per second since the first match
+     * was requested.
+     *
+     * @return the number of matches returned per second
+     */
+    public synchronized double getThroughput() {
+        if (startTime == -1) {
+            return 0;
+        }
+        double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+        return seconds > 0 ? nReturned.get() / seconds : 0;
+    }
+
+    /**
+     * Returns the time spent by the consumers waiting for batches to be loaded
+     * in milliseconds, summed over the consumer threads.
+     *
+     * @return the time spent waiting for batches to be loaded
+     */
+    public long getStallTime() {
+        return stallTime.get() / 1000000;
+    }
+
+    /**
+     * Returns the time spent loading batches in the background in
+     * milliseconds.
+     *
+     * @return the time spent loading batches
+     */
+    public long getLoadingTime() {
+        return loadingTime.get() / 1000000;
+    }
+
+    /**
+     * A batch of matches scheduled for loading.
+     */
+    private static class Batch {
+
+        /**
+         * The index of the first key of the batch.
+         */
+        private final int firstIndex;
+        /**
+         * The index of the last key of the batch.
+         */
+        private final int lastIndex;
+        /**
+         * The future of the batch loading.
+         */
+        private final Future<Object> future;
+
+        /**
+         * Constructor.
+         *
+         * @param firstIndex the index of the first key of the batch
+         * @param lastIndex the index of the last key of the batch
+         * @param future the future of the batch loading
+         */
+        public Batch(int firstIndex, int lastIndex, Future<Object> future) {
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.future = future;
+        }
+    }
+}
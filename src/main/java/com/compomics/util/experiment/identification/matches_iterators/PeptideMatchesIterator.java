@@ -7,7 +7,6 @@ import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
 
 /**
  * An iterator for peptide matches.
@@ -15,16 +14,12 @@ import java.util.concurrent.Semaphore;
  * @author Marc Vaudel
  * @author Harald Barsnes
  */
-public class PeptideMatchesIterator {
+public class PeptideMatchesIterator extends MatchesIterator {
 
     /**
      * The identification where to get the matches from.
      */
     private final Identification identification;
-    /**
-     * The keys of the matches to load.
-     */
-    private final ArrayList<String> peptideKeys;
     /**
      * The peptides parameters to load along with the matches.
      */
@@ -38,48 +33,6 @@ public class PeptideMatchesIterator {
      * The PSM parameters to load along with the matches.
      */
     private final ArrayList<UrParameter> psmParameters;
-    /**
-     * The total number of matches to load.
-     */
-    private final int nMatches;
-    /**
-     * The current index of the iterator.
-     */
-    private int index = -1;
-    /**
-     * The default batch size.
-     */
-    public final int defaultBatchSize = 1000;
-    /**
-     * The current batch size.
-     */
-    private int batchSize = defaultBatchSize;
-    /**
-     * The current index of the batch loading.
-     */
-    private int loadingIndex = -1;
-    /**
-     * Boolean indicating whether a thread is buffering.
-     */
-    private boolean buffering = false;
-    /**
-     * Mutex for the buffering.
-     */
-    private Semaphore bufferingMutex = new Semaphore(1);
-    /**
-     * The default margin to use to start batch loading before the loading index
-     * is reached.
-     */
-    public final double defaultMargin = 0.1;
-    /**
-     * The margin to use to start batch loading before the loading index is
-     * reached.
-     */
-    private double margin = defaultMargin;
-    /**
-     * The waiting handler.
-     */
-    private WaitingHandler waitingHandler;
 
     /**
      * Constructor.
@@ -95,21 +48,16 @@ public class PeptideMatchesIterator {
      */
     public PeptideMatchesIterator(ArrayList<String> peptideKeys, Identification identification, ArrayList<UrParameter> peptideParameters,
             boolean loadPsms, ArrayList<UrParameter> psmParameters, WaitingHandler waitingHandler) {
+        super(peptideKeys != null ? peptideKeys : new ArrayList<String>(identification.getPeptideIdentification()), waitingHandler);
         this.identification = identification;
-        if (peptideKeys == null) {
-            this.peptideKeys = new ArrayList<String>(identification.getPeptideIdentification());
-        } else {
-            this.peptideKeys = peptideKeys;
-        }
-        nMatches = this.peptideKeys.size();
         this.peptidesParameters = peptideParameters;
         this.loadPsms = loadPsms;
         this.psmParameters = psmParameters;
-        this.waitingHandler = waitingHandler;
         if (peptideKeys != null) {
             // adapt the batch size to avoid the hanging of the progress bar
-            batchSize = Math.max(50, peptideKeys.size() / 100);
+            int batchSize = Math.max(50, peptideKeys.size() / 100);
             batchSize = Math.min(1000, Math.max(batchSize, peptideKeys.size() / 1000));
+            setBatchSize(batchSize);
         }
     }
 
@@ -143,8 +91,9 @@ public class PeptideMatchesIterator {
     }
 
     /**
-     * Returns the next match and updates the buffer. Null if the iterator is
-     * done iterating.
+     * Returns the next match. The next matches are loaded in the
+     * identification cache in the background. Null if the iterator is done
+     * iterating.
      *
      * @return the next match
      *
@@ -158,130 +107,54 @@ public class PeptideMatchesIterator {
      * occurred while retrieving the match
      */
     public PeptideMatch next() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-        int threadIndex = incrementIndex();
-        if (threadIndex < nMatches) {
-            checkBuffer();
-            String key = peptideKeys.get(threadIndex);
-            PeptideMatch match = identification.getPeptideMatch(key);
-            return match;
+        String key = nextKey();
+        if (key == null) {
+            return null;
         }
-        return null;
+        return identification.getPeptideMatch(key);
     }
 
-    /**
-     * Makes sure that the next matches are buffered in the identification
-     * cache.
-     *
-     * @throws SQLException exception thrown whenever an error occurred while
-     * interacting with the matches database
-     * @throws IOException exception thrown whenever an error occurred while
-     * interacting with the matches database
-     * @throws ClassNotFoundException exception thrown whenever an error
-     * occurred while deserializing a match from the database
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while retrieving the match
-     */
-    private void checkBuffer() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        if (!buffering) {
-
-            int trigger = loadingIndex - ((int) (margin * batchSize));
-
-            if (index >= trigger) {
-
-                bufferingMutex.acquire();
-
-                trigger = loadingIndex - ((int) (margin * batchSize));
+    @Override
+    protected void loadMatches(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-                if (index >= trigger) {
+        identification.loadPeptideMatches(keysInBatch, waitingHandler, false);
 
-                    buffering = true;
-
-                    int newLoadingIndex = Math.min(loadingIndex + batchSize, nMatches - 1);
-                    ArrayList<String> keysInBatch = new ArrayList<String>(peptideKeys.subList(loadingIndex + 1, newLoadingIndex + 1));
-                    identification.loadPeptideMatches(keysInBatch, waitingHandler, false);
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-
-                    if (peptidesParameters != null) {
-                        for (UrParameter urParameter : peptidesParameters) {
-                            if (urParameter == null) {
-                                throw new IllegalArgumentException("Parameter to batch load is null.");
-                            }
-                            identification.loadPeptideMatchParameters(keysInBatch, urParameter, waitingHandler, false);
-
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-
-                    ArrayList<String> psmKeys = null;
-                    if (loadPsms || psmParameters != null) {
-                        psmKeys = new ArrayList<String>(batchSize);
-                        for (String peptideKey : keysInBatch) {
-                            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                            psmKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
-                        }
-                    }
-                    if (loadPsms) {
-                        identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
-                    }
-                    if (psmParameters != null) {
-                        for (UrParameter urParameter : psmParameters) {
-                            identification.loadSpectrumMatchParameters(psmKeys, urParameter, waitingHandler, false);
-
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-
-                    loadingIndex = newLoadingIndex;
-                    trigger += (int) (margin * batchSize / 2);
-                    trigger = Math.max(0, trigger);
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-                    if (index < trigger) {
-                        if (batchSize > defaultBatchSize) {
-                            batchSize = Math.max(defaultBatchSize, (int) 0.9 * batchSize);
-                        } else if (margin > defaultMargin) {
-                            margin = Math.max(defaultMargin, 0.9 * margin);
-                        }
-                    }
+        if (peptidesParameters != null) {
+            for (UrParameter urParameter : peptidesParameters) {
+                if (urParameter == null) {
+                    throw new IllegalArgumentException("Parameter to batch load is null.");
                 }
+                identification.loadPeptideMatchParameters(keysInBatch, urParameter, waitingHandler, false);
 
-                if (!bufferingMutex.hasQueuedThreads()) {
-                    buffering = false;
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
                 }
-                bufferingMutex.release();
-            }
-        } else if (index == loadingIndex) {
-            margin *= 1.1;
-            if (margin >= 0.25) {
-                batchSize *= 1.1;
-                margin = defaultMargin;
             }
         }
-    }
 
-    /**
-     * Increments the index of the iterator.
-     *
-     * @return an integer with value the incremented index
-     */
-    private synchronized int incrementIndex() {
-        int localIndex = ++index;
-        return localIndex;
-    }
+        ArrayList<String> psmKeys = null;
+        if (loadPsms || psmParameters != null) {
+            psmKeys = new ArrayList<String>(keysInBatch.size());
+            for (String peptideKey : keysInBatch) {
+                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                psmKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
+            }
+        }
+        if (loadPsms) {
+            identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
+        }
+        if (psmParameters != null) {
+            for (UrParameter urParameter : psmParameters) {
+                identification.loadSpectrumMatchParameters(psmKeys, urParameter, waitingHandler, false);
 
-    /**
-     * Set the batch size.
-     *
-     * @param batchSize the batch size
-     */
-    public void setBatchSize(int batchSize) {
-        this.batchSize = batchSize;
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+        }
     }
 }
@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation;
 
+import com.compomics.util.Util;
 import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.Ms2pipFeature;
 import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.PTM;
@@ -24,6 +25,10 @@ import com.compomics.util.experiment.identification.peptide_fragmentation.models
 import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.features.generic.AAPropertyFeature;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class computes the ms2PIP features from a peptide.
@@ -85,24 +90,187 @@ public class FeaturesGenerator {
     public int[] getComplementaryIonsFeatures(Peptide peptide, int charge, int ionIndex) {
 
         char[] peptideSequence = peptide.getSequence().toCharArray();
+        char[] reversedSequence = getReversedSequence(peptideSequence);
+        ArrayList<ModificationMatch> reversedModificationMatches = getReversedModificationMatches(peptide.getModificationMatches(), peptideSequence.length);
+
+        return getIonsFeatures(reversedSequence, reversedModificationMatches, charge, ionIndex);
+    }
+
+    /**
+     * Returns the ms2pip features of all forward and complementary ions of the
+     * given peptides at the given charges in a single matrix. The peptide
+     * attributes are computed once per peptide and the features which do not
+     * depend on the ion are computed once per peptide. The peptides are
+     * distributed on the given number of threads.
+     *
+     * @param peptides the peptides
+     * @param charges the charge of every peptide
+     * @param nThreads the number of threads to use
+     *
+     * @return the ms2pip features of all ions of the given peptides
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public FeaturesMatrix getIonsFeatures(final ArrayList<Peptide> peptides, final int[] charges, int nThreads) throws InterruptedException {
+
+        if (peptides.size() != charges.length) {
+            throw new IllegalArgumentException(charges.length + " charges provided for " + peptides.size() + " peptides.");
+        }
+
+        int nPeptides = peptides.size();
+        int[] sequenceLengths = new int[nPeptides];
+        for (int i = 0; i < nPeptides; i++) {
+            sequenceLengths[i] = peptides.get(i).getSequence().length();
+        }
+
+        final FeaturesMatrix featuresMatrix = new FeaturesMatrix(featuresMap.getnFeatures(), sequenceLengths);
+        final FeaturesLayout featuresLayout = new FeaturesLayout();
+
+        if (nThreads <= 1 || nPeptides < 2) {
+            fillIonsFeatures(peptides, charges, 0, nPeptides, featuresMatrix, featuresLayout);
+            return featuresMatrix;
+        }
+
+        // Distribute the peptides in more batches than threads to balance the load
+        int batchSize = Math.max(1, nPeptides / (4 * nThreads));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try {
+            for (int start = 0; start < nPeptides; start += batchSize) {
+                final int batchStart = start;
+                final int batchEnd = Math.min(start + batchSize, nPeptides);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillIonsFeatures(peptides, charges, batchStart, batchEnd, featuresMatrix, featuresLayout);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw Util.getExecutionException(e, "An error occurred while generating the features.");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return featuresMatrix;
+    }
+
+    /**
+     * Fills the features matrix with the features of the ions of the given
+     * range of peptides.
+     *
+     * @param peptides the peptides
+     * @param charges the charge of every peptide
+     * @param start the index of the first peptide, inclusive
+     * @param end the index of the last peptide, exclusive
+     * @param featuresMatrix the features matrix to fill
+     * @param featuresLayout the layout of the features
+     */
+    private void fillIonsFeatures(ArrayList<Peptide> peptides, int[] charges, int start, int end, FeaturesMatrix featuresMatrix, FeaturesLayout featuresLayout) {
+
+        int[] forwardIonsFeatures = featuresMatrix.getForwardIonsFeatures();
+        int[] complementaryIonsFeatures = featuresMatrix.getComplementaryIonsFeatures();
+
+        for (int i = start; i < end; i++) {
+
+            if (featuresMatrix.getnIons(i) > 0) {
+
+                Peptide peptide = peptides.get(i);
+                int charge = charges[i];
+                int firstRow = featuresMatrix.getRow(i, 0);
+                char[] peptideSequence = peptide.getSequence().toCharArray();
+                ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+
+                fillIonsFeatures(peptideSequence, modificationMatches, charge, featuresLayout, forwardIonsFeatures, firstRow);
+
+                char[] reversedSequence = getReversedSequence(peptideSequence);
+                ArrayList<ModificationMatch> reversedModificationMatches = getReversedModificationMatches(modificationMatches, peptideSequence.length);
+
+                fillIonsFeatures(reversedSequence, reversedModificationMatches, charge, featuresLayout, complementaryIonsFeatures, firstRow);
+            }
+        }
+    }
+
+    /**
+     * Fills the given matrix with the features of all ions of the given
+     * sequence with modifications at the given charge. The features which do
+     * not depend on the ion are copied from the first ion.
+     *
+     * @param peptideSequence the peptide sequence as char array
+     * @param modificationMatches the modification matches
+     * @param charge the charge
+     * @param featuresLayout the layout of the features
+     * @param matrix the matrix to fill
+     * @param firstRow the row of the first ion
+     */
+    private void fillIonsFeatures(char[] peptideSequence, ArrayList<ModificationMatch> modificationMatches, int charge, FeaturesLayout featuresLayout, int[] matrix, int firstRow) {
+
+        PeptideAttributes peptideAttributes = new PeptideAttributes(peptideSequence, modificationMatches, featuresLayout.peptideProperties,
+                featuresLayout.forwardIonProperties, featuresLayout.complementaryIonProperties, featuresLayout.individualAaProperties);
+
+        Ms2pipFeature[] features = featuresLayout.features;
+        boolean[] ionDependent = featuresLayout.ionDependent;
+        int nFeatures = features.length;
+        int firstRowOffset = firstRow * nFeatures;
+        int nIons = peptideSequence.length - 1;
+
+        for (int ionIndex = 0; ionIndex < nIons; ionIndex++) {
+
+            int rowOffset = firstRowOffset + ionIndex * nFeatures;
+
+            for (int featureIndex = 0; featureIndex < nFeatures; featureIndex++) {
+
+                if (ionIndex == 0 || ionDependent[featureIndex]) {
+                    matrix[rowOffset + featureIndex] = getFeatureValue(features[featureIndex], peptideSequence, charge, peptideAttributes, ionIndex);
+                } else {
+                    matrix[rowOffset + featureIndex] = matrix[firstRowOffset + featureIndex];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the given sequence reversed.
+     *
+     * @param peptideSequence the peptide sequence as char array
+     *
+     * @return the reversed sequence
+     */
+    private char[] getReversedSequence(char[] peptideSequence) {
+
         int sequenceLength = peptideSequence.length;
         char[] reversedSequence = new char[sequenceLength];
         for (int i = 0; i < sequenceLength; i++) {
             reversedSequence[i] = peptideSequence[sequenceLength - i - 1];
         }
-        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
-        ArrayList<ModificationMatch> reversedModificationMatches;
-        if (modificationMatches != null) {
-            reversedModificationMatches = new ArrayList<ModificationMatch>(modificationMatches.size());
-            for (ModificationMatch modificationMatch : modificationMatches) {
-                ModificationMatch reversedModificationMatch = new ModificationMatch(modificationMatch.getTheoreticPtm(), modificationMatch.isVariable(), sequenceLength - modificationMatch.getModificationSite() + 1);
-                reversedModificationMatches.add(reversedModificationMatch);
-            }
-        } else {
-            reversedModificationMatches = null;
-        }
+        return reversedSequence;
+    }
 
-        return getIonsFeatures(reversedSequence, reversedModificationMatches, charge, ionIndex);
+    /**
+     * Returns the modification matches with sites on the reversed sequence.
+     *
+     * @param modificationMatches the modification matches
+     * @param sequenceLength the length of the sequence
+     *
+     * @return the modification matches with sites on the reversed sequence
+     */
+    private ArrayList<ModificationMatch> getReversedModificationMatches(ArrayList<ModificationMatch> modificationMatches, int sequenceLength) {
+
+        if (modificationMatches == null) {
+            return null;
+        }
+        ArrayList<ModificationMatch> reversedModificationMatches = new ArrayList<ModificationMatch>(modificationMatches.size());
+        for (ModificationMatch modificationMatch : modificationMatches) {
+            ModificationMatch reversedModificationMatch = new ModificationMatch(modificationMatch.getTheoreticPtm(), modificationMatch.isVariable(), sequenceLength - modificationMatch.getModificationSite() + 1);
+            reversedModificationMatches.add(reversedModificationMatch);
+        }
+        return reversedModificationMatches;
     }
 
     /**
@@ -578,6 +746,75 @@ public class FeaturesGenerator {
 
     }
 
+    /**
+     * The features of the features map in the order of the features vectors
+     * and the amino acid properties they need.
+     */
+    private class FeaturesLayout {
+
+        /**
+         * The features in the order of the features vectors.
+         */
+        private final Ms2pipFeature[] features;
+        /**
+         * Indicates for every feature whether its value depends on the ion.
+         */
+        private final boolean[] ionDependent;
+        /**
+         * The amino acid properties needed for the peptide features.
+         */
+        private final AminoAcid.Property[] peptideProperties;
+        /**
+         * The amino acid properties needed for the forward ion features.
+         */
+        private final AminoAcid.Property[] forwardIonProperties;
+        /**
+         * The amino acid properties needed for the complementary ion
+         * features.
+         */
+        private final AminoAcid.Property[] complementaryIonProperties;
+        /**
+         * The amino acid properties needed for the individual amino acid
+         * features.
+         */
+        private final AminoAcid.Property[] individualAaProperties;
+
+        /**
+         * Constructor.
+         */
+        private FeaturesLayout() {
+
+            peptideProperties = getAaProperties(PeptideAminoAcidFeature.class);
+            forwardIonProperties = getAaProperties(ForwardIonAminoAcidFeature.class);
+            complementaryIonProperties = getAaProperties(ComplementaryIonAminoAcidFeature.class);
+            individualAaProperties = getAaProperties(AAPropertyFeatureAbsolute.class,
+                    AAPropertyFeatureRelative.class,
+                    AAPropertyRelationshipFeature.class
+            );
+
+            features = new Ms2pipFeature[featuresMap.getnFeatures()];
+            ionDependent = new boolean[features.length];
+            int featureIndex = 0;
+
+            for (String category : featuresMap.getSortedFeaturesList()) {
+                for (Ms2pipFeature ms2pipFeature : featuresMap.getFeatures(category)) {
+                    features[featureIndex] = ms2pipFeature;
+                    switch (ms2pipFeature.getIndex()) {
+                        case PeptideFeature.index:
+                        case PeptideAminoAcidFeature.index:
+                        case AAPropertyFeatureAbsolute.index:
+                        case AAIdentityFeatureAbsolute.index:
+                            ionDependent[featureIndex] = false;
+                            break;
+                        default:
+                            ionDependent[featureIndex] = true;
+                    }
+                    featureIndex++;
+                }
+            }
+        }
+    }
+
     /**
      * This class estimates and stores reference attributes of the peptide.
      */
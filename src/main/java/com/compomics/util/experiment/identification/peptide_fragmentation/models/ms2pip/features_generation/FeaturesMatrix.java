@@ -0,0 +1,152 @@
+package com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation;
+
+/**
+ * The ms2pip features of the forward and complementary ions of a list of
+ * peptides stored in contiguous row-major matrices. Every peptide of length n
+ * has n - 1 rows, one per ion index, and every row has one column per feature
+ * in the order of the features map.
+ *
+ * @author Marc Vaudel
+ */
+public class FeaturesMatrix {
+
+    /**
+     * The number of features, i.e. the number of columns.
+     */
+    private final int nFeatures;
+    /**
+     * The index of the first row of every peptide. The last element is the
+     * total number of rows.
+     */
+    private final int[] peptideRows;
+    /**
+     * The features of the forward ions.
+     */
+    private final int[] forwardIonsFeatures;
+    /**
+     * The features of the complementary ions.
+     */
+    private final int[] complementaryIonsFeatures;
+
+    /**
+     * Constructor. Allocates the matrices for peptides of the given lengths.
+     *
+     * @param nFeatures the number of features
+     * @param sequenceLengths the lengths of the peptide sequences
+     */
+    public FeaturesMatrix(int nFeatures, int[] sequenceLengths) {
+
+        this.nFeatures = nFeatures;
+        peptideRows = new int[sequenceLengths.length + 1];
+
+        long nRows = 0;
+        for (int i = 0; i < sequenceLengths.length; i++) {
+            peptideRows[i] = (int) nRows;
+            nRows += Math.max(sequenceLengths[i] - 1, 0);
+        }
+
+        long size = nRows * nFeatures;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many features (" + size + ") for a single matrix, please split the peptides in smaller batches.");
+        }
+        peptideRows[sequenceLengths.length] = (int) nRows;
+
+        forwardIonsFeatures = new int[(int) size];
+        complementaryIonsFeatures = new int[(int) size];
+    }
+
+    /**
+     * Returns the number of features, i.e. the number of columns.
+     *
+     * @return the number of features
+     */
+    public int getnFeatures() {
+        return nFeatures;
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return the number of peptides
+     */
+    public int getnPeptides() {
+        return peptideRows.length - 1;
+    }
+
+    /**
+     * Returns the total number of rows.
+     *
+     * @return the total number of rows
+     */
+    public int getnRows() {
+        return peptideRows[peptideRows.length - 1];
+    }
+
+    /**
+     * Returns the row of the given ion of the given peptide.
+     *
+     * @param peptideIndex the index of the peptide in the list
+     * @param ionIndex the ion index
+     *
+     * @return the row of the given ion
+     */
+    public int getRow(int peptideIndex, int ionIndex) {
+        return peptideRows[peptideIndex] + ionIndex;
+    }
+
+    /**
+     * Returns the number of ions of the given peptide, i.e. its number of
+     * rows.
+     *
+     * @param peptideIndex the index of the peptide in the list
+     *
+     * @return the number of ions of the given peptide
+     */
+    public int getnIons(int peptideIndex) {
+        return peptideRows[peptideIndex + 1] - peptideRows[peptideIndex];
+    }
+
+    /**
+     * Returns the value of a feature of a forward ion.
+     *
+     * @param row the row
+     * @param featureIndex the index of the feature
+     *
+     * @return the value of the feature
+     */
+    public int getForwardIonFeature(int row, int featureIndex) {
+        return forwardIonsFeatures[row * nFeatures + featureIndex];
+    }
+
+    /**
+     * Returns the value of a feature of a complementary ion.
+     *
+     * @param row the row
+     * @param featureIndex the index of the feature
+     *
+     * @return the value of the feature
+     */
+    public int getComplementaryIonFeature(int row, int featureIndex) {
+        return complementaryIonsFeatures[row * nFeatures + featureIndex];
+    }
+
+    /**
+     * Returns the matrix of the features of the forward ions in row-major
+     * order. Row r starts at index r * nFeatures.
+     *
+     * @return the matrix of the features of the forward ions
+     */
+    public int[] getForwardIonsFeatures() {
+        return forwardIonsFeatures;
+    }
+
+    /**
+     * Returns the matrix of the features of the complementary ions in
+     * row-major order. Row r starts at index r * nFeatures.
+     *
+     * @return the matrix of the features of the complementary ions
+     */
+    public int[] getComplementaryIonsFeatures() {
+        return complementaryIonsFeatures;
+    }
+}
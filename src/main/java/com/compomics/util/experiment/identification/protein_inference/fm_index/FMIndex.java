@@ -1,8 +1,7 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
-import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
-import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory.ProteinIterator;
+import com.compomics.util.experiment.identification.protein_sequences.ProteomeStore;
 import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.AminoAcidPattern;
 import com.compomics.util.experiment.biology.variants.amino_acids.*;
@@ -950,20 +949,24 @@ public class FMIndex implements PeptideMapper {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
-        // reading all proteins in a first pass to get information about number and total length
+        // loading all proteins in memory and getting information about number and total length
         ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
         ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
         long ticker = indexChunkSize;
+        ProteomeStore proteomeStore = null;
         try {
             int indexStringLength = 1;
             int numProteins = 0;
-            ProteinIterator pi = sf.getProteinIterator(false);
-            while (pi.hasNext()) {
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
+            // the store loaded in the sequence factory is used if any, otherwise a store is built for the construction of the index only
+            proteomeStore = sf.getProteomeStore();
+            if (proteomeStore == null) {
+                proteomeStore = ProteomeStore.build(sf.getProteinIterator(false), waitingHandler);
+            }
+            if (proteomeStore == null) {
+                return;
+            }
+            for (int rank = 0; rank < proteomeStore.size(); ++rank) {
+                int proteinLen = proteomeStore.getLength(rank);
                 indexStringLength += proteinLen;
                 ++numProteins;
                 if (indexStringLength > ticker){
@@ -989,9 +992,10 @@ public class FMIndex implements PeptideMapper {
         }
         
         try {
-            ProteinIterator pi = sf.getProteinIterator(false);
+            int firstProtein = 0;
             for (int i = 0; i < tmpLengths.size(); ++i){
-                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+                addDataToIndex(proteomeStore, firstProtein, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+                firstProtein += tmpProteins.get(i);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -1026,14 +1030,15 @@ public class FMIndex implements PeptideMapper {
     /**
      * Add data to index
      * 
-     * @param pi the protein iterator
+     * @param proteomeStore the store of the protein sequences
+     * @param firstProtein the rank of the first protein to add
      * @param indexStringLength the index string length
      * @param numProteins the number of proteins
      * @param alphabet the alphabet
      * @param waitingHandler the waiting handler
      * @param displayProgress if progress is to be displayed
      */
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
+    void addDataToIndex(ProteomeStore proteomeStore, int firstProtein, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
         indexParts += 1;
         indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
         indexStringLengths.add(indexStringLength);
@@ -1060,13 +1065,16 @@ public class FMIndex implements PeptideMapper {
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                     return;
                 }
-                if (!pi.hasNext()) throw new Exception("More sequences from database requested than contained.");
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
+                int rank = firstProtein + i;
+                if (rank >= proteomeStore.size()) throw new Exception("More sequences from database requested than contained.");
+                int proteinLen = proteomeStore.getLength(rank);
                 T[tmpN++] = '/'; // adding the delimiters
-                System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+                proteomeStore.copyResidues(rank, T, tmpN);
+                for (int j = tmpN; j < tmpN + proteinLen; ++j) {
+                    if (T[j] >= 'a' && T[j] <= 'z') T[j] -= 32;
+                }
                 tmpN += proteinLen;
-                accssions[tmpNumProtein++] = currentProtein.getAccession();
+                accssions[tmpNumProtein++] = proteomeStore.getAccession(rank);
                 bndaries[tmpNumProtein] = tmpN + 1;
 
             }
@@ -1256,6 +1264,32 @@ public class FMIndex implements PeptideMapper {
         return combinations;
     }
 
+    /**
+     * Returns the amino acids possible at every position of the peptide as
+     * 128 bitfields, allowing the backward search to resolve ambiguous
+     * positions in a single wavelet tree query instead of one query per amino
+     * acid.
+     *
+     * @param combinations the possible amino acids per position as returned
+     * by createPeptideCombinations
+     * @param withX if false, X is excluded from the sets
+     * @return the possible amino acids per position as 128 bitfields
+     */
+    private long[][] createCharacterSets(ArrayList<String> combinations, boolean withX) {
+        long[][] characterSets = new long[combinations.size()][2];
+        for (int i = 0; i < combinations.size(); ++i) {
+            String combinationSequence = combinations.get(i);
+            long[] characterSet = characterSets[i];
+            for (int c = 0; c < combinationSequence.length(); ++c) {
+                int aminoAcid = combinationSequence.charAt(c);
+                if (withX || aminoAcid != 'X') {
+                    characterSet[aminoAcid >>> 6] |= 1L << (aminoAcid & 63);
+                }
+            }
+        }
+        return characterSets;
+    }
+
     /**
      * Returns a list of all possible amino acids per position in the peptide
      * according to the sequence matching preferences.
@@ -1398,6 +1432,8 @@ public class FMIndex implements PeptideMapper {
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
+        long[][] characterSets = createCharacterSets(combinations, true);
+        long[][] characterSetsWithoutX = createCharacterSets(combinations, false);
         int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
         ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
@@ -1413,28 +1449,22 @@ public class FMIndex implements PeptideMapper {
         if (countX <= maxX) {
             backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
             for (int j = 0; j < lenPeptide; ++j) {
-                String combinationSequence = combinations.get(j);
                 ArrayList<MatrixContent> cell = backwardList[j];
                 for (MatrixContent content : cell) {
                     int leftIndexOld = content.left;
                     int rightIndexOld = content.right;
                     int numX = content.numX;
 
-                    for (int c = 0; c < combinationSequence.length(); ++c) {
-                        int aminoAcid = combinationSequence.charAt(c);
-
-                        int lessValue = lessTablePrimary[aminoAcid];
-                        int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
-                        final int leftIndex = lessValue + range[0];
-                        final int rightIndex = lessValue + range[1] - 1;
-
-                        if (leftIndex <= rightIndex) {
-                            int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
-                            if (newNumX > maxX) {
-                                continue;
-                            }
-                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
-                        }
+                    // all possible amino acids of the position in one query, X excluded when the limit is reached
+                    int[][] setCharacter = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld, (numX < maxX) ? characterSets[j] : characterSetsWithoutX[j]);
+                    for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
+                        int[] borders = setCharacter[b];
+                        final int aminoAcid = borders[0];
+                        final int lessValue = lessTablePrimary[aminoAcid];
+                        final int leftIndex = lessValue + borders[1];
+                        final int rightIndex = lessValue + borders[2] - 1;
+                        int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                        backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
                     }
                 }
             }
@@ -1485,6 +1515,8 @@ public class FMIndex implements PeptideMapper {
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
+        long[][] characterSets = createCharacterSets(combinations, true);
+        long[][] characterSetsWithoutX = createCharacterSets(combinations, false);
         int xNumLimit = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
         ArrayList<MatrixContent>[][] backwardMatrix = (ArrayList<MatrixContent>[][]) new ArrayList[maxNumberVariants + 1][lenPeptide + 1];
@@ -1518,48 +1550,44 @@ public class FMIndex implements PeptideMapper {
                         int numVariants = content.numVariants;
                         int length = content.length;
 
-                        for (int c = 0; c < combinationSequence.length(); ++c) {
-                            int aminoAcid = combinationSequence.charAt(c);
+                        // match, all possible amino acids of the position in one query
+                        int[][] setCharacterMatch = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld, (numX < xNumLimit) ? characterSets[j] : characterSetsWithoutX[j]);
+                        for (int b = 0; b < setCharacterMatch[numMasses][0]; ++b) {
+                            int[] borders = setCharacterMatch[b];
+                            final int matchAminoAcid = borders[0];
+                            final int lessValue = lessTablePrimary[matchAminoAcid];
+                            final int leftIndex = lessValue + borders[1];
+                            final int rightIndex = lessValue + borders[2] - 1;
+                            int matchNewNumX = numX + ((matchAminoAcid == 'X') ? 1 : 0);
+                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, matchAminoAcid, content, matchNewNumX, length + 1, numVariants, '-'));
+                        }
 
-                            int lessValue = lessTablePrimary[aminoAcid];
-                            int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
-                            final int leftIndex = lessValue + range[0];
-                            final int rightIndex = lessValue + range[1] - 1;
+                        if (numVariants < maxNumberVariants) {
+                            int aminoAcid = combinationSequence.charAt(0);
                             int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
 
-                            if (leftIndex <= rightIndex) {
-                                if (newNumX > xNumLimit) {
-                                    continue;
-                                }
-
-                                // match
-                                backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX, length + 1, numVariants, '-'));
+                            // insertion, not allowed if it exceeds the X limit
+                            if (newNumX <= xNumLimit) {
+                                backwardMatrix[k + 1][j + 1].add(new MatrixContent(leftIndexOld, rightIndexOld, aminoAcid, content, newNumX, length + 1, numVariants + 1, '*'));
                             }
 
-                            if (numVariants < maxNumberVariants && c == 0) {
-                                // insertion
-                                if (numVariants < maxNumberVariants) {
-                                    backwardMatrix[k + 1][j + 1].add(new MatrixContent(leftIndexOld, rightIndexOld, aminoAcid, content, newNumX, length + 1, numVariants + 1, '*'));
-                                }
-
-                                // deletion and substitution
-                                int[][] setCharacter = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld);
-                                for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
-                                    int[] borders = setCharacter[b];
-                                    final int errorAminoAcid = borders[0];
-                                    final int errorNewNumX = newNumX + ((errorAminoAcid == 'X') ? 1 : 0);
-                                    final int errorLessValue = lessTablePrimary[errorAminoAcid];
-                                    final int errorLeftIndex = errorLessValue + borders[1];
-                                    final int errorRightIndex = errorLessValue + borders[2] - 1;
-
-                                    if (errorNewNumX <= xNumLimit) {
-                                        // deletion
-                                        backwardMatrix[k + 1][j].add(new MatrixContent(errorLeftIndex, errorRightIndex, '*', content, errorNewNumX, length, numVariants + 1, Character.toChars(errorAminoAcid + 32)[0]));
+                            // deletion and substitution
+                            int[][] setCharacter = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld);
+                            for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
+                                int[] borders = setCharacter[b];
+                                final int errorAminoAcid = borders[0];
+                                final int errorNewNumX = newNumX + ((errorAminoAcid == 'X') ? 1 : 0);
+                                final int errorLessValue = lessTablePrimary[errorAminoAcid];
+                                final int errorLeftIndex = errorLessValue + borders[1];
+                                final int errorRightIndex = errorLessValue + borders[2] - 1;
+
+                                if (errorNewNumX <= xNumLimit) {
+                                    // deletion
+                                    backwardMatrix[k + 1][j].add(new MatrixContent(errorLeftIndex, errorRightIndex, '*', content, errorNewNumX, length, numVariants + 1, Character.toChars(errorAminoAcid + 32)[0]));
 
-                                        // substitution
-                                        if (aminoAcid != errorAminoAcid) {
-                                            backwardMatrix[k + 1][j + 1].add(new MatrixContent(errorLeftIndex, errorRightIndex, aminoAcid, content, errorNewNumX, length + 1, numVariants + 1, (char) errorAminoAcid));
-                                        }
+                                    // substitution
+                                    if (aminoAcid != errorAminoAcid) {
+                                        backwardMatrix[k + 1][j + 1].add(new MatrixContent(errorLeftIndex, errorRightIndex, aminoAcid, content, errorNewNumX, length + 1, numVariants + 1, (char) errorAminoAcid));
                                     }
                                 }
                             }
@@ -1652,6 +1680,8 @@ public class FMIndex implements PeptideMapper {
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
+        long[][] characterSets = createCharacterSets(combinations, true);
+        long[][] characterSetsWithoutX = createCharacterSets(combinations, false);
         int xNumLimit = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
         int numErrors = maxNumberDeletions + maxNumberInsertions + maxNumberSubstitutions;
@@ -1688,52 +1718,46 @@ public class FMIndex implements PeptideMapper {
                         int numInsertions = content.numSpecificVariants[1];
                         int numSubstitutions = content.numSpecificVariants[2];
 
-                        for (int c = 0; c < combinationSequence.length(); ++c) {
-                            int aminoAcid = combinationSequence.charAt(c);
-
-                            int lessValue = lessTablePrimary[aminoAcid];
-                            int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
-                            final int leftIndex = lessValue + range[0];
-                            final int rightIndex = lessValue + range[1] - 1;
-                            int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
-
-                            if (leftIndex <= rightIndex) {
-                                if (newNumX > xNumLimit) {
-                                    continue;
-                                }
+                        // match, all possible amino acids of the position in one query
+                        int[][] setCharacterMatch = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld, (numX < xNumLimit) ? characterSets[j] : characterSetsWithoutX[j]);
+                        for (int b = 0; b < setCharacterMatch[numMasses][0]; ++b) {
+                            int[] borders = setCharacterMatch[b];
+                            final int matchAminoAcid = borders[0];
+                            final int lessValue = lessTablePrimary[matchAminoAcid];
+                            final int leftIndex = lessValue + borders[1];
+                            final int rightIndex = lessValue + borders[2] - 1;
+                            int matchNewNumX = numX + ((matchAminoAcid == 'X') ? 1 : 0);
+                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, matchAminoAcid, content, matchNewNumX, length + 1, new int[]{numDeletions, numInsertions, numSubstitutions}, '-'));
+                        }
 
-                                // match
-                                backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX, length + 1, new int[]{numDeletions, numInsertions, numSubstitutions}, '-'));
-                            }
+                        int aminoAcid = combinationSequence.charAt(0);
+                        int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
 
-                            if (c == 0) {
-                                // insertion
-                                if (numInsertions < maxNumberInsertions) {
-                                    backwardMatrix[k + 1][j + 1].add(new MatrixContent(leftIndexOld, rightIndexOld, aminoAcid, content, newNumX, length + 1, new int[]{numDeletions, numInsertions + 1, numSubstitutions}, '*'));
-                                }
+                        // insertion, not allowed if it exceeds the X limit
+                        if (numInsertions < maxNumberInsertions && newNumX <= xNumLimit) {
+                            backwardMatrix[k + 1][j + 1].add(new MatrixContent(leftIndexOld, rightIndexOld, aminoAcid, content, newNumX, length + 1, new int[]{numDeletions, numInsertions + 1, numSubstitutions}, '*'));
+                        }
 
-                                // deletion and substitution
-                                int[][] setCharacter = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld);
-                                for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
-                                    int[] borders = setCharacter[b];
-                                    final int errorAminoAcid = borders[0];
-                                    final int errorNewNumX = newNumX + ((errorAminoAcid == 'X') ? 1 : 0);
-                                    final int errorLessValue = lessTablePrimary[errorAminoAcid];
-                                    final int errorLeftIndex = errorLessValue + borders[1];
-                                    final int errorRightIndex = errorLessValue + borders[2] - 1;
+                        // deletion and substitution
+                        int[][] setCharacter = occurrenceTablePrimary.rangeQuery(leftIndexOld - 1, rightIndexOld);
+                        for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
+                            int[] borders = setCharacter[b];
+                            final int errorAminoAcid = borders[0];
+                            final int errorNewNumX = newNumX + ((errorAminoAcid == 'X') ? 1 : 0);
+                            final int errorLessValue = lessTablePrimary[errorAminoAcid];
+                            final int errorLeftIndex = errorLessValue + borders[1];
+                            final int errorRightIndex = errorLessValue + borders[2] - 1;
 
-                                    if (errorNewNumX <= xNumLimit) {
+                            if (errorNewNumX <= xNumLimit) {
 
-                                        // deletion
-                                        if (numDeletions < maxNumberDeletions) {
-                                            backwardMatrix[k + 1][j].add(new MatrixContent(errorLeftIndex, errorRightIndex, '*', content, errorNewNumX, length, new int[]{numDeletions + 1, numInsertions, numSubstitutions}, Character.toChars(errorAminoAcid + 32)[0]));
-                                        }
+                                // deletion
+                                if (numDeletions < maxNumberDeletions) {
+                                    backwardMatrix[k + 1][j].add(new MatrixContent(errorLeftIndex, errorRightIndex, '*', content, errorNewNumX, length, new int[]{numDeletions + 1, numInsertions, numSubstitutions}, Character.toChars(errorAminoAcid + 32)[0]));
+                                }
 
-                                        // substitution
-                                        if (aminoAcid != errorAminoAcid && numSubstitutions < maxNumberSubstitutions && substitutionMatrix[errorAminoAcid][aminoAcid]) {
-                                            backwardMatrix[k + 1][j + 1].add(new MatrixContent(errorLeftIndex, errorRightIndex, aminoAcid, content, errorNewNumX, length + 1, new int[]{numDeletions, numInsertions, numSubstitutions + 1}, (char) errorAminoAcid));
-                                        }
-                                    }
+                                // substitution
+                                if (aminoAcid != errorAminoAcid && numSubstitutions < maxNumberSubstitutions && substitutionMatrix[errorAminoAcid][aminoAcid]) {
+                                    backwardMatrix[k + 1][j + 1].add(new MatrixContent(errorLeftIndex, errorRightIndex, aminoAcid, content, errorNewNumX, length + 1, new int[]{numDeletions, numInsertions, numSubstitutions + 1}, (char) errorAminoAcid));
                                 }
                             }
                         }
@@ -21,6 +21,11 @@ public class WaveletTree {
      */
     private long[] alphabetDirections = new long[2];  // 1 equals left child
     
+    /**
+     * Alphabet of the right child in a 128 bitfield.
+     */
+    private long[] alphabetRight = new long[2];
+    
     /**
      * First character in alphabet.
      */
@@ -243,8 +248,8 @@ public class WaveletTree {
 
         alphabetDirections[0] = alphabet_left[0] = root.leftChild.alphabet[0];
         alphabetDirections[1] = alphabet_left[1] = root.leftChild.alphabet[1];
-        alphabet_right[0] = root.rightChild.alphabet[0];
-        alphabet_right[1] = root.rightChild.alphabet[1];
+        alphabetRight[0] = alphabet_right[0] = root.rightChild.alphabet[0];
+        alphabetRight[1] = alphabet_right[1] = root.rightChild.alphabet[1];
 
         continueLeftRangeQuery = (((alphabet_left[0] & (~alphabetExcluded[0])) + (alphabet_left[1] & (~alphabetExcluded[1]))) > 0);
         continueRightRangeQuery = (((alphabet_right[0] & (~alphabetExcluded[0])) + (alphabet_right[1] & (~alphabetExcluded[1]))) > 0);
@@ -459,6 +464,65 @@ public class WaveletTree {
     }
     
 
+    /**
+     * Returns a list of character and new left/right index for a given range
+     * restricted to the characters of the given set. Subtrees holding none of
+     * the characters of the set are not visited.
+     *
+     * @param leftIndex left index boundary
+     * @param rightIndex right index boundary
+     * @param characterSet the characters to look for in a 128 bitfield
+     * @return list of counted characters
+     */
+    public int[][] rangeQuery(int leftIndex, int rightIndex, long[] characterSet) {
+        int[][] query = new int[numMasses + 1][];
+        query[numMasses] = new int[]{0};
+        
+        if (leftIndex + 1 < rightIndex) {
+            rangeQuery(leftIndex, rightIndex, characterSet, query);
+        } else {
+            rangeQueryOneValue(rightIndex, query);
+            int character = query[0][0];
+            if (((characterSet[character >>> shift] >>> (character & mask)) & 1L) == 0) {
+                query[numMasses][0] = 0;
+            }
+        }
+        
+        return query;
+    }
+
+    /**
+     * Fills a list of character and new left/right index for a given range
+     * restricted to the characters of the given set.
+     *
+     * @param leftIndex left index boundary
+     * @param rightIndex right index boundary
+     * @param characterSet the characters to look for in a 128 bitfield
+     * @param setCharacter list of counted characters
+     */
+    public void rangeQuery(int leftIndex, int rightIndex, long[] characterSet, int[][] setCharacter) {
+        int rankLeftIndex = (leftIndex >= 0) ? rank.getRankOne(leftIndex) : 0;
+        int rankRightIndex = (rightIndex >= 0) ? rank.getRankOne(rightIndex) : 0;
+        
+        if (((alphabetRight[0] & characterSet[0]) | (alphabetRight[1] & characterSet[1])) != 0 && rankRightIndex - rankLeftIndex > 0) {
+            if (rightChild != null) {
+                rightChild.rangeQuery(rankLeftIndex - 1, rankRightIndex - 1, characterSet, setCharacter);
+            } else {
+                setCharacter[setCharacter[numMasses][0]++] = new int[]{lastChar, rankLeftIndex, rankRightIndex, lastChar, -1};
+            }
+        }
+
+        int newLeftIndex = leftIndex - rankLeftIndex;
+        int newRightIndex = rightIndex - rankRightIndex;
+        if (((alphabetDirections[0] & characterSet[0]) | (alphabetDirections[1] & characterSet[1])) != 0 && newRightIndex - newLeftIndex > 0) {
+            if (leftChild != null) {
+                leftChild.rangeQuery(newLeftIndex, newRightIndex, characterSet, setCharacter);
+            } else {
+                setCharacter[setCharacter[numMasses][0]++] = new int[]{firstChar, newLeftIndex + 1, newRightIndex + 1, firstChar, -1};
+            }
+        }
+    }
+
     /**
      * Fills a list of character and new left/right index for a given index.
      *
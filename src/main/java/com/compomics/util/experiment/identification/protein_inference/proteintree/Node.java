@@ -7,19 +7,22 @@ import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.Externalizable;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 
 /**
- * A node of the protein tree.
+ * A node of the protein tree. Nodes are serialized in a compact binary form,
+ * the subtree being written recursively in the stream of its root.
  *
  * @author Marc Vaudel
  */
-public class Node implements Serializable {
+public class Node implements Externalizable {
 
     /**
      * Serial number for backward compatibility.
@@ -50,6 +53,12 @@ public class Node implements Serializable {
      */
     private boolean listening = true;
 
+    /**
+     * Empty constructor used for deserialization.
+     */
+    public Node() {
+    }
+
     /**
      * Constructor.
      *
@@ -483,4 +492,91 @@ public class Node implements Serializable {
             throw new IllegalArgumentException("depth " + depth + " longer than sequence " + sequence + ".");
         }
     }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(depth);
+        writeMappings(out, accessions);
+        writeMappings(out, termini);
+        if (subtree == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(subtree.size());
+            for (Character aa : subtree.keySet()) {
+                out.writeChar(aa);
+                subtree.get(aa).writeExternal(out);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        depth = in.readInt();
+        accessions = readMappings(in);
+        termini = readMappings(in);
+        int subtreeSize = in.readInt();
+        if (subtreeSize == -1) {
+            subtree = null;
+        } else {
+            subtree = new HashMap<Character, Node>(subtreeSize);
+            for (int i = 0; i < subtreeSize; i++) {
+                char aa = in.readChar();
+                Node node = new Node();
+                node.readExternal(in);
+                subtree.put(aa, node);
+            }
+        }
+    }
+
+    /**
+     * Writes a map of accessions to indexes to the given output, -1 is written
+     * for null maps.
+     *
+     * @param out the output to write to
+     * @param mappings the mappings to write
+     *
+     * @throws IOException if an IOException occurs
+     */
+    private static void writeMappings(ObjectOutput out, HashMap<String, ArrayList<Integer>> mappings) throws IOException {
+        if (mappings == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(mappings.size());
+        for (String accession : mappings.keySet()) {
+            ArrayList<Integer> indexes = mappings.get(accession);
+            out.writeUTF(accession);
+            out.writeInt(indexes.size());
+            for (int index : indexes) {
+                out.writeInt(index);
+            }
+        }
+    }
+
+    /**
+     * Reads a map of accessions to indexes as written by writeMappings.
+     *
+     * @param in the input to read from
+     *
+     * @return the mappings read, null if a null map was written
+     *
+     * @throws IOException if an IOException occurs
+     */
+    private static HashMap<String, ArrayList<Integer>> readMappings(ObjectInput in) throws IOException {
+        int size = in.readInt();
+        if (size == -1) {
+            return null;
+        }
+        HashMap<String, ArrayList<Integer>> mappings = new HashMap<String, ArrayList<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            String accession = in.readUTF();
+            int nIndexes = in.readInt();
+            ArrayList<Integer> indexes = new ArrayList<Integer>(nIndexes);
+            for (int j = 0; j < nIndexes; j++) {
+                indexes.add(in.readInt());
+            }
+            mappings.put(accession, indexes);
+        }
+        return mappings;
+    }
 }
@@ -8,8 +8,8 @@ import com.compomics.util.experiment.biology.AminoAcidPattern;
 import com.compomics.util.experiment.biology.AminoAcidSequence;
 import com.compomics.util.experiment.biology.Enzyme;
 import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.ProteomeStore;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
-import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory.ProteinIterator;
 import com.compomics.util.experiment.identification.TagFactory;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
@@ -29,12 +29,21 @@ import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class sorts the proteins into groups.
@@ -59,15 +68,15 @@ public class ProteinTree implements PeptideMapper {
     /**
      * The tree containing the accessions indexed by sequence tags.
      */
-    private HashMap<String, Node> tree = new HashMap<String, Node>();
+    private ConcurrentHashMap<String, Node> tree = new ConcurrentHashMap<String, Node>();
     /**
-     * List of the nodes in tree.
+     * List of the nodes in tree in the order of loading.
      */
-    private ArrayDeque<String> tagsInTree = new ArrayDeque<String>();
+    private ConcurrentLinkedQueue<String> tagsInTree = new ConcurrentLinkedQueue<String>();
     /**
      * The size of the tree in memory in accession*node.
      */
-    private long treeSize = 0;
+    private AtomicLong treeSize = new AtomicLong();
     /**
      * Indicates whether a debug file with speed metrics shall be created.
      */
@@ -115,19 +124,19 @@ public class ProteinTree implements PeptideMapper {
     /**
      * The version of the protein tree.
      */
-    public static final String version = "1.1.2";
+    public static final String version = "1.2.0";
     /**
      * The sequence matching preferences of the matches in cache.
      */
     private SequenceMatchingPreferences cacheSequenceMatchingPreferences = null;
-    /**
-     * Indicates whether the main thread is listening or preparing to wait.
-     */
-    private boolean listening = true;
     /**
      * The number of proteins which should be imported at a time.
      */
     public static final int proteinBatchSize = 100;
+    /**
+     * The number of nodes which should be saved in the database at a time.
+     */
+    private static final int nodesBatchSize = 1000;
     /**
      * Cache for the protein lengths.
      */
@@ -274,7 +283,7 @@ public class ProteinTree implements PeptideMapper {
             }
 
             if (needImport) {
-                importDb(initialTagSize, maxNodeSize, maxPeptideSize, enzyme, waitingHandler, exceptionHandler, printExpectedImportTime, displayProgress, nThreads);
+                importDb(initialTagSize, maxNodeSize, maxPeptideSize, enzyme, waitingHandler, printExpectedImportTime, displayProgress, nThreads);
             }
         } catch (IOException e) {
             componentsFactory.delete();
@@ -337,8 +346,6 @@ public class ProteinTree implements PeptideMapper {
      * peptides will be indexed
      * @param waitingHandler the waiting handler used to display progress to the
      * user and cancel the process. Can be null but strongly recommended.
-     * @param exceptionHandler handler for the exceptions encountered while
-     * creating the tree
      * @param printExpectedImportTime if true the expected import time will be
      * printed to the waiting handler
      * @param nThreads the number of threads to use
@@ -352,7 +359,7 @@ public class ProteinTree implements PeptideMapper {
      * @throws SQLException if an SQLException exception thrown whenever a
      * problem occurred while interacting with the tree database.
      */
-    private void importDb(int initialTagSize, int maxNodeSize, int maxPeptideSize, Enzyme enzyme, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, boolean printExpectedImportTime, boolean displayProgress, int nThreads)
+    private void importDb(int initialTagSize, int maxNodeSize, int maxPeptideSize, Enzyme enzyme, WaitingHandler waitingHandler, boolean printExpectedImportTime, boolean displayProgress, int nThreads)
             throws IOException, InterruptedException, IOException, InterruptedException, ClassNotFoundException, SQLException {
 
         if (printExpectedImportTime) {
@@ -382,6 +389,12 @@ public class ProteinTree implements PeptideMapper {
 
         componentsFactory.saveInitialSize(initialTagSize);
 
+        ProteomeStore proteomeStore = sequenceFactory.loadProteomeStore(waitingHandler);
+
+        if (proteomeStore == null) {
+            return;
+        }
+
         ArrayList<String> tags = TagFactory.getAminoAcidCombinations(initialTagSize);
 
         int nAccessions;
@@ -456,7 +469,7 @@ public class ProteinTree implements PeptideMapper {
 
         for (String tag : tags) {
             if (tempTags.size() == nTags) {
-                loadTags(tempTags, initialTagSize, maxNodeSize, maxPeptideSize, enzyme, nThreads, waitingHandler, exceptionHandler, displayProgress);
+                loadTags(tempTags, proteomeStore, initialTagSize, maxNodeSize, maxPeptideSize, enzyme, nThreads, waitingHandler, displayProgress);
                 if (first) {
                     first = false;
                 }
@@ -477,7 +490,7 @@ public class ProteinTree implements PeptideMapper {
         }
 
         if (!tempTags.isEmpty()) {
-            loadTags(tempTags, initialTagSize, maxNodeSize, maxPeptideSize, enzyme, nThreads, waitingHandler, exceptionHandler, displayProgress);
+            loadTags(tempTags, proteomeStore, initialTagSize, maxNodeSize, maxPeptideSize, enzyme, nThreads, waitingHandler, displayProgress);
 
             if (debugSpeed) {
                 debugSpeedWriter.write(new Date() + " " + tagsLoaded + " tags of " + tags.size() + " loaded.");
@@ -487,11 +500,6 @@ public class ProteinTree implements PeptideMapper {
             }
         }
 
-        tagsInTree.addAll(tree.keySet());
-        for (Node node : tree.values()) {
-            treeSize += node.getSize();
-        }
-
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
             return;
         }
@@ -548,402 +556,149 @@ public class ProteinTree implements PeptideMapper {
     }
 
     /**
-     * Loads the tags found in the given proteins in the tree and saves the end
-     * nodes in the NodeFactory if not null.
+     * Loads the given tags in the tree and saves the corresponding nodes in
+     * the database. The tags are sharded by first amino acid, every shard is
+     * indexed and split by a separate thread working on its own nodes, and the
+     * nodes of the finished shards are saved by the calling thread.
      *
      * @param tags the tags of interest
+     * @param proteomeStore the store containing the protein sequences
+     * @param initialTagSize the initial tag size
+     * @param maxNodeSize the maximal size allowed for a node
+     * @param maxPeptideSize the maximal peptide length allowed
+     * @param enzyme the enzyme restriction, can be null
+     * @param nThreads the number of threads to use
      * @param waitingHandler the waiting handler used to display progress to the
      * user and cancel the process. Can be null but strongly recommended.
-     * @param exceptionHandler handler for the exceptions encountered while
-     * creating the tree
-     * @param enzyme the enzyme restriction
-     * @param loadLengths boolean indicating whether protein lengths should be
-     * loaded in the db
-     * @param loadedLengths the accessions of the proteins from which the length
-     * is already saved
-     *
-     * @throws IOException exception thrown whenever an error occurs while
-     * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while creating the tree.
-     * @throws SQLException if an SQLException exception thrown whenever a
-     * problem occurred while interacting with the tree database.
-     */
-    private synchronized void loadTags(ArrayList<String> tags,
-            int initialTagSize, int maxNodeSize, int maxPeptideSize, Enzyme enzyme, int nThreads, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, boolean displayProgress)
-            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
-
-        // find the tags in the proteins and create a node per tag found
-        if (nThreads == 1) {
-            indexProteinsSingleThread(tags, initialTagSize, enzyme, waitingHandler, displayProgress);
-        } else {
-            indexProteins(tags, initialTagSize, enzyme, waitingHandler, exceptionHandler, displayProgress, nThreads);
-        }
-
-        // split the nodes and save them in the db
-        if (nThreads == 1) {
-            processRawNodesSingleThread(tags, maxNodeSize, maxPeptideSize, waitingHandler, displayProgress);
-        } else {
-            processRawNodes(maxNodeSize, maxPeptideSize, waitingHandler, exceptionHandler, displayProgress, nThreads);
-        }
-
-        // clear memory before further processing
-        tree.clear();
-        System.gc();
-    }
-
-    /**
-     * Iterates all the proteins and indexes the given tags in their sequences
-     * by batches of proteinBatchSize using a SequenceIndexer in a separate
-     * thread. When sequence indexers are finished, a node per tag is created
-     * and stored in the tree map.
-     *
-     * @param tags the tags to index
-     * @param waitingHandler waiting handler providing feedback on the process
-     * and allowing canceling the process
-     * @param initialTagSize the initial tag size
-     * @param enzyme enzyme to use. Can be null
-     * @param loadLengths boolean indicating whether protein lengths should be
-     * loaded in the db
      * @param displayProgress boolean indicating whether progress shall be
      * displayed using the waiting handler
      *
      * @throws IOException exception thrown whenever an error occurs while
      * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
      * @throws InterruptedException exception thrown whenever a threading issue
      * occurred while creating the tree.
      * @throws SQLException if an SQLException exception thrown whenever a
      * problem occurred while interacting with the tree database.
      */
-    private void indexProteinsSingleThread(ArrayList<String> tags,
-            int initialTagSize, Enzyme enzyme, WaitingHandler waitingHandler, boolean displayProgress)
-            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+    private void loadTags(ArrayList<String> tags, ProteomeStore proteomeStore, int initialTagSize, int maxNodeSize, int maxPeptideSize,
+            Enzyme enzyme, int nThreads, WaitingHandler waitingHandler, boolean displayProgress)
+            throws IOException, InterruptedException, SQLException {
 
-        ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(sequenceFactory.isDefaultReversed());
+        ArrayList<HashSet<String>> shards = getShards(tags, nThreads);
+        boolean targetOnly = sequenceFactory.isDefaultReversed();
 
-        while (proteinIterator.hasNext()) {
-            Protein protein = proteinIterator.getNextProtein();
-            String accession = protein.getAccession();
+        ExecutorService pool = Executors.newFixedThreadPool(shards.size());
 
-            if (protein.getLength() > 0) { // ignore empty protein sequences
-
-                HashMap<String, ArrayList<Integer>> indexesMap = getTagToIndexesMap(protein.getSequence(), tags, enzyme, waitingHandler);
-
-                for (String tag : indexesMap.keySet()) {
-                    ArrayList<Integer> indexes = indexesMap.get(tag);
-                    if (!indexes.isEmpty()) {
-                        Node node = tree.get(tag);
-                        if (node == null) {
-                            node = new Node(initialTagSize);
-                            tree.put(tag, node);
-                        }
-                        node.addAccession(accession, indexes);
-                    }
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                }
-
-                if (displayProgress && waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                }
+        try {
+            CompletionService<HashMap<String, Node>> completionService = new ExecutorCompletionService<HashMap<String, Node>>(pool);
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    tree.clear();
-                    return;
-                }
+            for (int i = 0; i < shards.size(); i++) {
+                // only the first shard reports the progress on the proteins
+                TagIndexer tagIndexer = new TagIndexer(shards.get(i), proteomeStore, targetOnly, initialTagSize, maxNodeSize, maxPeptideSize, enzyme,
+                        waitingHandler, displayProgress && i == 0);
+                completionService.submit(tagIndexer);
             }
-        }
-    }
 
-    /**
-     * Iterates all the proteins and indexes the given tags in their sequences
-     * by batches of proteinBatchSize using a SequenceIndexer in a separate
-     * thread. When sequence indexers are finished, a node per tag is created
-     * and stored in the tree map.
-     *
-     * @param tags the tags to index
-     * @param waitingHandler waiting handler providing feedback on the process
-     * and allowing canceling the process
-     * @param exceptionHandler handler for the exceptions encountered while
-     * creating the tree
-     * @param initialTagSize the initial tag size
-     * @param enzyme enzyme to use. Can be null
-     * @param loadLengths boolean indicating whether protein lengths should be
-     * loaded in the db
-     * @param displayProgress boolean indicating whether progress shall be
-     * displayed using the waiting handler
-     *
-     * @throws IOException exception thrown whenever an error occurs while
-     * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while creating the tree.
-     * @throws SQLException if an SQLException exception thrown whenever a
-     * problem occurred while interacting with the tree database.
-     */
-    private void indexProteins(ArrayList<String> tags,
-            int initialTagSize, Enzyme enzyme, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, boolean displayProgress, int nThreads)
-            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
-
-        ArrayList<Protein> sequenceBuffer = new ArrayList<Protein>(proteinBatchSize);
-        ArrayList<SequenceIndexer> sequenceIndexers = new ArrayList<SequenceIndexer>(nThreads);
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            for (int i = 0; i < shards.size(); i++) {
 
-        ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(sequenceFactory.isDefaultReversed());
+                HashMap<String, Node> nodes = getTagIndexerResult(completionService.take());
 
-        while (proteinIterator.hasNext()) {
-            Protein protein = proteinIterator.getNextProtein();
-            sequenceBuffer.add(protein);
-            if (sequenceBuffer.size() == proteinBatchSize) {
-                while (sequenceIndexers.size() == nThreads) {
-                    processFinishedIndexers(sequenceIndexers, initialTagSize);
-                }
-                SequenceIndexer sequenceIndexer = new SequenceIndexer(sequenceBuffer, tags, enzyme, waitingHandler, exceptionHandler, displayProgress);
-                pool.submit(new Thread(sequenceIndexer, "sequence indexing"));
-                sequenceBuffer = new ArrayList<Protein>(proteinBatchSize);
-                sequenceIndexers.add(sequenceIndexer);
-            }
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled() || waitingHandler.isRunFinished()) {
-                    pool.shutdownNow();
-                    emptyCache();
+                if (nodes == null || waitingHandler != null && waitingHandler.isRunCanceled()) {
                     return;
                 }
-            }
-        }
 
-        if (!sequenceBuffer.isEmpty()) {
-            SequenceIndexer sequenceIndexer = new SequenceIndexer(sequenceBuffer, tags, enzyme, waitingHandler, exceptionHandler, displayProgress);
-            pool.submit(new Thread(sequenceIndexer, "sequence indexing"));
-            sequenceIndexers.add(sequenceIndexer);
-        }
+                HashMap<String, Object> splittedNodes = new HashMap<String, Object>(Math.min(nodes.size(), nodesBatchSize));
 
-        while (!sequenceIndexers.isEmpty()) {
-            processFinishedIndexers(sequenceIndexers, initialTagSize);
-        }
-        pool.shutdown();
-    }
-
-    /**
-     * Splits the raw nodes and saves them in the database.
-     *
-     * @param tags the tags indexed
-     * @param maxNodeSize the maximal size allowed for a node
-     * @param maxPeptideSize the maximal peptide length allowed
-     * @param waitingHandler waiting handler providing feedback on the process
-     * and allowing canceling the process
-     * @param displayProgress boolean indicating whether progress shall be
-     * displayed using the waiting handler
-     *
-     * @throws IOException exception thrown whenever an error occurs while
-     * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while creating the tree.
-     * @throws SQLException if an SQLException exception thrown whenever a
-     * problem occurred while interacting with the tree database.
-     */
-    private void processRawNodesSingleThread(ArrayList<String> tags, int maxNodeSize, int maxPeptideSize, WaitingHandler waitingHandler, boolean displayProgress)
-            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
-
-        int batchSize = (int) Math.ceil(tree.size() / 3);
-        batchSize = Math.min(10000, batchSize);
-        batchSize = Math.max(1000, batchSize);
-
-        HashMap<String, Object> splittedNodes = new HashMap<String, Object>(batchSize);
-
-        for (String tag : tags) {
-
-            Node node = tree.get(tag);
-
-            if (node != null) {
-
-                node.splitNode(maxNodeSize, maxPeptideSize);
-                splittedNodes.put(tag, node);
+                for (String tag : nodes.keySet()) {
+                    splittedNodes.put(tag, nodes.get(tag));
+                    if (splittedNodes.size() == nodesBatchSize) {
+                        componentsFactory.saveNodes(splittedNodes, waitingHandler);
+                        splittedNodes.clear();
+                    }
+                }
 
-                if (splittedNodes.size() == batchSize) {
+                if (!splittedNodes.isEmpty()) {
                     componentsFactory.saveNodes(splittedNodes, waitingHandler);
-                    splittedNodes.clear();
                 }
 
-            }
-            if (waitingHandler != null) {
-                if (displayProgress) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (node == null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                    }
-                }
-                if (waitingHandler.isRunCanceled() || waitingHandler.isRunFinished()) {
-                    emptyCache();
-                    return;
+                if (displayProgress && waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter(2 * (tags.size() / shards.size()));
                 }
             }
-        }
-
-        if (!splittedNodes.isEmpty()) {
-            componentsFactory.saveNodes(splittedNodes, waitingHandler);
-            splittedNodes.clear();
+        } finally {
+            pool.shutdownNow();
         }
     }
 
     /**
-     * Splits the raw nodes and saves them in the database
+     * Distributes the given tags in at most nShards shards of tags sharing the
+     * same first amino acid. The shards are balanced by number of tags.
      *
-     * @param maxNodeSize the maximal size allowed for a node
-     * @param maxPeptideSize the maximal peptide length allowed
-     * @param waitingHandler waiting handler providing feedback on the process
-     * and allowing canceling the process
-     * @param exceptionHandler handler for the exceptions encountered while
-     * creating the tree
-     * @param displayProgress boolean indicating whether progress shall be
-     * displayed using the waiting handler
+     * @param tags the tags to distribute
+     * @param nShards the maximal number of shards
      *
-     * @throws IOException exception thrown whenever an error occurs while
-     * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while creating the tree.
-     * @throws SQLException if an SQLException exception thrown whenever a
-     * problem occurred while interacting with the tree database.
+     * @return the shards
      */
-    private void processRawNodes(int maxNodeSize, int maxPeptideSize, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, boolean displayProgress, int nThreads)
-            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+    private static ArrayList<HashSet<String>> getShards(ArrayList<String> tags, int nShards) {
 
-        ArrayList<NodeSplitter> nodeSplitters = new ArrayList<NodeSplitter>(nThreads);
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        HashMap<Character, ArrayList<String>> prefixToTags = new HashMap<Character, ArrayList<String>>();
 
-        for (String tag : tree.keySet()) {
-
-            Node node = tree.get(tag);
-
-            while (nodeSplitters.size() == nThreads) {
-                processFinishedNodeSplitters(nodeSplitters, null); // @TODO: add waiting handler
-            }
-
-            NodeSplitter nodeSplitter = new NodeSplitter(tag, node, maxNodeSize, maxPeptideSize, waitingHandler, exceptionHandler, displayProgress);
-            pool.submit(new Thread(nodeSplitter, "Node splitting of tag " + tag));
-            nodeSplitters.add(nodeSplitter);
-
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled() || waitingHandler.isRunFinished()) {
-                    emptyCache();
-                    pool.shutdownNow();
-                    return;
-                }
+        for (String tag : tags) {
+            char prefix = tag.charAt(0);
+            ArrayList<String> prefixTags = prefixToTags.get(prefix);
+            if (prefixTags == null) {
+                prefixTags = new ArrayList<String>();
+                prefixToTags.put(prefix, prefixTags);
             }
+            prefixTags.add(tag);
         }
 
-        while (!nodeSplitters.isEmpty()) {
-            processFinishedNodeSplitters(nodeSplitters, null); // @TODO: add waiting handler
-        }
-        pool.shutdown();
-    }
-
-    /**
-     * Clears the finished raw node splitters from a given list or wait for one
-     * to finish and batch saves the splitted nodes.
-     *
-     * @param nodeProcessors the node processors of interest
-     * @param waitingHandler the waiting handler
-     *
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while splitting nodes.
-     */
-    private synchronized void processFinishedNodeSplitters(ArrayList<NodeSplitter> nodeSplitters, WaitingHandler waitingHandler) throws InterruptedException, SQLException, IOException {
-
-        listening = false;
-        ArrayList<NodeSplitter> done = new ArrayList<NodeSplitter>();
-
-        for (NodeSplitter nodeSplitter : nodeSplitters) {
-            if (nodeSplitter.isFinished()) {
-                done.add(nodeSplitter);
+        ArrayList<ArrayList<String>> groups = new ArrayList<ArrayList<String>>(prefixToTags.values());
+        Collections.sort(groups, new Comparator<ArrayList<String>>() {
+            @Override
+            public int compare(ArrayList<String> o1, ArrayList<String> o2) {
+                return o2.size() - o1.size();
             }
+        });
+
+        int nShardsUsed = Math.max(1, Math.min(nShards, groups.size()));
+        ArrayList<HashSet<String>> shards = new ArrayList<HashSet<String>>(nShardsUsed);
+        for (int i = 0; i < nShardsUsed; i++) {
+            shards.add(new HashSet<String>());
         }
 
-        if (done.isEmpty()) {
-            listening = true;
-            wait();
-            for (NodeSplitter nodeSplitter : nodeSplitters) {
-                if (nodeSplitter.isFinished()) {
-                    done.add(nodeSplitter);
+        for (ArrayList<String> group : groups) {
+            HashSet<String> smallestShard = shards.get(0);
+            for (HashSet<String> shard : shards) {
+                if (shard.size() < smallestShard.size()) {
+                    smallestShard = shard;
                 }
             }
+            smallestShard.addAll(group);
         }
 
-        listening = true;
-        HashMap<String, Object> splittedNodes = new HashMap<String, Object>(done.size());
-
-        for (NodeSplitter nodeSplitter : done) {
-            splittedNodes.put(nodeSplitter.getTag(), nodeSplitter.getNode());
-            nodeSplitter.clear();
-        }
-
-        componentsFactory.saveNodes(splittedNodes, waitingHandler);
-        nodeSplitters.removeAll(done);
+        return shards;
     }
 
     /**
-     * Stores the result of the finished indexers and updates the list. Waits if
-     * none is finished.
+     * Returns the nodes produced by a tag indexer.
      *
-     * @param sequenceIndexers the sequence indexers
-     * @param initialTagSize the initial tag size
+     * @param future the future of the tag indexer
+     *
+     * @return the nodes produced by the tag indexer, null if the process was
+     * canceled
      *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading a file.
      * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while processing finished indexers.
+     * occurred while creating the tree.
      */
-    private synchronized void processFinishedIndexers(ArrayList<SequenceIndexer> sequenceIndexers, int initialTagSize) throws InterruptedException {
-
-        listening = false;
-        ArrayList<SequenceIndexer> done = new ArrayList<SequenceIndexer>();
-
-        for (SequenceIndexer sequenceIndexer : sequenceIndexers) {
-            if (sequenceIndexer.isFinished()) {
-                done.add(sequenceIndexer);
-            }
-        }
-
-        if (done.isEmpty()) {
-            listening = true;
-            wait();
-            for (SequenceIndexer sequenceIndexer : sequenceIndexers) {
-                if (sequenceIndexer.isFinished()) {
-                    done.add(sequenceIndexer);
-                }
-            }
-        }
-
-        listening = true;
-
-        for (SequenceIndexer sequenceIndexer : done) {
-            HashMap<String, HashMap<String, ArrayList<Integer>>> tagToIndexesMap = sequenceIndexer.getIndexes();
-            for (String accession : tagToIndexesMap.keySet()) {
-                for (String tag : tagToIndexesMap.get(accession).keySet()) {
-                    ArrayList<Integer> indexes = tagToIndexesMap.get(accession).get(tag);
-                    if (!indexes.isEmpty()) {
-                        Node node = tree.get(tag);
-                        if (node == null) {
-                            node = new Node(initialTagSize);
-                            tree.put(tag, node);
-                        }
-                        node.addAccession(accession, indexes);
-                    }
-                }
-            }
-            sequenceIndexer.clear();
+    private static HashMap<String, Node> getTagIndexerResult(Future<HashMap<String, Node>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Util.getExecutionException(e, "An error occurred while indexing the tags.", IOException.class, InterruptedException.class);
         }
-
-        sequenceIndexers.removeAll(done);
     }
 
     @Override
@@ -1316,51 +1071,32 @@ public class ProteinTree implements PeptideMapper {
 
         Node result = tree.get(tag);
 
-        if (result == null) {
-            result = getNodeSynchronized(tag);
-        }
-
-        return result;
-    }
-
-    /**
-     * Returns a node related to a tag and updates the cache. Null if not found.
-     *
-     * @param tag the tag of interest
-     *
-     * @return the corresponding node
-     *
-     * @throws IOException exception thrown whenever an error occurs while
-     * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while interacting with the tree.
-     * @throws SQLException if an SQLException exception thrown whenever a
-     * problem occurred while interacting with the tree database.
-     */
-    private synchronized Node getNodeSynchronized(String tag) throws SQLException, ClassNotFoundException, IOException, InterruptedException {
-
-        Node result = tree.get(tag);
-
         if (result == null) {
 
             result = componentsFactory.getNode(tag);
 
             if (result != null) {
 
-                long capacity = memoryAllocation * cacheScale;
+                Node previous = tree.putIfAbsent(tag, result);
 
-                while (treeSize > capacity && !tagsInTree.isEmpty()) {
-                    String tempTag = tagsInTree.pollLast();
-                    Node tempNode = tree.get(tempTag);
-                    treeSize -= tempNode.getSize();
-                    tree.remove(tempTag);
+                if (previous != null) {
+                    return previous;
                 }
 
-                tree.put(tag, result);
-                treeSize += result.getSize();
-                tagsInTree.addFirst(tag);
+                tagsInTree.add(tag);
+                long size = treeSize.addAndGet(result.getSize());
+                long capacity = memoryAllocation * cacheScale;
+
+                while (size > capacity) {
+                    String tempTag = tagsInTree.poll();
+                    if (tempTag == null) {
+                        break;
+                    }
+                    Node tempNode = tree.remove(tempTag);
+                    if (tempNode != null) {
+                        size = treeSize.addAndGet(-tempNode.getSize());
+                    }
+                }
             }
         }
 
@@ -1414,6 +1150,7 @@ public class ProteinTree implements PeptideMapper {
     public void emptyCache() {
         tree.clear();
         tagsInTree.clear();
+        treeSize.set(0);
         lastQueriedPeptidesCache.clear();
         lastQueriedPeptidesCacheContent.clear();
         lastSlowQueriedPeptidesCache.clear();
@@ -1427,20 +1164,21 @@ public class ProteinTree implements PeptideMapper {
      *
      * @param share the share of the cache to remove. 0.5 means 50%
      */
-    public synchronized void reduceNodeCacheSize(double share) {
+    public void reduceNodeCacheSize(double share) {
         double limit = tree.size();
         if (limit > 100) {
             limit = share * limit;
         }
         for (int i = 0; i < limit; i++) {
-            String tempTag = tagsInTree.pollLast();
-            Node tempNode = tree.get(tempTag);
-            if (tempNode == null) {
+            String tempTag = tagsInTree.poll();
+            if (tempTag == null) {
                 // another thread already reduced the cache size
                 break;
             }
-            treeSize -= tempNode.getSize();
-            tree.remove(tempTag);
+            Node tempNode = tree.remove(tempTag);
+            if (tempNode != null) {
+                treeSize.addAndGet(-tempNode.getSize());
+            }
         }
     }
 
@@ -1473,19 +1211,6 @@ public class ProteinTree implements PeptideMapper {
         return new PeptideIterator();
     }
 
-    /**
-     * Notifies the tree that a runnable has finished working.
-     *
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while waiting.
-     */
-    private synchronized void runnableFinished() throws InterruptedException {
-        while (!listening) {
-            wait(10);
-        }
-        notify();
-    }
-
     /**
      * Alphabetical iterator for the tree.
      */
@@ -1657,63 +1382,6 @@ public class ProteinTree implements PeptideMapper {
         }
     }
 
-    /**
-     * Returns all the positions of the given tags on the given sequence in a
-     * map: tag &gt; list of indexes in the sequence.
-     *
-     * @param sequence the sequence of interest
-     * @param tags the tags of interest
-     * @param enzyme the enzyme restriction
-     * @param waitingHandler waiting handler
-     *
-     * @return all the positions of the given tags
-     *
-     * @throws IOException exception thrown whenever an error occurs while
-     * reading or writing a file.
-     * @throws ClassNotFoundException exception thrown whenever an error occurs
-     * while deserializing an object.
-     * @throws InterruptedException exception thrown whenever a threading issue
-     * occurred while interacting with the tree.
-     * @throws SQLException if an SQLException exception thrown whenever a
-     * problem occurred while interacting with the tree database.F
-     */
-    private HashMap<String, ArrayList<Integer>> getTagToIndexesMap(String sequence, ArrayList<String> tags, Enzyme enzyme,
-            WaitingHandler waitingHandler) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        HashMap<String, ArrayList<Integer>> tagToIndexesMap = new HashMap<String, ArrayList<Integer>>(tags.size());
-        Integer initialTagSize = componentsFactory.getInitialSize();
-
-        for (String tag : tags) {
-            tagToIndexesMap.put(tag, new ArrayList<Integer>());
-        }
-
-        for (int i = 0; i < sequence.length() - initialTagSize; i++) {
-
-            if (enzyme == null || i == 0 || enzyme.isCleavageSite(sequence.charAt(i - 1), sequence.charAt(i))) {
-
-                char[] tagValue = new char[initialTagSize];
-
-                for (int j = 0; j < initialTagSize; j++) {
-                    char aa = sequence.charAt(i + j);
-                    tagValue[j] = aa;
-                }
-
-                String tag = new String(tagValue);
-                ArrayList<Integer> tempIndexes = tagToIndexesMap.get(tag);
-
-                if (tempIndexes != null) {
-                    tempIndexes.add(i);
-                }
-            }
-
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                break;
-            }
-        }
-
-        return tagToIndexesMap;
-    }
-
     /**
      * Retrieves the length of a protein.
      *
@@ -1787,252 +1455,155 @@ public class ProteinTree implements PeptideMapper {
     }
 
     /**
-     * Runnable used for the indexing of a protein sequence.
+     * Callable indexing the tags of a shard in all proteins and splitting the
+     * resulting nodes. Every indexer works on its own nodes, the proteins are
+     * read from the shared immutable store.
      */
-    private class SequenceIndexer implements Runnable {
+    private class TagIndexer implements Callable<HashMap<String, Node>> {
 
         /**
-         * The proteins to process.
+         * The tags of the shard.
          */
-        private ArrayList<Protein> proteins;
+        private final HashSet<String> tags;
         /**
-         * Boolean indicating whether the thread shall be interrupted.
+         * Table of the first amino acids of the tags of the shard.
          */
-        private boolean finished = false;
+        private final boolean[] prefixes = new boolean[256];
         /**
-         * List of tags to inspect.
+         * The store containing the protein sequences.
          */
-        private ArrayList<String> tags;
+        private final ProteomeStore proteomeStore;
         /**
-         * The enzyme to use.
+         * Boolean indicating whether only target proteins shall be indexed.
          */
-        private Enzyme enzyme;
+        private final boolean targetOnly;
         /**
-         * The result of the indexing.
+         * The initial tag size.
          */
-        private HashMap<String, HashMap<String, ArrayList<Integer>>> indexes = new HashMap<String, HashMap<String, ArrayList<Integer>>>(proteinBatchSize);
+        private final int initialTagSize;
         /**
-         * The waiting handler.
+         * The max node size.
          */
-        private WaitingHandler waitingHandler;
+        private final int maxNodeSize;
         /**
-         * Boolean indicating whether progress should be displayed.
+         * The max peptide size.
+         */
+        private final int maxPeptideSize;
+        /**
+         * The enzyme to use.
+         */
+        private final Enzyme enzyme;
+        /**
+         * The waiting handler.
          */
-        private boolean displayProgress;
+        private final WaitingHandler waitingHandler;
         /**
-         * Handler for the exceptions.
+         * Boolean indicating whether progress should be displayed.
          */
-        private ExceptionHandler exceptionHandler;
+        private final boolean displayProgress;
 
         /**
          * Constructor.
          *
-         * @param proteins the proteins to process
-         * @param tags the tags to process
+         * @param tags the tags of the shard
+         * @param proteomeStore the store containing the protein sequences
+         * @param targetOnly boolean indicating whether only target proteins
+         * shall be indexed
+         * @param initialTagSize the initial tag size
+         * @param maxNodeSize the maximal size allowed for a node
+         * @param maxPeptideSize the maximal peptide length allowed
          * @param enzyme enzyme to use (can be null)
          * @param waitingHandler waiting handler providing feedback on the
          * process and allowing canceling the process
-         * @param exceptionHandler handler for the exceptions encountered while
-         * creating the tree
          * @param displayProgress boolean indicating whether progress shall be
          * displayed on the progress bar of the waiting handler
          */
-        public SequenceIndexer(ArrayList<Protein> proteins, ArrayList<String> tags, Enzyme enzyme, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, boolean displayProgress) {
-            this.proteins = proteins;
+        public TagIndexer(HashSet<String> tags, ProteomeStore proteomeStore, boolean targetOnly, int initialTagSize, int maxNodeSize, int maxPeptideSize,
+                Enzyme enzyme, WaitingHandler waitingHandler, boolean displayProgress) {
             this.tags = tags;
+            this.proteomeStore = proteomeStore;
+            this.targetOnly = targetOnly;
+            this.initialTagSize = initialTagSize;
+            this.maxNodeSize = maxNodeSize;
+            this.maxPeptideSize = maxPeptideSize;
             this.enzyme = enzyme;
             this.waitingHandler = waitingHandler;
-            this.exceptionHandler = exceptionHandler;
             this.displayProgress = displayProgress;
+            for (String tag : tags) {
+                char prefix = tag.charAt(0);
+                if (prefix < prefixes.length) {
+                    prefixes[prefix] = true;
+                }
+            }
         }
 
         @Override
-        public synchronized void run() {
+        public HashMap<String, Node> call() throws IOException, InterruptedException, ClassNotFoundException {
 
-            try {
-                for (Protein protein : proteins) {
+            HashMap<String, Node> nodes = new HashMap<String, Node>(tags.size());
+            HashMap<String, ArrayList<Integer>> proteinIndexes = new HashMap<String, ArrayList<Integer>>();
+            char[] tagValue = new char[initialTagSize];
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        return;
-                    }
+            for (int rank = 0; rank < proteomeStore.size(); rank++) {
 
-                    indexes.put(protein.getAccession(), getTagToIndexesMap(protein.getSequence(), tags, enzyme, waitingHandler));
-
-                    if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                    }
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        return;
-                    }
+                if (targetOnly && proteomeStore.isDecoy(rank)) {
+                    continue;
                 }
-            } catch (Exception ex) {
-                if (exceptionHandler != null) {
-                    exceptionHandler.catchException(ex);
-                } else {
-                    ex.printStackTrace();
-                }
-            }
-
-            finished = true;
-
-            try {
-                runnableFinished();
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
-            }
-        }
 
-        /**
-         * Indicates whether the run is finished.
-         *
-         * @return true if the thread is finished.
-         */
-        public boolean isFinished() {
-            return finished;
-        }
+                CharSequence sequence = proteomeStore.getSequence(rank);
 
-        /**
-         * Returns the indexes: protein accession &gt; tag &gt; indexes of the
-         * tag on the protein sequence
-         *
-         * @return the indexes
-         */
-        public HashMap<String, HashMap<String, ArrayList<Integer>>> getIndexes() {
-            return indexes;
-        }
+                for (int i = 0; i < sequence.length() - initialTagSize; i++) {
 
-        /**
-         * Clears the content of the runnable.
-         */
-        public void clear() {
-            proteins.clear();
-            tags = null;
-            indexes.clear();
-        }
-    }
+                    char aa = sequence.charAt(i);
 
-    /**
-     * Runnable used to process raw nodes and store them in the database.
-     */
-    private class NodeSplitter implements Runnable {
+                    if (prefixes[aa] && (enzyme == null || i == 0 || enzyme.isCleavageSite(sequence.charAt(i - 1), aa))) {
 
-        /**
-         * The tag of the node.
-         */
-        private String tag;
-        /**
-         * The node.
-         */
-        private Node node;
-        /**
-         * the max node size.
-         */
-        private int maxNodeSize;
-        /**
-         * The max peptide size.
-         */
-        private int maxPeptideSize;
-        /**
-         * Boolean indicating whether the thread shall be interrupted.
-         */
-        private boolean finished = false;
-        /**
-         * The waiting handler.
-         */
-        private WaitingHandler waitingHandler;
-        /**
-         * Boolean indicating whether progress should be displayed.
-         */
-        private boolean displayProgress;
-        /**
-         * Handler for the exceptions.
-         */
-        private ExceptionHandler exceptionHandler;
-
-        /**
-         * Constructor.
-         *
-         *
-         * @param maxNodeSize the maximal size allowed for a node
-         * @param maxPeptideSize the maximal peptide length allowed
-         * @param waitingHandler waiting handler providing feedback on the
-         * process and allowing canceling the process
-         * @param exceptionHandler handler for the exceptions encountered while
-         * creating the tree
-         * @param displayProgress boolean indicating whether progress shall be
-         * displayed using the waiting handler
-         */
-        public NodeSplitter(String tag, Node node, int maxNodeSize, int maxPeptideSize, WaitingHandler waitingHandler, ExceptionHandler exceptionHandler, boolean displayProgress) {
-            this.tag = tag;
-            this.node = node;
-            this.waitingHandler = waitingHandler;
-            this.exceptionHandler = exceptionHandler;
-            this.displayProgress = displayProgress;
-        }
+                        for (int j = 0; j < initialTagSize; j++) {
+                            tagValue[j] = sequence.charAt(i + j);
+                        }
 
-        @Override
-        public synchronized void run() {
+                        String tag = new String(tagValue);
 
-            try {
-                node.splitNode(maxNodeSize, maxPeptideSize);
-            } catch (Exception ex) {
-                if (exceptionHandler != null) {
-                    exceptionHandler.catchException(ex);
-                } else {
-                    ex.printStackTrace();
+                        if (tags.contains(tag)) {
+                            ArrayList<Integer> indexes = proteinIndexes.get(tag);
+                            if (indexes == null) {
+                                indexes = new ArrayList<Integer>(1);
+                                proteinIndexes.put(tag, indexes);
+                            }
+                            indexes.add(i);
+                        }
+                    }
                 }
-            }
 
-            finished = true;
+                if (!proteinIndexes.isEmpty()) {
+                    String accession = proteomeStore.getAccession(rank);
+                    for (String tag : proteinIndexes.keySet()) {
+                        Node node = nodes.get(tag);
+                        if (node == null) {
+                            node = new Node(initialTagSize);
+                            nodes.put(tag, node);
+                        }
+                        node.addAccession(accession, proteinIndexes.get(tag));
+                    }
+                    proteinIndexes.clear();
+                }
 
-            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler != null && waitingHandler.isRunCanceled() || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                if (displayProgress && waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
             }
 
-            try {
-                runnableFinished();
-            } catch (Exception ex) {
-                if (exceptionHandler != null) {
-                    exceptionHandler.catchException(ex);
-                } else {
-                    ex.printStackTrace();
+            for (Node node : nodes.values()) {
+                node.splitNode(maxNodeSize, maxPeptideSize);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return null;
                 }
             }
-        }
 
-        /**
-         * Indicates whether the run is finished.
-         *
-         * @return true if the thread is finished.
-         */
-        public boolean isFinished() {
-            return finished;
-        }
-
-        /**
-         * Clears the content of the runnable.
-         */
-        public void clear() {
-            node = null;
-        }
-
-        /**
-         * Returns the tag of the split node.
-         *
-         * @return the tag of the split node
-         */
-        public String getTag() {
-            return tag;
-        }
-
-        /**
-         * Returns the split node.
-         *
-         * @return the split node
-         */
-        public Node getNode() {
-            return node;
+            return nodes;
         }
     }
 }
@@ -0,0 +1,522 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Compact index of the accessions of a FASTA file. The accessions are sorted
+ * and stored as UTF-8 bytes along with the index of the header in the FASTA
+ * file, the molecular weight of the protein and a decoy flag. Accessions are looked up by binary search. The index
+ * can be written to a file and memory-mapped when opened, making the opening
+ * of large databases instantaneous.
+ *
+ * @author Marc Vaudel
+ */
+public class AccessionIndex {
+
+    /**
+     * Magic number identifying the accession index files.
+     */
+    private static final int MAGIC = 0x43414958;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_LENGTH = 24;
+    /**
+     * The extension of the accession index files.
+     */
+    public static final String EXTENSION = ".cai";
+    /**
+     * The encoding used for the accessions.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * The buffer containing the index.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The file the index is mapped from, null if the index is in memory.
+     */
+    private final File file;
+    /**
+     * The last modification of the FASTA file at the time of indexing.
+     */
+    private final long fastaLastModified;
+    /**
+     * The number of accessions.
+     */
+    private final int nAccessions;
+    /**
+     * The position of the FASTA indexes in the buffer.
+     */
+    private final int indexesStart;
+    /**
+     * The position of the molecular weights in the buffer.
+     */
+    private final int weightsStart;
+    /**
+     * The position of the accession end positions in the buffer.
+     */
+    private final int endsStart;
+    /**
+     * The position of the decoy flags in the buffer.
+     */
+    private final int flagsStart;
+    /**
+     * The position of the accessions in the buffer.
+     */
+    private final int accessionsStart;
+
+    /**
+     * Builds an index in memory from the given accessions.
+     *
+     * @param accessions the accessions
+     * @param indexes the index of every accession in the FASTA file
+     * @param decoys the decoy status of every accession
+     * @param molecularWeights the molecular weight of every protein in kDa,
+     * NaN if not known, can be null
+     * @param fastaLastModified the last modification of the FASTA file
+     *
+     * @throws IllegalArgumentException if an accession is found more than once
+     * or if the index is too large
+     */
+    public AccessionIndex(String[] accessions, long[] indexes, boolean[] decoys, double[] molecularWeights, long fastaLastModified) {
+
+        int n = accessions.length;
+        final byte[][] encodedAccessions = new byte[n][];
+        Integer[] order = new Integer[n];
+        long accessionsLength = 0;
+        for (int i = 0; i < n; i++) {
+            encodedAccessions[i] = encode(accessions[i]);
+            accessionsLength += encodedAccessions[i].length;
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareBytes(encodedAccessions[o1], encodedAccessions[o2]);
+            }
+        });
+
+        for (int i = 1; i < n; i++) {
+            if (compareBytes(encodedAccessions[order[i - 1]], encodedAccessions[order[i]]) == 0) {
+                throw new IllegalArgumentException("Non unique accession number found \'" + accessions[order[i]] + "\'!\nPlease check your FASTA file.");
+            }
+        }
+
+        long size = HEADER_LENGTH + 21L * n + accessionsLength;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many accessions to be indexed.");
+        }
+
+        this.file = null;
+        this.fastaLastModified = fastaLastModified;
+        this.nAccessions = n;
+        this.indexesStart = HEADER_LENGTH;
+        this.weightsStart = indexesStart + 8 * n;
+        this.endsStart = weightsStart + 8 * n;
+        this.flagsStart = endsStart + 4 * n;
+        this.accessionsStart = flagsStart + n;
+
+        buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(fastaLastModified);
+        buffer.putInt(n);
+        buffer.putInt((int) accessionsLength);
+        int end = 0;
+        for (int i = 0; i < n; i++) {
+            int accessionIndex = order[i];
+            buffer.putLong(indexesStart + 8 * i, indexes[accessionIndex]);
+            buffer.putDouble(weightsStart + 8 * i, molecularWeights == null ? Double.NaN : molecularWeights[accessionIndex]);
+            end += encodedAccessions[accessionIndex].length;
+            buffer.putInt(endsStart + 4 * i, end);
+            buffer.put(flagsStart + i, decoys[accessionIndex] ? (byte) 1 : (byte) 0);
+        }
+        buffer.position(accessionsStart);
+        for (int i = 0; i < n; i++) {
+            buffer.put(encodedAccessions[order[i]]);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Opens an index file. The file is memory-mapped.
+     *
+     * @param indexFile the index file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file or if the file is not an accession index
+     */
+    public AccessionIndex(File indexFile) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+
+        try {
+            long size = randomAccessFile.length();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                throw new IOException(indexFile.getName() + " is not an accession index.");
+            }
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(indexFile.getName() + " is not an accession index.");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Accession index version " + version + " not supported.");
+        }
+
+        this.file = indexFile;
+        this.fastaLastModified = buffer.getLong(8);
+        this.nAccessions = buffer.getInt(16);
+        int accessionsLength = buffer.getInt(20);
+        this.indexesStart = HEADER_LENGTH;
+        this.weightsStart = indexesStart + 8 * nAccessions;
+        this.endsStart = weightsStart + 8 * nAccessions;
+        this.flagsStart = endsStart + 4 * nAccessions;
+        this.accessionsStart = flagsStart + nAccessions;
+
+        if (accessionsStart + (long) accessionsLength != buffer.capacity()) {
+            throw new IOException("Accession index " + indexFile.getName() + " is corrupted.");
+        }
+    }
+
+    /**
+     * Writes the index to the given file. The index is first written to a
+     * temporary file which then replaces the given file, so that indexes
+     * mapped from the given file remain valid.
+     *
+     * @param indexFile the file where to write the index
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public void write(File indexFile) throws IOException {
+
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + "_temp");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            if (!indexFile.delete() || !tempFile.renameTo(indexFile)) {
+                throw new IOException("Impossible to replace " + indexFile.getName() + ".");
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the accession index corresponding to the given FASTA
+     * file name.
+     *
+     * @param fastaName the name of the FASTA file
+     *
+     * @return the name of the accession index
+     */
+    public static String getIndexName(String fastaName) {
+        return fastaName + EXTENSION;
+    }
+
+    /**
+     * Returns the file the index is mapped from, null if the index was built
+     * in memory.
+     *
+     * @return the file the index is mapped from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the last modification of the FASTA file at the time of
+     * indexing.
+     *
+     * @return the last modification of the FASTA file at the time of indexing
+     */
+    public long getFastaLastModified() {
+        return fastaLastModified;
+    }
+
+    /**
+     * Returns the number of accessions.
+     *
+     * @return the number of accessions
+     */
+    public int size() {
+        return nAccessions;
+    }
+
+    /**
+     * Returns the rank of the given accession in the index, -1 if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the rank of the given accession in the index
+     */
+    public int getRank(String accession) {
+
+        byte[] query = encode(accession);
+
+        int low = 0;
+        int high = nAccessions - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareToAccession(query, middle);
+            if (comparison > 0) {
+                low = middle + 1;
+            } else if (comparison < 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the header of the given accession in the FASTA
+     * file, -1 if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the index of the header of the given accession in the FASTA file
+     */
+    public long getIndex(String accession) {
+        int rank = getRank(accession);
+        return rank == -1 ? -1 : getIndex(rank);
+    }
+
+    /**
+     * Returns the molecular weight in kDa of the protein with the given
+     * accession, NaN if not found or not known.
+     *
+     * @param accession the accession
+     *
+     * @return the molecular weight of the protein in kDa
+     */
+    public double getMolecularWeight(String accession) {
+        int rank = getRank(accession);
+        return rank == -1 ? Double.NaN : getMolecularWeight(rank);
+    }
+
+    /**
+     * Returns a boolean indicating whether the given accession is a decoy.
+     * False if not found.
+     *
+     * @param accession the accession
+     *
+     * @return a boolean indicating whether the given accession is a decoy
+     */
+    public boolean isDecoy(String accession) {
+        int rank = getRank(accession);
+        return rank != -1 && isDecoy(rank);
+    }
+
+    /**
+     * Returns the index in the FASTA file of the header of the accession at
+     * the given rank.
+     *
+     * @param rank the rank of the accession
+     *
+     * @return the index in the FASTA file of the header
+     */
+    public long getIndex(int rank) {
+        return buffer.getLong(indexesStart + 8 * rank);
+    }
+
+    /**
+     * Returns the molecular weight in kDa of the protein at the given rank,
+     * NaN if not known.
+     *
+     * @param rank the rank of the accession
+     *
+     * @return the molecular weight of the protein in kDa
+     */
+    public double getMolecularWeight(int rank) {
+        return buffer.getDouble(weightsStart + 8 * rank);
+    }
+
+    /**
+     * Returns a boolean indicating whether the accession at the given rank is
+     * a decoy.
+     *
+     * @param rank the rank of the accession
+     *
+     * @return a boolean indicating whether the accession at the given rank is
+     * a decoy
+     */
+    public boolean isDecoy(int rank) {
+        return buffer.get(flagsStart + rank) != 0;
+    }
+
+    /**
+     * Returns the accession at the given rank.
+     *
+     * @param rank the rank of the accession
+     *
+     * @return the accession at the given rank
+     */
+    public String getAccession(int rank) {
+        int start = getAccessionStart(rank);
+        int end = getAccessionEnd(rank);
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(accessionsStart + start + i);
+        }
+        try {
+            return new String(bytes, ENCODING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("An error occurred while decoding the accession at rank " + rank + ".", e);
+        }
+    }
+
+    /**
+     * Returns all accessions in a set.
+     *
+     * @return all accessions in a set
+     */
+    public HashSet<String> getAccessions() {
+        HashSet<String> result = new HashSet<String>(nAccessions);
+        for (int rank = 0; rank < nAccessions; rank++) {
+            result.add(getAccession(rank));
+        }
+        return result;
+    }
+
+    /**
+     * Returns all decoy accessions in a set.
+     *
+     * @return all decoy accessions in a set
+     */
+    public HashSet<String> getDecoyAccessions() {
+        HashSet<String> result = new HashSet<String>();
+        for (int rank = 0; rank < nAccessions; rank++) {
+            if (isDecoy(rank)) {
+                result.add(getAccession(rank));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all accessions in a map, accession to index in the FASTA file.
+     *
+     * @return all accessions in a map
+     */
+    public HashMap<String, Long> getIndexes() {
+        HashMap<String, Long> result = new HashMap<String, Long>(nAccessions);
+        for (int rank = 0; rank < nAccessions; rank++) {
+            result.put(getAccession(rank), getIndex(rank));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the start of the accession at the given rank relative to the
+     * start of the accessions.
+     *
+     * @param rank the rank of the accession
+     *
+     * @return the start of the accession
+     */
+    private int getAccessionStart(int rank) {
+        return rank == 0 ? 0 : buffer.getInt(endsStart + 4 * (rank - 1));
+    }
+
+    /**
+     * Returns the end of the accession at the given rank relative to the
+     * start of the accessions.
+     *
+     * @param rank the rank of the accession
+     *
+     * @return the end of the accession
+     */
+    private int getAccessionEnd(int rank) {
+        return buffer.getInt(endsStart + 4 * rank);
+    }
+
+    /**
+     * Compares the given encoded accession to the accession at the given rank.
+     *
+     * @param query the encoded accession
+     * @param rank the rank of the accession to compare to
+     *
+     * @return a negative integer, zero, or a positive integer as the query is
+     * lower than, equal to, or greater than the accession at the given rank
+     */
+    private int compareToAccession(byte[] query, int rank) {
+        int start = accessionsStart + getAccessionStart(rank);
+        int length = accessionsStart + getAccessionEnd(rank) - start;
+        int commonLength = Math.min(query.length, length);
+        for (int i = 0; i < commonLength; i++) {
+            int difference = (query[i] & 0xff) - (buffer.get(start + i) & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return query.length - length;
+    }
+
+    /**
+     * Compares two byte arrays lexicographically as unsigned bytes.
+     *
+     * @param bytes1 the first array
+     * @param bytes2 the second array
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * array is lower than, equal to, or greater than the second
+     */
+    private static int compareBytes(byte[] bytes1, byte[] bytes2) {
+        int commonLength = Math.min(bytes1.length, bytes2.length);
+        for (int i = 0; i < commonLength; i++) {
+            int difference = (bytes1[i] & 0xff) - (bytes2[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return bytes1.length - bytes2.length;
+    }
+
+    /**
+     * Encodes an accession.
+     *
+     * @param accession the accession
+     *
+     * @return the encoded accession
+     */
+    private static byte[] encode(String accession) {
+        try {
+            return accession.getBytes(ENCODING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("An error occurred while encoding accession " + accession + ".", e);
+        }
+    }
+}
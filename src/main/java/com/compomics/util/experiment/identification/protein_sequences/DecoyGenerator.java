@@ -0,0 +1,632 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
+import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streaming generator of concatenated target/decoy databases. The target
+ * FASTA file is read sequentially, the decoy sequences are generated by a
+ * pool of threads, and the target and decoy sequences are written in the
+ * order of the target file. The index of the target/decoy file is built while
+ * writing, making the re-indexing of the file unnecessary.
+ *
+ * @author Marc Vaudel
+ */
+public class DecoyGenerator {
+
+    /**
+     * The type of decoy sequences.
+     */
+    public enum DecoyType {
+
+        /**
+         * Reversed sequences.
+         */
+        reversed("REVERSED"),
+        /**
+         * Shuffled sequences.
+         */
+        shuffled("SHUFFLED"),
+        /**
+         * Sequences where every peptide is reversed, keeping the cleavage
+         * sites of the enzyme in place.
+         */
+        pseudoReversed("DECOY");
+
+        /**
+         * The flag appended to the accession and description of the decoy
+         * proteins.
+         */
+        public final String flag;
+
+        /**
+         * Constructor.
+         *
+         * @param flag the flag appended to the accession and description of
+         * the decoy proteins
+         */
+        private DecoyType(String flag) {
+            this.flag = flag;
+        }
+    }
+
+    /**
+     * The number of proteins processed by a thread at a time.
+     */
+    public static final int BATCH_SIZE = 1000;
+    /**
+     * The size of the buffers used to read and write the files.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The encoding used to read and write the files, one byte per character.
+     */
+    private static final String ENCODING = "ISO-8859-1";
+    /**
+     * The type of decoy.
+     */
+    private final DecoyType decoyType;
+    /**
+     * The enzyme used for pseudo-reversed decoys.
+     */
+    private final Enzyme enzyme;
+    /**
+     * The seed used for shuffled decoys.
+     */
+    private final long seed;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param decoyType the type of decoy
+     * @param enzyme the enzyme, only used for pseudo-reversed decoys
+     * @param seed the seed of the random number generator, only used for
+     * shuffled decoys
+     * @param nThreads the number of threads to use
+     */
+    public DecoyGenerator(DecoyType decoyType, Enzyme enzyme, long seed, int nThreads) {
+        if (decoyType == DecoyType.pseudoReversed && enzyme == null) {
+            throw new IllegalArgumentException("An enzyme must be provided for pseudo-reversed decoys.");
+        }
+        this.decoyType = decoyType;
+        this.enzyme = enzyme;
+        this.seed = seed;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Returns the decoy accession corresponding to a target accession.
+     *
+     * @param targetAccession the target accession
+     *
+     * @return the decoy accession
+     */
+    public String getDecoyAccession(String targetAccession) {
+        return targetAccession + "_" + decoyType.flag;
+    }
+
+    /**
+     * Returns the decoy description corresponding to a target description.
+     *
+     * @param targetDescription the target description
+     *
+     * @return the decoy description
+     */
+    public String getDecoyDescription(String targetDescription) {
+        return targetDescription + "-" + decoyType.flag;
+    }
+
+    /**
+     * Returns the decoy sequence of a target protein. The decoy sequence of
+     * a given protein is always the same for a given seed.
+     *
+     * @param targetAccession the accession of the target protein
+     * @param targetSequence the sequence of the target protein
+     *
+     * @return the decoy sequence
+     */
+    public String getDecoySequence(String targetAccession, String targetSequence) {
+
+        switch (decoyType) {
+            case reversed:
+                return SequenceFactory.reverseSequence(targetSequence);
+            case shuffled:
+                char[] shuffled = targetSequence.toCharArray();
+                Random random = new Random(seed + targetAccession.hashCode());
+                for (int i = shuffled.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    char temp = shuffled[i];
+                    shuffled[i] = shuffled[j];
+                    shuffled[j] = temp;
+                }
+                return new String(shuffled);
+            case pseudoReversed:
+                return pseudoReverse(targetSequence);
+            default:
+                throw new UnsupportedOperationException("Decoy type " + decoyType + " not implemented.");
+        }
+    }
+
+    /**
+     * Reverses every peptide of the given sequence while keeping the residues
+     * defining the cleavage sites in place.
+     *
+     * @param sequence the sequence
+     *
+     * @return the pseudo-reversed sequence
+     */
+    private String pseudoReverse(String sequence) {
+
+        char[] result = sequence.toCharArray();
+        int start = 0;
+
+        for (int i = 1; i <= result.length; i++) {
+            if (i == result.length || enzyme.isCleavageSiteNoCombination(result[i - 1], result[i])) {
+                int first = start;
+                int last = i - 1;
+                if (enzyme.getAminoAcidBefore().contains(result[last])) {
+                    last--;
+                }
+                if (start > 0 && enzyme.getAminoAcidAfter().contains(result[first])) {
+                    first++;
+                }
+                while (first < last) {
+                    char temp = result[first];
+                    result[first++] = result[last];
+                    result[last--] = temp;
+                }
+                start = i;
+            }
+        }
+
+        return new String(result);
+    }
+
+    /**
+     * Writes a concatenated target/decoy database and its index. Decoy
+     * proteins already present in the target file are not copied.
+     *
+     * @param fastaFile the target FASTA file
+     * @param destinationFile the target/decoy FASTA file to write
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the index of the target/decoy file, null if the process was
+     * canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public FastaIndex generate(File fastaFile, File destinationFile, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        long fileLength = Math.max(1, fastaFile.length());
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+
+        DatabaseWriter databaseWriter = new DatabaseWriter();
+        ArrayDeque<Future<DecoyBatch>> pendingBatches = new ArrayDeque<Future<DecoyBatch>>();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fastaFile), ENCODING), BUFFER_SIZE);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destinationFile), ENCODING), BUFFER_SIZE);
+        boolean canceled = false;
+
+        try {
+
+            ArrayList<String> headers = new ArrayList<String>(BATCH_SIZE);
+            ArrayList<String> sequences = new ArrayList<String>(BATCH_SIZE);
+            StringBuilder sequenceBuilder = new StringBuilder();
+            String header = null;
+            long bytesRead = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                bytesRead += line.length() + 1;
+
+                if (line.startsWith(">")) {
+
+                    if (header != null) {
+                        headers.add(header);
+                        sequences.add(sequenceBuilder.toString());
+                        sequenceBuilder.setLength(0);
+                    }
+                    header = line;
+
+                    if (headers.size() == BATCH_SIZE) {
+
+                        pendingBatches.add(pool.submit(new DecoyBatch(headers, sequences)));
+                        headers = new ArrayList<String>(BATCH_SIZE);
+                        sequences = new ArrayList<String>(BATCH_SIZE);
+
+                        if (pendingBatches.size() >= 2 * nThreads) {
+                            databaseWriter.write(getBatch(pendingBatches.poll()), writer);
+                        }
+
+                        if (waitingHandler != null) {
+                            if (waitingHandler.isRunCanceled()) {
+                                canceled = true;
+                                break;
+                            }
+                            waitingHandler.setSecondaryProgressCounter((int) (100 * bytesRead / fileLength));
+                        }
+                    }
+
+                } else if (header != null) {
+                    sequenceBuilder.append(line.trim());
+                }
+            }
+
+            if (!canceled) {
+                if (header != null) {
+                    headers.add(header);
+                    sequences.add(sequenceBuilder.toString());
+                }
+                pendingBatches.add(pool.submit(new DecoyBatch(headers, sequences)));
+                while (!pendingBatches.isEmpty()) {
+                    databaseWriter.write(getBatch(pendingBatches.poll()), writer);
+                }
+            }
+
+        } finally {
+            pool.shutdownNow();
+            reader.close();
+            writer.close();
+        }
+
+        if (canceled) {
+            destinationFile.delete();
+            return null;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        FastaIndex fastaIndex = databaseWriter.getFastaIndex(destinationFile);
+        SequenceFactory.writeIndex(fastaIndex, destinationFile.getParentFile());
+
+        return fastaIndex;
+    }
+
+    /**
+     * Waits for the given batch and returns it.
+     *
+     * @param future the future of the batch
+     *
+     * @return the batch
+     *
+     * @throws IOException exception thrown if an IOException occurred while
+     * processing the batch
+     * @throws InterruptedException exception thrown if the thread was
+     * interrupted while waiting
+     */
+    private DecoyBatch getBatch(Future<DecoyBatch> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Util.getExecutionException(e, "An error occurred while generating decoy sequences.", IOException.class);
+        }
+    }
+
+    /**
+     * A batch of target proteins and their decoys.
+     */
+    private class DecoyBatch implements Callable<DecoyBatch> {
+
+        /**
+         * The header lines of the proteins as read from the file. Replaced by
+         * the header of the target proteins once processed.
+         */
+        private final ArrayList<String> targetHeaders;
+        /**
+         * The sequences of the proteins as read from the file. Replaced by the
+         * sequences of the target proteins once processed.
+         */
+        private final ArrayList<String> targetSequences;
+        /**
+         * The accessions of the target proteins.
+         */
+        private final ArrayList<String> accessions;
+        /**
+         * The headers of the decoy proteins.
+         */
+        private final ArrayList<String> decoyHeaders;
+        /**
+         * The sequences of the decoy proteins.
+         */
+        private final ArrayList<String> decoySequences;
+        /**
+         * The database types of the target proteins.
+         */
+        private final ArrayList<Header.DatabaseType> databaseTypes;
+        /**
+         * The taxonomies of the target proteins.
+         */
+        private final ArrayList<String> taxonomies;
+        /**
+         * The molecular weights in kDa of the target proteins.
+         */
+        private final double[] targetMolecularWeights;
+        /**
+         * The molecular weights in kDa of the decoy proteins.
+         */
+        private final double[] decoyMolecularWeights;
+        /**
+         * The residue counts of the target proteins.
+         */
+        private final long[] residueCounts = new long[26];
+
+        /**
+         * Constructor.
+         *
+         * @param headers the header lines of the proteins
+         * @param sequences the sequences of the proteins
+         */
+        private DecoyBatch(ArrayList<String> headers, ArrayList<String> sequences) {
+            this.targetHeaders = headers;
+            this.targetSequences = sequences;
+            int size = headers.size();
+            accessions = new ArrayList<String>(size);
+            decoyHeaders = new ArrayList<String>(size);
+            decoySequences = new ArrayList<String>(size);
+            databaseTypes = new ArrayList<Header.DatabaseType>(size);
+            taxonomies = new ArrayList<String>(size);
+            targetMolecularWeights = new double[size];
+            decoyMolecularWeights = new double[size];
+        }
+
+        @Override
+        public DecoyBatch call() throws Exception {
+
+            int nTargets = 0;
+
+            for (int i = 0; i < targetHeaders.size(); i++) {
+
+                Header header = Header.parseFromFASTA(targetHeaders.get(i));
+                String accession = header.getAccessionOrRest();
+
+                if (accession == null) {
+                    throw new IllegalArgumentException("No accession found for header " + targetHeaders.get(i) + ".");
+                }
+                if (accession.lastIndexOf("'") != -1 || accession.lastIndexOf("\"") != -1) {
+                    throw new IllegalArgumentException("Accession numbers cannot contain quotation marks: \'" + accession + "\'!\nPlease check your FASTA file.");
+                }
+                if (SequenceFactory.getDecoyFlag(accession) != null) {
+                    continue;
+                }
+
+                String sequence = targetSequences.get(i);
+                if (sequence.length() > 0) {
+                    sequence = SequenceFactory.importSequenceFromFasta(new StringBuilder(sequence));
+                }
+                try {
+                    SequenceFactory.validateSequence(sequence.toCharArray());
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + ": " + e.toString());
+                }
+
+                String rawHeader = header.getRawHeader();
+                String decoyHeader = rawHeader.replace(accession, getDecoyAccession(accession));
+                String description = header.getDescription();
+                if (description != null && !description.isEmpty()) {
+                    decoyHeader = decoyHeader.replace(description, getDecoyDescription(description));
+                }
+
+                String taxonomy = header.getTaxonomy();
+                if (taxonomy == null || taxonomy.equals("")) {
+                    taxonomy = SpeciesFactory.UNKNOWN;
+                }
+
+                String decoySequence = getDecoySequence(accession, sequence);
+                targetMolecularWeights[nTargets] = FastaIndexer.countResidues(sequence, residueCounts);
+                decoyMolecularWeights[nTargets] = FastaIndexer.countResidues(decoySequence, null);
+
+                targetHeaders.set(nTargets, rawHeader);
+                targetSequences.set(nTargets, sequence);
+                nTargets++;
+                accessions.add(accession);
+                decoyHeaders.add(decoyHeader);
+                decoySequences.add(decoySequence);
+                databaseTypes.add(header.getDatabaseType());
+                taxonomies.add(taxonomy);
+            }
+
+            return this;
+        }
+    }
+
+    /**
+     * Writes the batches to the destination file and gathers the information
+     * needed for the index of the file.
+     */
+    private class DatabaseWriter {
+
+        /**
+         * The line separator.
+         */
+        private final String lineBreak = System.getProperty("line.separator");
+        /**
+         * The number of characters, i.e. bytes, written.
+         */
+        private long position = 0;
+        /**
+         * The accessions written.
+         */
+        private final ArrayList<String> accessions = new ArrayList<String>();
+        /**
+         * The index of the header of every accession.
+         */
+        private long[] indexes = new long[1024];
+        /**
+         * The decoy status of every accession.
+         */
+        private boolean[] decoys = new boolean[1024];
+        /**
+         * The molecular weight of every protein in kDa.
+         */
+        private double[] molecularWeights = new double[1024];
+        /**
+         * The occurrence of the database types in the target proteins.
+         */
+        private final HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
+        /**
+         * The occurrence of the species in the target proteins.
+         */
+        private final HashMap<String, Integer> species = new HashMap<String, Integer>();
+        /**
+         * The residue counts of the target proteins.
+         */
+        private final long[] residueCounts = new long[26];
+        /**
+         * The number of target proteins.
+         */
+        private int nTarget = 0;
+
+        /**
+         * Writes the given batch.
+         *
+         * @param decoyBatch the batch
+         * @param writer the writer
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        private void write(DecoyBatch decoyBatch, BufferedWriter writer) throws IOException {
+
+            for (int i = 0; i < decoyBatch.accessions.size(); i++) {
+
+                String accession = decoyBatch.accessions.get(i);
+                add(accession, false, decoyBatch.targetMolecularWeights[i]);
+                writeLine(decoyBatch.targetHeaders.get(i), writer);
+                writeLine(decoyBatch.targetSequences.get(i), writer);
+
+                add(getDecoyAccession(accession), true, decoyBatch.decoyMolecularWeights[i]);
+                writeLine(decoyBatch.decoyHeaders.get(i), writer);
+                writeLine(decoyBatch.decoySequences.get(i), writer);
+
+                nTarget++;
+                Header.DatabaseType databaseType = decoyBatch.databaseTypes.get(i);
+                Integer typeCounter = databaseTypes.get(databaseType);
+                databaseTypes.put(databaseType, typeCounter == null ? 1 : typeCounter + 1);
+                String taxonomy = decoyBatch.taxonomies.get(i);
+                Integer occurrence = species.get(taxonomy);
+                species.put(taxonomy, occurrence == null ? 1 : occurrence + 1);
+            }
+
+            for (int i = 0; i < residueCounts.length; i++) {
+                residueCounts[i] += decoyBatch.residueCounts[i];
+            }
+        }
+
+        /**
+         * Adds an accession at the current position.
+         *
+         * @param accession the accession
+         * @param decoy the decoy status of the accession
+         * @param molecularWeight the molecular weight of the protein in kDa
+         */
+        private void add(String accession, boolean decoy, double molecularWeight) {
+            int rank = accessions.size();
+            if (rank == indexes.length) {
+                indexes = Arrays.copyOf(indexes, 2 * rank);
+                decoys = Arrays.copyOf(decoys, 2 * rank);
+                molecularWeights = Arrays.copyOf(molecularWeights, 2 * rank);
+            }
+            indexes[rank] = position;
+            decoys[rank] = decoy;
+            molecularWeights[rank] = molecularWeight;
+            accessions.add(accession);
+        }
+
+        /**
+         * Writes a line.
+         *
+         * @param line the line
+         * @param writer the writer
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        private void writeLine(String line, BufferedWriter writer) throws IOException {
+            writer.write(line);
+            writer.write(lineBreak);
+            position += line.length() + lineBreak.length();
+        }
+
+        /**
+         * Returns the index of the written file.
+         *
+         * @param destinationFile the written file
+         *
+         * @return the index of the written file
+         */
+        private FastaIndex getFastaIndex(File destinationFile) {
+
+            long lastModified = destinationFile.lastModified();
+            int nSequences = accessions.size();
+            AccessionIndex accessionIndex = new AccessionIndex(accessions.toArray(new String[nSequences]), Arrays.copyOf(indexes, nSequences), Arrays.copyOf(decoys, nSequences),
+                    Arrays.copyOf(molecularWeights, nSequences), lastModified);
+
+            Header.DatabaseType mainDatabaseType = null;
+            int maxCounter = 0;
+            for (Header.DatabaseType databaseType : databaseTypes.keySet()) {
+                int counter = databaseTypes.get(databaseType);
+                if (counter > maxCounter) {
+                    maxCounter = counter;
+                    mainDatabaseType = databaseType;
+                }
+            }
+
+            long nAAs = 0;
+            for (int i = 0; i < residueCounts.length; i++) {
+                if (AminoAcid.isUniqueAa((char) ('A' + i))) {
+                    nAAs += residueCounts[i];
+                }
+            }
+            int[] aaOccurrence = new int[residueCounts.length];
+            if (nAAs > 0) {
+                for (int i = 0; i < residueCounts.length; i++) {
+                    if (AminoAcid.isUniqueAa((char) ('A' + i))) {
+                        aaOccurrence[i] = (int) (((double) residueCounts[i]) * SequenceFactory.nAaOccurrence / nAAs);
+                    }
+                }
+            }
+
+            String fileName = destinationFile.getName();
+            boolean decoy = nTarget > 0;
+            boolean defaultReversed = decoy && decoyType == DecoyType.reversed;
+
+            return new FastaIndex(accessionIndex, fileName, Util.removeExtension(fileName), decoy, defaultReversed, nTarget, lastModified,
+                    mainDatabaseType, databaseTypes, decoyType.flag, FastaIndex.getDefaultVersion(lastModified), species, aaOccurrence, residueCounts);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.compomics.util.experiment.identification.protein_sequences;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.protein.Header;
 import com.compomics.util.protein.Header.DatabaseType;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -15,11 +17,23 @@ import java.util.HashSet;
 public class FastaIndex extends ExperimentObject {
 
     /**
-     * The indexes of the inspected FASTA file.
+     * Serial number for backward compatibility.
+     */
+    static final long serialVersionUID = 8022987705958686236L;
+    /**
+     * The index of the accessions of the inspected FASTA file. The accession
+     * index is stored in a separate file, see AccessionIndex.
+     */
+    private transient AccessionIndex accessionIndex;
+    /**
+     * The indexes of the inspected FASTA file as stored in the indexes of
+     * previous versions. Converted into an accession index upon
+     * deserialization.
      */
     private HashMap<String, Long> indexes;
     /**
-     * The decoy accessions.
+     * The decoy accessions as stored in the indexes of previous versions.
+     * Converted into an accession index upon deserialization.
      */
     private HashSet<String> decoyAccessions;
     /**
@@ -79,6 +93,11 @@ public class FastaIndex extends ExperimentObject {
      * The occurrence of every amino acid letter in the database, including combinations.
      */
     private int[] aaOccurrence;
+    /**
+     * The number of residues of every amino acid letter in the target
+     * proteins, indexed by letter from A to Z.
+     */
+    private long[] residueCounts;
 
     /**
      * Constructor.
@@ -105,8 +124,38 @@ public class FastaIndex extends ExperimentObject {
             boolean concatenatedTargetDecoy, boolean isDefaultReversed, int nTarget, long lastModified,
             DatabaseType mainDatabaseType, HashMap<Header.DatabaseType, Integer> databaseTypes, String decoyTag, 
             String version, HashMap<String, Integer> speciesOccurrence, int[] aaOccurrence) {
-        this.indexes = indexes;
-        this.decoyAccessions = decoyAccessions;
+        this(getAccessionIndex(indexes, decoyAccessions, lastModified), fileName, name, concatenatedTargetDecoy, isDefaultReversed, nTarget, lastModified, 
+                mainDatabaseType, databaseTypes, decoyTag, version, speciesOccurrence, aaOccurrence, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accessionIndex the index of the accessions of the inspected FASTA
+     * file
+     * @param fileName The FASTA file name
+     * @param name the name of the database
+     * @param concatenatedTargetDecoy If the FASTA file is a concatenated
+     * target/decoy database
+     * @param isDefaultReversed is this a default reversed database
+     * @param nTarget Number of target sequences found in the database
+     * @param lastModified a long indicating the last time the indexed file was
+     * modified
+     * @param mainDatabaseType the main database type
+     * @param databaseTypes map of all the database types and how often they
+     * occur
+     * @param decoyTag the decoy tag
+     * @param version the database version
+     * @param speciesOccurrence the species occurrence in the database
+     * @param aaOccurrence the occurrence of every amino acid in per mille
+     * @param residueCounts the number of residues of every amino acid letter
+     * in the target proteins indexed by letter from A to Z, can be null
+     */
+    public FastaIndex(AccessionIndex accessionIndex, String fileName, String name,
+            boolean concatenatedTargetDecoy, boolean isDefaultReversed, int nTarget, long lastModified,
+            DatabaseType mainDatabaseType, HashMap<Header.DatabaseType, Integer> databaseTypes, String decoyTag, 
+            String version, HashMap<String, Integer> speciesOccurrence, int[] aaOccurrence, long[] residueCounts) {
+        this.accessionIndex = accessionIndex;
         this.fileName = fileName;
         this.name = name;
         this.concatenatedTargetDecoy = concatenatedTargetDecoy;
@@ -119,15 +168,94 @@ public class FastaIndex extends ExperimentObject {
         this.version = version;
         this.speciesOccurrence = speciesOccurrence;
         this.aaOccurrence = aaOccurrence;
+        this.residueCounts = residueCounts;
+    }
+
+    /**
+     * Builds an accession index from the given maps.
+     *
+     * @param indexes the indexes of the FASTA file
+     * @param decoyAccessions the decoy accessions
+     * @param lastModified the last time the indexed file was modified
+     *
+     * @return the accession index
+     */
+    private static AccessionIndex getAccessionIndex(HashMap<String, Long> indexes, HashSet<String> decoyAccessions, long lastModified) {
+        int nAccessions = indexes.size();
+        String[] accessions = new String[nAccessions];
+        long[] accessionIndexes = new long[nAccessions];
+        boolean[] decoys = new boolean[nAccessions];
+        int i = 0;
+        for (String accession : indexes.keySet()) {
+            accessions[i] = accession;
+            accessionIndexes[i] = indexes.get(accession);
+            decoys[i] = decoyAccessions.contains(accession);
+            i++;
+        }
+        return new AccessionIndex(accessions, accessionIndexes, decoys, null, lastModified);
+    }
+
+    /**
+     * Converts the maps of the indexes of previous versions into an accession
+     * index.
+     *
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream
+     * @throws ClassNotFoundException exception thrown whenever the class of a
+     * serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (indexes != null) {
+            HashSet<String> decoys = decoyAccessions != null ? decoyAccessions : new HashSet<String>(0);
+            accessionIndex = getAccessionIndex(indexes, decoys, lastModified != null ? lastModified : 0);
+            indexes = null;
+            decoyAccessions = null;
+        }
+    }
+
+    /**
+     * Returns the accession index and throws an exception if it was not set.
+     *
+     * @return the accession index
+     */
+    private AccessionIndex getLoadedAccessionIndex() {
+        if (accessionIndex == null) {
+            throw new IllegalStateException("The accession index of " + fileName + " is not loaded. Use SequenceFactory.getFastaIndex to load the index of a FASTA file.");
+        }
+        return accessionIndex;
+    }
+
+    /**
+     * Returns the index of the accessions of the FASTA file. Null if the index
+     * was deserialized and the accession index not set.
+     *
+     * @return the index of the accessions of the FASTA file
+     */
+    public AccessionIndex getAccessionIndex() {
+        return accessionIndex;
+    }
+
+    /**
+     * Sets the index of the accessions of the FASTA file.
+     *
+     * @param accessionIndex the index of the accessions of the FASTA file
+     */
+    public void setAccessionIndex(AccessionIndex accessionIndex) {
+        this.accessionIndex = accessionIndex;
     }
 
     /**
      * Returns a map of all indexes of the FASTA file (accession &gt; index).
+     * Note that the map is built upon every call, use getIndex(String
+     * accession) to query single accessions.
      *
      * @return a map of all indexes of the FASTA file (accession &gt; index)
      */
     public HashMap<String, Long> getIndexes() {
-        return indexes;
+        return getLoadedAccessionIndex().getIndexes();
     }
 
     /**
@@ -138,16 +266,17 @@ public class FastaIndex extends ExperimentObject {
      * @return true if the given accession number is a decoy
      */
     public boolean isDecoy(String accession) {
-        return decoyAccessions.contains(accession);
+        return getLoadedAccessionIndex().isDecoy(accession);
     }
 
     /**
-     * Returns the list of decoy accessions.
+     * Returns the list of decoy accessions. Note that the set is built upon
+     * every call, use isDecoy(String accession) to query single accessions.
      *
      * @return the list of decoy accessions
      */
     public HashSet<String> getDecoyAccesions() {
-        return decoyAccessions;
+        return getLoadedAccessionIndex().getDecoyAccessions();
     }
 
     /**
@@ -157,7 +286,11 @@ public class FastaIndex extends ExperimentObject {
      * @return the index of the accession of interest
      */
     public Long getIndex(String accession) {
-        return indexes.get(accession);
+        long index = getLoadedAccessionIndex().getIndex(accession);
+        if (index == -1) {
+            return null;
+        }
+        return index;
     }
 
     /**
@@ -196,7 +329,7 @@ public class FastaIndex extends ExperimentObject {
      * @return the number of sequences in the databases.
      */
     public int getNSequences() {
-        return indexes.size();
+        return getLoadedAccessionIndex().size();
     }
 
     /**
@@ -397,4 +530,16 @@ public class FastaIndex extends ExperimentObject {
     public int[] getAaOccurrence() {
         return aaOccurrence;
     }
+
+    /**
+     * Returns the number of residues of every amino acid letter in the target
+     * proteins indexed by letter from A to Z. Null if not computed at
+     * indexing.
+     *
+     * @return the number of residues of every amino acid letter in the target
+     * proteins
+     */
+    public long[] getResidueCounts() {
+        return residueCounts;
+    }
 }
@@ -0,0 +1,588 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.Atom;
+import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
+import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Indexes FASTA files in parallel. The file is split in chunks which are
+ * parsed by different threads, every chunk taking care of the headers
+ * starting within its boundaries. The results of the chunks are then merged
+ * in the order of the file. The residue counts and the molecular weight of
+ * every protein are computed while parsing.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexer {
+
+    /**
+     * The minimal size of a chunk in bytes.
+     */
+    public static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * The size of the buffer used to read the chunks.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The monoisotopic mass of every amino acid letter indexed by letter from
+     * A to Z.
+     */
+    private static final double[] RESIDUE_MASSES = getResidueMasses();
+    /**
+     * The FASTA file to index.
+     */
+    private final File fastaFile;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file to index
+     * @param nThreads the number of threads to use
+     */
+    public FastaIndexer(File fastaFile, int nThreads) {
+        this.fastaFile = fastaFile;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Indexes the FASTA file. Non-valid FASTA files will throw an exception.
+     *
+     * @param name the name of the database. Set to file name if null.
+     * @param decoyTag the decoy tag. Will be inferred if null.
+     * @param version the version. Last modification of the file will be used
+     * if null.
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public FastaIndex createFastaIndex(String name, String decoyTag, String version, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        long lastModified = fastaFile.lastModified();
+        long fileLength = fastaFile.length();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, fileLength / (4L * nThreads) + 1);
+        int nChunks = (int) Math.max(1, (fileLength + chunkSize - 1) / chunkSize);
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nChunks + 1);
+        }
+
+        // Parse the chunks
+        ArrayList<FastaChunk> chunks = new ArrayList<FastaChunk>(nChunks);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayList<Future<FastaChunk>> futures = new ArrayList<Future<FastaChunk>>(nChunks);
+            for (int i = 0; i < nChunks; i++) {
+                long start = i * chunkSize;
+                long end = Math.min(fileLength, start + chunkSize);
+                futures.add(pool.submit(new FastaChunk(start, end, decoyTag, waitingHandler)));
+            }
+            for (Future<FastaChunk> future : futures) {
+                try {
+                    chunks.add(future.get());
+                } catch (ExecutionException e) {
+                    throw Util.getExecutionException(e, "An error occurred while indexing " + fastaFile.getName() + ".", IOException.class);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Merge the chunks
+        int nSequences = 0;
+        for (FastaChunk chunk : chunks) {
+            nSequences += chunk.accessions.size();
+            if (decoyTag == null) {
+                for (String accession : chunk.accessions) {
+                    decoyTag = SequenceFactory.getDecoyFlag(accession);
+                    if (decoyTag != null) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        String[] accessions = new String[nSequences];
+        long[] indexes = new long[nSequences];
+        boolean[] decoys = new boolean[nSequences];
+        double[] molecularWeights = new double[nSequences];
+        boolean decoy = false, defaultReversed = false;
+        int nTarget = 0;
+        HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
+        HashMap<String, Integer> species = new HashMap<String, Integer>();
+        long[] aaCounts = new long[26];
+        long nAAs = 0;
+        long[] residueCounts = new long[26];
+        int decoyBit = SequenceFactory.getDecoyFlagBit(decoyTag);
+
+        int i = 0;
+        for (FastaChunk chunk : chunks) {
+            for (int j = 0; j < chunk.accessions.size(); j++) {
+                String accession = chunk.accessions.get(j);
+                accessions[i] = accession;
+                indexes[i] = chunk.indexes[j];
+                molecularWeights[i] = chunk.molecularWeights[j];
+                if (decoyTag == null || !SequenceFactory.isDecoy(accession, decoyTag)) {
+                    nTarget++;
+                    Header.DatabaseType databaseType = chunk.databaseTypes.get(j);
+                    Integer typeCounter = databaseTypes.get(databaseType);
+                    databaseTypes.put(databaseType, typeCounter == null ? 1 : typeCounter + 1);
+                    String taxonomy = chunk.taxonomies.get(j);
+                    Integer occurrence = species.get(taxonomy);
+                    species.put(taxonomy, occurrence == null ? 1 : occurrence + 1);
+                } else {
+                    decoys[i] = true;
+                    if (!decoy) {
+                        decoy = true;
+                        if (accession.endsWith(SequenceFactory.getDefaultDecoyAccessionSuffix())) {
+                            defaultReversed = true;
+                        }
+                    }
+                }
+                i++;
+            }
+            for (int k = 0; k < aaCounts.length; k++) {
+                aaCounts[k] += chunk.aaCounts[k];
+                nAAs += chunk.aaCounts[k];
+                residueCounts[k] += chunk.targetResidueCounts[k];
+            }
+            // proteins carrying a default decoy tag are targets unless they match the tag of the database
+            for (int mask : chunk.flaggedResidueCounts.keySet()) {
+                if ((mask & decoyBit) == 0) {
+                    long[] flaggedCounts = chunk.flaggedResidueCounts.get(mask);
+                    for (int k = 0; k < residueCounts.length; k++) {
+                        residueCounts[k] += flaggedCounts[k];
+                    }
+                }
+            }
+        }
+
+        AccessionIndex accessionIndex = new AccessionIndex(accessions, indexes, decoys, molecularWeights, lastModified);
+
+        if (waitingHandler != null) {
+            waitingHandler.increaseSecondaryProgressCounter();
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (version == null) {
+            version = FastaIndex.getDefaultVersion(lastModified);
+        }
+
+        String fileName = fastaFile.getName();
+        if (name == null) {
+            name = Util.removeExtension(fileName);
+        }
+
+        // find the main database type
+        Header.DatabaseType mainDatabaseType = null;
+        int maxCounter = 0;
+        for (Header.DatabaseType databaseType : databaseTypes.keySet()) {
+            int counter = databaseTypes.get(databaseType);
+            if (counter > maxCounter) {
+                maxCounter = counter;
+                mainDatabaseType = databaseType;
+            }
+        }
+
+        // Scale the amino acid occurrences
+        int[] aaOccurrence = new int[aaCounts.length];
+        if (nAAs > 0) {
+            for (int k = 0; k < aaCounts.length; k++) {
+                aaOccurrence[k] = (int) (((double) aaCounts[k]) * SequenceFactory.nAaOccurrence / nAAs);
+            }
+        }
+
+        return new FastaIndex(accessionIndex, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species, aaOccurrence, residueCounts);
+    }
+
+    /**
+     * Counts the residues of the given sequence and returns the molecular
+     * weight of the protein in kDa, computed as in
+     * Protein.computeMolecularWeight. Only capital letters are counted, other
+     * characters than stop codons make the molecular weight NaN.
+     *
+     * @param sequence the protein sequence
+     * @param residueCounts the array where to add the residue counts indexed
+     * by letter from A to Z, can be null
+     *
+     * @return the molecular weight of the protein in kDa
+     */
+    static double countResidues(CharSequence sequence, long[] residueCounts) {
+        double mass = Atom.H.getMonoisotopicMass();
+        for (int i = 0; i < sequence.length(); i++) {
+            char aa = sequence.charAt(i);
+            if (AminoAcid.isAa(aa)) {
+                mass += RESIDUE_MASSES[aa - 'A'];
+                if (residueCounts != null) {
+                    residueCounts[aa - 'A']++;
+                }
+            } else if (aa != '*') {
+                mass = Double.NaN;
+            }
+        }
+        mass += Atom.H.getMonoisotopicMass() + Atom.O.getMonoisotopicMass();
+        return mass / 1000;
+    }
+
+    /**
+     * Returns the monoisotopic mass of every amino acid letter indexed by
+     * letter from A to Z.
+     *
+     * @return the monoisotopic mass of every amino acid letter
+     */
+    private static double[] getResidueMasses() {
+        double[] masses = new double[26];
+        for (int i = 0; i < masses.length; i++) {
+            masses[i] = AminoAcid.getAminoAcid((char) ('A' + i)).getMonoisotopicMass();
+        }
+        return masses;
+    }
+
+    /**
+     * A chunk of the FASTA file. Parses the entries whose header starts within
+     * the boundaries of the chunk.
+     */
+    private class FastaChunk implements Callable<FastaChunk> {
+
+        /**
+         * The start of the chunk in the file.
+         */
+        private final long start;
+        /**
+         * The end of the chunk in the file (exclusive).
+         */
+        private final long end;
+        /**
+         * The decoy tag, null if not known.
+         */
+        private final String decoyTag;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The accessions found in the chunk.
+         */
+        private final ArrayList<String> accessions = new ArrayList<String>();
+        /**
+         * The index of the header of every accession in the file.
+         */
+        private long[] indexes = new long[1024];
+        /**
+         * The molecular weight of every protein in kDa.
+         */
+        private double[] molecularWeights = new double[1024];
+        /**
+         * The database type of every accession.
+         */
+        private final ArrayList<Header.DatabaseType> databaseTypes = new ArrayList<Header.DatabaseType>();
+        /**
+         * The taxonomy of every accession.
+         */
+        private final ArrayList<String> taxonomies = new ArrayList<String>();
+        /**
+         * The occurrence of every amino acid letter.
+         */
+        private final long[] aaCounts = new long[26];
+        /**
+         * The residue counts of the target proteins.
+         */
+        private final long[] targetResidueCounts = new long[26];
+        /**
+         * The residue counts of the proteins carrying default decoy tags when
+         * the decoy tag is not known, indexed by mask of the tags.
+         */
+        private final HashMap<Integer, long[]> flaggedResidueCounts = new HashMap<Integer, long[]>();
+        /**
+         * The residue counts of the current protein.
+         */
+        private final long[] proteinResidueCounts = new long[26];
+        /**
+         * Cache for the taxonomy strings.
+         */
+        private final HashMap<String, String> taxonomyCache = new HashMap<String, String>();
+        /**
+         * The stream on the file.
+         */
+        private InputStream inputStream;
+        /**
+         * The position of the stream in the file.
+         */
+        private long position;
+        /**
+         * Buffer for the current line.
+         */
+        private char[] line = new char[256];
+        /**
+         * The length of the current line.
+         */
+        private int lineLength;
+
+        /**
+         * Constructor.
+         *
+         * @param start the start of the chunk in the file
+         * @param end the end of the chunk in the file (exclusive)
+         * @param decoyTag the decoy tag, null if not known
+         * @param waitingHandler the waiting handler
+         */
+        public FastaChunk(long start, long end, String decoyTag, WaitingHandler waitingHandler) {
+            this.start = start;
+            this.end = end;
+            this.decoyTag = decoyTag;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public FastaChunk call() throws Exception {
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(fastaFile, "r");
+
+            try {
+
+                position = start == 0 ? 0 : start - 1;
+                randomAccessFile.getChannel().position(position);
+                inputStream = new BufferedInputStream(Channels.newInputStream(randomAccessFile.getChannel()), BUFFER_SIZE);
+
+                // Move to the beginning of the first line starting in the chunk
+                if (start > 0) {
+                    readLine();
+                }
+
+                String accession = null;
+                StringBuilder sequenceBuilder = new StringBuilder();
+
+                while (true) {
+
+                    long lineStart = position;
+                    boolean endOfFile = !readLine();
+
+                    if (endOfFile || lineLength > 0 && line[0] == '>') {
+
+                        // as in the sequential indexing, the last sequence of the file is not validated
+                        if (accession != null && sequenceBuilder.length() != 0) {
+                            countAminoAcids(accession, sequenceBuilder, !endOfFile);
+                        }
+
+                        if (endOfFile || lineStart >= end) {
+                            break;
+                        }
+
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+
+                        accession = addHeader(new String(line, 0, lineLength), lineStart);
+                        sequenceBuilder.setLength(0);
+
+                    } else if (accession != null) {
+
+                        appendTrimmed(sequenceBuilder);
+
+                    }
+                }
+
+            } finally {
+                randomAccessFile.close();
+            }
+
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+
+            return this;
+        }
+
+        /**
+         * Reads the next line in the line buffer. Bytes are converted to
+         * characters one to one. Lines can be terminated by a line feed, a
+         * carriage return, or a carriage return followed by a line feed.
+         *
+         * @return a boolean indicating whether a line was read, false if the
+         * end of the file was reached
+         *
+         * @throws IOException exception thrown if an error occurred while
+         * reading the file
+         */
+        private boolean readLine() throws IOException {
+
+            lineLength = 0;
+            int b = inputStream.read();
+
+            if (b == -1) {
+                return false;
+            }
+
+            while (b != -1) {
+                position++;
+                if (b == '\n') {
+                    break;
+                }
+                if (b == '\r') {
+                    inputStream.mark(1);
+                    int next = inputStream.read();
+                    if (next == '\n') {
+                        position++;
+                    } else if (next != -1) {
+                        inputStream.reset();
+                    }
+                    break;
+                }
+                if (lineLength == line.length) {
+                    char[] newLine = new char[2 * line.length];
+                    System.arraycopy(line, 0, newLine, 0, lineLength);
+                    line = newLine;
+                }
+                line[lineLength++] = (char) b;
+                b = inputStream.read();
+            }
+
+            return true;
+        }
+
+        /**
+         * Appends the current line without leading and trailing white spaces
+         * to the given builder.
+         *
+         * @param sequenceBuilder the builder
+         */
+        private void appendTrimmed(StringBuilder sequenceBuilder) {
+            int lineStart = 0;
+            int lineEnd = lineLength;
+            while (lineStart < lineEnd && line[lineStart] <= ' ') {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && line[lineEnd - 1] <= ' ') {
+                lineEnd--;
+            }
+            sequenceBuilder.append(line, lineStart, lineEnd - lineStart);
+        }
+
+        /**
+         * Parses the given header and stores its accession.
+         *
+         * @param headerLine the header line
+         * @param index the index of the header in the file
+         *
+         * @return the accession of the header
+         */
+        private String addHeader(String headerLine, long index) {
+
+            Header fastaHeader = Header.parseFromFASTA(headerLine);
+            String accession = fastaHeader.getAccessionOrRest();
+
+            if (accession == null) {
+                throw new IllegalArgumentException("No accession found for header " + headerLine + ".");
+            }
+
+            // check accessions for quotation marks
+            if (accession.lastIndexOf("'") != -1 || accession.lastIndexOf("\"") != -1) {
+                throw new IllegalArgumentException("Accession numbers cannot contain quotation marks: \'" + accession + "\'!\nPlease check your FASTA file.");
+            }
+
+            int rank = accessions.size();
+            if (rank == indexes.length) {
+                long[] newIndexes = new long[2 * indexes.length];
+                System.arraycopy(indexes, 0, newIndexes, 0, rank);
+                indexes = newIndexes;
+                double[] newMolecularWeights = new double[2 * molecularWeights.length];
+                System.arraycopy(molecularWeights, 0, newMolecularWeights, 0, rank);
+                molecularWeights = newMolecularWeights;
+            }
+            indexes[rank] = index;
+            molecularWeights[rank] = Double.NaN;
+            accessions.add(accession);
+            databaseTypes.add(fastaHeader.getDatabaseType());
+
+            String taxonomy = fastaHeader.getTaxonomy();
+            if (taxonomy == null || taxonomy.equals("")) {
+                taxonomy = SpeciesFactory.UNKNOWN;
+            }
+            String cachedTaxonomy = taxonomyCache.get(taxonomy);
+            if (cachedTaxonomy == null) {
+                taxonomyCache.put(taxonomy, taxonomy);
+                cachedTaxonomy = taxonomy;
+            }
+            taxonomies.add(cachedTaxonomy);
+
+            return accession;
+        }
+
+        /**
+         * Validates the given sequence, counts its amino acids and computes
+         * the molecular weight of the protein, which must be the last added.
+         *
+         * @param accession the accession of the protein
+         * @param sequenceBuilder the sequence of the protein
+         * @param validate boolean indicating whether the sequence should be
+         * validated
+         */
+        private void countAminoAcids(String accession, StringBuilder sequenceBuilder, boolean validate) {
+
+            String sequence = SequenceFactory.importSequenceFromFasta(sequenceBuilder);
+
+            if (validate) {
+                try {
+                    SequenceFactory.validateSequence(sequence.toCharArray());
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + ": " + e.toString());
+                }
+            }
+
+            Arrays.fill(proteinResidueCounts, 0);
+            molecularWeights[accessions.size() - 1] = countResidues(sequence, proteinResidueCounts);
+
+            long[] residueCounts;
+            if (decoyTag != null) {
+                residueCounts = SequenceFactory.isDecoy(accession, decoyTag) ? null : targetResidueCounts;
+            } else {
+                int mask = SequenceFactory.getDecoyFlagsMask(accession);
+                if (mask == 0) {
+                    residueCounts = targetResidueCounts;
+                } else {
+                    residueCounts = flaggedResidueCounts.get(mask);
+                    if (residueCounts == null) {
+                        residueCounts = new long[26];
+                        flaggedResidueCounts.put(mask, residueCounts);
+                    }
+                }
+            }
+
+            for (int i = 0; i < proteinResidueCounts.length; i++) {
+                long count = proteinResidueCounts[i];
+                if (residueCounts != null) {
+                    residueCounts[i] += count;
+                }
+                if (AminoAcid.isUniqueAa((char) ('A' + i))) {
+                    aaCounts[i] += count;
+                }
+            }
+        }
+    }
+}
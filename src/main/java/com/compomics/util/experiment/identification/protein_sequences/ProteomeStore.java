@@ -0,0 +1,367 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory.ProteinIterator;
+import com.compomics.util.protein.Header;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable in-memory store of the protein sequences of a database. The
+ * residues of all proteins are concatenated in a single byte array using one
+ * byte per residue, the proteins are referenced by their rank in the database
+ * and accessions are looked up by binary search. Sequences are provided as
+ * CharSequence views on the byte array without copy.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteomeStore {
+
+    /**
+     * The charset used to convert residues to strings, one byte per character.
+     */
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+    /**
+     * The database types.
+     */
+    private static final Header.DatabaseType[] DATABASE_TYPES = Header.DatabaseType.values();
+    /**
+     * The residues of all proteins.
+     */
+    private final byte[] residues;
+    /**
+     * The start of every protein in the residues array, the last element is
+     * the total number of residues.
+     */
+    private final int[] starts;
+    /**
+     * The accessions of the proteins in the order of the database.
+     */
+    private final String[] accessions;
+    /**
+     * The ranks of the proteins sorted by accession.
+     */
+    private final int[] accessionOrder;
+    /**
+     * The ordinal of the database type of every protein.
+     */
+    private final byte[] databaseTypes;
+    /**
+     * The decoy status of every protein.
+     */
+    private final boolean[] decoys;
+
+    /**
+     * Constructor.
+     *
+     * @param residues the residues of all proteins
+     * @param starts the start of every protein in the residues array followed
+     * by the total number of residues
+     * @param accessions the accessions of the proteins
+     * @param databaseTypes the ordinal of the database type of every protein
+     * @param decoys the decoy status of every protein
+     */
+    private ProteomeStore(byte[] residues, int[] starts, final String[] accessions, byte[] databaseTypes, boolean[] decoys) {
+
+        this.residues = residues;
+        this.starts = starts;
+        this.accessions = accessions;
+        this.databaseTypes = databaseTypes;
+        this.decoys = decoys;
+
+        Integer[] order = new Integer[accessions.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return accessions[o1].compareTo(accessions[o2]);
+            }
+        });
+        accessionOrder = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            accessionOrder[i] = order[i];
+        }
+    }
+
+    /**
+     * Builds a store from the proteins of the given iterator.
+     *
+     * @param proteinIterator an iterator on the proteins to store
+     * @param waitingHandler a waiting handler allowing the canceling of the
+     * process, can be null
+     *
+     * @return the store, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the proteins
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred while reading the proteins
+     * @throws IllegalArgumentException if the proteins cannot be stored in a
+     * single array or if a sequence contains characters not encodable on one
+     * byte
+     */
+    public static ProteomeStore build(ProteinIterator proteinIterator, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        byte[] residues = new byte[1024 * 1024];
+        int[] starts = new int[1024];
+        String[] accessions = new String[1024];
+        byte[] databaseTypes = new byte[1024];
+        boolean[] decoys = new boolean[1024];
+        int nProteins = 0;
+        int nResidues = 0;
+
+        while (proteinIterator.hasNext()) {
+
+            Protein protein = proteinIterator.getNextProtein();
+            String sequence = protein.getSequence();
+            int length = sequence.length();
+
+            if ((long) nResidues + length > Integer.MAX_VALUE - 8) {
+                proteinIterator.close();
+                throw new IllegalArgumentException("Too many residues to be stored in memory.");
+            }
+            if (nResidues + length > residues.length) {
+                residues = Arrays.copyOf(residues, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * residues.length, (long) nResidues + length)));
+            }
+            if (nProteins + 1 == starts.length) {
+                int newLength = 2 * starts.length;
+                starts = Arrays.copyOf(starts, newLength);
+                accessions = Arrays.copyOf(accessions, newLength);
+                databaseTypes = Arrays.copyOf(databaseTypes, newLength);
+                decoys = Arrays.copyOf(decoys, newLength);
+            }
+
+            starts[nProteins] = nResidues;
+            for (int i = 0; i < length; i++) {
+                char aa = sequence.charAt(i);
+                if (aa > 255) {
+                    proteinIterator.close();
+                    throw new IllegalArgumentException("Character " + aa + " found in the sequence of " + protein.getAccession() + " cannot be stored.");
+                }
+                residues[nResidues++] = (byte) aa;
+            }
+            accessions[nProteins] = protein.getAccession();
+            Header.DatabaseType databaseType = protein.getDatabaseType();
+            databaseTypes[nProteins] = databaseType == null ? -1 : (byte) databaseType.ordinal();
+            decoys[nProteins] = protein.isDecoy();
+            nProteins++;
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                proteinIterator.close();
+                return null;
+            }
+        }
+
+        starts[nProteins] = nResidues;
+
+        return new ProteomeStore(Arrays.copyOf(residues, nResidues), Arrays.copyOf(starts, nProteins + 1), Arrays.copyOf(accessions, nProteins),
+                Arrays.copyOf(databaseTypes, nProteins), Arrays.copyOf(decoys, nProteins));
+    }
+
+    /**
+     * Returns the number of proteins in the store.
+     *
+     * @return the number of proteins in the store
+     */
+    public int size() {
+        return accessions.length;
+    }
+
+    /**
+     * Returns the total number of residues in the store.
+     *
+     * @return the total number of residues in the store
+     */
+    public int getNResidues() {
+        return residues.length;
+    }
+
+    /**
+     * Returns the rank of the protein with the given accession in the
+     * database, -1 if not found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the rank of the protein in the database
+     */
+    public int getRank(String accession) {
+        int low = 0;
+        int high = accessionOrder.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int rank = accessionOrder[mid];
+            int comparison = accessions[rank].compareTo(accession);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return rank;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the accession of the protein at the given rank.
+     *
+     * @param rank the rank of the protein
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int rank) {
+        return accessions[rank];
+    }
+
+    /**
+     * Returns the length of the protein at the given rank.
+     *
+     * @param rank the rank of the protein
+     *
+     * @return the length of the protein
+     */
+    public int getLength(int rank) {
+        return starts[rank + 1] - starts[rank];
+    }
+
+    /**
+     * Returns the database type of the protein at the given rank.
+     *
+     * @param rank the rank of the protein
+     *
+     * @return the database type of the protein
+     */
+    public Header.DatabaseType getDatabaseType(int rank) {
+        byte ordinal = databaseTypes[rank];
+        return ordinal == -1 ? null : DATABASE_TYPES[ordinal];
+    }
+
+    /**
+     * Indicates whether the protein at the given rank is a decoy.
+     *
+     * @param rank the rank of the protein
+     *
+     * @return a boolean indicating whether the protein is a decoy
+     */
+    public boolean isDecoy(int rank) {
+        return decoys[rank];
+    }
+
+    /**
+     * Returns a view on the sequence of the protein at the given rank.
+     *
+     * @param rank the rank of the protein
+     *
+     * @return a view on the sequence of the protein
+     */
+    public CharSequence getSequence(int rank) {
+        int start = starts[rank];
+        return new ResidueSequence(residues, start, starts[rank + 1] - start);
+    }
+
+    /**
+     * Returns a view on the sequence of the protein with the given accession,
+     * null if not found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return a view on the sequence of the protein
+     */
+    public CharSequence getSequence(String accession) {
+        int rank = getRank(accession);
+        if (rank == -1) {
+            return null;
+        }
+        return getSequence(rank);
+    }
+
+    /**
+     * Returns the protein at the given rank. Note that the sequence is copied
+     * upon every call.
+     *
+     * @param rank the rank of the protein
+     *
+     * @return the protein
+     */
+    public Protein getProtein(int rank) {
+        int start = starts[rank];
+        String sequence = new String(residues, start, starts[rank + 1] - start, CHARSET);
+        return new Protein(accessions[rank], getDatabaseType(rank), sequence, decoys[rank]);
+    }
+
+    /**
+     * Copies the residues of the protein at the given rank to the given array.
+     *
+     * @param rank the rank of the protein
+     * @param destination the destination array
+     * @param destinationPosition the position where to copy the residues in
+     * the destination array
+     */
+    public void copyResidues(int rank, byte[] destination, int destinationPosition) {
+        int start = starts[rank];
+        System.arraycopy(residues, start, destination, destinationPosition, starts[rank + 1] - start);
+    }
+
+    /**
+     * View on a sequence of residues.
+     */
+    private static class ResidueSequence implements CharSequence {
+
+        /**
+         * The residues array.
+         */
+        private final byte[] residues;
+        /**
+         * The start of the sequence in the array.
+         */
+        private final int start;
+        /**
+         * The length of the sequence.
+         */
+        private final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param residues the residues array
+         * @param start the start of the sequence in the array
+         * @param length the length of the sequence
+         */
+        private ResidueSequence(byte[] residues, int start, int length) {
+            this.residues = residues;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length + ".");
+            }
+            return (char) (residues[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Subsequence " + start + "-" + end + " out of bounds for length " + length + ".");
+            }
+            return new ResidueSequence(residues, this.start + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(residues, start, length, CHARSET);
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.Protein;
-import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
@@ -18,16 +17,18 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import com.compomics.util.protein.Header;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import javax.swing.JProgressBar;
-import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
  * Factory retrieving the information of the loaded FASTA file.
@@ -45,19 +46,29 @@ public class SequenceFactory {
     /**
      * Map of the currently loaded Headers.
      */
-    private HashMap<String, Header> currentHeaderMap = new HashMap<String, Header>();
+    private final ConcurrentHashMap<String, Header> currentHeaderMap = new ConcurrentHashMap<String, Header>();
     /**
      * Map of the currently loaded proteins.
      */
-    private HashMap<String, Protein> currentProteinMap = new HashMap<String, Protein>();
+    private final ConcurrentHashMap<String, Protein> currentProteinMap = new ConcurrentHashMap<String, Protein>();
     /**
      * Index of the FASTA file.
      */
-    private FastaIndex fastaIndex = null;
+    private volatile FastaIndex fastaIndex = null;
     /**
-     * Random access file of the current FASTA file.
+     * The in-memory store of the sequences of the FASTA file, null if not
+     * loaded.
      */
-    private BufferedRandomAccessFile currentRandomAccessFile = null;
+    private volatile ProteomeStore proteomeStore = null;
+    /**
+     * Random access file of the current FASTA file. The file is read using
+     * positional reads on its channel, allowing concurrent reads.
+     */
+    private volatile RandomAccessFile currentRandomAccessFile = null;
+    /**
+     * The size of the buffer used to read the entries of the FASTA file.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
     /**
      * The FASTA file currently loaded.
      */
@@ -68,25 +79,30 @@ public class SequenceFactory {
      */
     private int nCache = 1000000;
     /**
-     * List of accessions of the loaded proteins.
+     * Queue of accessions of the loaded proteins in the order of loading.
      */
-    private ArrayList<String> loadedProteins = new ArrayList<String>();
+    private final ConcurrentLinkedQueue<String> loadedProteins = new ConcurrentLinkedQueue<String>();
+    /**
+     * The number of proteins in cache.
+     */
+    private final AtomicInteger nLoadedProteins = new AtomicInteger();
     /**
      * Recognized flags for a decoy protein.
      */
     private static final String[] DECOY_FLAGS = {"REVERSED", "RND", "SHUFFLED", "DECOY"};
+    /**
+     * Cache of the compiled patterns matching the decoy flags at the start and
+     * at the end of the accessions.
+     */
+    private static final ConcurrentHashMap<String, Pattern[]> decoyPatterns = new ConcurrentHashMap<String, Pattern[]>();
     /**
      * HashMap of the currently calculated protein molecular weights.
      */
-    private HashMap<String, Double> molecularWeights = new HashMap<String, Double>();
+    private final ConcurrentHashMap<String, Double> molecularWeights = new ConcurrentHashMap<String, Double>();
     /**
      * The default peptide to protein mapper.
      */
     private PeptideMapper defaultPeptideMapper = null;
-    /**
-     * Boolean indicating that the factory is reading the file.
-     */
-    private boolean reading = false;
     /**
      * The time out in milliseconds when querying the file.
      */
@@ -162,9 +178,11 @@ public class SequenceFactory {
         currentHeaderMap.clear();
         currentProteinMap.clear();
         fastaIndex = null;
+        proteomeStore = null;
         currentRandomAccessFile = null;
         currentFastaFile = null;
         loadedProteins.clear();
+        nLoadedProteins.set(0);
         molecularWeights.clear();
     }
 
@@ -175,6 +193,7 @@ public class SequenceFactory {
         currentHeaderMap.clear();
         currentProteinMap.clear();
         loadedProteins.clear();
+        nLoadedProteins.set(0);
         molecularWeights.clear();
         if (defaultPeptideMapper != null) {
             defaultPeptideMapper.emptyCache();
@@ -220,6 +239,20 @@ public class SequenceFactory {
 
         Protein currentProtein = currentProteinMap.get(accession);
 
+        if (currentProtein == null) {
+            ProteomeStore currentProteomeStore = proteomeStore;
+            if (currentProteomeStore != null) {
+                int rank = currentProteomeStore.getRank(accession);
+                if (rank != -1) {
+                    currentProtein = currentProteomeStore.getProtein(rank);
+                    if (decoyInMemory || !currentProteomeStore.isDecoy(rank)) {
+                        currentProtein = addProteinToCache(accession, currentProtein);
+                    }
+                    return currentProtein;
+                }
+            }
+        }
+
         if (currentProtein == null && isDefaultReversed() && isDecoyAccession(accession)) {
             if (decoyInMemory) {
                 currentProtein = getDecoyProteinFromTargetSynchronized(accession, reindex);
@@ -229,7 +262,7 @@ public class SequenceFactory {
         }
 
         if (currentProtein == null) {
-            currentProtein = getProteinSynchronized(accession, reindex);
+            currentProtein = getProteinFromFile(accession, reindex);
         }
         if (currentProtein == null) {
             throw new IllegalArgumentException("Protein not found: " + accession + ".");
@@ -240,7 +273,8 @@ public class SequenceFactory {
 
     /**
      * Returns a decoy protein from a target protein or looks for the sequence
-     * in the cache if not found.
+     * in the cache if not found. Note: the factory is not locked anymore, this
+     * method is equivalent to getDecoyProteinFromTarget.
      *
      * @param accession the accession of the decoy protein to look for
      * @param reindex a boolean indicating whether the database should be
@@ -252,7 +286,7 @@ public class SequenceFactory {
      * @throws IllegalArgumentException if an IllegalArgumentException occurs
      * @throws FileNotFoundException if a FileNotFoundException occurs
      */
-    public synchronized Protein getDecoyProteinFromTargetSynchronized(String accession, boolean reindex)
+    public Protein getDecoyProteinFromTargetSynchronized(String accession, boolean reindex)
             throws IOException, IllegalArgumentException, FileNotFoundException {
 
         // check whether another thread did the job already
@@ -283,14 +317,14 @@ public class SequenceFactory {
         try {
             Protein targetProtein = currentProteinMap.get(targetAccession);
             if (targetProtein == null && decoyInMemory) {
-                currentProtein = getProteinSynchronized(accession, reindex);
+                currentProtein = getProteinFromFile(accession, reindex);
             } else {
                 if (targetProtein == null) {
                     targetProtein = getProtein(targetAccession, reindex);
                 }
                 currentProtein = new Protein(accession, targetProtein.getDatabaseType(), reverseSequence(targetProtein.getSequence()), true);
                 if (decoyInMemory) {
-                    addProteinToCache(accession, currentProtein);
+                    currentProtein = addProteinToCache(accession, currentProtein);
                 }
             }
         } catch (Exception e) {
@@ -301,8 +335,8 @@ public class SequenceFactory {
 
     /**
      * Returns the desired protein. Eventually re-indexes the database if the
-     * protein is not found. Synchronized version serving as a queue for
-     * threads.
+     * protein is not found. The protein is read from the FASTA file if not in
+     * cache.
      *
      * @param accession accession of the desired protein
      * @param reindex a boolean indicating whether the database should be
@@ -314,7 +348,7 @@ public class SequenceFactory {
      * while reading the FASTA file
      * @throws InterruptedException
      */
-    private synchronized Protein getProteinSynchronized(String accession, boolean reindex) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
+    private Protein getProteinFromFile(String accession, boolean reindex) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
 
         Protein currentProtein = currentProteinMap.get(accession);
 
@@ -324,7 +358,7 @@ public class SequenceFactory {
 
             if (index == null) {
                 if (reindex) {
-                    fastaIndex = getFastaIndex(true, null);
+                    reindex();
                     return getProtein(accession, false);
                 }
                 throw new IllegalArgumentException("Protein not found: " + accession + ".");
@@ -336,6 +370,16 @@ public class SequenceFactory {
         return currentProtein;
     }
 
+    /**
+     * Re-indexes the FASTA file loaded in the factory.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     */
+    private synchronized void reindex() throws IOException {
+        fastaIndex = getFastaIndex(true, null);
+    }
+
     /**
      * Returns the protein indexed by the given index. It can be that the IO is
      * busy (especially when working on distant servers) thus returning an
@@ -350,60 +394,176 @@ public class SequenceFactory {
      * @throws IOException
      * @throws IllegalArgumentException
      */
-    private synchronized Protein getProtein(String accession, long index, long waitingTime) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
+    private Protein getProtein(String accession, long index, long waitingTime) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
         }
 
+        String entry;
         try {
-            if (reading) {
-                throw new IllegalStateException("Attempting to read new line before current read operation is completed.");
+            entry = readEntry(index, false);
+        } catch (IOException e) {
+            if (waitingTime < TIME_OUT) {
+                Thread.sleep(waitingTime);
+                e.printStackTrace();
+                return getProtein(accession, index, 2 * waitingTime);
+            } else {
+                throw e;
             }
-            reading = true;
-            currentRandomAccessFile.seek(index);
-            String line;
-            StringBuilder sequence = new StringBuilder();
-            Header currentHeader = currentHeaderMap.get(accession);
-            boolean headerFound = false;
+        }
 
-            while ((line = currentRandomAccessFile.readLine()) != null) {
-                line = line.trim();
+        StringBuilder sequence = new StringBuilder();
+        Header currentHeader = currentHeaderMap.get(accession);
+        boolean headerFound = false;
 
-                if (line.startsWith(">")) {
-                    if (sequence.length() != 0 || headerFound) {
-                        break;
-                    }
+        for (String line : entry.split("[\\r\\n]+")) {
+            line = line.trim();
+
+            if (line.startsWith(">")) {
+                if (sequence.length() != 0 || headerFound) {
+                    break;
+                }
+                if (currentHeader == null) {
+                    currentHeader = Header.parseFromFASTA(line);
                     if (currentHeader == null) {
-                        currentHeader = Header.parseFromFASTA(line);
-                        if (currentHeader == null) {
-                            throw new IllegalArgumentException("Could not parse FASTA header \"" + line + "\".");
-                        }
-                        currentHeaderMap.put(accession, currentHeader);
+                        throw new IllegalArgumentException("Could not parse FASTA header \"" + line + "\".");
                     }
-                    headerFound = true;
-                } else {
-                    sequence.append(line.trim());
+                    currentHeaderMap.put(accession, currentHeader);
                 }
+                headerFound = true;
+            } else {
+                sequence.append(line);
             }
-            Protein currentProtein = new Protein(accession, currentHeader.getDatabaseType(), importSequenceFromFasta(sequence), isDecoyAccession(accession));
+        }
+        Protein currentProtein = new Protein(accession, currentHeader.getDatabaseType(), importSequenceFromFasta(sequence), isDecoyAccession(accession));
 
-            addProteinToCache(accession, currentProtein);
+        return addProteinToCache(accession, currentProtein);
+    }
 
-            reading = false;
+    /**
+     * Reads the entry starting at the given index in the FASTA file. Bytes are
+     * converted to characters one to one. The file is read using positional
+     * reads and can be accessed by multiple threads concurrently. If the
+     * channel was closed, e.g. following the interruption of a reading thread,
+     * the file is reopened.
+     *
+     * @param index the index of the header of the entry
+     * @param headerOnly if true only the header line is returned
+     *
+     * @return the entry as found in the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     */
+    private String readEntry(long index, boolean headerOnly) throws IOException {
 
-            return currentProtein;
+        RandomAccessFile randomAccessFile = currentRandomAccessFile;
+        FileChannel channel = randomAccessFile.getChannel();
+        if (!channel.isOpen()) {
+            reopenFile(randomAccessFile);
+            randomAccessFile = currentRandomAccessFile;
+            channel = randomAccessFile.getChannel();
+        }
 
-        } catch (IOException e) {
-            reading = false;
-            if (waitingTime < TIME_OUT) {
-                wait(waitingTime);
-                e.printStackTrace();
-                return getProtein(accession, index, 2 * waitingTime);
-            } else {
-                throw e;
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        StringBuilder entry = new StringBuilder();
+        long position = index;
+        boolean lineStart = false;
+
+        while (true) {
+            buffer.clear();
+            int nRead = channel.read(buffer, position);
+            if (nRead <= 0) {
+                return entry.toString();
+            }
+            position += nRead;
+            for (int i = 0; i < nRead; i++) {
+                char c = (char) (bytes[i] & 0xFF);
+                boolean lineBreak = c == '\n' || c == '\r';
+                if (headerOnly && lineBreak
+                        || c == '>' && lineStart) {
+                    return entry.toString();
+                }
+                lineStart = lineBreak;
+                entry.append(c);
+            }
+        }
+    }
+
+    /**
+     * Reopens the FASTA file if the given file is still the current one.
+     *
+     * @param closedFile the closed file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the FASTA file
+     */
+    private synchronized void reopenFile(RandomAccessFile closedFile) throws IOException {
+        if (currentFastaFile == null) {
+            throw new IOException("No FASTA file loaded in the sequence factory.");
+        }
+        if (currentRandomAccessFile == closedFile) {
+            currentRandomAccessFile = new RandomAccessFile(currentFastaFile, "r");
+        }
+    }
+
+    /**
+     * Returns the sequence of the desired protein. If the sequences are
+     * loaded in memory, see loadProteomeStore, a view on the stored sequence
+     * is returned without copy.
+     *
+     * @param accession accession of the desired protein
+     * @return the sequence of the desired protein
+     * @throws IOException thrown whenever an error is encountered while reading
+     * the FASTA file
+     * @throws IllegalArgumentException thrown whenever an error is encountered
+     * while reading the FASTA file
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public CharSequence getSequence(String accession) throws IOException, IllegalArgumentException, InterruptedException {
+        ProteomeStore currentProteomeStore = proteomeStore;
+        if (currentProteomeStore != null) {
+            CharSequence sequence = currentProteomeStore.getSequence(accession);
+            if (sequence != null) {
+                return sequence;
             }
         }
+        return getProtein(accession).getSequence();
+    }
+
+    /**
+     * Returns the in-memory store of the sequences of the loaded FASTA file,
+     * null if not loaded.
+     *
+     * @return the in-memory store of the sequences
+     */
+    public ProteomeStore getProteomeStore() {
+        return proteomeStore;
+    }
+
+    /**
+     * Loads the sequences of the FASTA file in memory if not done already and
+     * returns the corresponding store. Once loaded, proteins missing from the
+     * cache are built from the store instead of being read from the file.
+     *
+     * @param waitingHandler a waiting handler allowing the canceling of the
+     * process, can be null
+     *
+     * @return the in-memory store of the sequences, null if the process was
+     * canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred while reading the FASTA file
+     */
+    public synchronized ProteomeStore loadProteomeStore(WaitingHandler waitingHandler) throws IOException, InterruptedException {
+        if (proteomeStore == null) {
+            proteomeStore = ProteomeStore.build(getProteinIterator(false), waitingHandler);
+        }
+        return proteomeStore;
     }
 
     /**
@@ -437,21 +597,35 @@ public class SequenceFactory {
     }
 
     /**
-     * Adds a protein to the cache and keeps it under the desired size.
+     * Adds a protein to the cache and keeps it under the desired size. If the
+     * protein was added by another thread in the meantime, the cached protein
+     * is returned.
      *
      * @param accession the accession of the protein to add
      * @param protein the protein to add
+     *
+     * @return the protein in cache
      */
-    private synchronized void addProteinToCache(String accession, Protein protein) {
-        while (loadedProteins.size() >= nCache) {
-            String accessionToRemove = loadedProteins.get(0);
+    private Protein addProteinToCache(String accession, Protein protein) {
+
+        Protein cachedProtein = currentProteinMap.putIfAbsent(accession, protein);
+        if (cachedProtein != null) {
+            return cachedProtein;
+        }
+
+        loadedProteins.add(accession);
+        int cacheSize = nLoadedProteins.incrementAndGet();
+        while (cacheSize > nCache) {
+            String accessionToRemove = loadedProteins.poll();
+            if (accessionToRemove == null) {
+                break;
+            }
             currentProteinMap.remove(accessionToRemove);
             currentHeaderMap.remove(accessionToRemove);
-            loadedProteins.remove(0);
+            cacheSize = nLoadedProteins.decrementAndGet();
         }
 
-        loadedProteins.add(accession);
-        currentProteinMap.put(accession, protein);
+        return protein;
     }
 
     /**
@@ -492,7 +666,7 @@ public class SequenceFactory {
 
             if (index == null) {
                 if (reindex) {
-                    fastaIndex = getFastaIndex(true, null);
+                    reindex();
                     result = getHeader(accession, false);
                 }
                 throw new IllegalArgumentException("Protein not found: " + accession + ".");
@@ -521,21 +695,13 @@ public class SequenceFactory {
      * @throws java.lang.InterruptedException exception thrown whenever an error
      * occurred while waiting for the connection to the FASTA file to recover.
      */
-    private synchronized Header getHeader(long index, int nTries) throws InterruptedException, IOException {
+    private Header getHeader(long index, int nTries) throws InterruptedException, IOException {
 
-        if (reading) {
-            throw new IllegalStateException("Attempting to read new line before current read operation is completed.");
-        }
         try {
-            reading = true;
-            currentRandomAccessFile.seek(index);
-            Header result = Header.parseFromFASTA(currentRandomAccessFile.readLine());
-            reading = false;
-            return result;
+            return Header.parseFromFASTA(readEntry(index, true));
         } catch (IOException e) {
-            reading = false;
             if (nTries <= 100) {
-                wait(10);
+                Thread.sleep(10);
                 return getHeader(index, nTries + 1);
             } else {
                 throw e;
@@ -577,8 +743,9 @@ public class SequenceFactory {
         }
 
         defaultPeptideMapper = null;
+        proteomeStore = null;
         currentFastaFile = fastaFile;
-        currentRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
+        currentRandomAccessFile = new RandomAccessFile(fastaFile, "r");
         fastaIndex = getFastaIndex(false, waitingHandler);
     }
 
@@ -600,7 +767,7 @@ public class SequenceFactory {
      */
     public void resetConnection() throws IOException {
         currentRandomAccessFile.close();
-        currentRandomAccessFile = new BufferedRandomAccessFile(currentFastaFile, "r", 1024 * 100);
+        currentRandomAccessFile = new RandomAccessFile(currentFastaFile, "r");
     }
 
     /**
@@ -673,7 +840,15 @@ public class SequenceFactory {
                     if (indexLastModified != null) {
                         long fileLastModified = fastaFile.lastModified();
                         if (indexLastModified == fileLastModified) {
-                            return tempFastaIndex;
+                            File accessionIndexFile = new File(fastaFile.getParent(), AccessionIndex.getIndexName(fileName));
+                            if (accessionIndexFile.exists()) {
+                                AccessionIndex accessionIndex = new AccessionIndex(accessionIndexFile);
+                                if (accessionIndex.getFastaLastModified() == fileLastModified) {
+                                    tempFastaIndex.setAccessionIndex(accessionIndex);
+                                    return tempFastaIndex;
+                                }
+                            }
+                            System.err.println("Reindexing: " + fileName + ". (accession index not found)");
                         } else {
                             System.err.println("Reindexing: " + fileName + ". (changes in the file detected)");
                         }
@@ -725,203 +900,39 @@ public class SequenceFactory {
 
     /**
      * Static method to create a FASTA index for a FASTA file. Non-valid fasta
-     * files will throw an exception.
+     * files will throw an exception. The file is indexed in parallel using
+     * all available processors, see FastaIndexer.
      *
      * @param fastaFile the FASTA file
-     * @param progressBar a progress bar showing the progress
+     * @param name the name of the database. Set to file name if null.
      * @param decoyTag the decoy tag. Will be inferred if null.
-     * @param mainDatabaseType the main database type. Will be inferred if null.
      * @param version the version. last modification of the file will be used if
      * null.
-     * @param name the name of the database. Set to file name if null.
+     * @param waitingHandler a waiting handler showing the progress
      *
      * @return the corresponding FASTA index
      *
      * @throws IOException exception thrown whenever an error occurred while
-     * reading the file
+     * reading the file or if the indexing was interrupted
      */
     private static FastaIndex createFastaIndex(File fastaFile, String name, String decoyTag, String version,
             WaitingHandler waitingHandler) throws IOException {
 
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashSet<String> decoyAccessions = new HashSet<String>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
+        FastaIndexer fastaIndexer = new FastaIndexer(fastaFile, Runtime.getRuntime().availableProcessors());
 
-        if (waitingHandler != null) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(100);
-        }
-
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
-
-        String line;
-        boolean decoy = false, defaultReversed = false;
-        int nTarget = 0;
-        long index = bufferedRandomAccessFile.getFilePointer();
-
-        // a map of the database header types
-        HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
-
-        // a map of the species
-        HashMap<String, Integer> species = new HashMap<String, Integer>();
-        
-        // Keep track of the number of amino acids
-        int[] aaOccurrence = new int[26];
-        LinkedList<int[]> aaOccurrenceList = new LinkedList<int[]>();
-        int nAAs = 0;
-
-        StringBuilder sequenceBuilder = new StringBuilder();
-        String accession = null;
-        int lineNumber = 0;
-
-        while ((line = bufferedRandomAccessFile.readLine()) != null) {
-
-            lineNumber++;
-
-            if (line.startsWith(">")) {
-
-                if (sequenceBuilder.length() != 0 && accession != null) {
-                    String sequence = importSequenceFromFasta(sequenceBuilder);
-                    char[] aaSequence = sequence.toCharArray();
-                    try {
-                        validateSequence(aaSequence);
-                    } catch (Exception e) {
-                        throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + " at line " + lineNumber + ": " + e.toString());
-                    }
-                    for (char aa : aaSequence) {
-                        if (AminoAcid.isUniqueAa(aa)) {
-                            int aaIndex = aa - 65;
-                            aaOccurrence[aaIndex]++;
-                            nAAs++;
-                            if (nAAs == nAaOccurrence) {
-                                aaOccurrenceList.add(aaOccurrence);
-                                aaOccurrence = new int[26];
-                                nAAs = 0;
-                            }
-                        }
-                    }
-                }
-
-                Header fastaHeader = Header.parseFromFASTA(line);
-                accession = fastaHeader.getAccessionOrRest();
-                if (accession == null) {
-                    throw new IllegalArgumentException("No accession found for header at line " + lineNumber + ".");
-                }
-
-//                if (fastaHeader.getStartLocation() != -1) {
-//                    accession += " (" + fastaHeader.getStartLocation() + "-" + fastaHeader.getEndLocation() + ")"; // special dbtoolkit pattern
-//                }
-
-                // check accessions for quotation marks
-                if (accession.lastIndexOf("'") != -1 || accession.lastIndexOf("\"") != -1) {
-                    throw new IllegalArgumentException("Accession numbers cannot contain quotation marks: \'" + accession + "\'!\nPlease check your FASTA file.");
-                }
-
-                // check if the accession number is unique
-                if (indexes.containsKey(accession)) {
-                    throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check your FASTA file.");
-                }
-
-                indexes.put(accession, index);
-                if (decoyTag == null) {
-                    decoyTag = getDecoyFlag(accession);
-                }
-                if (decoyTag == null || !isDecoy(accession, decoyTag)) {
-                    nTarget++;
-
-                    // get the database type
-                    Header.DatabaseType tempDatabaseType = fastaHeader.getDatabaseType();
-                    Integer typeCounter = databaseTypes.get(tempDatabaseType);
-
-                    if (typeCounter == null) {
-                        databaseTypes.put(tempDatabaseType, 1);
-                    } else {
-                        databaseTypes.put(tempDatabaseType, typeCounter + 1);
-                    }
-
-                    // get the species
-                    String taxonomy = fastaHeader.getTaxonomy();
-                    if (taxonomy == null || taxonomy.equals("")) {
-                        taxonomy = SpeciesFactory.UNKNOWN;
-                    }
-                    Integer occurrence = species.get(taxonomy);
-                    if (occurrence == null) {
-                        species.put(taxonomy, 1);
-                    } else {
-                        species.put(taxonomy, occurrence + 1);
-                    }
-
-                } else {
-                    decoyAccessions.add(accession);
-                    if (!decoy) {
-                        decoy = true;
-                        if (accession.endsWith(getDefaultDecoyAccessionSuffix())) {
-                            defaultReversed = true;
-                        }
-                    }
-                }
-
-                if (waitingHandler != null && progressUnit != 0) {
-                    waitingHandler.setSecondaryProgressCounter((int) (index / progressUnit));
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                }
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder = new StringBuilder();
-            } else {
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder.append(line.trim());
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
-
-        long lastModified = fastaFile.lastModified();
-
-        if (version == null) {
-            version = FastaIndex.getDefaultVersion(lastModified);
-        }
-
-        String fileName = fastaFile.getName();
-        if (name == null) {
-            name = Util.removeExtension(fileName);
-        }
-
-        // find the main database type
-        Header.DatabaseType mainDatabaseType = null;
-        int maxCounter = 0;
-        Iterator<Header.DatabaseType> iterator = databaseTypes.keySet().iterator();
-        while (iterator.hasNext()) {
-            Header.DatabaseType tempDatabaseType = iterator.next();
-            if (databaseTypes.get(tempDatabaseType) > maxCounter) {
-                maxCounter = databaseTypes.get(tempDatabaseType);
-                mainDatabaseType = tempDatabaseType;
-            }
-        }
-        
-        // Aggregate the amino acid occurrence lists
-        double scaling = ((double) nAAs)/nAaOccurrence;
-        scaling += aaOccurrenceList.size();
-        double[] aaOccurrenceSummary = new double[aaOccurrence.length];
-        for (int[] aaOccurrenceTemp : aaOccurrenceList) {
-            for (int i = 0 ; i < aaOccurrenceTemp.length ; i++) {
-                aaOccurrenceSummary[i] += ((double) aaOccurrenceTemp[i]) / scaling;
-            }
-        }
-        for (int i = 0 ; i < aaOccurrence.length ; i++) {
-            aaOccurrence[i] = (int) ((((double) aaOccurrence[i]) / scaling) + aaOccurrenceSummary[i]);
+        try {
+            return fastaIndexer.createFastaIndex(name, decoyTag, version, waitingHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruptedIOException = new InterruptedIOException("Indexing of " + fastaFile.getName() + " interrupted.");
+            interruptedIOException.initCause(e);
+            throw interruptedIOException;
         }
-
-        return new FastaIndex(indexes, decoyAccessions, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species, aaOccurrence);
     }
 
     /**
-     * Serializes the FASTA file index in a given directory.
+     * Serializes the FASTA file index in a given directory. The accessions are
+     * written in a separate accession index file.
      *
      * @param fastaIndex the index of the FASTA file
      * @param directory the directory where to write the file
@@ -933,6 +944,11 @@ public class SequenceFactory {
         // Serialize the file index as compomics utilities index
         File destinationFile = new File(directory, getIndexName(fastaIndex.getFileName()));
         SerializationUtils.writeObject(fastaIndex, destinationFile);
+        AccessionIndex accessionIndex = fastaIndex.getAccessionIndex();
+        File accessionIndexFile = new File(directory, AccessionIndex.getIndexName(fastaIndex.getFileName()));
+        if (accessionIndex.getFile() == null || !accessionIndex.getFile().getAbsoluteFile().equals(accessionIndexFile.getAbsoluteFile())) {
+            accessionIndex.write(accessionIndexFile);
+        }
     }
 
     /**
@@ -990,10 +1006,13 @@ public class SequenceFactory {
             return false;
         }
 
-        String start = decoyFlag + ".*";
-        String end = ".*" + decoyFlag;
+        Pattern[] patterns = decoyPatterns.get(decoyFlag);
+        if (patterns == null) {
+            patterns = new Pattern[]{Pattern.compile(decoyFlag + ".*"), Pattern.compile(".*" + decoyFlag)};
+            decoyPatterns.put(decoyFlag, patterns);
+        }
 
-        return proteinAccession.matches(start) || proteinAccession.matches(end);
+        return patterns[0].matcher(proteinAccession).matches() || patterns[1].matcher(proteinAccession).matches();
     }
 
     /**
@@ -1003,7 +1022,7 @@ public class SequenceFactory {
      *
      * @return the decoy tag matched by this protein
      */
-    private static String getDecoyFlag(String proteinAccession) {
+    static String getDecoyFlag(String proteinAccession) {
         for (String flag : DECOY_FLAGS) {
             if (isDecoy(proteinAccession, flag)) {
                 return flag;
@@ -1012,6 +1031,42 @@ public class SequenceFactory {
         return null;
     }
 
+    /**
+     * Returns the default tags matched in the sequence as a bit mask where
+     * every tag is represented by the bit of its rank in the default tags. 0
+     * if none.
+     *
+     * @param proteinAccession the protein accession
+     *
+     * @return the default tags matched by this protein as a bit mask
+     */
+    static int getDecoyFlagsMask(String proteinAccession) {
+        int mask = 0;
+        for (int i = 0; i < DECOY_FLAGS.length; i++) {
+            if (isDecoy(proteinAccession, DECOY_FLAGS[i])) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the bit representing the given tag in the masks returned by
+     * getDecoyFlagsMask. 0 if not a default tag.
+     *
+     * @param decoyFlag the decoy tag
+     *
+     * @return the bit representing the given tag
+     */
+    static int getDecoyFlagBit(String decoyFlag) {
+        for (int i = 0; i < DECOY_FLAGS.length; i++) {
+            if (DECOY_FLAGS[i].equals(decoyFlag)) {
+                return 1 << i;
+            }
+        }
+        return 0;
+    }
+
     /**
      * Indicates whether a protein is a decoy in the selected loaded FASTA file.
      *
@@ -1091,92 +1146,12 @@ public class SequenceFactory {
     public void appendDecoySequences(File destinationFile, WaitingHandler waitingHandler)
             throws IOException, InterruptedException, ClassNotFoundException {
 
-        if (waitingHandler != null) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(fastaIndex.getNTarget());
-        }
-
-        // first create the new target-decoy file
-        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(destinationFile));
-        String lineBreak = System.getProperty("line.separator");
-
-        try {
-            ProteinIterator proteinIterator = getProteinIterator(true);
-
-            while (proteinIterator.hasNext()) {
+        DecoyGenerator decoyGenerator = new DecoyGenerator(DecoyGenerator.DecoyType.reversed, null, 0, Runtime.getRuntime().availableProcessors());
+        FastaIndex targetDecoyIndex = decoyGenerator.generate(currentFastaFile, destinationFile, waitingHandler);
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                }
-
-                Protein currentProtein = proteinIterator.getNextProtein();
-                String accession = currentProtein.getAccession();
-                Header currentHeader = getHeader(accession);
-
-                String decoyAccession = getDefaultDecoyAccession(currentProtein.getAccession());
-//                String decoyAccession ="rev_" + currentProtein.getAccession(); Header for the TPP
-                String currentRawHeader = currentHeader.getRawHeader();
-
-                // replace the accession number
-                String escapedString = java.util.regex.Pattern.quote(accession);
-                currentRawHeader = currentRawHeader.replaceAll(escapedString, decoyAccession);
-
-                // add decoy to the description
-                if (currentHeader.getDescription() != null && !currentHeader.getDescription().isEmpty()) {
-                    escapedString = java.util.regex.Pattern.quote(currentHeader.getDescription());
-                    currentRawHeader = currentRawHeader.replaceAll(escapedString, getDefaultDecoyDescription(currentHeader.getDescription()));
-                }
-
-                // write the target protein to the fasta file
-                bufferedWriter.write(currentHeader.getRawHeader() + lineBreak);
-                bufferedWriter.write(currentProtein.getSequence() + lineBreak);
-
-                // write the decoy protein to the fasta file
-                bufferedWriter.write(currentRawHeader + lineBreak);
-                bufferedWriter.write(reverseSequence(currentProtein.getSequence()) + lineBreak);
-
-                // possible fix for the dbtoolkit uniprot format
-//            Protein currentProtein = getProtein(accession);
-//            Header currentHeader = getHeader(accession);
-//            String reversedSequence = reverseSequence(currentProtein.getSequence());
-//
-//            bufferedWriter.write(currentHeader.toString() + System.getProperty("line.separator"));
-//            bufferedWriter.write(currentProtein.getSequence() + System.getProperty("line.separator"));
-//
-//            // @TODO: this might not be the best way of doing this, but was easier than trying to change the parsing in the Header class...
-//            if (currentHeader.toString("_" + decoyFlags[0]).equalsIgnoreCase(currentHeader.toString())) {
-//                currentHeader.setRest(currentProtein.getAccession() + "_" + decoyFlags[0]);
-//            }
-//
-//            bufferedWriter.write(currentHeader.toString("_" + decoyFlags[0]) + System.getProperty("line.separator"));
-//            bufferedWriter.write(reversedSequence + System.getProperty("line.separator"));
-            }
-
-        } finally {
-            bufferedWriter.close();
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        boolean indexFile = true;
-
-        if (waitingHandler != null) {
-            if (waitingHandler.isRunCanceled()) {
-                indexFile = false;
-            }
-        }
-
-        if (indexFile) {
-            // now (re-)index the new target-decoy file
+        if (targetDecoyIndex != null) {
+            // load the new target-decoy file, the index was written along with the file
             loadFastaFile(destinationFile, waitingHandler);
-        } else {
-            destinationFile.delete();
         }
     }
 
@@ -1199,7 +1174,7 @@ public class SequenceFactory {
     public Set<String> getAccessions() {
         Set<String> setToFill = new HashSet<String>();
         if (fastaIndex != null) {
-            setToFill = fastaIndex.getIndexes().keySet();
+            setToFill = fastaIndex.getAccessionIndex().getAccessions();
         }
         return setToFill;
     }
@@ -1223,7 +1198,9 @@ public class SequenceFactory {
     }
 
     /**
-     * Returns the occurrence of every amino acid in the database.
+     * Returns the occurrence of every amino acid in the target proteins of the
+     * database. The occurrences are counted when indexing the database, the
+     * proteins are only read if the index does not provide them.
      *
      * @param progressBar a progress bar, can be null
      *
@@ -1237,6 +1214,17 @@ public class SequenceFactory {
     public HashMap<String, Long> getAAOccurrences(JProgressBar progressBar) throws IOException, InterruptedException, ClassNotFoundException {
 
         HashMap<String, Long> aaMap = new HashMap<String, Long>(26);
+
+        long[] residueCounts = fastaIndex.getResidueCounts();
+        if (residueCounts != null) {
+            for (int i = 0; i < residueCounts.length; i++) {
+                if (residueCounts[i] > 0) {
+                    aaMap.put(String.valueOf((char) ('A' + i)), residueCounts[i]);
+                }
+            }
+            return aaMap;
+        }
+
         Set<String> accessions = getAccessions();
 
         if (progressBar != null) {
@@ -1248,8 +1236,9 @@ public class SequenceFactory {
         for (String accession : accessions) {
 
             if (!isDecoyAccession(accession)) {
-                Protein protein = getProtein(accession);
-                for (String aa : protein.getSequence().split("")) {
+                String sequence = getProtein(accession).getSequence();
+                for (int i = 0; i < sequence.length(); i++) {
+                    String aa = String.valueOf(sequence.charAt(i));
                     Long n = aaMap.get(aa);
                     if (n == null) {
                         n = 0l;
@@ -1270,7 +1259,9 @@ public class SequenceFactory {
     }
 
     /**
-     * Returns the protein's molecular weight in kDa.
+     * Returns the protein's molecular weight in kDa. The molecular weights are
+     * computed when indexing the database, the protein is only read if the
+     * index does not provide it.
      *
      * @param accession the protein's accession number
      *
@@ -1294,6 +1285,11 @@ public class SequenceFactory {
             }
         }
 
+        double indexedMolecularWeight = fastaIndex.getAccessionIndex().getMolecularWeight(accession);
+        if (!Double.isNaN(indexedMolecularWeight)) {
+            return indexedMolecularWeight;
+        }
+
         // see if we've already calculated the weight of this protein
         Double molecularWeight = molecularWeights.get(accession);
         if (molecularWeight == null) {
@@ -0,0 +1,646 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.math.PermutationSort;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Digests the proteins of the sequence factory in parallel. The proteins are
+ * read by a dedicated thread and split in batches, the batches are digested
+ * on a pool of threads using the iterators of the IteratorFactory, and the
+ * peptides are returned in the order of the database in compact batches. The
+ * number of batches digested ahead of the consumer is bounded.
+ *
+ * @author Marc Vaudel
+ */
+public class DigestionPipeline {
+
+    /**
+     * The default number of proteins per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /**
+     * The sequence factory.
+     */
+    private final SequenceFactory sequenceFactory;
+    /**
+     * The digestion preferences.
+     */
+    private final DigestionPreferences digestionPreferences;
+    /**
+     * The names of the fixed modifications.
+     */
+    private final ArrayList<String> fixedModifications;
+    /**
+     * The minimal peptide mass.
+     */
+    private final double massMin;
+    /**
+     * The maximal peptide mass.
+     */
+    private final double massMax;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The number of proteins per batch.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    /**
+     * The number of batches digested ahead of the consumer.
+     */
+    private int queueSize;
+    /**
+     * Boolean indicating whether only the first occurrence of every peptide
+     * should be returned.
+     */
+    private boolean deduplicate = false;
+    /**
+     * Boolean indicating whether only target proteins should be digested.
+     */
+    private boolean targetOnly = false;
+    /**
+     * The iterator factory of every thread.
+     */
+    private final ThreadLocal<IteratorFactory> iteratorFactories = new ThreadLocal<IteratorFactory>() {
+        @Override
+        protected IteratorFactory initialValue() {
+            return new IteratorFactory(fixedModifications);
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param sequenceFactory the sequence factory containing the proteins
+     * @param digestionPreferences the digestion preferences
+     * @param fixedModifications the names of the fixed modifications
+     * @param massMin the minimal peptide mass
+     * @param massMax the maximal peptide mass
+     * @param nThreads the number of threads to use for the digestion
+     */
+    public DigestionPipeline(SequenceFactory sequenceFactory, DigestionPreferences digestionPreferences, ArrayList<String> fixedModifications,
+            double massMin, double massMax, int nThreads) {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be strictly positive.");
+        }
+        this.sequenceFactory = sequenceFactory;
+        this.digestionPreferences = digestionPreferences;
+        this.fixedModifications = fixedModifications;
+        this.massMin = massMin;
+        this.massMax = massMax;
+        this.nThreads = nThreads;
+        this.queueSize = 4 * nThreads;
+    }
+
+    /**
+     * Returns the number of proteins per batch.
+     *
+     * @return the number of proteins per batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of proteins per batch.
+     *
+     * @param batchSize the number of proteins per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be strictly positive.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the number of batches digested ahead of the consumer.
+     *
+     * @return the number of batches digested ahead of the consumer
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the number of batches digested ahead of the consumer.
+     *
+     * @param queueSize the number of batches digested ahead of the consumer
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("The queue size must be strictly positive.");
+        }
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Indicates whether only the first occurrence of every peptide is
+     * returned.
+     *
+     * @return a boolean indicating whether only the first occurrence of every
+     * peptide is returned
+     */
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * Sets whether only the first occurrence of every peptide should be
+     * returned. Peptides are compared by sequence and modifications.
+     *
+     * @param deduplicate a boolean indicating whether only the first
+     * occurrence of every peptide should be returned
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Indicates whether only target proteins are digested.
+     *
+     * @return a boolean indicating whether only target proteins are digested
+     */
+    public boolean isTargetOnly() {
+        return targetOnly;
+    }
+
+    /**
+     * Sets whether only target proteins should be digested.
+     *
+     * @param targetOnly a boolean indicating whether only target proteins
+     * should be digested
+     */
+    public void setTargetOnly(boolean targetOnly) {
+        this.targetOnly = targetOnly;
+    }
+
+    /**
+     * Starts the digestion and returns an iterator on the peptide batches.
+     * The iterator should be closed if not iterated to the end.
+     *
+     * @param waitingHandler waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return an iterator on the peptide batches
+     */
+    public BatchIterator digest(WaitingHandler waitingHandler) {
+        BatchIterator batchIterator = new BatchIterator(waitingHandler);
+        batchIterator.start();
+        return batchIterator;
+    }
+
+    /**
+     * Digests all proteins and returns the peptides.
+     *
+     * @param sortByMass boolean indicating whether the peptides should be
+     * sorted by increasing mass
+     * @param waitingHandler waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the peptides
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the database
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public ArrayList<Peptide> getPeptides(boolean sortByMass, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        ArrayList<Peptide> peptides = new ArrayList<Peptide>();
+        double[] masses = sortByMass ? new double[1024] : null;
+        BatchIterator batchIterator = digest(waitingHandler);
+
+        try {
+            PeptideBatch peptideBatch;
+            while ((peptideBatch = batchIterator.next()) != null) {
+                for (int i = 0; i < peptideBatch.size(); i++) {
+                    if (sortByMass) {
+                        if (peptides.size() == masses.length) {
+                            masses = Arrays.copyOf(masses, 2 * masses.length);
+                        }
+                        masses[peptides.size()] = peptideBatch.getMass(i);
+                    }
+                    peptides.add(peptideBatch.getPeptide(i));
+                }
+            }
+        } finally {
+            batchIterator.close();
+        }
+
+        if (sortByMass) {
+            int nPeptides = peptides.size();
+            int[] order = new int[nPeptides];
+            for (int i = 0; i < nPeptides; i++) {
+                order[i] = i;
+            }
+            // peptides of equal mass remain in the order of the database
+            PermutationSort.sort(masses, order, 0, nPeptides);
+            ArrayList<Peptide> sortedPeptides = new ArrayList<Peptide>(nPeptides);
+            for (int index : order) {
+                sortedPeptides.add(peptides.get(index));
+            }
+            return sortedPeptides;
+        }
+
+        return peptides;
+    }
+
+    /**
+     * Digests the given proteins with the iterator factory of the current
+     * thread.
+     *
+     * @param accessions the accessions of the proteins
+     * @param sequences the sequences of the proteins
+     *
+     * @return the peptides of the proteins
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private PeptideBatch digest(String[] accessions, String[] sequences) throws InterruptedException {
+
+        IteratorFactory iteratorFactory = iteratorFactories.get();
+        PeptideBatch peptideBatch = new PeptideBatch(accessions, 16 * accessions.length);
+
+        for (int i = 0; i < sequences.length; i++) {
+            SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(sequences[i], digestionPreferences, massMin, massMax);
+            PeptideWithPosition peptideWithPosition;
+            while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+                Peptide peptide = peptideWithPosition.getPeptide();
+                peptideBatch.add(peptide, peptide.getMass(), i, peptideWithPosition.getPosition());
+            }
+        }
+
+        return peptideBatch;
+    }
+
+    /**
+     * The peptides of a batch of proteins stored in parallel arrays.
+     */
+    public static class PeptideBatch {
+
+        /**
+         * The accessions of the proteins of the batch.
+         */
+        private final String[] accessions;
+        /**
+         * The peptides.
+         */
+        private Peptide[] peptides;
+        /**
+         * The masses of the peptides.
+         */
+        private double[] masses;
+        /**
+         * The index of the protein of every peptide in the accessions array.
+         */
+        private int[] proteinIndexes;
+        /**
+         * The position of every peptide on its protein.
+         */
+        private int[] positions;
+        /**
+         * The number of peptides.
+         */
+        private int size = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param accessions the accessions of the proteins of the batch
+         * @param capacity the initial capacity
+         */
+        private PeptideBatch(String[] accessions, int capacity) {
+            this.accessions = accessions;
+            capacity = Math.max(capacity, 1);
+            peptides = new Peptide[capacity];
+            masses = new double[capacity];
+            proteinIndexes = new int[capacity];
+            positions = new int[capacity];
+        }
+
+        /**
+         * Adds a peptide to the batch.
+         *
+         * @param peptide the peptide
+         * @param mass the mass of the peptide
+         * @param proteinIndex the index of the protein
+         * @param position the position on the protein
+         */
+        private void add(Peptide peptide, double mass, int proteinIndex, int position) {
+            if (size == peptides.length) {
+                int capacity = 2 * size;
+                peptides = Arrays.copyOf(peptides, capacity);
+                masses = Arrays.copyOf(masses, capacity);
+                proteinIndexes = Arrays.copyOf(proteinIndexes, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            peptides[size] = peptide;
+            masses[size] = mass;
+            proteinIndexes[size] = proteinIndex;
+            positions[size] = position;
+            size++;
+        }
+
+        /**
+         * Removes the peptides already found from the batch and adds the new
+         * ones to the set of peptide keys.
+         *
+         * @param peptideKeys the keys of the peptides found
+         */
+        private void deduplicate(HashSet<String> peptideKeys) {
+            int newSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (peptideKeys.add(peptides[i].getKey())) {
+                    peptides[newSize] = peptides[i];
+                    masses[newSize] = masses[i];
+                    proteinIndexes[newSize] = proteinIndexes[i];
+                    positions[newSize] = positions[i];
+                    newSize++;
+                }
+            }
+            for (int i = newSize; i < size; i++) {
+                peptides[i] = null;
+            }
+            size = newSize;
+        }
+
+        /**
+         * Returns the number of peptides in the batch.
+         *
+         * @return the number of peptides in the batch
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the peptide at the given index.
+         *
+         * @param index the index in the batch
+         *
+         * @return the peptide
+         */
+        public Peptide getPeptide(int index) {
+            return peptides[index];
+        }
+
+        /**
+         * Returns the mass of the peptide at the given index.
+         *
+         * @param index the index in the batch
+         *
+         * @return the mass of the peptide
+         */
+        public double getMass(int index) {
+            return masses[index];
+        }
+
+        /**
+         * Returns the accession of the protein of the peptide at the given
+         * index.
+         *
+         * @param index the index in the batch
+         *
+         * @return the accession of the protein
+         */
+        public String getProteinAccession(int index) {
+            return accessions[proteinIndexes[index]];
+        }
+
+        /**
+         * Returns the position of the peptide at the given index on its
+         * protein.
+         *
+         * @param index the index in the batch
+         *
+         * @return the position on the protein
+         */
+        public int getPosition(int index) {
+            return positions[index];
+        }
+    }
+
+    /**
+     * Iterator on the digested batches. Warning: use one iterator per thread.
+     */
+    public class BatchIterator {
+
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The batches in progress in the order of the database.
+         */
+        private final ArrayBlockingQueue<Future<PeptideBatch>> batchQueue;
+        /**
+         * Task marking the end of the database.
+         */
+        private final FutureTask<PeptideBatch> endOfInput = new FutureTask<PeptideBatch>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        /**
+         * The keys of the peptides returned, null if not deduplicating.
+         */
+        private final HashSet<String> peptideKeys;
+        /**
+         * The pool digesting the proteins.
+         */
+        private ExecutorService pool;
+        /**
+         * The thread reading the proteins.
+         */
+        private Thread proteinReader;
+        /**
+         * Boolean indicating whether the iteration is finished.
+         */
+        private volatile boolean finished = false;
+
+        /**
+         * Constructor.
+         *
+         * @param waitingHandler the waiting handler
+         */
+        private BatchIterator(WaitingHandler waitingHandler) {
+            this.waitingHandler = waitingHandler;
+            this.batchQueue = new ArrayBlockingQueue<Future<PeptideBatch>>(queueSize);
+            this.peptideKeys = deduplicate ? new HashSet<String>() : null;
+        }
+
+        /**
+         * Starts reading and digesting the proteins.
+         */
+        private void start() {
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(targetOnly ? sequenceFactory.getNTargetSequences() : sequenceFactory.getNSequences());
+            }
+            pool = Executors.newFixedThreadPool(nThreads, Util.getDaemonThreadFactory("protein digestion"));
+            proteinReader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readProteins();
+                }
+            }, "protein digestion reader");
+            proteinReader.setDaemon(true);
+            proteinReader.start();
+        }
+
+        /**
+         * Reads the proteins and submits them for digestion by batches.
+         * Errors are passed to the consumer as failed tasks, and the end of
+         * the database is always signaled unless the iterator was closed.
+         */
+        private void readProteins() {
+            try {
+                try {
+                    SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(targetOnly);
+                    try {
+                        ArrayList<Protein> batch = new ArrayList<Protein>(batchSize);
+                        while (proteinIterator.hasNext()) {
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            batch.add(proteinIterator.getNextProtein());
+                            if (batch.size() == batchSize) {
+                                submit(batch);
+                                batch = new ArrayList<Protein>(batchSize);
+                            }
+                        }
+                        if (!batch.isEmpty()) {
+                            submit(batch);
+                        }
+                    } finally {
+                        proteinIterator.close();
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    if (!finished) {
+                        batchQueue.put(getFailedTask(t));
+                    }
+                } finally {
+                    if (!finished) {
+                        batchQueue.put(endOfInput);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The iterator was closed
+            }
+        }
+
+        /**
+         * Returns a completed task which failed with the given error.
+         *
+         * @param error the error
+         *
+         * @return a completed task which failed with the given error
+         */
+        private FutureTask<PeptideBatch> getFailedTask(final Throwable error) {
+            FutureTask<PeptideBatch> failedTask = new FutureTask<PeptideBatch>(new Callable<PeptideBatch>() {
+                @Override
+                public PeptideBatch call() throws Exception {
+                    if (error instanceof Exception) {
+                        throw (Exception) error;
+                    }
+                    throw (Error) error;
+                }
+            });
+            failedTask.run();
+            return failedTask;
+        }
+
+        /**
+         * Submits a batch of proteins for digestion.
+         *
+         * @param proteins the proteins
+         *
+         * @throws InterruptedException exception thrown if the thread is
+         * interrupted while waiting for space in the queue
+         */
+        private void submit(ArrayList<Protein> proteins) throws InterruptedException {
+            final String[] accessions = new String[proteins.size()];
+            final String[] sequences = new String[proteins.size()];
+            for (int i = 0; i < accessions.length; i++) {
+                Protein protein = proteins.get(i);
+                accessions[i] = protein.getAccession();
+                sequences[i] = protein.getSequence();
+            }
+            batchQueue.put(pool.submit(new Callable<PeptideBatch>() {
+                @Override
+                public PeptideBatch call() throws Exception {
+                    return digest(accessions, sequences);
+                }
+            }));
+        }
+
+        /**
+         * Returns the next batch of peptides. Null if the iterator is done
+         * iterating.
+         *
+         * @return the next batch of peptides
+         *
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the database
+         */
+        public PeptideBatch next() throws InterruptedException, IOException {
+            if (finished) {
+                return null;
+            }
+            Future<PeptideBatch> future = batchQueue.take();
+            if (future == endOfInput) {
+                close();
+                return null;
+            }
+            PeptideBatch peptideBatch;
+            try {
+                peptideBatch = future.get();
+            } catch (ExecutionException e) {
+                close();
+                throw Util.getExecutionException(e, "An error occurred while digesting the proteins.", IOException.class, InterruptedException.class);
+            }
+            if (peptideKeys != null) {
+                peptideBatch.deduplicate(peptideKeys);
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter(peptideBatch.accessions.length);
+            }
+            return peptideBatch;
+        }
+
+        /**
+         * Stops the digestion and releases the threads.
+         */
+        public void close() {
+            finished = true;
+            if (proteinReader != null) {
+                proteinReader.interrupt();
+            }
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            batchQueue.clear();
+        }
+    }
+}
@@ -0,0 +1,1235 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A database of the peptides obtained by digesting a FASTA file, built once
+ * and stored on disk. The file is memory mapped when opened and the peptides
+ * are read from the mapped file without loading them in memory. The unique
+ * peptides are sorted by mass, their sequences are packed on five bits per
+ * residue, and their fixed modifications and protein positions are stored as
+ * variable length integers. Variable modifications are expanded at query
+ * time.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideDatabase {
+
+    /**
+     * The extension of peptide database files.
+     */
+    public static final String EXTENSION = ".pepdb";
+    /**
+     * Marker at the beginning of the file.
+     */
+    private static final int MAGIC = 0x50455044;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The number of bits used per residue.
+     */
+    private static final int BITS_PER_RESIDUE = 5;
+    /**
+     * Mask to read a residue.
+     */
+    private static final long RESIDUE_MASK = (1L << BITS_PER_RESIDUE) - 1;
+    /**
+     * The last modification time of the FASTA file at the time of building.
+     */
+    private final long fastaLastModified;
+    /**
+     * The name of the FASTA file.
+     */
+    private final String fastaFileName;
+    /**
+     * Key describing the settings used to build the database.
+     */
+    private final String settingsKey;
+    /**
+     * The number of peptides.
+     */
+    private final int nPeptides;
+    /**
+     * The protein accessions.
+     */
+    private final String[] proteinAccessions;
+    /**
+     * The names of the fixed modifications found on the peptides.
+     */
+    private final String[] modificationNames;
+    /**
+     * The file channel.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The mapped data.
+     */
+    private final MappedByteBuffer data;
+    /**
+     * The position of the masses in the mapped data.
+     */
+    private final int massesStart;
+    /**
+     * The position of the sequence offsets in the mapped data.
+     */
+    private final int sequenceOffsetsStart;
+    /**
+     * The position of the record offsets in the mapped data.
+     */
+    private final int recordOffsetsStart;
+    /**
+     * The position of the packed sequences in the mapped data.
+     */
+    private final int sequencesStart;
+    /**
+     * The position of the records in the mapped data.
+     */
+    private final int recordsStart;
+
+    /**
+     * Opens a peptide database file.
+     *
+     * @param databaseFile the peptide database file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file or if the file is not a peptide database
+     */
+    public PeptideDatabase(File databaseFile) throws IOException {
+
+        randomAccessFile = new RandomAccessFile(databaseFile, "r");
+
+        try {
+            if (randomAccessFile.readInt() != MAGIC) {
+                throw new IOException(databaseFile.getName() + " is not a peptide database.");
+            }
+            int headerLength = randomAccessFile.readInt();
+            byte[] header = new byte[headerLength];
+            randomAccessFile.readFully(header);
+
+            DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(header));
+            int version = headerStream.readInt();
+            if (version != VERSION) {
+                throw new IOException("Peptide database version " + version + " not supported.");
+            }
+            fastaLastModified = headerStream.readLong();
+            fastaFileName = headerStream.readUTF();
+            settingsKey = headerStream.readUTF();
+            nPeptides = headerStream.readInt();
+            proteinAccessions = new String[headerStream.readInt()];
+            for (int i = 0; i < proteinAccessions.length; i++) {
+                proteinAccessions[i] = headerStream.readUTF();
+            }
+            modificationNames = new String[headerStream.readInt()];
+            for (int i = 0; i < modificationNames.length; i++) {
+                modificationNames[i] = headerStream.readUTF();
+            }
+            long nSequenceWords = headerStream.readLong();
+            long recordsLength = headerStream.readLong();
+
+            long dataStart = 8 + headerLength;
+            long dataLength = 8L * nPeptides + 2 * 8L * (nPeptides + 1) + 8L * nSequenceWords + recordsLength;
+            if (dataLength > Integer.MAX_VALUE) {
+                throw new IOException("Peptide database " + databaseFile.getName() + " too large to be mapped.");
+            }
+            data = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, dataStart, dataLength);
+
+            massesStart = 0;
+            sequenceOffsetsStart = massesStart + 8 * nPeptides;
+            recordOffsetsStart = sequenceOffsetsStart + 8 * (nPeptides + 1);
+            sequencesStart = recordOffsetsStart + 8 * (nPeptides + 1);
+            recordsStart = sequencesStart + (int) (8 * nSequenceWords);
+
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the peptide database of the FASTA file loaded in the sequence
+     * factory with the given settings. If the given database file exists and
+     * was built from the same FASTA file, unchanged since, with the same
+     * settings, it is opened. Otherwise the database is built and written to
+     * the given file. Peptides containing residues other than the 26 letters of
+     * the alphabet in upper case cannot be stored and are skipped.
+     *
+     * @param databaseFile the peptide database file
+     * @param sequenceFactory the sequence factory with the FASTA file loaded
+     * @param digestionPreferences the digestion preferences
+     * @param fixedModifications the names of the fixed modifications
+     * @param massMin the minimal peptide mass
+     * @param massMax the maximal peptide mass
+     * @param nThreads the number of threads to use when building
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the peptide database, null if the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public static PeptideDatabase getPeptideDatabase(File databaseFile, SequenceFactory sequenceFactory, DigestionPreferences digestionPreferences,
+            ArrayList<String> fixedModifications, double massMin, double massMax, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        File fastaFile = sequenceFactory.getCurrentFastaFile();
+        String settingsKey = getSettingsKey(digestionPreferences, fixedModifications, massMin, massMax);
+
+        if (databaseFile.exists()) {
+            try {
+                PeptideDatabase peptideDatabase = new PeptideDatabase(databaseFile);
+                if (peptideDatabase.isValid(fastaFile, settingsKey)) {
+                    return peptideDatabase;
+                }
+                peptideDatabase.close();
+                if (waitingHandler != null) {
+                    waitingHandler.appendReport("Rebuilding " + databaseFile.getName() + " (changes in the FASTA file or settings detected).", true, true);
+                }
+            } catch (IOException e) {
+                if (waitingHandler != null) {
+                    waitingHandler.appendReport("Rebuilding " + databaseFile.getName() + " (" + e.getLocalizedMessage() + ").", true, true);
+                }
+            }
+        }
+
+        boolean completed = writePeptideDatabase(databaseFile, sequenceFactory, digestionPreferences, fixedModifications, massMin, massMax, nThreads, waitingHandler);
+        if (!completed) {
+            return null;
+        }
+        return new PeptideDatabase(databaseFile);
+    }
+
+    /**
+     * Digests the FASTA file loaded in the sequence factory and writes the
+     * peptide database to the given file.
+     *
+     * @param databaseFile the peptide database file
+     * @param sequenceFactory the sequence factory with the FASTA file loaded
+     * @param digestionPreferences the digestion preferences
+     * @param fixedModifications the names of the fixed modifications
+     * @param massMin the minimal peptide mass
+     * @param massMax the maximal peptide mass
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return a boolean indicating whether the database was written, false if
+     * the process was canceled
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public static boolean writePeptideDatabase(File databaseFile, SequenceFactory sequenceFactory, DigestionPreferences digestionPreferences,
+            ArrayList<String> fixedModifications, double massMin, double massMax, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        File fastaFile = sequenceFactory.getCurrentFastaFile();
+
+        // Digest and gather the occurrences of every peptide
+        HashMap<String, Integer> proteinIndexes = new HashMap<String, Integer>();
+        ArrayList<String> proteinAccessions = new ArrayList<String>();
+        HashMap<String, Integer> modificationIndexes = new HashMap<String, Integer>();
+        ArrayList<String> modificationNames = new ArrayList<String>();
+        HashMap<String, PeptideEntry> entries = new HashMap<String, PeptideEntry>();
+
+        DigestionPipeline digestionPipeline = new DigestionPipeline(sequenceFactory, digestionPreferences, fixedModifications, massMin, massMax, nThreads);
+        DigestionPipeline.BatchIterator batchIterator = digestionPipeline.digest(waitingHandler);
+
+        try {
+            DigestionPipeline.PeptideBatch peptideBatch;
+            while ((peptideBatch = batchIterator.next()) != null) {
+                for (int i = 0; i < peptideBatch.size(); i++) {
+                    Peptide peptide = peptideBatch.getPeptide(i);
+                    if (!canBeStored(peptide.getSequence())) {
+                        continue;
+                    }
+                    String key = getKey(peptide);
+                    PeptideEntry entry = entries.get(key);
+                    if (entry == null) {
+                        entry = new PeptideEntry(peptide, peptideBatch.getMass(i), modificationIndexes, modificationNames);
+                        entries.put(key, entry);
+                    }
+                    String accession = peptideBatch.getProteinAccession(i);
+                    Integer proteinIndex = proteinIndexes.get(accession);
+                    if (proteinIndex == null) {
+                        proteinIndex = proteinAccessions.size();
+                        proteinIndexes.put(accession, proteinIndex);
+                        proteinAccessions.add(accession);
+                    }
+                    entry.addOccurrence(proteinIndex, peptideBatch.getPosition(i));
+                }
+            }
+        } finally {
+            batchIterator.close();
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return false;
+        }
+
+        // Sort by mass
+        ArrayList<PeptideEntry> sortedEntries = new ArrayList<PeptideEntry>(entries.values());
+        entries = null;
+        Collections.sort(sortedEntries, new Comparator<PeptideEntry>() {
+            @Override
+            public int compare(PeptideEntry o1, PeptideEntry o2) {
+                int result = Double.compare(o1.mass, o2.mass);
+                if (result != 0) {
+                    return result;
+                }
+                return o1.sequence.compareTo(o2.sequence);
+            }
+        });
+        int nPeptides = sortedEntries.size();
+
+        // Encode the sequences and records
+        long nResidues = 0;
+        for (PeptideEntry entry : sortedEntries) {
+            nResidues += entry.sequence.length();
+        }
+        long nSequenceWords = (nResidues * BITS_PER_RESIDUE + 63) / 64;
+        if (nSequenceWords > Integer.MAX_VALUE) {
+            throw new IOException("Too many residues to write the peptide database.");
+        }
+        long[] sequenceWords = new long[(int) nSequenceWords];
+        long[] sequenceOffsets = new long[nPeptides + 1];
+        long[] recordOffsets = new long[nPeptides + 1];
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+        long residueIndex = 0;
+        for (int i = 0; i < nPeptides; i++) {
+            PeptideEntry entry = sortedEntries.get(i);
+            sequenceOffsets[i] = residueIndex;
+            String sequence = entry.sequence;
+            for (int j = 0; j < sequence.length(); j++) {
+                long code = getCode(sequence.charAt(j));
+                long bit = residueIndex * BITS_PER_RESIDUE;
+                int word = (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                sequenceWords[word] |= code << shift;
+                if (shift > 64 - BITS_PER_RESIDUE) {
+                    sequenceWords[word + 1] |= code >>> (64 - shift);
+                }
+                residueIndex++;
+            }
+            recordOffsets[i] = records.size();
+            entry.writeRecord(records);
+        }
+        sequenceOffsets[nPeptides] = residueIndex;
+        recordOffsets[nPeptides] = records.size();
+
+        // Write the file
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(VERSION);
+        header.writeLong(fastaFile.lastModified());
+        header.writeUTF(fastaFile.getName());
+        header.writeUTF(getSettingsKey(digestionPreferences, fixedModifications, massMin, massMax));
+        header.writeInt(nPeptides);
+        header.writeInt(proteinAccessions.size());
+        for (String accession : proteinAccessions) {
+            header.writeUTF(accession);
+        }
+        header.writeInt(modificationNames.size());
+        for (String modificationName : modificationNames) {
+            header.writeUTF(modificationName);
+        }
+        header.writeLong(nSequenceWords);
+        header.writeLong(records.size());
+        header.close();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(databaseFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(headerBytes.size());
+            headerBytes.writeTo(out);
+            for (PeptideEntry entry : sortedEntries) {
+                out.writeDouble(entry.mass);
+            }
+            for (long offset : sequenceOffsets) {
+                out.writeLong(offset);
+            }
+            for (long offset : recordOffsets) {
+                out.writeLong(offset);
+            }
+            for (long word : sequenceWords) {
+                out.writeLong(word);
+            }
+            records.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the key used to compare the settings of a database.
+     *
+     * @param digestionPreferences the digestion preferences
+     * @param fixedModifications the names of the fixed modifications
+     * @param massMin the minimal peptide mass
+     * @param massMax the maximal peptide mass
+     *
+     * @return the key used to compare the settings of a database
+     */
+    public static String getSettingsKey(DigestionPreferences digestionPreferences, ArrayList<String> fixedModifications, double massMin, double massMax) {
+        StringBuilder key = new StringBuilder();
+        key.append(digestionPreferences.getCleavagePreference());
+        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+            for (Enzyme enzyme : digestionPreferences.getEnzymes()) {
+                String enzymeName = enzyme.getName();
+                key.append('|').append(enzymeName)
+                        .append(',').append(digestionPreferences.getSpecificity(enzymeName))
+                        .append(',').append(digestionPreferences.getnMissedCleavages(enzymeName));
+            }
+        }
+        ArrayList<String> sortedModifications = new ArrayList<String>(fixedModifications);
+        Collections.sort(sortedModifications);
+        for (String modification : sortedModifications) {
+            key.append('|').append(modification);
+        }
+        key.append('|').append(massMin).append('|').append(massMax);
+        return key.toString();
+    }
+
+    /**
+     * Returns a boolean indicating whether the database was built from the
+     * given FASTA file in its current version with the given settings.
+     *
+     * @param fastaFile the FASTA file
+     * @param settingsKey the settings key as given by getSettingsKey
+     *
+     * @return a boolean indicating whether the database is valid
+     */
+    public boolean isValid(File fastaFile, String settingsKey) {
+        return fastaFileName.equals(fastaFile.getName())
+                && fastaLastModified == fastaFile.lastModified()
+                && this.settingsKey.equals(settingsKey);
+    }
+
+    /**
+     * Closes the file. Note that the memory mapping is released only when
+     * garbage collected.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the file
+     */
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return the number of peptides
+     */
+    public int getnPeptides() {
+        return nPeptides;
+    }
+
+    /**
+     * Returns the mass of the given peptide.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the mass of the peptide
+     */
+    public double getMass(int peptideId) {
+        return data.getDouble(massesStart + 8 * peptideId);
+    }
+
+    /**
+     * Returns the length of the sequence of the given peptide.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the length of the sequence
+     */
+    public int getSequenceLength(int peptideId) {
+        return (int) (getSequenceOffset(peptideId + 1) - getSequenceOffset(peptideId));
+    }
+
+    /**
+     * Returns the amino acid at the given index of the sequence of the given
+     * peptide.
+     *
+     * @param peptideId the identifier of the peptide
+     * @param index the index on the sequence, 0 based
+     *
+     * @return the amino acid
+     */
+    public char getResidue(int peptideId, int index) {
+        return (char) ('A' + getResidueCode(getSequenceOffset(peptideId) + index) - 1);
+    }
+
+    /**
+     * Returns the sequence of the given peptide.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the sequence
+     */
+    public String getSequence(int peptideId) {
+        long start = getSequenceOffset(peptideId);
+        int length = (int) (getSequenceOffset(peptideId + 1) - start);
+        char[] sequence = new char[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = (char) ('A' + getResidueCode(start + i) - 1);
+        }
+        return new String(sequence);
+    }
+
+    /**
+     * Returns the given peptide with its fixed modifications.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(int peptideId) {
+        int[] position = new int[]{getRecordOffset(peptideId)};
+        int nModifications = readVarInt(position);
+        ArrayList<ModificationMatch> modificationMatches = null;
+        if (nModifications > 0) {
+            modificationMatches = new ArrayList<ModificationMatch>(nModifications);
+            for (int i = 0; i < nModifications; i++) {
+                String modificationName = modificationNames[readVarInt(position)];
+                int site = readVarInt(position);
+                modificationMatches.add(new ModificationMatch(modificationName, false, site));
+            }
+        }
+        return new Peptide(getSequence(peptideId), modificationMatches, false, getMass(peptideId));
+    }
+
+    /**
+     * Returns the positions of the given peptide on the proteins indexed by
+     * protein accession. Positions are 0 based.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the positions of the peptide on the proteins
+     */
+    public HashMap<String, ArrayList<Integer>> getProteinMapping(int peptideId) {
+        int[] position = new int[]{getRecordOffset(peptideId)};
+        int nModifications = readVarInt(position);
+        for (int i = 0; i < 2 * nModifications; i++) {
+            readVarInt(position);
+        }
+        int nOccurrences = readVarInt(position);
+        HashMap<String, ArrayList<Integer>> result = new HashMap<String, ArrayList<Integer>>(nOccurrences);
+        int proteinIndex = 0;
+        for (int i = 0; i < nOccurrences; i++) {
+            proteinIndex += readVarInt(position);
+            String accession = proteinAccessions[proteinIndex];
+            ArrayList<Integer> positions = result.get(accession);
+            if (positions == null) {
+                positions = new ArrayList<Integer>(1);
+                result.put(accession, positions);
+            }
+            positions.add(readVarInt(position));
+        }
+        return result;
+    }
+
+    /**
+     * Returns an iterator on the peptides with a mass in the given range.
+     *
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     *
+     * @return an iterator on the peptides with a mass in the given range
+     */
+    public PeptideIterator getPeptides(double massMin, double massMax) {
+        return new PeptideIterator(massMin, massMax, new ArrayList<String>(0), 0);
+    }
+
+    /**
+     * Returns an iterator on the peptides and their variable modification
+     * variants with a mass in the given range. Only modifications targeting
+     * amino acids anywhere on the peptide are supported.
+     *
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     * @param variableModifications the names of the variable modifications
+     * @param maxVariableModifications the maximal number of variable
+     * modifications per peptide
+     *
+     * @return an iterator on the peptides and their variants with a mass in the
+     * given range
+     */
+    public PeptideIterator getPeptides(double massMin, double massMax, ArrayList<String> variableModifications, int maxVariableModifications) {
+        return new PeptideIterator(massMin, massMax, variableModifications, maxVariableModifications);
+    }
+
+    /**
+     * Returns the index of the first peptide with a mass higher or equal to
+     * the given mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first peptide with a mass higher or equal to
+     * the given mass
+     */
+    private int lowerBound(double mass) {
+        int low = 0;
+        int high = nPeptides;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getMass(middle) < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the offset of the sequence of the given peptide in residues.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the offset of the sequence
+     */
+    private long getSequenceOffset(int peptideId) {
+        return data.getLong(sequenceOffsetsStart + 8 * peptideId);
+    }
+
+    /**
+     * Returns the offset of the record of the given peptide in the mapped
+     * data.
+     *
+     * @param peptideId the identifier of the peptide
+     *
+     * @return the offset of the record
+     */
+    private int getRecordOffset(int peptideId) {
+        return recordsStart + (int) data.getLong(recordOffsetsStart + 8 * peptideId);
+    }
+
+    /**
+     * Returns the code of the residue at the given index in the packed
+     * sequences.
+     *
+     * @param residueIndex the index of the residue
+     *
+     * @return the code of the residue
+     */
+    private int getResidueCode(long residueIndex) {
+        long bit = residueIndex * BITS_PER_RESIDUE;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = data.getLong(sequencesStart + 8 * word) >>> shift;
+        if (shift > 64 - BITS_PER_RESIDUE) {
+            value |= data.getLong(sequencesStart + 8 * (word + 1)) << (64 - shift);
+        }
+        return (int) (value & RESIDUE_MASK);
+    }
+
+    /**
+     * Reads a variable length integer in the mapped data.
+     *
+     * @param position a single element array with the position to read,
+     * updated to the position after the integer
+     *
+     * @return the integer
+     */
+    private int readVarInt(int[] position) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(position[0]++);
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    /**
+     * Writes a variable length integer.
+     *
+     * @param out the stream to write to
+     * @param value the value, must be positive
+     */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Returns the five bits code of the given amino acid.
+     *
+     * @param aa the amino acid
+     *
+     * @return the code, -1 if the amino acid cannot be stored
+     */
+    private static int getCode(char aa) {
+        if (aa < 'A' || aa > 'Z') {
+            return -1;
+        }
+        return aa - 'A' + 1;
+    }
+
+    /**
+     * Indicates whether all residues of the given sequence can be stored in
+     * the peptide database.
+     *
+     * @param sequence the amino acid sequence
+     *
+     * @return a boolean indicating whether the sequence can be stored
+     */
+    private static boolean canBeStored(String sequence) {
+        for (int i = 0; i < sequence.length(); i++) {
+            if (getCode(sequence.charAt(i)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key of a peptide including its fixed modifications.
+     *
+     * @param peptide the peptide
+     *
+     * @return the key of the peptide
+     */
+    private static String getKey(Peptide peptide) {
+        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+        if (modificationMatches == null || modificationMatches.isEmpty()) {
+            return peptide.getSequence();
+        }
+        StringBuilder key = new StringBuilder(peptide.getSequence());
+        for (ModificationMatch modificationMatch : modificationMatches) {
+            key.append('_').append(modificationMatch.getTheoreticPtm()).append('@').append(modificationMatch.getModificationSite());
+        }
+        return key.toString();
+    }
+
+    /**
+     * A peptide and its occurrences gathered while building the database.
+     */
+    private static class PeptideEntry {
+
+        /**
+         * The sequence.
+         */
+        private final String sequence;
+        /**
+         * The mass.
+         */
+        private final double mass;
+        /**
+         * The fixed modifications as index and site pairs.
+         */
+        private final int[] modifications;
+        /**
+         * The occurrences as protein index and position pairs.
+         */
+        private int[] occurrences = new int[2];
+        /**
+         * The number of occurrences.
+         */
+        private int nOccurrences = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param peptide the peptide
+         * @param mass the mass of the peptide
+         * @param modificationIndexes the index of the modifications
+         * @param modificationNames the names of the modifications
+         */
+        private PeptideEntry(Peptide peptide, double mass, HashMap<String, Integer> modificationIndexes, ArrayList<String> modificationNames) {
+            this.sequence = peptide.getSequence();
+            this.mass = mass;
+            ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+            if (modificationMatches == null) {
+                modifications = new int[0];
+            } else {
+                modifications = new int[2 * modificationMatches.size()];
+                for (int i = 0; i < modificationMatches.size(); i++) {
+                    ModificationMatch modificationMatch = modificationMatches.get(i);
+                    String modificationName = modificationMatch.getTheoreticPtm();
+                    Integer modificationIndex = modificationIndexes.get(modificationName);
+                    if (modificationIndex == null) {
+                        modificationIndex = modificationNames.size();
+                        modificationIndexes.put(modificationName, modificationIndex);
+                        modificationNames.add(modificationName);
+                    }
+                    modifications[2 * i] = modificationIndex;
+                    modifications[2 * i + 1] = modificationMatch.getModificationSite();
+                }
+            }
+        }
+
+        /**
+         * Adds an occurrence of the peptide.
+         *
+         * @param proteinIndex the index of the protein
+         * @param position the position on the protein
+         */
+        private void addOccurrence(int proteinIndex, int position) {
+            if (2 * nOccurrences == occurrences.length) {
+                occurrences = Arrays.copyOf(occurrences, 2 * occurrences.length);
+            }
+            occurrences[2 * nOccurrences] = proteinIndex;
+            occurrences[2 * nOccurrences + 1] = position;
+            nOccurrences++;
+        }
+
+        /**
+         * Writes the record of the peptide: the fixed modifications followed
+         * by the occurrences with delta encoded protein indexes.
+         *
+         * @param out the stream to write to
+         */
+        private void writeRecord(ByteArrayOutputStream out) {
+            writeVarInt(out, modifications.length / 2);
+            for (int value : modifications) {
+                writeVarInt(out, value);
+            }
+            // The occurrences are added in the order of the database, sorting is only needed within a protein
+            sortOccurrences();
+            writeVarInt(out, nOccurrences);
+            int previousProtein = 0;
+            for (int i = 0; i < nOccurrences; i++) {
+                int proteinIndex = occurrences[2 * i];
+                writeVarInt(out, proteinIndex - previousProtein);
+                writeVarInt(out, occurrences[2 * i + 1]);
+                previousProtein = proteinIndex;
+            }
+        }
+
+        /**
+         * Sorts the occurrences by protein index and position.
+         */
+        private void sortOccurrences() {
+            for (int i = 1; i < nOccurrences; i++) {
+                int protein = occurrences[2 * i];
+                int position = occurrences[2 * i + 1];
+                int j = i - 1;
+                while (j >= 0 && (occurrences[2 * j] > protein || occurrences[2 * j] == protein && occurrences[2 * j + 1] > position)) {
+                    occurrences[2 * j + 2] = occurrences[2 * j];
+                    occurrences[2 * j + 3] = occurrences[2 * j + 1];
+                    j--;
+                }
+                occurrences[2 * j + 2] = protein;
+                occurrences[2 * j + 3] = position;
+            }
+        }
+    }
+
+    /**
+     * Iterator on the peptides of a mass range and their variable
+     * modification variants. The iterator does not allocate objects while
+     * iterating: the current peptide is accessed through the getters.
+     * Warning: use one iterator per thread.
+     */
+    public class PeptideIterator {
+
+        /**
+         * The minimal mass.
+         */
+        private final double massMin;
+        /**
+         * The maximal mass.
+         */
+        private final double massMax;
+        /**
+         * The mass of the variable modifications.
+         */
+        private final double[] variableModificationMasses;
+        /**
+         * The amino acids targeted by the variable modifications, indexed by
+         * residue code.
+         */
+        private final boolean[][] variableModificationTargets;
+        /**
+         * The groups of variable modifications sharing target amino acids:
+         * every connected set of at least two modifications competing for the
+         * same residues, as indexes in the list of modifications.
+         */
+        private final int[][] overlapGroups;
+        /**
+         * The amino acids targeted by at least one modification of every
+         * overlap group, indexed by residue code.
+         */
+        private final boolean[][] overlapGroupTargets;
+        /**
+         * The indexes of the overlap groups of every variable modification.
+         */
+        private final int[][] modificationOverlapGroups;
+        /**
+         * The maximal number of variable modifications.
+         */
+        private final int maxVariableModifications;
+        /**
+         * The identifier of the last peptide to inspect, exclusive.
+         */
+        private final int end;
+        /**
+         * The identifier of the current peptide.
+         */
+        private int peptideId;
+        /**
+         * The number of sites for every variable modification on the current
+         * peptide.
+         */
+        private final int[] nSites;
+        /**
+         * The number of residues targeted by every overlap group on the
+         * current peptide.
+         */
+        private final int[] overlapSites;
+        /**
+         * The number of occurrences of every variable modification on the
+         * current variant.
+         */
+        private final int[] counts;
+        /**
+         * The total number of variable modifications on the current variant.
+         */
+        private int totalCount;
+        /**
+         * The mass of the current variant.
+         */
+        private double mass;
+        /**
+         * Boolean indicating whether the current peptide has been started.
+         */
+        private boolean started = false;
+
+        /**
+         * Constructor.
+         *
+         * @param massMin the minimal mass
+         * @param massMax the maximal mass
+         * @param variableModifications the names of the variable
+         * modifications
+         * @param maxVariableModifications the maximal number of variable
+         * modifications per peptide
+         */
+        private PeptideIterator(double massMin, double massMax, ArrayList<String> variableModifications, int maxVariableModifications) {
+
+            this.massMin = massMin;
+            this.massMax = massMax;
+            this.maxVariableModifications = variableModifications.isEmpty() ? 0 : maxVariableModifications;
+
+            int nModifications = variableModifications.size();
+            variableModificationMasses = new double[nModifications];
+            variableModificationTargets = new boolean[nModifications][27];
+            nSites = new int[nModifications];
+            counts = new int[nModifications];
+            double maxShift = 0;
+            double minShift = 0;
+            PTMFactory ptmFactory = PTMFactory.getInstance();
+            for (int i = 0; i < nModifications; i++) {
+                PTM ptm = ptmFactory.getPTM(variableModifications.get(i));
+                if (ptm.getType() != PTM.MODAA || ptm.getPattern() == null || ptm.getPattern().length() > 1) {
+                    throw new IllegalArgumentException("Modification " + ptm.getName() + " not supported in the peptide database, only amino acid specific modifications can be expanded.");
+                }
+                variableModificationMasses[i] = ptm.getMass();
+                for (Character aa : ptm.getPattern().getAminoAcidsAtTarget()) {
+                    int code = getCode(aa);
+                    if (code != -1) {
+                        variableModificationTargets[i][code] = true;
+                    }
+                }
+                maxShift = Math.max(maxShift, ptm.getMass());
+                minShift = Math.min(minShift, ptm.getMass());
+            }
+
+            overlapGroups = getOverlapGroups(variableModificationTargets);
+            overlapGroupTargets = new boolean[overlapGroups.length][27];
+            overlapSites = new int[overlapGroups.length];
+            int[] nGroups = new int[nModifications];
+            for (int k = 0; k < overlapGroups.length; k++) {
+                for (int i : overlapGroups[k]) {
+                    nGroups[i]++;
+                    for (int code = 0; code < 27; code++) {
+                        overlapGroupTargets[k][code] = overlapGroupTargets[k][code] || variableModificationTargets[i][code];
+                    }
+                }
+            }
+            modificationOverlapGroups = new int[nModifications][];
+            for (int i = 0; i < nModifications; i++) {
+                modificationOverlapGroups[i] = new int[nGroups[i]];
+                nGroups[i] = 0;
+            }
+            for (int k = 0; k < overlapGroups.length; k++) {
+                for (int i : overlapGroups[k]) {
+                    modificationOverlapGroups[i][nGroups[i]++] = k;
+                }
+            }
+
+            peptideId = lowerBound(massMin - this.maxVariableModifications * maxShift) - 1;
+            end = lowerBound(Math.nextUp(massMax - this.maxVariableModifications * minShift));
+        }
+
+        /**
+         * Returns the groups of modifications competing for the same
+         * residues: every connected set of at least two modifications where
+         * every modification shares a target amino acid with another
+         * modification of the set. Sets which are not connected do not need
+         * to be checked, their sites add up.
+         *
+         * @param targets the amino acids targeted by the modifications,
+         * indexed by residue code
+         *
+         * @return the groups of modifications as indexes in the list of
+         * modifications
+         */
+        private int[][] getOverlapGroups(boolean[][] targets) {
+
+            int nModifications = targets.length;
+            boolean[][] overlap = new boolean[nModifications][nModifications];
+            for (int i = 0; i < nModifications; i++) {
+                for (int j = i + 1; j < nModifications; j++) {
+                    for (int code = 0; code < 27; code++) {
+                        if (targets[i][code] && targets[j][code]) {
+                            overlap[i][j] = true;
+                            overlap[j][i] = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            ArrayList<int[]> groups = new ArrayList<int[]>();
+            boolean[] inspected = new boolean[nModifications];
+            for (int i = 0; i < nModifications; i++) {
+                if (!inspected[i]) {
+
+                    // connected component of the modification
+                    ArrayList<Integer> component = new ArrayList<Integer>();
+                    component.add(i);
+                    inspected[i] = true;
+                    for (int j = 0; j < component.size(); j++) {
+                        for (int l = 0; l < nModifications; l++) {
+                            if (!inspected[l] && overlap[component.get(j)][l]) {
+                                component.add(l);
+                                inspected[l] = true;
+                            }
+                        }
+                    }
+                    int size = component.size();
+                    if (size > 16) {
+                        throw new IllegalArgumentException("More than 16 variable modifications targeting overlapping amino acids are not supported in the peptide database.");
+                    }
+
+                    // connected subsets of the component
+                    int[] adjacency = new int[size];
+                    for (int j = 0; j < size; j++) {
+                        for (int l = 0; l < size; l++) {
+                            if (overlap[component.get(j)][component.get(l)]) {
+                                adjacency[j] |= 1 << l;
+                            }
+                        }
+                    }
+                    for (int subset = 1; subset < 1 << size; subset++) {
+                        if (Integer.bitCount(subset) > 1) {
+                            int reached = Integer.lowestOneBit(subset), previous = 0;
+                            while (reached != previous) {
+                                previous = reached;
+                                for (int j = 0; j < size; j++) {
+                                    if ((reached & 1 << j) != 0) {
+                                        reached |= adjacency[j] & subset;
+                                    }
+                                }
+                            }
+                            if (reached == subset) {
+                                int[] group = new int[Integer.bitCount(subset)];
+                                int index = 0;
+                                for (int j = 0; j < size; j++) {
+                                    if ((subset & 1 << j) != 0) {
+                                        group[index++] = component.get(j);
+                                    }
+                                }
+                                groups.add(group);
+                            }
+                        }
+                    }
+                }
+            }
+            return groups.toArray(new int[groups.size()][]);
+        }
+
+        /**
+         * Moves to the next peptide or variant with a mass in range.
+         *
+         * @return a boolean indicating whether a peptide was found, false if
+         * the iteration is finished
+         */
+        public boolean next() {
+            while (true) {
+                if (started && nextVariant()) {
+                    if (mass >= massMin && mass <= massMax) {
+                        return true;
+                    }
+                    continue;
+                }
+                peptideId++;
+                if (peptideId >= end) {
+                    return false;
+                }
+                startPeptide();
+                if (mass >= massMin && mass <= massMax) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Sets the current peptide to its unmodified variant and counts the
+         * variable modification sites, for every modification and every group
+         * of modifications competing for the same residues.
+         */
+        private void startPeptide() {
+            started = true;
+            mass = PeptideDatabase.this.getMass(peptideId);
+            totalCount = 0;
+            Arrays.fill(counts, 0);
+            if (maxVariableModifications > 0) {
+                Arrays.fill(nSites, 0);
+                Arrays.fill(overlapSites, 0);
+                long sequenceStart = getSequenceOffset(peptideId);
+                long sequenceEnd = getSequenceOffset(peptideId + 1);
+                for (long i = sequenceStart; i < sequenceEnd; i++) {
+                    int code = getResidueCode(i);
+                    for (int j = 0; j < nSites.length; j++) {
+                        if (variableModificationTargets[j][code]) {
+                            nSites[j]++;
+                        }
+                    }
+                    for (int k = 0; k < overlapSites.length; k++) {
+                        if (overlapGroupTargets[k][code]) {
+                            overlapSites[k]++;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Moves to the next combination of variable modifications on the
+         * current peptide. Modifications targeting the same amino acids
+         * together never exceed the number of residues they can occupy.
+         *
+         * @return a boolean indicating whether a combination was found
+         */
+        private boolean nextVariant() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] < nSites[i] && totalCount < maxVariableModifications && hasFreeSite(i)) {
+                    counts[i]++;
+                    totalCount++;
+                    mass += variableModificationMasses[i];
+                    return true;
+                }
+                totalCount -= counts[i];
+                mass -= counts[i] * variableModificationMasses[i];
+                counts[i] = 0;
+            }
+            return false;
+        }
+
+        /**
+         * Indicates whether an occurrence of the given modification can be
+         * added to the current variant without exceeding the residues
+         * available to the groups of modifications competing for the same
+         * residues.
+         *
+         * @param modificationIndex the index of the modification
+         *
+         * @return a boolean indicating whether an occurrence of the
+         * modification can be added
+         */
+        private boolean hasFreeSite(int modificationIndex) {
+            for (int k : modificationOverlapGroups[modificationIndex]) {
+                int groupCount = 0;
+                for (int i : overlapGroups[k]) {
+                    groupCount += counts[i];
+                }
+                if (groupCount >= overlapSites[k]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the identifier of the current peptide.
+         *
+         * @return the identifier of the current peptide
+         */
+        public int getPeptideId() {
+            return peptideId;
+        }
+
+        /**
+         * Returns the mass of the current variant.
+         *
+         * @return the mass of the current variant
+         */
+        public double getMass() {
+            return mass;
+        }
+
+        /**
+         * Returns the number of occurrences of the given variable
+         * modification on the current variant. Variants are enumerated by
+         * number of modifications, the modification sites are not localized.
+         *
+         * @param modificationIndex the index of the modification in the list
+         * given at query
+         *
+         * @return the number of occurrences of the modification
+         */
+        public int getVariableModificationCount(int modificationIndex) {
+            return counts[modificationIndex];
+        }
+
+        /**
+         * Returns the number of possible sites of the given variable
+         * modification on the current peptide.
+         *
+         * @param modificationIndex the index of the modification in the list
+         * given at query
+         *
+         * @return the number of possible sites
+         */
+        public int getVariableModificationSites(int modificationIndex) {
+            return nSites[modificationIndex];
+        }
+    }
+}
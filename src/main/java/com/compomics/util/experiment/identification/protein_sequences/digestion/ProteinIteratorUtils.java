@@ -73,6 +73,11 @@ public class ProteinIteratorUtils {
      * no modification.
      */
     private double minCtermMass = 0.0;
+    /**
+     * The mass of the amino acids including the fixed modifications targeting
+     * them indexed by one letter code.
+     */
+    private double[] fixedResidueMasses;
     /**
      * The mass of water (H2O).
      */
@@ -88,6 +93,7 @@ public class ProteinIteratorUtils {
      */
     public ProteinIteratorUtils(ArrayList<String> fixedModifications, Integer maxX) {
         fillPtmMaps(fixedModifications);
+        fillResidueMasses();
         if (maxX != null) {
             maxXsInSequence = maxX;
         }
@@ -239,6 +245,68 @@ public class ProteinIteratorUtils {
         }
     }
 
+    /**
+     * Fills the table of the amino acid masses including the fixed
+     * modifications.
+     */
+    private void fillResidueMasses() {
+        fixedResidueMasses = new double[128];
+        for (char aa : AminoAcid.getAminoAcids()) {
+            fixedResidueMasses[aa] = getResidueMass(aa);
+        }
+    }
+
+    /**
+     * Returns the mass of the given amino acid including the fixed
+     * modification targeting it, if any. Note that modifications targeting a
+     * pattern of amino acids are accounted regardless of the pattern.
+     *
+     * @param aa the one letter code of the amino acid
+     *
+     * @return the mass of the given amino acid including the fixed
+     * modification targeting it
+     */
+    private double getResidueMass(char aa) {
+        double mass = AminoAcid.getAminoAcid(aa).getMonoisotopicMass();
+        String modificationAtAa = fixedModificationsAtAa.get(aa);
+        if (modificationAtAa != null) {
+            mass += modificationsMasses.get(modificationAtAa);
+        }
+        return mass;
+    }
+
+    /**
+     * Returns the mass of the given amino acid including the fixed
+     * modification targeting it, if any. Note that modifications targeting a
+     * pattern of amino acids are accounted regardless of the pattern, see
+     * hasModificationPatterns().
+     *
+     * @param aa the one letter code of the amino acid
+     *
+     * @return the mass of the given amino acid including the fixed
+     * modification targeting it
+     */
+    public double getFixedResidueMass(char aa) {
+        if (aa < fixedResidueMasses.length) {
+            double mass = fixedResidueMasses[aa];
+            if (mass > 0.0) {
+                return mass;
+            }
+        }
+        return getResidueMass(aa);
+    }
+
+    /**
+     * Indicates whether some of the fixed modifications target a pattern of
+     * amino acids.
+     *
+     * @return a boolean indicating whether some of the fixed modifications
+     * target a pattern of amino acids
+     */
+    public boolean hasModificationPatterns() {
+        return !modificationPatternMap.isEmpty();
+    }
+
     /**
      * Returns the N-term modification for the given amino acid. Null if no
      * modification is found.
@@ -288,9 +356,23 @@ public class ProteinIteratorUtils {
     public String getCtermModification(PeptideDraft peptideDraft, String proteinSequence, int indexOnProtein) {
 
         char[] peptideSequence = peptideDraft.getSequence();
-        char aaChar = peptideSequence[peptideSequence.length - 1];
+        return getCtermModification(peptideSequence[peptideSequence.length - 1], peptideDraft.length(), proteinSequence, indexOnProtein);
+    }
+
+    /**
+     * Returns the c-terminal modification for the peptide of the given length
+     * ending with the given amino acid.
+     *
+     * @param aaChar the c-terminal amino acid of the peptide
+     * @param peptideLength the length of the peptide
+     * @param proteinSequence the protein sequence
+     * @param indexOnProtein the index of the peptide on the protein
+     *
+     * @return the c-terminal modification for the given peptide
+     */
+    public String getCtermModification(char aaChar, int peptideLength, String proteinSequence, int indexOnProtein) {
 
-        if (indexOnProtein == proteinSequence.length() - peptideDraft.length()) {
+        if (indexOnProtein == proteinSequence.length() - peptideLength) {
 
             if (fixedProteinCtermModification != null) {
                 return fixedProteinCtermModification;
@@ -314,7 +396,7 @@ public class ProteinIteratorUtils {
 
             AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedPeptideCtermModificationAtAa);
 
-            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, indexOnProtein + peptideDraft.length())) {
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, indexOnProtein + peptideLength)) {
                 return fixedPeptideCtermModificationAtAa;
             }
         }
@@ -0,0 +1,277 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion.iterators;
+
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.util.Arrays;
+
+/**
+ * Iterator for the digestion of sequences without combination of amino acids.
+ * The cleavage sites and masses of the candidate peptides are evaluated on
+ * primitive arrays, and peptide objects are only created for the candidates
+ * passing the mass filters. Supports specific, semi-specific and unspecific
+ * digestion. Fixed modifications targeting a pattern of amino acids are not
+ * supported, see ProteinIteratorUtils.hasModificationPatterns().
+ *
+ * @author Marc Vaudel
+ */
+public class PrefixMassIterator implements SequenceIterator {
+
+    /**
+     * Tolerance used when filtering on the prefix masses in order to account
+     * for rounding errors. Candidates passing the filter are filtered again
+     * upon creation of the peptide.
+     */
+    private static final double MASS_TOLERANCE = 1e-6;
+    /**
+     * Utilities classes for the digestion.
+     */
+    private final ProteinIteratorUtils proteinIteratorUtils;
+    /**
+     * The protein sequence.
+     */
+    private final String proteinSequence;
+    /**
+     * The protein sequence as char array.
+     */
+    private final char[] proteinSequenceAsCharArray;
+    /**
+     * The length of the protein sequence.
+     */
+    private final int proteinLength;
+    /**
+     * The minimal mass to consider.
+     */
+    private final double massMin;
+    /**
+     * The maximal mass to consider.
+     */
+    private final double massMax;
+    /**
+     * The maximum number of missed cleavages.
+     */
+    private final int nMissedCleavages;
+    /**
+     * Boolean indicating whether peptides must start at a cleavage site.
+     */
+    private final boolean specificStart;
+    /**
+     * Boolean indicating whether peptides must end at a cleavage site.
+     */
+    private final boolean specificEnd;
+    /**
+     * Boolean indicating whether peptides must start or end at a cleavage
+     * site.
+     */
+    private final boolean specificStartOrEnd;
+    /**
+     * The cumulative masses of the residues including fixed modifications:
+     * the mass of the residues from i to j is prefixMasses[j] -
+     * prefixMasses[i].
+     */
+    private final double[] prefixMasses;
+    /**
+     * The cumulative number of cleavage sites: cleavageCounts[i] is the number
+     * of cleavage sites located before the residue i. Null for unspecific
+     * digestion.
+     */
+    private final int[] cleavageCounts;
+    /**
+     * The mass of the N-terminal modification of a peptide starting at the
+     * given index.
+     */
+    private final double[] nTermMasses;
+    /**
+     * The mass of the C-terminal modification of a peptide ending before the
+     * given index.
+     */
+    private final double[] cTermMasses;
+    /**
+     * The index of the start of the current peptide.
+     */
+    private int start = 0;
+    /**
+     * The index of the end of the current peptide (exclusive).
+     */
+    private int end = 0;
+
+    /**
+     * Constructor for enzymatic digestion.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param enzyme the enzyme to use for digestion
+     * @param specificity the specificity of the enzyme, if null specific
+     * @param nMissedCleavages the maximal number of missed cleavages allowed
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    public PrefixMassIterator(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, Enzyme enzyme, DigestionPreferences.Specificity specificity, int nMissedCleavages, double massMin, double massMax) {
+        this(proteinIteratorUtils, proteinSequence, enzyme, specificity, nMissedCleavages, massMin, massMax, true);
+    }
+
+    /**
+     * Constructor for unspecific digestion.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    public PrefixMassIterator(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, double massMin, double massMax) {
+        this(proteinIteratorUtils, proteinSequence, null, null, Integer.MAX_VALUE, massMin, massMax, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param proteinIteratorUtils utils for the creation of the peptides
+     * @param proteinSequence the sequence to iterate
+     * @param enzyme the enzyme to use for digestion, null for unspecific
+     * @param specificity the specificity of the enzyme, if null specific
+     * @param nMissedCleavages the maximal number of missed cleavages allowed
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param specific boolean indicating whether the digestion is specific
+     */
+    private PrefixMassIterator(ProteinIteratorUtils proteinIteratorUtils, String proteinSequence, Enzyme enzyme, DigestionPreferences.Specificity specificity, int nMissedCleavages, double massMin, double massMax, boolean specific) {
+
+        this.proteinIteratorUtils = proteinIteratorUtils;
+        this.proteinSequence = proteinSequence;
+        this.proteinSequenceAsCharArray = proteinSequence.toCharArray();
+        this.proteinLength = proteinSequenceAsCharArray.length;
+        this.nMissedCleavages = nMissedCleavages;
+        this.massMin = massMin;
+        this.massMax = massMax;
+
+        if (!specific) {
+            specificStart = false;
+            specificEnd = false;
+            specificStartOrEnd = false;
+        } else if (specificity == null) {
+            specificStart = true;
+            specificEnd = true;
+            specificStartOrEnd = false;
+        } else {
+            switch (specificity) {
+                case specific:
+                    specificStart = true;
+                    specificEnd = true;
+                    specificStartOrEnd = false;
+                    break;
+                case semiSpecific:
+                    specificStart = false;
+                    specificEnd = false;
+                    specificStartOrEnd = true;
+                    break;
+                case specificNTermOnly:
+                    specificStart = true;
+                    specificEnd = false;
+                    specificStartOrEnd = false;
+                    break;
+                case specificCTermOnly:
+                    specificStart = false;
+                    specificEnd = true;
+                    specificStartOrEnd = false;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Specificity " + specificity + " not implemented.");
+            }
+        }
+
+        prefixMasses = new double[proteinLength + 1];
+        nTermMasses = new double[proteinLength + 1];
+        cTermMasses = new double[proteinLength + 1];
+        cleavageCounts = specific ? new int[proteinLength + 1] : null;
+
+        for (int i = 0; i < proteinLength; i++) {
+
+            char aa = proteinSequenceAsCharArray[i];
+            prefixMasses[i + 1] = prefixMasses[i] + proteinIteratorUtils.getFixedResidueMass(aa);
+
+            String nTermModification = proteinIteratorUtils.getNtermModification(i == 0, aa, proteinSequence);
+            nTermMasses[i] = proteinIteratorUtils.getModificationMass(nTermModification);
+
+            String cTermModification = proteinIteratorUtils.getCtermModification(aa, 1, proteinSequence, i);
+            if (cTermModification != null) {
+                cTermMasses[i + 1] = proteinIteratorUtils.getModificationMass(cTermModification);
+            }
+
+            if (specific && i > 0) {
+                cleavageCounts[i] = cleavageCounts[i - 1];
+                if (enzyme.isCleavageSiteNoCombination(proteinSequenceAsCharArray[i - 1], aa)) {
+                    cleavageCounts[i]++;
+                }
+            }
+        }
+        if (specific && proteinLength > 0) {
+            cleavageCounts[proteinLength] = cleavageCounts[proteinLength - 1];
+        }
+    }
+
+    @Override
+    public PeptideWithPosition getNextPeptide() throws InterruptedException {
+
+        double minCtermMass = proteinIteratorUtils.getMinCtermMass();
+
+        while (start < proteinLength) {
+
+            if (end == start && specificStart && !isCleavageSite(start)) {
+                start++;
+                end = start;
+                continue;
+            }
+
+            while (++end <= proteinLength) {
+
+                if (cleavageCounts != null && cleavageCounts[end - 1] - cleavageCounts[start] > nMissedCleavages) {
+                    break;
+                }
+
+                double residuesMass = prefixMasses[end] - prefixMasses[start] + nTermMasses[start] + ProteinIteratorUtils.WATER_MASS;
+
+                if (residuesMass + minCtermMass > massMax + MASS_TOLERANCE) {
+                    break;
+                }
+
+                if (specificEnd && !isCleavageSite(end)
+                        || specificStartOrEnd && !isCleavageSite(start) && !isCleavageSite(end)) {
+                    continue;
+                }
+
+                double peptideMass = residuesMass + cTermMasses[end];
+
+                if (peptideMass >= massMin - MASS_TOLERANCE && peptideMass <= massMax + MASS_TOLERANCE) {
+
+                    char[] peptideSequence = Arrays.copyOfRange(proteinSequenceAsCharArray, start, end);
+                    Peptide peptide = proteinIteratorUtils.getPeptideFromProtein(peptideSequence, proteinSequence, start, massMin, massMax);
+
+                    if (peptide != null) {
+                        return new PeptideWithPosition(peptide, start);
+                    }
+                }
+            }
+
+            start++;
+            end = start;
+        }
+
+        return null;
+    }
+
+    /**
+     * Indicates whether the given index is a cleavage site, i.e. whether the
+     * enzyme cleaves before the residue at this index. The termini of the
+     * protein are considered as cleavage sites.
+     *
+     * @param index the index on the protein
+     *
+     * @return a boolean indicating whether the given index is a cleavage site
+     */
+    private boolean isCleavageSite(int index) {
+        return index == 0 || index == proteinLength || cleavageCounts[index] != cleavageCounts[index - 1];
+    }
+}
@@ -0,0 +1,420 @@
+package com.compomics.util.experiment.identification.spectrum_annotation;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.TagFragmentIon;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The annotation plan compiles the ion types, neutral losses and charges of
+ * specific annotation settings into primitive tables. It allows validating the
+ * neutral losses and charges of the theoretic ions without looking up the
+ * neutral losses by name. The plan reflects the settings at the time of its
+ * creation, use isCompiledFrom to verify that it can be reused for a given
+ * set of settings.
+ *
+ * @author Marc Vaudel
+ */
+public class AnnotationPlan {
+
+    /**
+     * Empty charges array.
+     */
+    private static final int[] NO_CHARGES = new int[0];
+    /**
+     * The precursor charge.
+     */
+    private final int precursorCharge;
+    /**
+     * The type of the ions to annotate, one per ion type and subtype
+     * combination.
+     */
+    private final Ion.IonType[] ionTypes;
+    /**
+     * The subtype of the ions to annotate, one per ion type and subtype
+     * combination.
+     */
+    private final int[] ionSubTypes;
+    /**
+     * Indicates for every ion type and subtype combination whether it is a
+     * fragment ion of a peptide or a tag.
+     */
+    private final boolean[] fragmentIon;
+    /**
+     * Indicates for every ion type and subtype combination whether it is a
+     * forward ion, i.e. a, b or c.
+     */
+    private final boolean[] forwardIon;
+    /**
+     * The neutral losses accounted.
+     */
+    private final NeutralLoss[] neutralLosses;
+    /**
+     * The first forward ion number where every neutral loss is accounted.
+     */
+    private final int[] forwardStarts;
+    /**
+     * The first rewind ion number where every neutral loss is accounted.
+     */
+    private final int[] rewindStarts;
+    /**
+     * The charges allowed for fragment ions indexed by ion number. Fragment
+     * ions with a number higher than the table length use the last element.
+     */
+    private final int[][] fragmentCharges;
+    /**
+     * The charges allowed for precursor ions.
+     */
+    private final int[] precursorCharges;
+    /**
+     * The charges allowed for the other ions.
+     */
+    private final int[] otherCharges;
+    /**
+     * Copy of the ion types of the settings used to compile the plan.
+     */
+    private final HashMap<Ion.IonType, HashSet<Integer>> settingsIonTypes;
+    /**
+     * Copy of the charges of the settings used to compile the plan.
+     */
+    private final ArrayList<Integer> settingsCharges;
+    /**
+     * The names of the neutral losses of the settings used to compile the
+     * plan.
+     */
+    private final String[] settingsLossNames;
+    /**
+     * The forward starts of the neutral losses of the settings used to
+     * compile the plan.
+     */
+    private final Integer[] settingsForwardStarts;
+    /**
+     * The rewind starts of the neutral losses of the settings used to compile
+     * the plan.
+     */
+    private final int[] settingsRewindStarts;
+
+    /**
+     * Constructor.
+     *
+     * @param specificAnnotationSettings the specific annotation settings to
+     * compile
+     * @param precursorCharge the precursor charge
+     */
+    public AnnotationPlan(SpecificAnnotationSettings specificAnnotationSettings, int precursorCharge) {
+
+        this.precursorCharge = precursorCharge;
+
+        // Ion types
+        HashMap<Ion.IonType, HashSet<Integer>> ionTypesMap = specificAnnotationSettings.getIonTypes();
+        int nIonTypes = 0;
+        for (HashSet<Integer> subTypes : ionTypesMap.values()) {
+            nIonTypes += subTypes.size();
+        }
+        ionTypes = new Ion.IonType[nIonTypes];
+        ionSubTypes = new int[nIonTypes];
+        fragmentIon = new boolean[nIonTypes];
+        forwardIon = new boolean[nIonTypes];
+        settingsIonTypes = new HashMap<Ion.IonType, HashSet<Integer>>(ionTypesMap.size());
+        int i = 0;
+        for (Ion.IonType ionType : ionTypesMap.keySet()) {
+            HashSet<Integer> subTypes = ionTypesMap.get(ionType);
+            settingsIonTypes.put(ionType, new HashSet<Integer>(subTypes));
+            for (int subType : subTypes) {
+                ionTypes[i] = ionType;
+                ionSubTypes[i] = subType;
+                fragmentIon[i] = ionType == Ion.IonType.PEPTIDE_FRAGMENT_ION || ionType == Ion.IonType.TAG_FRAGMENT_ION;
+                forwardIon[i] = fragmentIon[i] && isForwardIon(subType);
+                i++;
+            }
+        }
+
+        // Neutral losses
+        NeutralLossesMap neutralLossesMap = specificAnnotationSettings.getNeutralLossesMap();
+        ArrayList<NeutralLoss> neutralLossesList = new ArrayList<NeutralLoss>();
+        ArrayList<Integer> forwardStartsList = new ArrayList<Integer>();
+        ArrayList<Integer> rewindStartsList = new ArrayList<Integer>();
+        if (neutralLossesMap != null && !neutralLossesMap.isEmpty()) {
+            ArrayList<String> neutralLossNames = neutralLossesMap.getAccountedNeutralLosses();
+            settingsLossNames = neutralLossNames.toArray(new String[neutralLossNames.size()]);
+            settingsForwardStarts = new Integer[settingsLossNames.length];
+            settingsRewindStarts = new int[settingsLossNames.length];
+            for (int j = 0; j < settingsLossNames.length; j++) {
+                settingsForwardStarts[j] = neutralLossesMap.getForwardStart(settingsLossNames[j]);
+                settingsRewindStarts[j] = neutralLossesMap.getRewindStart(settingsLossNames[j]);
+            }
+            for (String neutralLossName : neutralLossNames) {
+                NeutralLoss neutralLoss = NeutralLoss.getNeutralLoss(neutralLossName);
+                if (neutralLoss != null) {
+                    neutralLossesList.add(neutralLoss);
+                    Integer forwardStart = neutralLossesMap.getForwardStart(neutralLossName);
+                    forwardStartsList.add(forwardStart == null ? 0 : forwardStart);
+                    rewindStartsList.add(neutralLossesMap.getRewindStart(neutralLossName));
+                }
+            }
+        } else {
+            settingsLossNames = new String[0];
+            settingsForwardStarts = new Integer[0];
+            settingsRewindStarts = new int[0];
+        }
+        int nLosses = neutralLossesList.size();
+        neutralLosses = neutralLossesList.toArray(new NeutralLoss[nLosses]);
+        forwardStarts = new int[nLosses];
+        rewindStarts = new int[nLosses];
+        for (int j = 0; j < nLosses; j++) {
+            forwardStarts[j] = forwardStartsList.get(j);
+            rewindStarts[j] = rewindStartsList.get(j);
+        }
+
+        // Charges
+        ArrayList<Integer> selectedCharges = specificAnnotationSettings.getSelectedCharges();
+        settingsCharges = new ArrayList<Integer>(selectedCharges);
+        int maxCharge = 1;
+        for (int charge : selectedCharges) {
+            maxCharge = Math.max(maxCharge, charge);
+        }
+        fragmentCharges = new int[maxCharge + 1][];
+        for (int number = 0; number <= maxCharge; number++) {
+            ArrayList<Integer> allowedCharges = new ArrayList<Integer>(selectedCharges.size());
+            for (int charge : selectedCharges) {
+                if (charge == 1 || charge <= number && charge < precursorCharge) {
+                    allowedCharges.add(charge);
+                }
+            }
+            fragmentCharges[number] = toArray(allowedCharges);
+        }
+        ArrayList<Integer> allowedCharges = new ArrayList<Integer>(2);
+        for (int charge = 1; charge <= precursorCharge; charge++) {
+            if (charge == 1 || charge >= precursorCharge) {
+                allowedCharges.add(charge);
+            }
+        }
+        precursorCharges = toArray(allowedCharges);
+        otherCharges = selectedCharges.contains(1) ? new int[]{1} : NO_CHARGES;
+    }
+
+    /**
+     * Returns a boolean indicating whether the plan was compiled from settings
+     * with the same ion types, neutral losses and charges as the given
+     * settings and for the given precursor charge, in which case it can be
+     * reused for the given settings.
+     *
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param precursorCharge the precursor charge
+     *
+     * @return a boolean indicating whether the plan can be used for the given
+     * settings and precursor charge
+     */
+    public boolean isCompiledFrom(SpecificAnnotationSettings specificAnnotationSettings, int precursorCharge) {
+
+        if (this.precursorCharge != precursorCharge
+                || !settingsCharges.equals(specificAnnotationSettings.getSelectedCharges())
+                || !settingsIonTypes.equals(specificAnnotationSettings.getIonTypes())) {
+            return false;
+        }
+
+        NeutralLossesMap neutralLossesMap = specificAnnotationSettings.getNeutralLossesMap();
+        if (neutralLossesMap == null || neutralLossesMap.isEmpty()) {
+            return settingsLossNames.length == 0;
+        }
+        ArrayList<String> neutralLossNames = neutralLossesMap.getAccountedNeutralLosses();
+        if (neutralLossNames.size() != settingsLossNames.length) {
+            return false;
+        }
+        for (int i = 0; i < settingsLossNames.length; i++) {
+            String neutralLossName = neutralLossNames.get(i);
+            if (!neutralLossName.equals(settingsLossNames[i])) {
+                return false;
+            }
+            Integer forwardStart = neutralLossesMap.getForwardStart(neutralLossName);
+            if (forwardStart == null ? settingsForwardStarts[i] != null : !forwardStart.equals(settingsForwardStarts[i])) {
+                return false;
+            }
+            if (neutralLossesMap.getRewindStart(neutralLossName) != settingsRewindStarts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a boolean indicating whether the given fragment ion subtype is a
+     * forward ion.
+     *
+     * @param subType the fragment ion subtype
+     *
+     * @return a boolean indicating whether the given fragment ion subtype is a
+     * forward ion
+     */
+    private static boolean isForwardIon(int subType) {
+        switch (subType) {
+            case PeptideFragmentIon.A_ION:
+            case PeptideFragmentIon.B_ION:
+            case PeptideFragmentIon.C_ION:
+                return true;
+            case PeptideFragmentIon.X_ION:
+            case PeptideFragmentIon.Y_ION:
+            case PeptideFragmentIon.Z_ION:
+                return false;
+            default:
+                throw new UnsupportedOperationException("Fragment ion subtype " + subType + " not implemented in the spectrum annotator.");
+        }
+    }
+
+    /**
+     * Converts a list of integers into an array.
+     *
+     * @param list the list
+     *
+     * @return the array
+     */
+    private static int[] toArray(ArrayList<Integer> list) {
+        if (list.isEmpty()) {
+            return NO_CHARGES;
+        }
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of ion type and subtype combinations to annotate.
+     *
+     * @return the number of ion type and subtype combinations to annotate
+     */
+    public int getnIonTypes() {
+        return ionTypes.length;
+    }
+
+    /**
+     * Returns the ion type of the given combination.
+     *
+     * @param index the index of the ion type and subtype combination
+     *
+     * @return the ion type
+     */
+    public Ion.IonType getIonType(int index) {
+        return ionTypes[index];
+    }
+
+    /**
+     * Returns the ion subtype of the given combination.
+     *
+     * @param index the index of the ion type and subtype combination
+     *
+     * @return the ion subtype
+     */
+    public int getIonSubType(int index) {
+        return ionSubTypes[index];
+    }
+
+    /**
+     * Returns the precursor charge used to compile the plan.
+     *
+     * @return the precursor charge
+     */
+    public int getPrecursorCharge() {
+        return precursorCharge;
+    }
+
+    /**
+     * Returns a boolean indicating whether the neutral losses of the given ion
+     * are accounted for. Equivalent to
+     * SpectrumAnnotator.lossesValidated(NeutralLossesMap, Ion).
+     *
+     * @param index the index of the ion type and subtype combination of the
+     * ion
+     * @param ion the ion
+     *
+     * @return a boolean indicating whether the neutral losses of the given ion
+     * are accounted for
+     */
+    public boolean lossesValidated(int index, Ion ion) {
+
+        NeutralLoss[] ionLosses = ion.getNeutralLosses();
+        if (ionLosses == null || ionLosses.length == 0) {
+            return true;
+        }
+
+        int number = fragmentIon[index] ? getFragmentNumber(ion) : 0;
+
+        for (NeutralLoss neutralLoss : ionLosses) {
+            int lossIndex = getLossIndex(neutralLoss);
+            if (lossIndex == -1) {
+                return false;
+            }
+            if (fragmentIon[index]) {
+                int start = forwardIon[index] ? forwardStarts[lossIndex] : rewindStarts[lossIndex];
+                if (start > number) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the charges to inspect for the given ion. Equivalent to
+     * filtering the charges of the settings with
+     * SpectrumAnnotator.chargeValidated(Ion, int, int), for precursor ions all
+     * charges up to the precursor charge are considered. The returned array
+     * should not be modified.
+     *
+     * @param index the index of the ion type and subtype combination of the
+     * ion
+     * @param ion the ion
+     *
+     * @return the charges to inspect for the given ion
+     */
+    public int[] getCharges(int index, Ion ion) {
+        if (fragmentIon[index]) {
+            int number = getFragmentNumber(ion);
+            return fragmentCharges[Math.min(number, fragmentCharges.length - 1)];
+        }
+        if (ionTypes[index] == Ion.IonType.PRECURSOR_ION) {
+            return precursorCharges;
+        }
+        return otherCharges;
+    }
+
+    /**
+     * Returns the index of the given neutral loss in the plan, -1 if not
+     * accounted for.
+     *
+     * @param neutralLoss the neutral loss
+     *
+     * @return the index of the given neutral loss in the plan
+     */
+    private int getLossIndex(NeutralLoss neutralLoss) {
+        for (int i = 0; i < neutralLosses.length; i++) {
+            if (neutralLosses[i] == neutralLoss) {
+                return i;
+            }
+        }
+        for (int i = 0; i < neutralLosses.length; i++) {
+            if (neutralLoss.isSameAs(neutralLosses[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of a peptide or tag fragment ion.
+     *
+     * @param ion the fragment ion
+     *
+     * @return the number of the fragment ion
+     */
+    private static int getFragmentNumber(Ion ion) {
+        if (ion instanceof PeptideFragmentIon) {
+            return ((PeptideFragmentIon) ion).getNumber();
+        }
+        return ((TagFragmentIon) ion).getNumber();
+    }
+}
@@ -0,0 +1,431 @@
+package com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.commons.math.MathException;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Annotates batches of peptide spectrum matches. The spectra are loaded from
+ * the spectrum factory by a dedicated thread ahead of the annotation, the
+ * annotation is done on a pool of threads, each using its own
+ * PeptideSpectrumAnnotator, and the annotations are returned in the order of
+ * the input. Contrary to the PeptideSpectrumAnnotator, a single instance can
+ * be used by different threads.
+ *
+ * @author Marc Vaudel
+ */
+public class BatchPeptideSpectrumAnnotator {
+
+    /**
+     * The default number of matches annotated or loaded ahead of the consumer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1000;
+    /**
+     * The spectrum factory.
+     */
+    private final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The annotation settings.
+     */
+    private final AnnotationSettings annotationSettings;
+    /**
+     * The sequence matching preferences used to map modifications when
+     * estimating the default neutral losses.
+     */
+    private final SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The sequence matching preferences used for the modification sites.
+     */
+    private final SequenceMatchingPreferences ptmSequenceMatchingPreferences;
+    /**
+     * The number of threads to use for the annotation.
+     */
+    private final int nThreads;
+    /**
+     * The number of matches annotated or loaded ahead of the consumer.
+     */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    /**
+     * The annotator of every thread.
+     */
+    private final ThreadLocal<PeptideSpectrumAnnotator> annotators = new ThreadLocal<PeptideSpectrumAnnotator>() {
+        @Override
+        protected PeptideSpectrumAnnotator initialValue() {
+            return new PeptideSpectrumAnnotator();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param annotationSettings the annotation settings
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for modification to peptide mapping
+     * @param nThreads the number of threads to use for the annotation
+     */
+    public BatchPeptideSpectrumAnnotator(AnnotationSettings annotationSettings, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, int nThreads) {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be strictly positive.");
+        }
+        this.annotationSettings = annotationSettings;
+        this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+        this.ptmSequenceMatchingPreferences = ptmSequenceMatchingPreferences;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Returns the number of matches annotated or loaded ahead of the consumer.
+     *
+     * @return the number of matches annotated or loaded ahead of the consumer
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the number of matches annotated or loaded ahead of the consumer.
+     *
+     * @param bufferSize the number of matches annotated or loaded ahead of the
+     * consumer
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be strictly positive.");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Starts the annotation of the given matches and returns an iterator on
+     * the annotations. The annotations are returned in the order of the input.
+     * The iterator should be closed if not iterated to the end.
+     *
+     * @param psms iterator on the matches to annotate
+     * @param useIntensityFilter boolean indicating whether intensity filters
+     * should be used
+     * @param waitingHandler waiting handler allowing canceling the process,
+     * can be null
+     *
+     * @return an iterator on the annotations
+     */
+    public AnnotationIterator annotate(Iterator<PsmAnnotation> psms, boolean useIntensityFilter, WaitingHandler waitingHandler) {
+        AnnotationIterator annotationIterator = new AnnotationIterator(psms, useIntensityFilter, waitingHandler);
+        annotationIterator.start();
+        return annotationIterator;
+    }
+
+    /**
+     * Annotates the given match with the annotator of the current thread.
+     *
+     * @param psmAnnotation the match to annotate
+     * @param spectrum the spectrum of the match
+     * @param useIntensityFilter boolean indicating whether intensity filters
+     * should be used
+     *
+     * @return the given match with its annotation
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the modification sites
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while mapping the modification sites
+     * @throws SQLException exception thrown whenever an error occurred while
+     * mapping the modification sites
+     * @throws MathException exception thrown if a math exception occurred when
+     * estimating the noise level
+     */
+    private PsmAnnotation annotate(PsmAnnotation psmAnnotation, MSnSpectrum spectrum, boolean useIntensityFilter)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        PeptideAssumption peptideAssumption = psmAnnotation.getPeptideAssumption();
+        SpecificAnnotationSettings specificAnnotationSettings = annotationSettings.getSpecificAnnotationPreferences(psmAnnotation.getSpectrumKey(),
+                peptideAssumption, sequenceMatchingPreferences, ptmSequenceMatchingPreferences);
+        PeptideSpectrumAnnotator peptideSpectrumAnnotator = annotators.get();
+        ArrayList<IonMatch> ionMatches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings,
+                spectrum, peptideAssumption.getPeptide(), useIntensityFilter);
+        psmAnnotation.setIonMatches(ionMatches);
+        return psmAnnotation;
+    }
+
+    /**
+     * A peptide spectrum match to annotate and its annotation.
+     */
+    public static class PsmAnnotation {
+
+        /**
+         * The key of the spectrum.
+         */
+        private final String spectrumKey;
+        /**
+         * The peptide assumption.
+         */
+        private final PeptideAssumption peptideAssumption;
+        /**
+         * The ion matches, null until annotated.
+         */
+        private ArrayList<IonMatch> ionMatches = null;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumKey the key of the spectrum
+         * @param peptideAssumption the peptide assumption
+         */
+        public PsmAnnotation(String spectrumKey, PeptideAssumption peptideAssumption) {
+            this.spectrumKey = spectrumKey;
+            this.peptideAssumption = peptideAssumption;
+        }
+
+        /**
+         * Returns the key of the spectrum.
+         *
+         * @return the key of the spectrum
+         */
+        public String getSpectrumKey() {
+            return spectrumKey;
+        }
+
+        /**
+         * Returns the peptide assumption.
+         *
+         * @return the peptide assumption
+         */
+        public PeptideAssumption getPeptideAssumption() {
+            return peptideAssumption;
+        }
+
+        /**
+         * Returns the ion matches. Null if not annotated.
+         *
+         * @return the ion matches
+         */
+        public ArrayList<IonMatch> getIonMatches() {
+            return ionMatches;
+        }
+
+        /**
+         * Sets the ion matches.
+         *
+         * @param ionMatches the ion matches
+         */
+        public void setIonMatches(ArrayList<IonMatch> ionMatches) {
+            this.ionMatches = ionMatches;
+        }
+    }
+
+    /**
+     * Iterator on the annotations. Warning: use one iterator per thread.
+     */
+    public class AnnotationIterator {
+
+        /**
+         * The matches to annotate.
+         */
+        private final Iterator<PsmAnnotation> psms;
+        /**
+         * Boolean indicating whether intensity filters should be used.
+         */
+        private final boolean useIntensityFilter;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The annotations in progress in the order of the input.
+         */
+        private final ArrayBlockingQueue<Future<PsmAnnotation>> annotationQueue;
+        /**
+         * Task marking the end of the input.
+         */
+        private final FutureTask<PsmAnnotation> endOfInput = new FutureTask<PsmAnnotation>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        /**
+         * The pool annotating the spectra.
+         */
+        private ExecutorService pool;
+        /**
+         * The thread loading the spectra.
+         */
+        private Thread spectrumLoader;
+        /**
+         * Boolean indicating whether the iteration is finished.
+         */
+        private volatile boolean finished = false;
+
+        /**
+         * Constructor.
+         *
+         * @param psms the matches to annotate
+         * @param useIntensityFilter boolean indicating whether intensity
+         * filters should be used
+         * @param waitingHandler the waiting handler
+         */
+        private AnnotationIterator(Iterator<PsmAnnotation> psms, boolean useIntensityFilter, WaitingHandler waitingHandler) {
+            this.psms = psms;
+            this.useIntensityFilter = useIntensityFilter;
+            this.waitingHandler = waitingHandler;
+            this.annotationQueue = new ArrayBlockingQueue<Future<PsmAnnotation>>(bufferSize);
+        }
+
+        /**
+         * Starts loading the spectra and annotating.
+         */
+        private void start() {
+            pool = Executors.newFixedThreadPool(nThreads, Util.getDaemonThreadFactory("spectrum annotation"));
+            spectrumLoader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loadSpectra();
+                }
+            }, "spectrum annotation prefetching");
+            spectrumLoader.setDaemon(true);
+            spectrumLoader.start();
+        }
+
+        /**
+         * Loads the spectra of the matches to annotate and submits them for
+         * annotation. Consecutive matches of the same spectrum share the
+         * loaded spectrum. Errors are passed to the consumer as failed tasks,
+         * and the end of the input is always signaled unless the iterator was
+         * closed.
+         */
+        private void loadSpectra() {
+            try {
+                try {
+                    String currentKey = null;
+                    MSnSpectrum currentSpectrum = null;
+                    while (psms.hasNext()) {
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                        final PsmAnnotation psmAnnotation = psms.next();
+                        String spectrumKey = psmAnnotation.getSpectrumKey();
+                        Future<PsmAnnotation> future;
+                        try {
+                            if (!spectrumKey.equals(currentKey)) {
+                                currentSpectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey, false);
+                                currentKey = spectrumKey;
+                            }
+                            final MSnSpectrum spectrum = currentSpectrum;
+                            future = pool.submit(new Callable<PsmAnnotation>() {
+                                @Override
+                                public PsmAnnotation call() throws Exception {
+                                    return annotate(psmAnnotation, spectrum, useIntensityFilter);
+                                }
+                            });
+                        } catch (Exception e) {
+                            currentKey = null;
+                            future = getFailedTask(e);
+                        }
+                        annotationQueue.put(future);
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    annotationQueue.put(getFailedTask(t));
+                } finally {
+                    if (!finished) {
+                        annotationQueue.put(endOfInput);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The iterator was closed
+            }
+        }
+
+        /**
+         * Returns a completed task which failed with the given error.
+         *
+         * @param error the error
+         *
+         * @return a completed task which failed with the given error
+         */
+        private FutureTask<PsmAnnotation> getFailedTask(final Throwable error) {
+            FutureTask<PsmAnnotation> failedTask = new FutureTask<PsmAnnotation>(new Callable<PsmAnnotation>() {
+                @Override
+                public PsmAnnotation call() throws Exception {
+                    if (error instanceof Exception) {
+                        throw (Exception) error;
+                    }
+                    throw (Error) error;
+                }
+            });
+            failedTask.run();
+            return failedTask;
+        }
+
+        /**
+         * Returns the next annotated match. Null if the iterator is done
+         * iterating.
+         *
+         * @return the next annotated match
+         *
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred
+         * @throws IOException exception thrown whenever an error occurred while
+         * loading a spectrum or mapping the modification sites
+         * @throws MzMLUnmarshallerException exception thrown whenever an error
+         * occurred while loading a spectrum
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while mapping the modification sites
+         * @throws SQLException exception thrown whenever an error occurred while
+         * mapping the modification sites
+         * @throws MathException exception thrown if a math exception occurred
+         * when estimating the noise level
+         */
+        public PsmAnnotation next() throws InterruptedException, IOException, MzMLUnmarshallerException, ClassNotFoundException, SQLException, MathException {
+            if (finished) {
+                return null;
+            }
+            Future<PsmAnnotation> future = annotationQueue.take();
+            if (future == endOfInput) {
+                close();
+                return null;
+            }
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                close();
+                throw Util.getExecutionException(e, "An error occurred while annotating a spectrum.", IOException.class, MzMLUnmarshallerException.class, ClassNotFoundException.class, SQLException.class, MathException.class, InterruptedException.class);
+            }
+        }
+
+        /**
+         * Stops the loading and annotation of the spectra. Called
+         * automatically when the end of the iteration is reached or when an
+         * exception is thrown.
+         */
+        public void close() {
+            if (!finished) {
+                finished = true;
+                spectrumLoader.interrupt();
+                pool.shutdownNow();
+                annotationQueue.clear();
+            }
+        }
+    }
+}
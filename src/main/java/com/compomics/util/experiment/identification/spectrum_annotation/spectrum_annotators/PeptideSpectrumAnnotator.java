@@ -7,6 +7,7 @@ import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationPlan;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
 import com.compomics.util.experiment.identification.matches.IonMatch;
@@ -21,7 +22,6 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import org.apache.commons.math.MathException;
 
 /**
@@ -36,6 +36,11 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
      * The theoretic peptide to match.
      */
     private Peptide peptide;
+    /**
+     * The annotation plan of the last annotation, reused as long as the
+     * settings and precursor charge do not change.
+     */
+    private AnnotationPlan annotationPlan = null;
 
     /**
      * Constructor.
@@ -189,34 +194,21 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
         }
         setPeptide(peptide, possiblePeptideFragments, specificAnnotationSettings.getPrecursorCharge(), specificAnnotationSettings);
 
-        ArrayList<Integer> precursorCharges = new ArrayList<Integer>();
-
-        // possible charges for the precursor
-        for (int i = 1; i <= precursorCharge; i++) {
-            precursorCharges.add(i);
+        if (annotationPlan == null || !annotationPlan.isCompiledFrom(specificAnnotationSettings, precursorCharge)) {
+            annotationPlan = new AnnotationPlan(specificAnnotationSettings, precursorCharge);
         }
 
-        HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
-        for (Ion.IonType ionType : ionTypes.keySet()) {
-            HashMap<Integer, ArrayList<Ion>> ionMap = theoreticalFragmentIons.get(ionType.index);
+        for (int i = 0; i < annotationPlan.getnIonTypes(); i++) {
+            HashMap<Integer, ArrayList<Ion>> ionMap = theoreticalFragmentIons.get(annotationPlan.getIonType(i).index);
             if (ionMap != null) {
-                HashSet<Integer> subtypes = ionTypes.get(ionType);
-                for (int subType : subtypes) {
-                    ArrayList<Ion> ions = ionMap.get(subType);
-                    if (ions != null) {
-                        for (Ion ion : ions) {
-
-                            if (lossesValidated(specificAnnotationSettings.getNeutralLossesMap(), ion)) {
-
-                                ArrayList<Integer> ionPossibleCharges = (ionType == Ion.IonType.PRECURSOR_ION) ? precursorCharges : specificAnnotationSettings.getSelectedCharges();
-
-                                for (Integer charge : ionPossibleCharges) {
-                                    if (chargeValidated(ion, charge, precursorCharge)) {
-                                        IonMatch ionMatch = matchInSpectrum(ion, charge);
-                                        if (ionMatch != null) {
-                                            result.add(ionMatch);
-                                        }
-                                    }
+                ArrayList<Ion> ions = ionMap.get(annotationPlan.getIonSubType(i));
+                if (ions != null) {
+                    for (Ion ion : ions) {
+                        if (annotationPlan.lossesValidated(i, ion)) {
+                            for (int charge : annotationPlan.getCharges(i, ion)) {
+                                IonMatch ionMatch = matchInSpectrum(ion, charge);
+                                if (ionMatch != null) {
+                                    result.add(ionMatch);
                                 }
                             }
                         }
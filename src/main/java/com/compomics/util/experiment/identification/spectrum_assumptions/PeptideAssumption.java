@@ -84,6 +84,26 @@ public class PeptideAssumption extends SpectrumIdentificationAssumption {
         return peptide;
     }
 
+    /**
+     * Returns a shallow copy of this assumption carrying the given peptide.
+     * The other attributes are shared with this assumption, which is not
+     * modified.
+     *
+     * @param peptide the peptide of the copy
+     *
+     * @return a copy of this assumption carrying the given peptide
+     */
+    public PeptideAssumption getCopy(Peptide peptide) {
+        PeptideAssumption copy;
+        try {
+            copy = (PeptideAssumption) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        copy.peptide = peptide;
+        return copy;
+    }
+
     @Override
     public Double getTheoreticMass() throws InterruptedException {
         return peptide.getMass();
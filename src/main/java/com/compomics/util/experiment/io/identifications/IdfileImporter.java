@@ -0,0 +1,355 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.bind.JAXBException;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Imports several identification files in an identification. The files are
+ * parsed concurrently, one thread per file, and the spectrum matches are added
+ * to the identification by batch from the calling thread. The matches of a
+ * batch are merged per spectrum in the order they are received. The number of
+ * matches kept in memory is bounded by the queue and batch sizes.
+ *
+ * @author Marc Vaudel
+ */
+public class IdfileImporter {
+
+    /**
+     * Queue element marking the end of a file.
+     */
+    private static final QueueElement END_OF_FILE = new QueueElement(null, null, null);
+    /**
+     * The identification where to add the spectrum matches.
+     */
+    private final Identification identification;
+    /**
+     * The number of files to parse in parallel.
+     */
+    private final int nThreads;
+    /**
+     * The maximal number of spectrum matches to add to the identification at
+     * once.
+     */
+    private final int batchSize;
+    /**
+     * The maximal number of spectrum matches parsed in advance.
+     */
+    private final int queueSize;
+    /**
+     * Boolean indicating whether the import was stopped.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification where to add the spectrum
+     * matches
+     * @param nThreads the number of files to parse in parallel
+     * @param batchSize the maximal number of spectrum matches to add to the
+     * identification at once
+     * @param queueSize the maximal number of spectrum matches parsed in
+     * advance
+     */
+    public IdfileImporter(Identification identification, int nThreads, int batchSize, int queueSize) {
+        this.identification = identification;
+        this.nThreads = nThreads;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Imports the spectrum matches of the given files in the identification.
+     * The primary progress counter of the waiting handler is increased for
+     * every file parsed, and the throughput per file and in total is appended
+     * to the report.
+     *
+     * @param idFiles the identification files to import
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param waitingHandler a waiting handler displaying the progress and
+     * allowing canceling the import (can be null)
+     *
+     * @throws IOException if an IOException occurred while parsing a file or
+     * writing to the identification
+     * @throws SQLException if an SQLException occurred while writing to the
+     * identification
+     * @throws ClassNotFoundException if a ClassNotFoundException occurred
+     * while writing to the identification
+     * @throws InterruptedException if an InterruptedException occurred while
+     * parsing a file or waiting for the parsing
+     * @throws JAXBException if a JAXBException occurred while parsing a file
+     * @throws XmlPullParserException if an XmlPullParserException occurred
+     * while parsing a file
+     */
+    public void importFiles(ArrayList<File> idFiles, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+            boolean expandAaCombinations, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+
+        stopped = false;
+        ArrayBlockingQueue<QueueElement> queue = new ArrayBlockingQueue<QueueElement>(queueSize);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, idFiles.size())));
+        ArrayList<FileImport> fileImports = new ArrayList<FileImport>(idFiles.size());
+
+        if (waitingHandler != null) {
+            waitingHandler.setPrimaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxPrimaryProgressCounter(idFiles.size());
+            waitingHandler.setPrimaryProgressCounter(0);
+        }
+
+        long start = System.currentTimeMillis();
+        int nMatches = 0;
+
+        try {
+            for (File idFile : idFiles) {
+                FileImport fileImport = new FileImport(idFile, queue, searchParameters, sequenceMatchingPreferences, expandAaCombinations);
+                fileImport.future = pool.submit(fileImport);
+                fileImports.add(fileImport);
+            }
+            pool.shutdown();
+
+            LinkedHashMap<String, SpectrumMatch> batch = new LinkedHashMap<String, SpectrumMatch>(batchSize);
+            int nFilesParsed = 0;
+
+            while (nFilesParsed < idFiles.size()) {
+
+                QueueElement queueElement = queue.take();
+
+                if (queueElement == END_OF_FILE) {
+                    nFilesParsed++;
+                    reportParsedFiles(fileImports, false, waitingHandler);
+                } else if (queueElement.error != null) {
+                    throw Util.getExecutionException(new ExecutionException(queueElement.error), "An error occurred while parsing " + queueElement.idFile.getName() + ".", IOException.class, SQLException.class, ClassNotFoundException.class, InterruptedException.class, JAXBException.class, XmlPullParserException.class);
+                } else {
+                    SpectrumMatch spectrumMatch = queueElement.spectrumMatch;
+                    nMatches++;
+                    String key = spectrumMatch.getKey();
+                    SpectrumMatch batchMatch = batch.get(key);
+                    if (batchMatch == null) {
+                        batch.put(key, spectrumMatch);
+                        if (batch.size() >= batchSize) {
+                            identification.addSpectrumMatches(batch.values());
+                            batch.clear();
+                        }
+                    } else {
+                        SpectrumMatchCollector.mergeAssumptions(batchMatch, spectrumMatch);
+                    }
+                }
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+            }
+
+            identification.addSpectrumMatches(batch.values());
+            batch.clear();
+            reportParsedFiles(fileImports, true, waitingHandler);
+
+        } finally {
+            stopped = true;
+            pool.shutdownNow();
+            queue.clear();
+        }
+
+        if (waitingHandler != null) {
+            double seconds = (System.currentTimeMillis() - start) / 1000.0;
+            waitingHandler.appendReport(idFiles.size() + " files, " + nMatches + " spectrum matches imported in " + Util.roundDouble(seconds, 1)
+                    + " s (" + (long) (nMatches / Math.max(seconds, 0.001)) + " matches/s).", true, true);
+        }
+    }
+
+    /**
+     * Checks the result of the files parsed and not reported yet and reports
+     * them in the waiting handler.
+     *
+     * @param fileImports the file imports
+     * @param waitForAll if true all files are reported, waiting for the
+     * parsing to finish if needed, if false only the files whose parsing is
+     * finished are reported
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null)
+     *
+     * @throws IOException if an IOException occurred while parsing the file
+     * @throws SQLException if an SQLException occurred while parsing the file
+     * @throws ClassNotFoundException if a ClassNotFoundException occurred
+     * while parsing the file
+     * @throws InterruptedException if an InterruptedException occurred while
+     * parsing the file or waiting for the parsing to finish
+     * @throws JAXBException if a JAXBException occurred while parsing the
+     * file
+     * @throws XmlPullParserException if an XmlPullParserException occurred
+     * while parsing the file
+     */
+    private void reportParsedFiles(ArrayList<FileImport> fileImports, boolean waitForAll, WaitingHandler waitingHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+
+        for (FileImport fileImport : fileImports) {
+            if (!fileImport.reported && (waitForAll || fileImport.future.isDone())) {
+                try {
+                    fileImport.future.get();
+                } catch (ExecutionException e) {
+                    throw Util.getExecutionException(e, "An error occurred while parsing " + fileImport.idFile.getName() + ".", IOException.class, SQLException.class, ClassNotFoundException.class, InterruptedException.class, JAXBException.class, XmlPullParserException.class);
+                }
+                fileImport.reported = true;
+                if (waitingHandler != null) {
+                    double seconds = fileImport.parsingTime / 1000.0;
+                    waitingHandler.appendReport(fileImport.idFile.getName() + ": " + fileImport.nMatches + " spectrum matches parsed in "
+                            + Util.roundDouble(seconds, 1) + " s (" + (long) (fileImport.nMatches / Math.max(seconds, 0.001)) + " matches/s).", true, true);
+                    waitingHandler.increasePrimaryProgressCounter();
+                }
+            }
+        }
+    }
+
+    /**
+     * Element of the queue of parsed spectrum matches: a spectrum match, the
+     * end of a file, or the error which interrupted the parsing of a file. An
+     * error is put in the queue before the end of the file so that the import
+     * stops as soon as it is retrieved.
+     */
+    private static class QueueElement {
+
+        /**
+         * The spectrum match, null for the end of a file or an error.
+         */
+        private final SpectrumMatch spectrumMatch;
+        /**
+         * The identification file where the error occurred, null if no error.
+         */
+        private final File idFile;
+        /**
+         * The error which occurred while parsing the file, null if no error.
+         */
+        private final Throwable error;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatch the spectrum match
+         * @param idFile the identification file where the error occurred
+         * @param error the error which occurred while parsing the file
+         */
+        private QueueElement(SpectrumMatch spectrumMatch, File idFile, Throwable error) {
+            this.spectrumMatch = spectrumMatch;
+            this.idFile = idFile;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Parsing of an identification file feeding the queue of spectrum matches.
+     */
+    private class FileImport implements Callable<Object>, SpectrumMatchHandler {
+
+        /**
+         * The identification file.
+         */
+        private final File idFile;
+        /**
+         * The queue where to put the spectrum matches.
+         */
+        private final ArrayBlockingQueue<QueueElement> queue;
+        /**
+         * The search parameters.
+         */
+        private final SearchParameters searchParameters;
+        /**
+         * The sequence matching preferences.
+         */
+        private final SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * Indicates whether the amino acid combinations shall be expanded.
+         */
+        private final boolean expandAaCombinations;
+        /**
+         * The future of the parsing.
+         */
+        private Future<Object> future;
+        /**
+         * The number of spectrum matches parsed.
+         */
+        private int nMatches = 0;
+        /**
+         * The time spent parsing the file in milliseconds.
+         */
+        private long parsingTime = 0;
+        /**
+         * Boolean indicating whether the parsing of the file was reported.
+         */
+        private boolean reported = false;
+
+        /**
+         * Constructor.
+         *
+         * @param idFile the identification file
+         * @param queue the queue where to put the spectrum matches
+         * @param searchParameters the search parameters
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * @param expandAaCombinations indicates whether the amino acid
+         * combinations shall be expanded
+         */
+        public FileImport(File idFile, ArrayBlockingQueue<QueueElement> queue, SearchParameters searchParameters,
+                SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations) {
+            this.idFile = idFile;
+            this.queue = queue;
+            this.searchParameters = searchParameters;
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.expandAaCombinations = expandAaCombinations;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            long start = System.currentTimeMillis();
+            try {
+                IdfileReader idfileReader = IdfileReaderFactory.getInstance().getFileReader(idFile);
+                if (idfileReader == null) {
+                    throw new IllegalArgumentException("No reader found for " + idFile.getName() + ".");
+                }
+                try {
+                    IdfileReaderFactory.parseSpectrumMatches(idfileReader, null, searchParameters, sequenceMatchingPreferences, expandAaCombinations, this);
+                } finally {
+                    idfileReader.close();
+                }
+            } catch (Throwable t) {
+                if (!stopped) {
+                    queue.put(new QueueElement(null, idFile, t));
+                }
+            } finally {
+                parsingTime = System.currentTimeMillis() - start;
+                if (!stopped) {
+                    queue.put(END_OF_FILE);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void addSpectrumMatch(SpectrumMatch spectrumMatch) throws InterruptedException {
+            if (stopped) {
+                throw new InterruptedException("Import of " + idFile.getName() + " stopped.");
+            }
+            queue.put(new QueueElement(spectrumMatch, null, null));
+            nMatches++;
+        }
+    }
+}
@@ -1,15 +1,23 @@
 package com.compomics.util.experiment.io.identifications;
 
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.ServiceLoader;
 
+import javax.xml.bind.JAXBException;
 import org.apache.log4j.Logger;
 import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * This factory will provide the appropriate identification file reader for each
@@ -165,4 +173,45 @@ public class IdfileReaderFactory {
 
         return result;
     }
+
+    /**
+     * Parses the identifications of an identification file and hands over
+     * the spectrum matches to the given handler. Readers implementing
+     * StreamingIdfileReader hand over the matches as they are parsed, the
+     * matches of other readers are retrieved using getAllSpectrumMatches and
+     * handed over one after the other.
+     *
+     * @param idfileReader the reader of the identification file
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress methods will be called.
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
+     *
+     * @throws IOException if an IOException occurs
+     * @throws IllegalArgumentException if an IllegalArgumentException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws JAXBException if a JAXBException occurs
+     * @throws XmlPullParserException if an XmlPullParserException occurs
+     */
+    public static void parseSpectrumMatches(IdfileReader idfileReader, WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+
+        if (idfileReader instanceof StreamingIdfileReader) {
+            ((StreamingIdfileReader) idfileReader).parseSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchHandler);
+        } else {
+            LinkedList<SpectrumMatch> spectrumMatches = idfileReader.getAllSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations);
+            if (spectrumMatches != null) {
+                for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                    spectrumMatchHandler.addSpectrumMatch(spectrumMatch);
+                }
+            }
+        }
+    }
 }
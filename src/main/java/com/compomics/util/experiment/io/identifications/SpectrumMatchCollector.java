@@ -0,0 +1,131 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Spectrum match handler collecting the spectrum matches in a list. Matches
+ * handed over several times for the same spectrum are merged.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchCollector implements SpectrumMatchHandler {
+
+    /**
+     * The collected spectrum matches.
+     */
+    private final LinkedList<SpectrumMatch> spectrumMatches = new LinkedList<SpectrumMatch>();
+    /**
+     * Map of the collected spectrum matches indexed by key.
+     */
+    private final HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
+
+    /**
+     * Constructor.
+     */
+    public SpectrumMatchCollector() {
+
+    }
+
+    @Override
+    public void addSpectrumMatch(SpectrumMatch spectrumMatch) {
+
+        String key = spectrumMatch.getKey();
+        SpectrumMatch previousMatch = spectrumMatchesMap.get(key);
+
+        if (previousMatch == null) {
+            spectrumMatchesMap.put(key, spectrumMatch);
+            spectrumMatches.add(spectrumMatch);
+        } else {
+            mergeAssumptions(previousMatch, spectrumMatch);
+        }
+    }
+
+    /**
+     * Adds the assumptions of a spectrum match to another match of the same
+     * spectrum. Peptide assumptions of an advocate are skipped if the
+     * receiving match already has an assumption of this advocate with the
+     * same sequence and modifications.
+     *
+     * @param spectrumMatch the spectrum match receiving the assumptions
+     * @param otherMatch the spectrum match to take the assumptions from
+     */
+    static void mergeAssumptions(SpectrumMatch spectrumMatch, SpectrumMatch otherMatch) {
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptions = otherMatch.getAssumptionsMap();
+        if (assumptions != null) {
+            for (Integer advocateId : assumptions.keySet()) {
+                for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : assumptions.get(advocateId).values()) {
+                    for (SpectrumIdentificationAssumption assumption : assumptionsAtScore) {
+                        if (!(assumption instanceof PeptideAssumption)
+                                || !hasPeptide(spectrumMatch, advocateId, ((PeptideAssumption) assumption).getPeptide())) {
+                            spectrumMatch.addHit(advocateId, assumption, false);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether a spectrum match has a peptide assumption of the
+     * given advocate with the same sequence and modifications as the given
+     * peptide.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param advocateId the index of the advocate
+     * @param peptide the peptide
+     *
+     * @return a boolean indicating whether the spectrum match has an
+     * assumption for the given peptide
+     */
+    private static boolean hasPeptide(SpectrumMatch spectrumMatch, int advocateId, Peptide peptide) {
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateAssumptions = spectrumMatch.getAllAssumptions(advocateId);
+        if (advocateAssumptions != null) {
+            for (ArrayList<SpectrumIdentificationAssumption> assumptionsAtScore : advocateAssumptions.values()) {
+                for (SpectrumIdentificationAssumption tempAssumption : assumptionsAtScore) {
+                    if (tempAssumption instanceof PeptideAssumption) {
+                        Peptide tempPeptide = ((PeptideAssumption) tempAssumption).getPeptide();
+                        if (peptide.getSequence().equals(tempPeptide.getSequence())) {
+                            boolean sameModifications = peptide.getNModifications() == tempPeptide.getNModifications();
+                            if (sameModifications && peptide.isModified()) {
+                                for (ModificationMatch originalMatch : peptide.getModificationMatches()) {
+                                    boolean ptmFound = false;
+                                    for (ModificationMatch otherMatch : tempPeptide.getModificationMatches()) {
+                                        if (originalMatch.getTheoreticPtm().equals(otherMatch.getTheoreticPtm()) && originalMatch.getModificationSite() == otherMatch.getModificationSite()) {
+                                            ptmFound = true;
+                                            break;
+                                        }
+                                    }
+                                    if (!ptmFound) {
+                                        sameModifications = false;
+                                        break;
+                                    }
+                                }
+                            }
+                            if (sameModifications) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the collected spectrum matches in the order they were first
+     * encountered.
+     *
+     * @return the collected spectrum matches
+     */
+    public LinkedList<SpectrumMatch> getSpectrumMatches() {
+        return spectrumMatches;
+    }
+}
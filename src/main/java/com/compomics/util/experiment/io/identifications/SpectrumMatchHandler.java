@@ -0,0 +1,30 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Receives the spectrum matches of an identification file as they are parsed.
+ * The parser waits for the handler to return before reading further, the
+ * memory used during parsing hence does not depend on the size of the file.
+ *
+ * @author Marc Vaudel
+ */
+public interface SpectrumMatchHandler {
+
+    /**
+     * Handles a spectrum match parsed from an identification file. The match
+     * is not modified by the parser after this method is called. Note that
+     * the results of a spectrum which are not contiguous in the file are
+     * handed over in several matches with the same key.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void addSpectrumMatch(SpectrumMatch spectrumMatch) throws IOException, SQLException, ClassNotFoundException, InterruptedException;
+}
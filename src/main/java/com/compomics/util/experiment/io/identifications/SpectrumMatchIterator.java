@@ -0,0 +1,188 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.bind.JAXBException;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Iterator on the spectrum matches of an identification file. The file is
+ * parsed in a background thread while the matches are being processed. At
+ * most the given number of matches is kept in memory: the parsing waits when
+ * the matches are not processed fast enough. The close() method shall be used
+ * when the iterator is not entirely consumed.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchIterator {
+
+    /**
+     * Match marking the end of the file.
+     */
+    private static final SpectrumMatch END_OF_FILE = new SpectrumMatch();
+    /**
+     * The matches parsed and not yet returned.
+     */
+    private final ArrayBlockingQueue<SpectrumMatch> queue;
+    /**
+     * The executor running the parsing.
+     */
+    private final ExecutorService pool;
+    /**
+     * The future of the parsing.
+     */
+    private final Future<Object> parsing;
+    /**
+     * The next match to return, null if not retrieved yet.
+     */
+    private SpectrumMatch nextMatch = null;
+    /**
+     * Boolean indicating whether the iterator was closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor. The parsing starts immediately.
+     *
+     * @param idfileReader the reader of the identification file
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress methods will be called.
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param capacity the maximal number of matches parsed in advance
+     */
+    public SpectrumMatchIterator(final IdfileReader idfileReader, final WaitingHandler waitingHandler, final SearchParameters searchParameters,
+            final SequenceMatchingPreferences sequenceMatchingPreferences, final boolean expandAaCombinations, int capacity) {
+
+        queue = new ArrayBlockingQueue<SpectrumMatch>(capacity);
+
+        final SpectrumMatchHandler spectrumMatchHandler = new SpectrumMatchHandler() {
+            @Override
+            public void addSpectrumMatch(SpectrumMatch spectrumMatch) throws InterruptedException {
+                if (closed) {
+                    throw new InterruptedException("Spectrum match iterator closed.");
+                }
+                queue.put(spectrumMatch);
+            }
+        };
+
+        pool = Executors.newSingleThreadExecutor(Util.getDaemonThreadFactory("identification file parsing"));
+        parsing = pool.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    IdfileReaderFactory.parseSpectrumMatches(idfileReader, waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchHandler);
+                } finally {
+                    if (!closed) {
+                        queue.put(END_OF_FILE);
+                    }
+                }
+                return null;
+            }
+        });
+        pool.shutdown();
+    }
+
+    /**
+     * Returns true if there is another spectrum match. Waits for the parsing
+     * of the next match if needed.
+     *
+     * @return true if there is another spectrum match
+     *
+     * @throws IOException if an IOException occurred while parsing the file
+     * @throws SQLException if an SQLException occurred while parsing the file
+     * @throws ClassNotFoundException if a ClassNotFoundException occurred
+     * while parsing the file
+     * @throws InterruptedException if an InterruptedException occurred while
+     * parsing the file or waiting for the next match
+     * @throws JAXBException if a JAXBException occurred while parsing the
+     * file
+     * @throws XmlPullParserException if an XmlPullParserException occurred
+     * while parsing the file
+     */
+    public boolean hasNext() throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+        if (closed) {
+            return false;
+        }
+        if (nextMatch == null) {
+            nextMatch = queue.take();
+        }
+        if (nextMatch == END_OF_FILE) {
+            getParsingResult();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next spectrum match, null if none.
+     *
+     * @return the next spectrum match
+     *
+     * @throws IOException if an IOException occurred while parsing the file
+     * @throws SQLException if an SQLException occurred while parsing the file
+     * @throws ClassNotFoundException if a ClassNotFoundException occurred
+     * while parsing the file
+     * @throws InterruptedException if an InterruptedException occurred while
+     * parsing the file or waiting for the next match
+     * @throws JAXBException if a JAXBException occurred while parsing the
+     * file
+     * @throws XmlPullParserException if an XmlPullParserException occurred
+     * while parsing the file
+     */
+    public SpectrumMatch getNextSpectrumMatch() throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+        if (!hasNext()) {
+            return null;
+        }
+        SpectrumMatch result = nextMatch;
+        nextMatch = null;
+        return result;
+    }
+
+    /**
+     * Stops the parsing and releases the matches not returned yet.
+     */
+    public void close() {
+        closed = true;
+        parsing.cancel(true);
+        queue.clear();
+        nextMatch = null;
+    }
+
+    /**
+     * Waits for the end of the parsing and throws the exception encountered
+     * while parsing, if any.
+     *
+     * @throws IOException if an IOException occurred while parsing the file
+     * @throws SQLException if an SQLException occurred while parsing the file
+     * @throws ClassNotFoundException if a ClassNotFoundException occurred
+     * while parsing the file
+     * @throws InterruptedException if an InterruptedException occurred while
+     * parsing the file or waiting for the parsing to finish
+     * @throws JAXBException if a JAXBException occurred while parsing the
+     * file
+     * @throws XmlPullParserException if an XmlPullParserException occurred
+     * while parsing the file
+     */
+    private void getParsingResult() throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+        try {
+            parsing.get();
+        } catch (ExecutionException e) {
+            throw Util.getExecutionException(e, "An error occurred while parsing the identification file.", IOException.class, SQLException.class, ClassNotFoundException.class, InterruptedException.class, JAXBException.class, XmlPullParserException.class);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import javax.xml.bind.JAXBException;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Parser of a file containing PSMs able to hand over the spectrum matches as
+ * they are parsed. Readers implementing only IdfileReader are streamed
+ * through IdfileReaderFactory.parseSpectrumMatches using the list of matches.
+ *
+ * @author Marc Vaudel
+ */
+public interface StreamingIdfileReader extends IdfileReader {
+
+    /**
+     * Parses the identifications of an identification file and hands over
+     * the spectrum matches to the given handler as soon as they are complete.
+     * Contrary to the getAllSpectrumMatches methods, the matches are not kept
+     * in memory by the reader. The results of a spectrum which are not
+     * contiguous in the file are handed over in several matches with the same
+     * key. It is very important to close the file reader after creation.
+     *
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress methods will be called.
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
+     *
+     * @throws IOException if an IOException occurs
+     * @throws IllegalArgumentException if an IllegalArgumentException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws JAXBException if a JAXBException occurs
+     * @throws XmlPullParserException if an XmlPullParserException occurs
+     */
+    public void parseSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences,
+            boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException;
+}
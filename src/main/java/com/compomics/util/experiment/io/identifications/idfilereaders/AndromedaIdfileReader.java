@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.spectrum_assumptions.Peptide
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
@@ -31,7 +33,7 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  *
  * @author Marc Vaudel
  */
-public class AndromedaIdfileReader extends ExperimentObject implements IdfileReader {
+public class AndromedaIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * The Andromeda result file to parse.
@@ -75,18 +77,25 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        parseSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void parseSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         String mgfFile = Util.removeExtension(fileName) + ".mgf"; //@TODO: make this generic?
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-        HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
         BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(resultsFile, "r", 1024 * 100);
         if (waitingHandler != null) {
             waitingHandler.setMaxSecondaryProgressCounter(100);
         }
         long progressUnit = bufferedRandomAccessFile.length() / 100;
         String line, title = null;
-        SpectrumMatch spectrumMatch = null;
+        SpectrumMatch spectrumMatch = null, previousMatch = null;
         int rank = 0;
         boolean firstSpectrum = false;
         while ((line = bufferedRandomAccessFile.readLine()) != null) {
@@ -105,12 +114,15 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
             } else if (firstSpectrum) {
                 if (spectrumMatch == null) {
                     String spectrumKey = Spectrum.getSpectrumKey(mgfFile, title);
-                    spectrumMatch = spectrumMatchesMap.get(spectrumKey);
                     rank = 0; // the rank is here per charge
-                    if (spectrumMatch == null) {
-                        spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey(mgfFile, title));
-                        result.add(spectrumMatch);
-                        spectrumMatchesMap.put(spectrumKey, spectrumMatch);
+                    if (previousMatch != null && previousMatch.getKey().equals(spectrumKey)) {
+                        spectrumMatch = previousMatch;
+                    } else {
+                        if (previousMatch != null) {
+                            spectrumMatchHandler.addSpectrumMatch(previousMatch);
+                        }
+                        spectrumMatch = new SpectrumMatch(spectrumKey);
+                        previousMatch = spectrumMatch;
                     }
                 }
                 rank++;
@@ -138,7 +150,11 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
             }
         }
 
-        return result;
+        bufferedRandomAccessFile.close();
+
+        if (previousMatch != null) {
+            spectrumMatchHandler.addSpectrumMatch(previousMatch);
+        }
     }
 
     /**
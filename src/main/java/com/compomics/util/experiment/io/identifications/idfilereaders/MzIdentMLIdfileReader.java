@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.spectrum_assumptions.Peptide
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
@@ -51,7 +53,7 @@ import uk.ac.ebi.jmzidml.xml.io.MzIdentMLUnmarshaller;
  * @author Harald Barsnes
  * @author Marc Vaudel
  */
-public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileReader {
+public class MzIdentMLIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * Enum for the raw value to e-value conversion.
@@ -219,12 +221,19 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        parseSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void parseSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         this.sequenceMatchingPreferences = sequenceMatchingPreferences;
         this.expandAaCombinations = expandAaCombinations;
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-
         if (useCustomParser) {
 
             // set the waiting handler max value
@@ -248,7 +257,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 waitingHandler.setMaxSecondaryProgressCounter(lineCounter);
             }
 
-            return parseFile(waitingHandler);
+            parseFile(waitingHandler, spectrumMatchHandler);
         } else {
 
             DataCollection dataCollection = unmarshaller.unmarshal(DataCollection.class);
@@ -453,7 +462,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                         waitingHandler.increaseSecondaryProgressCounter();
                     }
 
-                    result.add(currentMatch);
+                    spectrumMatchHandler.addSpectrumMatch(currentMatch);
                 }
 
                 if (waitingHandler != null) {
@@ -463,8 +472,6 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 }
             }
         }
-
-        return result;
     }
 
     /**
@@ -533,17 +540,26 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      */
     public static void main(String[] args) {
         MzIdentMLIdfileReader temp = new MzIdentMLIdfileReader();
-        temp.parseFile(null);
+        try {
+            temp.parseFile(null, new SpectrumMatchCollector());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     /**
      * Parse the mzid file.
      *
-     * @return the list of spectrum matches
+     * @param waitingHandler the waiting handler
+     * @param spectrumMatchHandler the handler receiving the spectrum matches
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
      */
-    private LinkedList<SpectrumMatch> parseFile(WaitingHandler waitingHandler) {
-
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+    private void parseFile(WaitingHandler waitingHandler, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         try {
             // create the pull parser
@@ -582,7 +598,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("ModificationParams")) {
                     parseFixedPtms(parser);
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("SpectrumIdentificationResult")) {
-                    parsePsm(parser, result);
+                    parsePsm(parser, spectrumMatchHandler);
                 }
 
                 type = parser.next();
@@ -594,11 +610,17 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
 
             br.close();
 
+        } catch (IOException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw e;
+        } catch (ClassNotFoundException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-        return result;
     }
 
     /**
@@ -998,10 +1020,10 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Parse a PSM object.
      *
      * @param parser the XML parser
-     * @param result the list to add the extracted PSM to
+     * @param spectrumMatchHandler the handler receiving the extracted PSM
      * @throws Exception thrown if an exception occurs
      */
-    private void parsePsm(XmlPullParser parser, LinkedList<SpectrumMatch> result) throws Exception {
+    private void parsePsm(XmlPullParser parser, SpectrumMatchHandler spectrumMatchHandler) throws Exception {
 
         String spectraDataRef = null;
         String spectrumId = null;
@@ -1257,7 +1279,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             currentMatch.setKey(Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle)); // @TOOD: can spectrumID be used if spectrumTitle is missing...?
         }
 
-        result.add(currentMatch);
+        spectrumMatchHandler.addSpectrumMatch(currentMatch);
     }
 
     /**
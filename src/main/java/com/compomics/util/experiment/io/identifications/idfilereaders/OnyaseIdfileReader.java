@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -35,7 +37,7 @@ import javax.xml.bind.JAXBException;
  *
  * @author Marc Vaudel
  */
-public class OnyaseIdfileReader implements IdfileReader {
+public class OnyaseIdfileReader implements StreamingIdfileReader {
 
     /**
      * The columns separator.
@@ -160,8 +162,15 @@ public class OnyaseIdfileReader implements IdfileReader {
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        parseSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
 
-        HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
+    @Override
+    public void parseSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         String spectrumFileName = Util.getFileName(mgfFile);
         String resultFileName = Util.getFileName(resultsFile);
@@ -174,16 +183,19 @@ public class OnyaseIdfileReader implements IdfileReader {
 
         String separatorString = separator + "";
         String line;
+        SpectrumMatch spectrumMatch = null;
         while ((line = br.readLine()) != null) {
             if (!line.startsWith("#")) {
                 String[] lineSplit = line.split(separatorString);
                 String spectrumTitle = lineSplit[0];
                 spectrumTitle = URLDecoder.decode(spectrumTitle, encoding);
                 String spectrumKey = Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle);
-                SpectrumMatch spectrumMatch = spectrumMatchesMap.get(spectrumKey);
-                if (spectrumMatch == null) {
+                if (spectrumMatch == null || !spectrumMatch.getKey().equals(spectrumKey)) {
+                    if (spectrumMatch != null) {
+                        setRanks(spectrumMatch);
+                        spectrumMatchHandler.addSpectrumMatch(spectrumMatch);
+                    }
                     spectrumMatch = new SpectrumMatch(spectrumKey);
-                    spectrumMatchesMap.put(spectrumKey, spectrumMatch);
                 }
                 String sequence = lineSplit[3];
                 ArrayList<ModificationMatch> modificationMatches = getModificationMatches(lineSplit[4]);
@@ -197,25 +209,34 @@ public class OnyaseIdfileReader implements IdfileReader {
             }
         }
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-        for (SpectrumMatch spectrumMatch : spectrumMatchesMap.values()) {
-            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = spectrumMatch.getAllAssumptions(Advocate.onyaseEngine.getIndex());
-            ArrayList<Double> eValues = new ArrayList<Double>(assumptionsMap.keySet());
-            Collections.sort(eValues);
-            int rank = 1;
-            int cpt = 1;
-            for (Double eValue : eValues) {
-                ArrayList<SpectrumIdentificationAssumption> spectrumIdentificationAssumptions = assumptionsMap.get(eValue);
-                for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : spectrumIdentificationAssumptions) {
-                    spectrumIdentificationAssumption.setRank(rank);
-                    cpt++;
-                }
-                rank = cpt;
-            }
-            result.add(spectrumMatch);
+        br.close();
+
+        if (spectrumMatch != null) {
+            setRanks(spectrumMatch);
+            spectrumMatchHandler.addSpectrumMatch(spectrumMatch);
         }
+    }
 
-        return result;
+    /**
+     * Sets the rank of the assumptions of a spectrum match according to their
+     * e-value.
+     *
+     * @param spectrumMatch the spectrum match
+     */
+    private void setRanks(SpectrumMatch spectrumMatch) {
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> assumptionsMap = spectrumMatch.getAllAssumptions(Advocate.onyaseEngine.getIndex());
+        ArrayList<Double> eValues = new ArrayList<Double>(assumptionsMap.keySet());
+        Collections.sort(eValues);
+        int rank = 1;
+        int cpt = 1;
+        for (Double eValue : eValues) {
+            ArrayList<SpectrumIdentificationAssumption> spectrumIdentificationAssumptions = assumptionsMap.get(eValue);
+            for (SpectrumIdentificationAssumption spectrumIdentificationAssumption : spectrumIdentificationAssumptions) {
+                spectrumIdentificationAssumption.setRank(rank);
+                cpt++;
+            }
+            rank = cpt;
+        }
     }
 
     /**
@@ -12,7 +12,9 @@ import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
@@ -34,7 +36,7 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  *
  * @author Harald Barsnes
  */
-public class PNovoIdfileReader extends ExperimentObject implements IdfileReader {
+public class PNovoIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * A map of all spectrum titles and the associated index in the random
@@ -133,13 +135,20 @@ public class PNovoIdfileReader extends ExperimentObject implements IdfileReader
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        parseSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
+
+    @Override
+    public void parseSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         if (bufferedRandomAccessFile == null) {
             throw new IllegalStateException("The identification file was not set. Please use the appropriate constructor.");
         }
 
-        LinkedList<SpectrumMatch> spectrumMatches = new LinkedList<SpectrumMatch>();
-
         if (waitingHandler != null) {
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.resetSecondaryProgressCounter();
@@ -168,7 +177,7 @@ public class PNovoIdfileReader extends ExperimentObject implements IdfileReader
 
             if (solutionsFound) {
 
-                spectrumMatches.add(currentMatch);
+                spectrumMatchHandler.addSpectrumMatch(currentMatch);
             }
 
             if (waitingHandler != null) {
@@ -178,8 +187,6 @@ public class PNovoIdfileReader extends ExperimentObject implements IdfileReader
                 waitingHandler.increaseSecondaryProgressCounter();
             }
         }
-
-        return spectrumMatches;
     }
 
     /**
@@ -8,7 +8,9 @@ import com.compomics.util.experiment.identification.spectrum_assumptions.Peptide
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.StreamingIdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchHandler;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -30,7 +32,7 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
  *
  * @author Harald Barsnes
  */
-public class TideIdfileReader extends ExperimentObject implements IdfileReader {
+public class TideIdfileReader extends ExperimentObject implements StreamingIdfileReader {
 
     /**
      * The software name.
@@ -112,8 +114,15 @@ public class TideIdfileReader extends ExperimentObject implements IdfileReader {
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        parseSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, spectrumMatchCollector);
+        return spectrumMatchCollector.getSpectrumMatches();
+    }
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+    @Override
+    public void parseSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchHandler spectrumMatchHandler)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(tideTsvFile, "r", 1024 * 100);
 
@@ -243,7 +252,7 @@ public class TideIdfileReader extends ExperimentObject implements IdfileReader {
 
                     // add the previous match, if any
                     if (currentMatch != null) {
-                        result.add(currentMatch);
+                        spectrumMatchHandler.addSpectrumMatch(currentMatch);
                     }
 
                     currentMatch = new SpectrumMatch(Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle));
@@ -318,12 +327,10 @@ public class TideIdfileReader extends ExperimentObject implements IdfileReader {
 
         // add the last match, if any
         if (currentMatch != null) {
-            result.add(currentMatch);
+            spectrumMatchHandler.addSpectrumMatch(currentMatch);
         }
 
         bufferedRandomAccessFile.close();
-
-        return result;
     }
 
     @Override
@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.io.massspectrometry;
 
+import com.compomics.util.experiment.massspectrometry.SpectrumIntensityStatistics;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -81,6 +82,11 @@ public class MgfIndex extends ExperimentObject {
      * null value indicated that the check was not performed.
      */
     private Boolean precursorChargesMissing = null;
+    /**
+     * The statistics on the peak intensities of the spectra: spectrum title
+     * &gt; statistics. Null if not computed.
+     */
+    private HashMap<String, SpectrumIntensityStatistics> intensityStatisticsMap = null;
 
     /**
      * Constructor.
@@ -453,4 +459,33 @@ public class MgfIndex extends ExperimentObject {
     public void setPrecursorChargesMissing(Boolean precursorChargesMissing) {
         this.precursorChargesMissing = precursorChargesMissing;
     }
+
+    /**
+     * Returns the statistics on the peak intensities of the given spectrum.
+     * Null if not set.
+     *
+     * @param spectrumTitle the title of the spectrum
+     *
+     * @return the statistics on the peak intensities of the given spectrum
+     */
+    public SpectrumIntensityStatistics getIntensityStatistics(String spectrumTitle) {
+        if (intensityStatisticsMap == null) {
+            return null;
+        }
+        return intensityStatisticsMap.get(spectrumTitle);
+    }
+
+    /**
+     * Sets the statistics on the peak intensities of the given spectrum.
+     *
+     * @param spectrumTitle the title of the spectrum
+     * @param intensityStatistics the statistics on the peak intensities of the
+     * spectrum
+     */
+    public void setIntensityStatistics(String spectrumTitle, SpectrumIntensityStatistics intensityStatistics) {
+        if (intensityStatisticsMap == null) {
+            intensityStatisticsMap = new HashMap<String, SpectrumIntensityStatistics>(spectrumTitles != null ? spectrumTitles.size() : indexMap.size());
+        }
+        intensityStatisticsMap.put(spectrumTitle, intensityStatistics);
+    }
 }
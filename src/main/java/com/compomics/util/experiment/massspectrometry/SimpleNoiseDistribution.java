@@ -53,10 +53,34 @@ public class SimpleNoiseDistribution {
         }
         Collections.sort(intensitiesLog);
         intensityLogDistribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistributionFromSortedList(intensitiesLog);
+        binSize = 1.0 / nBins;
+        estimateBins();
+    }
+
+    /**
+     * Constructor from an already estimated distribution of the log of the
+     * peak intensities.
+     *
+     * @param intensityLogDistribution the distribution of the log10 of the
+     * peak intensities
+     *
+     * @throws MathException thrown if a math error occurs
+     */
+    public SimpleNoiseDistribution(NonSymmetricalNormalDistribution intensityLogDistribution) throws MathException {
+        this.intensityLogDistribution = intensityLogDistribution;
+        binSize = 1.0 / nBins;
+        estimateBins();
+    }
+
+    /**
+     * Estimates the intensity bins from the distribution.
+     *
+     * @throws MathException thrown if a math error occurs
+     */
+    private void estimateBins() throws MathException {
 
         orderedBins = new int[nBins - 1];
         pLog = new double[nBins - 1];
-        binSize = 1.0 / nBins;
 
         for (int i = 1; i < nBins; i++) {
             double p = binSize * i;
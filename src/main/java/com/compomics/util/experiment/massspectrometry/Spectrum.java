@@ -3,7 +3,6 @@ package com.compomics.util.experiment.massspectrometry;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.personalization.ExperimentObject;
-import com.compomics.util.math.BasicMathFunctions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -109,22 +108,9 @@ public abstract class Spectrum extends ExperimentObject {
      */
     private Semaphore mutex = new Semaphore(1);
     /**
-     * Cache for the intensity limit.
+     * The statistics on the peak intensities. Null until set by the getter.
      */
-    private Double intensityLimit = null;
-    /**
-     * Intensity level corresponding to the value in cache.
-     */
-    private double intensityLimitLevel = -1.0;
-    /**
-     * The type of intensity threshold.
-     */
-    private AnnotationSettings.IntensityThresholdType intensityThresholdType = null;
-    /**
-     * The binned cumulative function of the distribution of the log of the
-     * peaks intensities.
-     */
-    private SimpleNoiseDistribution binnedCumulativeFunction = null;
+    private SpectrumIntensityStatistics intensityStatistics = null;
 
     /**
      * Convenience method returning the key for a spectrum.
@@ -713,63 +699,38 @@ public abstract class Spectrum extends ExperimentObject {
      * exception occurred when estimating the noise level
      */
     public double getIntensityLimit(AnnotationSettings.IntensityThresholdType intensityThresholdType, double intensityFraction) throws InterruptedException, MathException {
-
-        if (intensityLimit == null || intensityThresholdType != this.intensityThresholdType || intensityLimitLevel != intensityFraction) {
-            intensityLimit = estimateIntneistyLimit(intensityThresholdType, intensityFraction);
-            intensityLimitLevel = intensityFraction;
-            this.intensityThresholdType = intensityThresholdType;
-        }
-        return intensityLimit;
+        return getIntensityStatistics().getIntensityLimit(intensityThresholdType, intensityFraction);
     }
 
     /**
-     * Estimates the intensity limit in intensity from a given percentile.
+     * Returns the statistics on the intensities of the peaks. The statistics
+     * are computed upon first call and kept in cache.
      *
-     * @param intensityThreshold the fraction of the intensity to use as limit,
-     * e.g., 0.75 for the 75% most intense peaks.
-     *
-     * @return the intensity limit
+     * @return the statistics on the intensities of the peaks
      *
-     * @throws java.lang.InterruptedException exception thrown if a threading
-     * error occurred when estimating the noise level
-     * @throws org.apache.commons.math.MathException exception thrown if a math
-     * exception occurred when estimating the noise level
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
      */
-    private double estimateIntneistyLimit(AnnotationSettings.IntensityThresholdType intensityThresholdType, double intensityThreshold) throws InterruptedException, MathException {
-
-        if (intensityThreshold == 0) {
-            return 0.0;
-        } else if (intensityThreshold == 1.0) {
-            return getMaxIntensity();
+    public SpectrumIntensityStatistics getIntensityStatistics() throws InterruptedException {
+        if (intensityStatistics == null) {
+            mutex.acquire();
+            if (intensityStatistics == null) {
+                intensityStatistics = new SpectrumIntensityStatistics(peakList);
+            }
+            mutex.release();
         }
-        switch (intensityThresholdType) {
-
-            case snp:
-
-                SimpleNoiseDistribution binnedCumulativeFunction = getIntensityLogDistribution();
-                return binnedCumulativeFunction.getIntensityAtP(1 - intensityThreshold);
-
-            case percentile:
-
-                ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
-
-                for (Peak peak : peakList.values()) {
-                    double mz = peak.mz;
-                    // Skip the low mass region of the spectrum @TODO: skip precursor as well
-                    if (mz > 200) {
-                        intensities.add(peak.intensity);
-                    }
-                }
-
-                if (intensities.isEmpty()) {
-                    return 0;
-                }
-
-                return BasicMathFunctions.percentile(intensities, intensityThreshold);
+        return intensityStatistics;
+    }
 
-            default:
-                throw new UnsupportedOperationException("Threshold of type " + intensityThresholdType + " not supported.");
-        }
+    /**
+     * Sets the statistics on the intensities of the peaks, e.g. when loaded
+     * from the index of the spectrum file.
+     *
+     * @param intensityStatistics the statistics on the intensities of the
+     * peaks
+     */
+    public void setIntensityStatistics(SpectrumIntensityStatistics intensityStatistics) {
+        this.intensityStatistics = intensityStatistics;
     }
 
     /**
@@ -938,15 +899,13 @@ public abstract class Spectrum extends ExperimentObject {
         mzValuesOrderedAsArray = null;
         intensityValuesAsArray = null;
         intensityValuesNormaizedAsArray = null;
-        binnedCumulativeFunction = null;
+        intensityStatistics = null;
         mzAndIntensityAsArray = null;
         totalIntensity = null;
         maxIntensity = null;
         maxMz = null;
         minMz = null;
         intensityPeakMap = null;
-        intensityLimit = null;
-        intensityThresholdType = null;
     }
 
     /**
@@ -960,13 +919,6 @@ public abstract class Spectrum extends ExperimentObject {
      * an error occurred while estimating probabilities.
      */
     public SimpleNoiseDistribution getIntensityLogDistribution() throws InterruptedException, MathException {
-        if (binnedCumulativeFunction == null) {
-            mutex.acquire();
-            if (binnedCumulativeFunction == null) {
-                binnedCumulativeFunction = new SimpleNoiseDistribution(peakList);
-            }
-            mutex.release();
-        }
-        return binnedCumulativeFunction;
+        return getIntensityStatistics().getBinnedCumulativeFunction();
     }
 }
@@ -74,6 +74,12 @@ public class SpectrumFactory {
      * The time out in milliseconds when querying the file.
      */
     public final static long timeOut = 10000;
+    /**
+     * Boolean indicating whether the statistics on the peak intensities should
+     * be computed when loading the spectra. When true, the statistics of the
+     * spectra of mgf files are stored in the index of the file.
+     */
+    private boolean computeIntensityStatistics = false;
 
     /**
      * Constructor.
@@ -149,6 +155,31 @@ public class SpectrumFactory {
         return nSpectraCache;
     }
 
+    /**
+     * Indicates whether the statistics on the peak intensities are computed
+     * when loading the spectra.
+     *
+     * @return a boolean indicating whether the statistics on the peak
+     * intensities are computed when loading the spectra
+     */
+    public boolean isComputeIntensityStatistics() {
+        return computeIntensityStatistics;
+    }
+
+    /**
+     * Sets whether the statistics on the peak intensities should be computed
+     * when loading the spectra. When true, the statistics of the spectra of
+     * mgf files are stored in the index of the file and saved by
+     * writeIndexes().
+     *
+     * @param computeIntensityStatistics a boolean indicating whether the
+     * statistics on the peak intensities should be computed when loading the
+     * spectra
+     */
+    public void setComputeIntensityStatistics(boolean computeIntensityStatistics) {
+        this.computeIntensityStatistics = computeIntensityStatistics;
+    }
+
     /**
      * Add spectra to the factory.
      *
@@ -984,6 +1015,17 @@ public class SpectrumFactory {
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
+        MgfIndex mgfIndex = mgfIndexesMap.get(spectrumFile);
+        SpectrumIntensityStatistics intensityStatistics = mgfIndex != null ? mgfIndex.getIntensityStatistics(spectrumTitle) : null;
+        if (intensityStatistics == null && computeIntensityStatistics) {
+            intensityStatistics = new SpectrumIntensityStatistics(currentSpectrum.getPeakMap());
+            if (mgfIndex != null) {
+                mgfIndex.setIntensityStatistics(spectrumTitle, intensityStatistics);
+            }
+        }
+        if (intensityStatistics != null) {
+            currentSpectrum.setIntensityStatistics(intensityStatistics);
+        }
         if (loadedSpectra.size() == nSpectraCache) {
             String tempKey = loadedSpectra.pollFirst();
             String tempFile = Spectrum.getSpectrumFile(tempKey);
@@ -1020,6 +1062,20 @@ public class SpectrumFactory {
         SerializationUtils.writeObject(mgfIndex, indexFile);
     }
 
+    /**
+     * Writes the indexes of the loaded mgf files next to the files, e.g.
+     * after computing the statistics on the peak intensities.
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while writing the files
+     */
+    public synchronized void writeIndexes() throws IOException {
+        for (String fileName : mgfIndexesMap.keySet()) {
+            File spectrumFile = filesMap.get(fileName);
+            writeIndex(mgfIndexesMap.get(fileName), spectrumFile.getParentFile());
+        }
+    }
+
     /**
      * Deserializes the index of an mgf file.
      *
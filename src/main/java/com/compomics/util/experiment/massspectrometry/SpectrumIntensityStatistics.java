@@ -0,0 +1,236 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.math.BasicMathFunctions;
+import com.compomics.util.math.statistics.distributions.NonSymmetricalNormalDistribution;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.util.FastMath;
+
+/**
+ * Statistics on the intensities of the peaks of a spectrum. The statistics are
+ * computed once from the peak list and allow answering the intensity
+ * thresholds of the different AnnotationSettings.IntensityThresholdType
+ * without iterating the peaks again. The intensities of the peaks used for the
+ * percentile threshold are kept sorted in order to return exact percentiles,
+ * the other statistics are stored as a compact summary.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumIntensityStatistics implements Serializable {
+
+    /**
+     * Serial number for backward compatibility.
+     */
+    static final long serialVersionUID = -6470542437915180213L;
+    /**
+     * Peaks below this m/z are not considered for the percentile threshold.
+     */
+    public static final double PERCENTILE_MIN_MZ = 200;
+    /**
+     * The intensities of the peaks above PERCENTILE_MIN_MZ in ascending order.
+     * Null if no peak is found above this m/z.
+     */
+    private final double[] percentileIntensities;
+    /**
+     * The total intensity.
+     */
+    private final double totalIntensity;
+    /**
+     * The maximal intensity.
+     */
+    private final double maxIntensity;
+    /**
+     * The number of peaks.
+     */
+    private final int nPeaks;
+    /**
+     * The median of the log10 of the intensities.
+     */
+    private final double logMedian;
+    /**
+     * The standard deviation of the log10 of the intensities below the median.
+     */
+    private final double logStdDown;
+    /**
+     * The standard deviation of the log10 of the intensities above the median.
+     */
+    private final double logStdUp;
+    /**
+     * The distribution of the log of the intensities, rebuilt when needed
+     * from the median and standard deviations.
+     */
+    private transient NonSymmetricalNormalDistribution intensityLogDistribution = null;
+    /**
+     * The binned cumulative function of the distribution of the log of the
+     * peaks intensities, rebuilt when needed.
+     */
+    private transient SimpleNoiseDistribution binnedCumulativeFunction = null;
+
+    /**
+     * Constructor.
+     *
+     * @param peakList the peak list indexed by m/z
+     */
+    public SpectrumIntensityStatistics(HashMap<Double, Peak> peakList) {
+
+        nPeaks = peakList.size();
+        double[] intensities = new double[nPeaks];
+        double[] intensitiesAboveMin = new double[nPeaks];
+        int nPercentile = 0;
+        double total = 0.0;
+        int i = 0;
+
+        for (Peak peak : peakList.values()) {
+            double intensity = peak.intensity;
+            intensities[i++] = intensity;
+            total += intensity;
+            // Skip the low mass region of the spectrum @TODO: skip precursor as well
+            if (peak.mz > PERCENTILE_MIN_MZ) {
+                intensitiesAboveMin[nPercentile++] = intensity;
+            }
+        }
+
+        totalIntensity = total;
+        Arrays.sort(intensities);
+        maxIntensity = nPeaks > 0 ? intensities[nPeaks - 1] : 0.0;
+
+        if (nPercentile > 0) {
+            percentileIntensities = nPercentile == nPeaks ? intensitiesAboveMin : Arrays.copyOf(intensitiesAboveMin, nPercentile);
+            Arrays.sort(percentileIntensities);
+        } else {
+            percentileIntensities = null;
+        }
+
+        if (nPeaks > 0) {
+            // the log being monotonic, the log intensities are sorted as well
+            for (int j = 0; j < nPeaks; j++) {
+                intensities[j] = FastMath.log10(intensities[j]);
+            }
+            intensityLogDistribution = NonSymmetricalNormalDistribution.getRobustNonSymmetricalNormalDistributionFromSortedArray(intensities);
+            logMedian = intensityLogDistribution.getMean();
+            logStdDown = intensityLogDistribution.getStdDown();
+            logStdUp = intensityLogDistribution.getStdUp();
+        } else {
+            logMedian = 0.0;
+            logStdDown = 0.0;
+            logStdUp = 0.0;
+        }
+    }
+
+    /**
+     * Returns the limit in intensity according to the given threshold.
+     *
+     * @param intensityThresholdType the type of intensity threshold
+     * @param intensityFraction the threshold value
+     *
+     * @return the intensity limit
+     *
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred when estimating the noise level
+     */
+    public double getIntensityLimit(AnnotationSettings.IntensityThresholdType intensityThresholdType, double intensityFraction) throws MathException {
+
+        if (intensityFraction == 0) {
+            return 0.0;
+        } else if (intensityFraction == 1.0) {
+            return maxIntensity;
+        }
+
+        switch (intensityThresholdType) {
+
+            case snp:
+
+                if (nPeaks == 0) {
+                    return 0.0;
+                }
+                return FastMath.pow(10, getIntensityLogDistribution().getValueAtDescendingCumulativeProbability(1 - intensityFraction));
+
+            case percentile:
+
+                return getQuantileIntensity(intensityFraction);
+
+            default:
+                throw new UnsupportedOperationException("Threshold of type " + intensityThresholdType + " not supported.");
+        }
+    }
+
+    /**
+     * Returns the intensity at the given quantile of the peaks above
+     * PERCENTILE_MIN_MZ as estimated by BasicMathFunctions.percentile. Returns
+     * 0 if no peak was found above PERCENTILE_MIN_MZ.
+     *
+     * @param quantile the quantile, between 0 and 1
+     *
+     * @return the intensity at the given quantile
+     */
+    public double getQuantileIntensity(double quantile) {
+
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Incorrect input for quantile: " + quantile + ". Input must be between 0 and 1.");
+        }
+        if (percentileIntensities == null) {
+            return 0.0;
+        }
+
+        return BasicMathFunctions.percentileSorted(percentileIntensities, quantile);
+    }
+
+    /**
+     * Returns the distribution of the log10 of the peak intensities.
+     *
+     * @return the distribution of the log10 of the peak intensities
+     */
+    public NonSymmetricalNormalDistribution getIntensityLogDistribution() {
+        if (intensityLogDistribution == null) {
+            intensityLogDistribution = new NonSymmetricalNormalDistribution(logMedian, logStdDown, logStdUp);
+        }
+        return intensityLogDistribution;
+    }
+
+    /**
+     * Returns the binned cumulative function of the distribution of the log of
+     * the peak intensities.
+     *
+     * @return the binned cumulative function of the distribution of the log of
+     * the peak intensities
+     *
+     * @throws org.apache.commons.math.MathException exception thrown whenever
+     * an error occurred while estimating probabilities
+     */
+    public SimpleNoiseDistribution getBinnedCumulativeFunction() throws MathException {
+        if (binnedCumulativeFunction == null) {
+            binnedCumulativeFunction = new SimpleNoiseDistribution(getIntensityLogDistribution());
+        }
+        return binnedCumulativeFunction;
+    }
+
+    /**
+     * Returns the total intensity.
+     *
+     * @return the total intensity
+     */
+    public double getTotalIntensity() {
+        return totalIntensity;
+    }
+
+    /**
+     * Returns the maximal intensity.
+     *
+     * @return the maximal intensity
+     */
+    public double getMaxIntensity() {
+        return maxIntensity;
+    }
+
+    /**
+     * Returns the number of peaks used to compute the statistics.
+     *
+     * @return the number of peaks used to compute the statistics
+     */
+    public int getNPeaks() {
+        return nPeaks;
+    }
+}
@@ -0,0 +1,646 @@
+package com.compomics.util.experiment.massspectrometry.indexes;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.DigestionPipeline;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In-memory index of the b and y fragment ions of the peptides of a protein
+ * database allowing the fast retrieval of candidate peptides for a spectrum.
+ * The peptides are sorted by mass and identified by their rank, the m/z axis
+ * is divided in bins of the size of the fragment ion tolerance, and every bin
+ * stores the sorted identifiers of the peptides having a singly charged
+ * fragment in this bin, delta encoded as variable length integers. Candidates
+ * are scored by the number of bins shared with the peaks of the spectrum.
+ * Once built the index is not modified and can be queried by multiple threads.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonIndex {
+
+    /**
+     * The default maximal number of peaks of a spectrum used for queries.
+     */
+    public static final int DEFAULT_MAX_QUERY_PEAKS = 150;
+    /**
+     * The width of the fragment m/z bins in Th.
+     */
+    private final double binWidth;
+    /**
+     * The peptides sorted by mass, the index in this array is the peptide
+     * identifier.
+     */
+    private final Peptide[] peptides;
+    /**
+     * The masses of the peptides, sorted in ascending order.
+     */
+    private final double[] peptideMasses;
+    /**
+     * The peptide identifiers found in every bin, delta encoded as variable
+     * length integers.
+     */
+    private final byte[][] postings;
+    /**
+     * The number of peptides in every bin.
+     */
+    private final int[] postingsSizes;
+    /**
+     * Boolean indicating whether the construction of the index was canceled.
+     */
+    private final boolean canceled;
+    /**
+     * The maximal number of peaks of a spectrum used for queries.
+     */
+    private int maxQueryPeaks = DEFAULT_MAX_QUERY_PEAKS;
+
+    /**
+     * Constructor. Digests all the proteins of the sequence factory and
+     * indexes the fragment ions of the unique peptides.
+     *
+     * @param sequenceFactory the sequence factory containing the protein
+     * database
+     * @param digestionPreferences the digestion preferences
+     * @param fixedModifications the names of the fixed modifications
+     * @param massMin the minimal peptide mass
+     * @param massMax the maximal peptide mass
+     * @param fragmentTolerance the fragment ion tolerance in Th, used as bin
+     * width
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler to display progress and allow
+     * canceling the process, can be null. If the process is canceled, the
+     * index cannot be queried, see isCanceled().
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the database
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public FragmentIonIndex(SequenceFactory sequenceFactory, DigestionPreferences digestionPreferences, ArrayList<String> fixedModifications,
+            double massMin, double massMax, double fragmentTolerance, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        if (fragmentTolerance <= 0) {
+            throw new IllegalArgumentException("The fragment tolerance must be strictly positive.");
+        }
+        this.binWidth = fragmentTolerance;
+
+        // Digest the proteins
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressText("Digesting proteins.");
+        }
+        DigestionPipeline digestionPipeline = new DigestionPipeline(sequenceFactory, digestionPreferences, fixedModifications, massMin, massMax, nThreads);
+        digestionPipeline.setDeduplicate(true);
+        ArrayList<Peptide> peptidesList = digestionPipeline.getPeptides(true, waitingHandler);
+        peptides = peptidesList.toArray(new Peptide[peptidesList.size()]);
+        int nPeptides = peptides.length;
+        peptideMasses = new double[nPeptides];
+        for (int i = 0; i < nPeptides; i++) {
+            peptideMasses[i] = peptides[i].getMass();
+        }
+
+        if (waitingHandler != null) {
+            if (waitingHandler.isRunCanceled()) {
+                canceled = true;
+                postings = null;
+                postingsSizes = null;
+                return;
+            }
+            waitingHandler.setSecondaryProgressText("Indexing fragment ions.");
+        }
+        canceled = false;
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+
+        try {
+
+            // Get the fragment bins of every peptide
+            final int[][] peptideBins = new int[nPeptides][];
+            int batchSize = Math.max(1, nPeptides / (4 * nThreads));
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int start = 0; start < nPeptides; start += batchSize) {
+                final int batchStart = start;
+                final int batchEnd = Math.min(start + batchSize, nPeptides);
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int i = batchStart; i < batchEnd; i++) {
+                            peptideBins[i] = getFragmentBins(peptides[i], peptideMasses[i]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            waitFor(futures);
+
+            // Gather the peptide identifiers per bin
+            int nBins = getBin(massMax + ElementaryIon.proton.getTheoreticMass()) + 2;
+            postingsSizes = new int[nBins];
+            for (int[] bins : peptideBins) {
+                for (int bin : bins) {
+                    if (bin < nBins) {
+                        postingsSizes[bin]++;
+                    }
+                }
+            }
+            final int[][] peptideIds = new int[nBins][];
+            for (int bin = 0; bin < nBins; bin++) {
+                peptideIds[bin] = new int[postingsSizes[bin]];
+            }
+            int[] fill = new int[nBins];
+            for (int i = 0; i < nPeptides; i++) {
+                for (int bin : peptideBins[i]) {
+                    if (bin < nBins) {
+                        peptideIds[bin][fill[bin]++] = i;
+                    }
+                }
+                peptideBins[i] = null;
+            }
+
+            // Compress the postings
+            postings = new byte[nBins][];
+            futures.clear();
+            batchSize = Math.max(1, nBins / (4 * nThreads));
+            for (int start = 0; start < nBins; start += batchSize) {
+                final int batchStart = start;
+                final int batchEnd = Math.min(start + batchSize, nBins);
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int bin = batchStart; bin < batchEnd; bin++) {
+                            postings[bin] = encode(peptideIds[bin]);
+                            peptideIds[bin] = null;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            waitFor(futures);
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the sorted unique bins of the singly charged b and y ions of the
+     * given peptide.
+     *
+     * @param peptide the peptide
+     * @param peptideMass the mass of the peptide
+     *
+     * @return the sorted unique bins of the fragment ions
+     */
+    private int[] getFragmentBins(Peptide peptide, double peptideMass) {
+
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        char[] aas = peptide.getSequence().toCharArray();
+        int peptideLength = aas.length;
+
+        double[] modificationsMasses = new double[peptideLength];
+        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+        if (modificationMatches != null) {
+            for (ModificationMatch modificationMatch : modificationMatches) {
+                PTM modification = ptmFactory.getPTM(modificationMatch.getTheoreticPtm());
+                modificationsMasses[modificationMatch.getModificationSite() - 1] += modification.getMass();
+            }
+        }
+
+        int nIons = peptideLength - 1;
+        if (nIons <= 0) {
+            return new int[0];
+        }
+        int[] bins = new int[2 * nIons];
+        double forwardMass = ElementaryIon.proton.getTheoreticMass();
+        double complementaryMass = peptideMass + ElementaryIon.protonMassMultiples[2];
+        for (int i = 0; i < nIons; i++) {
+            forwardMass += AminoAcid.getAminoAcid(aas[i]).getMonoisotopicMass() + modificationsMasses[i];
+            bins[2 * i] = getBin(forwardMass);
+            bins[2 * i + 1] = getBin(complementaryMass - forwardMass);
+        }
+
+        Arrays.sort(bins);
+        int nUnique = 0;
+        for (int i = 0; i < bins.length; i++) {
+            if (i == 0 || bins[i] != bins[i - 1]) {
+                bins[nUnique++] = bins[i];
+            }
+        }
+        return nUnique == bins.length ? bins : Arrays.copyOf(bins, nUnique);
+    }
+
+    /**
+     * Returns the bin of the given m/z.
+     *
+     * @param mz the m/z
+     *
+     * @return the bin of the given m/z
+     */
+    private int getBin(double mz) {
+        return Math.max(0, (int) (mz / binWidth));
+    }
+
+    /**
+     * Delta encodes the given sorted identifiers as variable length integers.
+     *
+     * @param ids the sorted identifiers
+     *
+     * @return the encoded identifiers
+     */
+    private static byte[] encode(int[] ids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ids.length + 4);
+        int previous = 0;
+        for (int id : ids) {
+            int delta = id - previous;
+            previous = id;
+            while ((delta & ~0x7F) != 0) {
+                out.write((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            out.write(delta);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the candidate peptides for the given spectrum ranked by number
+     * of shared peaks. Only peptides with a mass within the given window
+     * around the precursor mass are considered, the window can be wide to
+     * allow open modification searches.
+     *
+     * @param spectrum the spectrum
+     * @param precursorMass the neutral mass of the precursor
+     * @param massDeltaMin the minimal mass difference between the precursor
+     * and the peptide, typically negative
+     * @param massDeltaMax the maximal mass difference between the precursor
+     * and the peptide
+     * @param maxFragmentCharge the maximal fragment charge to consider
+     * @param nCandidates the maximal number of candidates to return
+     * @param minSharedPeaks the minimal number of shared peaks
+     *
+     * @return the candidates sorted by decreasing number of shared peaks
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     * while reading the peaks
+     */
+    public ArrayList<Candidate> getCandidates(Spectrum spectrum, double precursorMass, double massDeltaMin, double massDeltaMax,
+            int maxFragmentCharge, int nCandidates, int minSharedPeaks) throws InterruptedException {
+
+        checkCanceled();
+
+        int idMin = lowerBound(precursorMass - massDeltaMax);
+        int idMax = lowerBound(Math.nextUp(precursorMass - massDeltaMin));
+        if (idMin >= idMax || nCandidates <= 0) {
+            return new ArrayList<Candidate>(0);
+        }
+
+        // Select the bins matched by the peaks
+        BitSet queryBins = new BitSet(postings.length);
+        for (double mz : getQueryMzs(spectrum)) {
+            for (int charge = 1; charge <= maxFragmentCharge; charge++) {
+                double mz1 = charge == 1 ? mz : mz * charge - ElementaryIon.getProtonMassMultiple(charge - 1);
+                int binMin = getBin(mz1 - binWidth);
+                int binMax = Math.min(getBin(mz1 + binWidth), postings.length - 1);
+                if (binMin <= binMax) {
+                    queryBins.set(binMin, binMax + 1);
+                }
+            }
+        }
+
+        // Count the shared bins
+        int[] scores = new int[idMax - idMin];
+        for (int bin = queryBins.nextSetBit(0); bin >= 0; bin = queryBins.nextSetBit(bin + 1)) {
+            byte[] encodedIds = postings[bin];
+            int id = 0;
+            int offset = 0;
+            for (int i = 0; i < postingsSizes[bin]; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = encodedIds[offset++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                if (id >= idMax) {
+                    break;
+                }
+                if (id >= idMin) {
+                    scores[id - idMin]++;
+                }
+            }
+        }
+
+        // Keep the best candidates
+        PriorityQueue<Candidate> bestCandidates = new PriorityQueue<Candidate>(nCandidates + 1);
+        int threshold = Math.max(1, minSharedPeaks);
+        for (int i = 0; i < scores.length; i++) {
+            int score = scores[i];
+            if (score >= threshold) {
+                if (bestCandidates.size() < nCandidates) {
+                    bestCandidates.add(new Candidate(idMin + i, score));
+                } else if (score > bestCandidates.peek().nSharedPeaks) {
+                    bestCandidates.poll();
+                    bestCandidates.add(new Candidate(idMin + i, score));
+                }
+            }
+        }
+
+        ArrayList<Candidate> result = new ArrayList<Candidate>(bestCandidates);
+        Collections.sort(result, Collections.reverseOrder());
+        return result;
+    }
+
+    /**
+     * Returns the candidate peptides for the given spectra, querying every
+     * spectrum at the possible charges of its precursor in parallel.
+     *
+     * @param spectra the spectra
+     * @param massDeltaMin the minimal mass difference between the precursor
+     * and the peptide, typically negative
+     * @param massDeltaMax the maximal mass difference between the precursor
+     * and the peptide
+     * @param nCandidates the maximal number of candidates to return per
+     * spectrum and charge
+     * @param minSharedPeaks the minimal number of shared peaks
+     * @param nThreads the number of threads to use
+     *
+     * @return the candidates of every spectrum indexed by spectrum key and
+     * precursor charge
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public HashMap<String, HashMap<Integer, ArrayList<Candidate>>> getCandidates(ArrayList<MSnSpectrum> spectra, final double massDeltaMin, final double massDeltaMax,
+            final int nCandidates, final int minSharedPeaks, int nThreads) throws InterruptedException {
+
+        checkCanceled();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        ArrayList<Future<HashMap<Integer, ArrayList<Candidate>>>> futures = new ArrayList<Future<HashMap<Integer, ArrayList<Candidate>>>>(spectra.size());
+
+        try {
+            for (final MSnSpectrum spectrum : spectra) {
+                futures.add(pool.submit(new Callable<HashMap<Integer, ArrayList<Candidate>>>() {
+                    @Override
+                    public HashMap<Integer, ArrayList<Candidate>> call() throws Exception {
+                        Precursor precursor = spectrum.getPrecursor();
+                        HashMap<Integer, ArrayList<Candidate>> result = new HashMap<Integer, ArrayList<Candidate>>(precursor.getPossibleCharges().size());
+                        for (Charge charge : precursor.getPossibleCharges()) {
+                            int chargeValue = charge.value;
+                            int maxFragmentCharge = Math.max(1, chargeValue - 1);
+                            result.put(chargeValue, getCandidates(spectrum, precursor.getMass(chargeValue), massDeltaMin, massDeltaMax, maxFragmentCharge, nCandidates, minSharedPeaks));
+                        }
+                        return result;
+                    }
+                }));
+            }
+
+            HashMap<String, HashMap<Integer, ArrayList<Candidate>>> result = new HashMap<String, HashMap<Integer, ArrayList<Candidate>>>(spectra.size());
+            for (int i = 0; i < spectra.size(); i++) {
+                result.put(spectra.get(i).getSpectrumKey(), waitFor(futures.get(i)));
+            }
+            return result;
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the m/z of the most intense peaks of the spectrum.
+     *
+     * @param spectrum the spectrum
+     *
+     * @return the m/z of the most intense peaks of the spectrum
+     */
+    private double[] getQueryMzs(Spectrum spectrum) {
+
+        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        Peak[] peaks = peakMap.values().toArray(new Peak[peakMap.size()]);
+        if (peaks.length > maxQueryPeaks) {
+            Arrays.sort(peaks, new Comparator<Peak>() {
+                @Override
+                public int compare(Peak o1, Peak o2) {
+                    return Double.compare(o2.intensity, o1.intensity);
+                }
+            });
+        }
+        int nPeaks = Math.min(peaks.length, maxQueryPeaks);
+        double[] mzs = new double[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            mzs[i] = peaks[i].mz;
+        }
+        return mzs;
+    }
+
+    /**
+     * Returns the identifier of the first peptide with a mass higher or equal
+     * to the given mass.
+     *
+     * @param mass the mass
+     *
+     * @return the identifier of the first peptide with a mass higher or equal
+     * to the given mass
+     */
+    private int lowerBound(double mass) {
+        int low = 0;
+        int high = peptideMasses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (peptideMasses[middle] < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Waits for the given tasks to complete.
+     *
+     * @param futures the tasks
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private static void waitFor(ArrayList<Future<Object>> futures) throws InterruptedException {
+        for (Future<Object> future : futures) {
+            waitFor(future);
+        }
+    }
+
+    /**
+     * Waits for the given task to complete and returns its result.
+     *
+     * @param <T> the type of result
+     * @param future the task
+     *
+     * @return the result of the task
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private static <T> T waitFor(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Util.getExecutionException(e, "An error occurred while processing the fragment ion index.", InterruptedException.class);
+        }
+    }
+
+    /**
+     * Indicates whether the construction of the index was canceled. A
+     * canceled index cannot be queried.
+     *
+     * @return a boolean indicating whether the construction of the index was
+     * canceled
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Throws an exception if the construction of the index was canceled.
+     */
+    private void checkCanceled() {
+        if (canceled) {
+            throw new IllegalStateException("The construction of the fragment ion index was canceled.");
+        }
+    }
+
+    /**
+     * Returns the number of peptides in the index.
+     *
+     * @return the number of peptides in the index
+     */
+    public int getnPeptides() {
+        return peptides.length;
+    }
+
+    /**
+     * Returns the peptide with the given identifier.
+     *
+     * @param peptideId the peptide identifier
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(int peptideId) {
+        return peptides[peptideId];
+    }
+
+    /**
+     * Returns the mass of the peptide with the given identifier.
+     *
+     * @param peptideId the peptide identifier
+     *
+     * @return the mass of the peptide
+     */
+    public double getPeptideMass(int peptideId) {
+        return peptideMasses[peptideId];
+    }
+
+    /**
+     * Returns the width of the fragment bins in Th.
+     *
+     * @return the width of the fragment bins
+     */
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Returns the maximal number of peaks of a spectrum used for queries.
+     *
+     * @return the maximal number of peaks of a spectrum used for queries
+     */
+    public int getMaxQueryPeaks() {
+        return maxQueryPeaks;
+    }
+
+    /**
+     * Sets the maximal number of peaks of a spectrum used for queries. The
+     * most intense peaks are used.
+     *
+     * @param maxQueryPeaks the maximal number of peaks of a spectrum used for
+     * queries
+     */
+    public void setMaxQueryPeaks(int maxQueryPeaks) {
+        this.maxQueryPeaks = maxQueryPeaks;
+    }
+
+    /**
+     * A candidate peptide returned by the index.
+     */
+    public class Candidate implements Comparable<Candidate> {
+
+        /**
+         * The peptide identifier.
+         */
+        public final int peptideId;
+        /**
+         * The number of peaks shared with the spectrum.
+         */
+        public final int nSharedPeaks;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideId the peptide identifier
+         * @param nSharedPeaks the number of peaks shared with the spectrum
+         */
+        public Candidate(int peptideId, int nSharedPeaks) {
+            this.peptideId = peptideId;
+            this.nSharedPeaks = nSharedPeaks;
+        }
+
+        /**
+         * Returns the peptide.
+         *
+         * @return the peptide
+         */
+        public Peptide getPeptide() {
+            return peptides[peptideId];
+        }
+
+        /**
+         * Returns the mass of the peptide.
+         *
+         * @return the mass of the peptide
+         */
+        public double getPeptideMass() {
+            return peptideMasses[peptideId];
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            if (nSharedPeaks != o.nSharedPeaks) {
+                return nSharedPeaks < o.nSharedPeaks ? -1 : 1;
+            }
+            // Prefer the lowest identifiers in case of ties
+            return peptideId < o.peptideId ? 1 : peptideId == o.peptideId ? 0 : -1;
+        }
+    }
+}
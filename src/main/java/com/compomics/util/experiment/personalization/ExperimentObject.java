@@ -65,6 +65,15 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         return urParams.get(parameter.getParameterKey());
     }
     
+    /**
+     * Indicates whether refinement parameters are set.
+     *
+     * @return a boolean indicating whether refinement parameters are set
+     */
+    public boolean hasUrParams() {
+        return urParams != null && !urParams.isEmpty();
+    }
+
     /**
      * Clears the loaded parameters.
      */
@@ -185,6 +185,24 @@ public class BasicMathFunctions {
             throw new IllegalArgumentException("Incorrect input for percentile: " + percentile + ". Input must be between 0 and 1.");
         }
         Arrays.sort(input);
+        return percentileSorted(input, percentile);
+    }
+
+    /**
+     * Returns the desired percentile in a given array of double. If the
+     * percentile is between two values a linear interpolation is done. The
+     * array must be sorted prior to submission.
+     *
+     * @param input the input array
+     * @param percentile the desired percentile. 0.01 returns the first
+     * percentile. 0.5 returns the median.
+     *
+     * @return the desired percentile
+     */
+    public static double percentileSorted(double[] input, double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Incorrect input for percentile: " + percentile + ". Input must be between 0 and 1.");
+        }
         int length = input.length;
         if (length == 0) {
             throw new IllegalArgumentException("Attempting to estimate the percentile of an empty list.");
@@ -0,0 +1,119 @@
+package com.compomics.util.math;
+
+/**
+ * Sorts an array of values in ascending order and applies the same
+ * permutation to an array of indexes, without boxing the values. Equal values
+ * are sorted by ascending index, so that elements of equal value remain in
+ * their original order when the indexes are initialized in ascending order.
+ *
+ * @author Marc Vaudel
+ */
+public class PermutationSort {
+
+    /**
+     * Below this size, ranges are sorted by insertion.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Empty default constructor.
+     */
+    private PermutationSort() {
+    }
+
+    /**
+     * Sorts the given values in ascending order and applies the same
+     * permutation to the indexes. Values must not be NaN.
+     *
+     * @param values the values to sort
+     * @param indexes the indexes of the values
+     */
+    public static void sort(double[] values, int[] indexes) {
+        sort(values, indexes, 0, values.length);
+    }
+
+    /**
+     * Sorts the given range of values in ascending order and applies the same
+     * permutation to the indexes. Values must not be NaN.
+     *
+     * @param values the values to sort
+     * @param indexes the indexes of the values
+     * @param from the index of the first element to sort, inclusive
+     * @param to the index of the last element to sort, exclusive
+     */
+    public static void sort(double[] values, int[] indexes, int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int middle = (from + to) >>> 1;
+            // median of three
+            if (isLower(values, indexes, middle, from)) {
+                swap(values, indexes, middle, from);
+            }
+            if (isLower(values, indexes, to - 1, middle)) {
+                swap(values, indexes, to - 1, middle);
+                if (isLower(values, indexes, middle, from)) {
+                    swap(values, indexes, middle, from);
+                }
+            }
+            double pivotValue = values[middle];
+            int pivotIndex = indexes[middle];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (values[i] < pivotValue || values[i] == pivotValue && indexes[i] < pivotIndex) {
+                    i++;
+                }
+                while (values[j] > pivotValue || values[j] == pivotValue && indexes[j] > pivotIndex) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, indexes, i++, j--);
+                }
+            }
+            // recursion on the smaller part, iteration on the larger
+            if (j - from < to - i) {
+                sort(values, indexes, from, j + 1);
+                from = i;
+            } else {
+                sort(values, indexes, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && isLower(values, indexes, j, j - 1); j--) {
+                swap(values, indexes, j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the element at position i is lower than the element
+     * at position j, comparing values and then indexes.
+     *
+     * @param values the values
+     * @param indexes the indexes of the values
+     * @param i the position of the first element
+     * @param j the position of the second element
+     *
+     * @return a boolean indicating whether the element at position i is lower
+     * than the element at position j
+     */
+    private static boolean isLower(double[] values, int[] indexes, int i, int j) {
+        return values[i] < values[j] || values[i] == values[j] && indexes[i] < indexes[j];
+    }
+
+    /**
+     * Swaps two elements of the values and indexes.
+     *
+     * @param values the values
+     * @param indexes the indexes of the values
+     * @param i the position of the first element
+     * @param j the position of the second element
+     */
+    private static void swap(double[] values, int[] indexes, int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        int index = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = index;
+    }
+}
@@ -17,6 +17,7 @@ import java.io.Serializable;
 import org.apache.log4j.Logger;
 
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 /**
  * This class represents the header for a Protein instance. It is meant to work
@@ -39,6 +40,73 @@ public class Header implements Cloneable, Serializable {
      * Class specific log4j logger for Header instances.
      */
     static Logger logger = Logger.getLogger(Header.class);
+    /**
+     * Pattern of the Drosophile headers.
+     */
+    private static final Pattern DROSOPHILE_PATTERN = Pattern.compile("^CG.* pep:.*");
+    /**
+     * Pattern of the SGD headers.
+     */
+    private static final Pattern SGD_PATTERN = Pattern.compile(".*SGDID:[^\\s]+,.*");
+    /**
+     * Pattern of the UniProt headers without pipes.
+     */
+    private static final Pattern UNIPROT_NO_PIPE_PATTERN = Pattern.compile("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*");
+    /**
+     * Pattern of the UniProt Swiss-Prot headers.
+     */
+    private static final Pattern SWISSPROT_PATTERN = Pattern.compile("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the UniProt TrEMBL headers.
+     */
+    private static final Pattern TREMBL_PATTERN = Pattern.compile("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Ensembl headers.
+     */
+    private static final Pattern ENSEMBL_PATTERN = Pattern.compile("^en\\|[^|]*\\|.*");
+    /**
+     * Pattern of the generic UniProt headers.
+     */
+    private static final Pattern GENERIC_UNIPROT_PATTERN = Pattern.compile("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Flybase headers.
+     */
+    private static final Pattern FLYBASE_PATTERN = Pattern.compile("^FB.+\\stype=.*");
+    /**
+     * Pattern of the headers with a location in square brackets.
+     */
+    private static final Pattern LOCATION_IN_BRACKETS_PATTERN = Pattern.compile(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*");
+    /**
+     * Pattern of the Arabidopsis (TAIR) headers.
+     */
+    private static final Pattern ARABIDOPSIS_PATTERN = Pattern.compile("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*");
+    /**
+     * Pattern of the Arabidopsis (nrAt) headers.
+     */
+    private static final Pattern NRAT_PATTERN = Pattern.compile("^nrAt[^\t]*\t.*");
+    /**
+     * Pattern of the Listeria monocytogenes headers.
+     */
+    private static final Pattern LISTERIA_PATTERN = Pattern.compile("^L. monocytogenes[^|]*[|][^|]*[|].*");
+    /**
+     * Pattern of an accession followed by a location with a single digit
+     * after the space, e.g. "P12345(12 3)".
+     */
+    private static final Pattern LOCATION_SPACE_DIGIT_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]\\)$");
+    /**
+     * Pattern of an accession followed by a location separated by a space,
+     * e.g. "P12345(12 34)".
+     */
+    private static final Pattern LOCATION_SPACE_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]+\\)$");
+    /**
+     * Pattern of an accession followed by a location range, e.g.
+     * "P12345(12-34)".
+     */
+    private static final Pattern LOCATION_RANGE_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+-[\\d]+\\)$");
+    /**
+     * Pattern of a location range in parenthesis, e.g. "(12-34)".
+     */
+    private static final Pattern RANGE_IN_PARENTHESIS_PATTERN = Pattern.compile("[(][0-9]+-[0-9]+[)]");
 
     /**
      * Private constructor to force use of factory methods.
@@ -519,7 +587,7 @@ public class Header implements Cloneable, Serializable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^CG.* pep:.*")) {
+                } else if (aFASTAHeader.startsWith("CG") && DROSOPHILE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Drosophile DB.
                     // We need to find two elements:
                     //   - the accession String (retrieved as the trimmed version of everything
@@ -547,7 +615,7 @@ public class Header implements Cloneable, Serializable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = possibleDescriptionPrefix + aFASTAHeader.substring(pepLoc).trim();
-                } else if (aFASTAHeader.matches(".*SGDID:[^\\s]+,.*")) {
+                } else if (aFASTAHeader.contains("SGDID:") && SGD_PATTERN.matcher(aFASTAHeader).matches()) {
                     // OK, SGD entry. The text up to but not including the first space is deemed accession,
                     // everything else is taken as description.
                     // So we need to find two elements:
@@ -596,7 +664,7 @@ public class Header implements Cloneable, Serializable {
                         result.iDescription = "";
                     }
 
-                } else if (aFASTAHeader.matches("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*") && aFASTAHeader.lastIndexOf("|") == -1) {
+                } else if (aFASTAHeader.lastIndexOf("|") == -1 && aFASTAHeader.indexOf('_', 1) > 0 && UNIPROT_NO_PIPE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Old (everything before 9.0 release (31 Oct 2006)) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -610,7 +678,7 @@ public class Header implements Cloneable, Serializable {
 
                     // try to get the gene name and taxonomy
                     //parseUniProtDescription(result);  // @TOOD: not sure if the header has the right format...
-                } else if (aFASTAHeader.matches("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (aFASTAHeader.startsWith("sp|") && SWISSPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (September 2008 and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -618,12 +686,12 @@ public class Header implements Cloneable, Serializable {
                     String tempHeader = aFASTAHeader.substring(3);
                     result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
+                    if (LOCATION_SPACE_DIGIT_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket, result.iAccession.indexOf(" ", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                         result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    } else if (LOCATION_RANGE_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -636,7 +704,7 @@ public class Header implements Cloneable, Serializable {
                     // try to get the gene name and taxonomy
                     parseUniProtDescription(result);
 
-                } else if (aFASTAHeader.matches("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (aFASTAHeader.startsWith("tr|") && TREMBL_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (September 2008 and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -644,12 +712,12 @@ public class Header implements Cloneable, Serializable {
                     String tempHeader = aFASTAHeader.substring(3);
                     result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
+                    if (LOCATION_SPACE_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                         result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    } else if (LOCATION_RANGE_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -661,19 +729,19 @@ public class Header implements Cloneable, Serializable {
 
                     // try to get the gene name and taxonomy
                     parseUniProtDescription(result);
-                }  else if (aFASTAHeader.matches("^en\\|[^|]*\\|.*")) {
+                }  else if (aFASTAHeader.startsWith("en|") && ENSEMBL_PATTERN.matcher(aFASTAHeader).matches()) {
                         // Ensembl Genomes header
                         // Is formatted something like this:
                         //  >en|CCF76815|pCol1B9_SL1344:3971-4420 conserved hypothetical plasmid protein
                         String tempHeader = aFASTAHeader.substring(3);
                         result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                         // See if there is location information.
-                        if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
+                        if (LOCATION_SPACE_PATTERN.matcher(result.iAccession).matches()) {
                             int openBracket = result.iAccession.indexOf("(");
                             result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
                             result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                             result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                        } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                        } else if (LOCATION_RANGE_PATTERN.matcher(result.iAccession).matches()) {
                             int openBracket = result.iAccession.indexOf("(");
                             result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                             result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -708,14 +776,14 @@ public class Header implements Cloneable, Serializable {
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf(" "));
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf(" ") + 1);
 
-                } else if (aFASTAHeader.matches("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (aFASTAHeader.indexOf('|') >= 0 && GENERIC_UNIPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (9.0 release (31 Oct 2006) and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
                     //  >accession|ID descr rest (including taxonomy, if available)
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (aFASTAHeader.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
+                    if (LOCATION_SPACE_DIGIT_PATTERN.matcher(aFASTAHeader).matches()) {
                         int openBracket = aFASTAHeader.indexOf("(");
                         result.iAccession = aFASTAHeader.substring(0, openBracket).trim();
                         result.iStart = Integer.parseInt(aFASTAHeader.substring(openBracket, aFASTAHeader.indexOf(" ", openBracket)).trim());
@@ -727,11 +795,11 @@ public class Header implements Cloneable, Serializable {
 
                     // try to get the gene name and taxonomy
                     parseUniProtDescription(result);
-                } else if (aFASTAHeader.matches("^FB.+\\stype=.*")) {
+                } else if (aFASTAHeader.startsWith("FB") && FLYBASE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Flybase FASTA format.
                     // Accession number
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("type")).trim();
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    if (LOCATION_RANGE_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -740,7 +808,7 @@ public class Header implements Cloneable, Serializable {
                     result.databaseType = DatabaseType.Flybase;
                     result.iID = "";
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf("type="));
-                } else if (aFASTAHeader.matches(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*")) {
+                } else if (aFASTAHeader.indexOf('[') >= 0 && LOCATION_IN_BRACKETS_PATTERN.matcher(aFASTAHeader).matches()) {
                     // A header translating a genome sequence into a protein sequences.
                     // We need to find two elements, separated by a space:
                     //   - the accession string (retrieved as the first part of a space delimited String).
@@ -774,7 +842,7 @@ public class Header implements Cloneable, Serializable {
                     }
 
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*")) {
+                } else if (aFASTAHeader.contains(" Symbol") && ARABIDOPSIS_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Arabidopsis thaliana database; TAIR format
                     // We need to find two elements, separated by pipes:
                     //   - the accession number with version (retrieved as the part before the first pipe).
@@ -799,7 +867,7 @@ public class Header implements Cloneable, Serializable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^nrAt[^\t]*\t.*")) {
+                } else if (aFASTAHeader.startsWith("nrAt") && NRAT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The PSB Arabidopsis thaliana database; proprietary format
                     // We need to find three elements:
                     //   - the internal accession (at the start, separated by 'tab' and space from the next part).
@@ -830,7 +898,7 @@ public class Header implements Cloneable, Serializable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^L. monocytogenes[^|]*[|][^|]*[|].*")) {
+                } else if (aFASTAHeader.startsWith("L") && LISTERIA_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Listeria database; proprietary format
                     // We need to find three elements:
                     //   - the leader element (at the start, separated by '|' from the next part).
@@ -920,7 +988,7 @@ public class Header implements Cloneable, Serializable {
 
                     if ((accessionEndLoc > 0) && (aFASTAHeader.contains("(")) && (aFASTAHeader.indexOf(")", aFASTAHeader.indexOf("(") + 1) >= 0)) {
                         // Now we have to see if there is location information present.
-                        if (aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1).matches("[(][0-9]+-[0-9]+[)]") && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
+                        if (RANGE_IN_PARENTHESIS_PATTERN.matcher(aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1)).matches() && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
                             // start and end found. Add it to the accession number and remove it from the description.
                             accessionEndLoc = aFASTAHeader.indexOf(")", accessionEndLoc) + 1;
                         }
@@ -101,19 +101,23 @@ public class ProteinSequencesManager {
                     if (versionFolder.isDirectory()) {
                         String version = versionFolder.getName();
                         FastaIndex fastaIndex = null;
+                        boolean fastaFound = false;
                         for (File subFile : versionFolder.listFiles()) {
-                            if (subFile.getName().endsWith(".cui")) {
-                                try {
-                                    FastaIndex tempIndex = (FastaIndex) SerializationUtils.readObject(subFile);
-                                    String correctedName = correctFastaName(tempIndex.getName());
-                                    if (correctedName.equals(name)) {
-                                        File fastaFile = new File(versionFolder, tempIndex.getFileName());
-                                        if (fastaFile.exists()) {
+                            String subFileName = subFile.getName();
+                            if (subFileName.endsWith(".cui")) {
+                                File fastaFile = new File(versionFolder, subFileName.substring(0, subFileName.length() - 4));
+                                if (fastaFile.exists()) {
+                                    fastaFound = true;
+                                    try {
+                                        // outdated or incompatible indexes are rebuilt
+                                        FastaIndex tempIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+                                        String correctedName = correctFastaName(tempIndex.getName());
+                                        if (correctedName.equals(name)) {
                                             fastaIndex = tempIndex;
                                         }
+                                    } catch (Exception e) {
+                                        // ignore
                                     }
-                                } catch (Exception e) {
-                                    // ignore
                                 }
                             }
                         }
@@ -127,9 +131,12 @@ public class ProteinSequencesManager {
                                 databaseIndexes.put(name, fastaMap);
                             }
                             fastaMap.put(version, fastaIndex);
-                        } else {
+                        } else if (!fastaFound) {
                             // corrupted folder, delete
                             Util.deleteDir(versionFolder);
+                        } else {
+                            // the FASTA file could not be indexed, keep the folder of the user
+                            dbFound = true;
                         }
                     }
                 }
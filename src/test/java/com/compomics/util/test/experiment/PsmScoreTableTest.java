@@ -0,0 +1,139 @@
+package com.compomics.util.test.experiment;
+
+import com.compomics.util.experiment.identification.PsmScoreTable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the FDR estimation and persistence of the PSM score table.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoreTableTest extends TestCase {
+
+    /**
+     * Tests the target-decoy q-values and score threshold.
+     */
+    public void testQValues() {
+
+        PsmScoreTable psmScoreTable = new PsmScoreTable();
+        // scores from best to worst: T T T D T T D D
+        psmScoreTable.add("spectrum1", 1, 1, 100, false, 2, 0.1);
+        psmScoreTable.add("spectrum2", 1, 1, 90, false, 2, 0.1);
+        psmScoreTable.add("spectrum3", 1, 1, 80, false, 3, 0.1);
+        psmScoreTable.add("spectrum4", 1, 1, 70, true, 2, 0.1);
+        psmScoreTable.add("spectrum5", 1, 1, 60, false, 2, 0.1);
+        psmScoreTable.add("spectrum6", 1, 1, 50, false, 2, 0.1);
+        psmScoreTable.add("spectrum7", 1, 1, 40, true, 2, 0.1);
+        psmScoreTable.add("spectrum8", 1, 1, 30, true, 2, 0.1);
+        // other advocate and second rank are filtered out
+        psmScoreTable.add("spectrum1", 2, 1, 10, true, 2, 0.1);
+        psmScoreTable.add("spectrum1", 1, 2, 20, true, 2, 0.1);
+
+        double[] qValues = psmScoreTable.getQValues(1, 1, true);
+        Assert.assertEquals(10, qValues.length);
+        Assert.assertEquals(0.0, qValues[0], 0.0);
+        Assert.assertEquals(0.0, qValues[2], 0.0);
+        Assert.assertEquals(0.2, qValues[3], 0.0001);
+        Assert.assertEquals(0.2, qValues[5], 0.0001);
+        Assert.assertEquals(0.6, qValues[7], 0.0001);
+        Assert.assertTrue(Double.isNaN(qValues[8]));
+        Assert.assertTrue(Double.isNaN(qValues[9]));
+
+        Assert.assertEquals(80.0, psmScoreTable.getScoreThreshold(1, 1, 0.1, true), 0.0);
+        Assert.assertEquals(50.0, psmScoreTable.getScoreThreshold(1, 1, 0.2, true), 0.0);
+        Assert.assertEquals(30.0, psmScoreTable.getScoreThreshold(1, 1, 0.6, true), 0.0);
+
+        // lower is better: D D T T D T T T
+        Assert.assertNull(psmScoreTable.getScoreThreshold(1, 1, 0.5, false));
+        Assert.assertEquals(100.0, psmScoreTable.getScoreThreshold(1, 1, 0.6, false), 0.0);
+        Assert.assertNull(psmScoreTable.getScoreThreshold(2, 1, 0.0, false));
+
+        Assert.assertEquals(5, psmScoreTable.getScores(1, 1, false).length);
+        Assert.assertEquals(4, psmScoreTable.getScores(null, 1, true).length);
+    }
+
+    /**
+     * Tests saving and loading a table.
+     *
+     * @throws IOException thrown if an IOException occurs
+     */
+    public void testSaveLoad() throws IOException {
+
+        PsmScoreTable psmScoreTable = new PsmScoreTable();
+        for (int i = 0; i < 5000; i++) {
+            psmScoreTable.add("spectrum" + (i / 2), 1 + i % 3, 1 + i % 2, i / 10.0, i % 4 == 0, 2 + i % 2, i % 7 == 0 ? Double.NaN : -i);
+        }
+
+        File file = File.createTempFile("psmScoreTable", ".psms");
+        file.deleteOnExit();
+        psmScoreTable.save(file);
+        PsmScoreTable loadedTable = new PsmScoreTable(file);
+        file.delete();
+
+        Assert.assertEquals(psmScoreTable.size(), loadedTable.size());
+        for (int i = 0; i < psmScoreTable.size(); i++) {
+            Assert.assertEquals(psmScoreTable.getSpectrumKey(i), loadedTable.getSpectrumKey(i));
+            Assert.assertEquals(psmScoreTable.getAdvocate(i), loadedTable.getAdvocate(i));
+            Assert.assertEquals(psmScoreTable.getRank(i), loadedTable.getRank(i));
+            Assert.assertEquals(psmScoreTable.getScore(i), loadedTable.getScore(i), 0.0);
+            Assert.assertEquals(psmScoreTable.isDecoy(i), loadedTable.isDecoy(i));
+            Assert.assertEquals(psmScoreTable.getCharge(i), loadedTable.getCharge(i));
+            Assert.assertEquals(Double.valueOf(psmScoreTable.getPrecursorError(i)), Double.valueOf(loadedTable.getPrecursorError(i)));
+        }
+
+        Assert.assertFalse(psmScoreTable.isReadOnly());
+        Assert.assertTrue(loadedTable.isReadOnly());
+        try {
+            loadedTable.add("spectrum", 1, 1, 1.0, false, 2, 0.0);
+            Assert.fail("A row was added to a loaded table.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(psmScoreTable.size(), loadedTable.size());
+
+        for (boolean higherIsBetter : new boolean[]{true, false}) {
+            Assert.assertTrue(Arrays.equals(psmScoreTable.getQValues(null, 1, higherIsBetter), loadedTable.getQValues(null, 1, higherIsBetter)));
+            Assert.assertEquals(psmScoreTable.getScoreThreshold(2, 2, 0.01, higherIsBetter), loadedTable.getScoreThreshold(2, 2, 0.01, higherIsBetter));
+        }
+    }
+
+    /**
+     * Tests that the score thresholds are consistent with the q-values of the
+     * rows.
+     */
+    public void testThresholds() {
+
+        Random random = new Random(47);
+        PsmScoreTable psmScoreTable = new PsmScoreTable();
+        for (int i = 0; i < 2000; i++) {
+            boolean decoy = random.nextInt(3) == 0;
+            double score = Math.round((decoy ? random.nextGaussian() : 2 + random.nextGaussian()) * 20) / 20.0;
+            psmScoreTable.add("spectrum" + i, 1 + random.nextInt(2), 1 + random.nextInt(2), score, decoy, 2, 0.0);
+        }
+
+        for (boolean higherIsBetter : new boolean[]{true, false}) {
+            for (Integer advocate : new Integer[]{null, 1, 2}) {
+                double[] qValues = psmScoreTable.getQValues(advocate, 1, higherIsBetter);
+                for (double fdr : new double[]{0.0, 0.01, 0.05, 0.1, 0.5, 1.0}) {
+                    Double threshold = psmScoreTable.getScoreThreshold(advocate, 1, fdr, higherIsBetter);
+                    // the threshold is the worst score of the rows at this FDR
+                    Double expected = null;
+                    for (int row = 0; row < psmScoreTable.size(); row++) {
+                        if (!Double.isNaN(qValues[row]) && qValues[row] <= fdr) {
+                            double score = psmScoreTable.getScore(row);
+                            if (expected == null || higherIsBetter && score < expected || !higherIsBetter && score > expected) {
+                                expected = score;
+                            }
+                        }
+                    }
+                    Assert.assertEquals(expected, threshold);
+                }
+            }
+        }
+    }
+}
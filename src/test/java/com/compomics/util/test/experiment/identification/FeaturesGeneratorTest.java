@@ -0,0 +1,138 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.FeaturesMap;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.FeaturesMapManager;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.Ms2pipFeature;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.features.AAIdentityFeatureAbsolute;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.features.AAPropertyFeatureAbsolute;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.features.PeptideAminoAcidFeature;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_configuration.features.PeptideFeature;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation.FeaturesGenerator;
+import com.compomics.util.experiment.identification.peptide_fragmentation.models.ms2pip.features_generation.FeaturesMatrix;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the generation of the ms2pip features.
+ *
+ * @author Marc Vaudel
+ */
+public class FeaturesGeneratorTest extends TestCase {
+
+    /**
+     * The amino acids used to draw random peptides.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Tests that the features matrix of the bulk generation contains the
+     * features of every ion as generated one ion at a time.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testBulkFeatures() throws Exception {
+
+        FeaturesMap featuresMap = FeaturesMapManager.getDefaultFeaturesMap();
+        FeaturesGenerator featuresGenerator = new FeaturesGenerator(featuresMap);
+        int nFeatures = featuresMap.getnFeatures();
+
+        // the features which do not depend on the ion, in the order of the features vectors
+        boolean[] ionIndependent = new boolean[nFeatures];
+        int featureIndex = 0;
+        boolean hasIonIndependent = false, hasIonDependent = false;
+        for (String category : featuresMap.getSortedFeaturesList()) {
+            for (Ms2pipFeature ms2pipFeature : featuresMap.getFeatures(category)) {
+                int index = ms2pipFeature.getIndex();
+                ionIndependent[featureIndex] = index == PeptideFeature.index
+                        || index == PeptideAminoAcidFeature.index
+                        || index == AAPropertyFeatureAbsolute.index
+                        || index == AAIdentityFeatureAbsolute.index;
+                hasIonIndependent = hasIonIndependent || ionIndependent[featureIndex];
+                hasIonDependent = hasIonDependent || !ionIndependent[featureIndex];
+                featureIndex++;
+            }
+        }
+        Assert.assertEquals(nFeatures, featureIndex);
+        Assert.assertTrue(hasIonIndependent);
+        Assert.assertTrue(hasIonDependent);
+
+        Random random = new Random(28);
+        ArrayList<Peptide> peptides = new ArrayList<Peptide>();
+        int nPeptides = 200;
+        int[] charges = new int[nPeptides];
+        for (int i = 0; i < nPeptides; i++) {
+            int length = i == 0 ? 1 : 2 + random.nextInt(25);
+            peptides.add(getRandomPeptide(random, length));
+            charges[i] = 1 + random.nextInt(4);
+        }
+
+        for (int nThreads : new int[]{1, 4}) {
+
+            FeaturesMatrix featuresMatrix = featuresGenerator.getIonsFeatures(peptides, charges, nThreads);
+            Assert.assertEquals(nFeatures, featuresMatrix.getnFeatures());
+            Assert.assertEquals(nPeptides, featuresMatrix.getnPeptides());
+            Assert.assertEquals(0, featuresMatrix.getnIons(0));
+
+            int nRows = 0;
+            for (int i = 0; i < nPeptides; i++) {
+
+                Peptide peptide = peptides.get(i);
+                int nIons = peptide.getSequence().length() - 1;
+                Assert.assertEquals(nIons, featuresMatrix.getnIons(i));
+                nRows += nIons;
+
+                for (int ionIndex = 0; ionIndex < nIons; ionIndex++) {
+
+                    int row = featuresMatrix.getRow(i, ionIndex);
+                    int[] forwardFeatures = featuresGenerator.getForwardIonsFeatures(peptide, charges[i], ionIndex);
+                    int[] complementaryFeatures = featuresGenerator.getComplementaryIonsFeatures(peptide, charges[i], ionIndex);
+                    Assert.assertEquals(nFeatures, forwardFeatures.length);
+                    Assert.assertEquals(nFeatures, complementaryFeatures.length);
+
+                    for (int j = 0; j < nFeatures; j++) {
+                        String cell = peptide.getSequence() + " charge " + charges[i] + " ion " + ionIndex + " feature " + j;
+                        Assert.assertEquals(cell, forwardFeatures[j], featuresMatrix.getForwardIonFeature(row, j));
+                        Assert.assertEquals(cell, complementaryFeatures[j], featuresMatrix.getComplementaryIonFeature(row, j));
+                        if (ionIndependent[j]) {
+                            int firstRow = featuresMatrix.getRow(i, 0);
+                            Assert.assertEquals(cell, featuresMatrix.getForwardIonFeature(firstRow, j), featuresMatrix.getForwardIonFeature(row, j));
+                            Assert.assertEquals(cell, featuresMatrix.getComplementaryIonFeature(firstRow, j), featuresMatrix.getComplementaryIonFeature(row, j));
+                        }
+                    }
+                }
+            }
+            Assert.assertEquals(nRows, featuresMatrix.getnRows());
+        }
+    }
+
+    /**
+     * Returns a random peptide carrying random modifications.
+     *
+     * @param random the random number generator
+     * @param length the length of the peptide
+     *
+     * @return a random peptide
+     */
+    private Peptide getRandomPeptide(Random random, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        for (int i = 0; i < length; i++) {
+            char aa = sequence.charAt(i);
+            if (aa == 'C') {
+                modificationMatches.add(new ModificationMatch("Carbamidomethylation of C", false, i + 1));
+            } else if (aa == 'M' && random.nextBoolean()) {
+                modificationMatches.add(new ModificationMatch("Oxidation of M", true, i + 1));
+            } else if (aa == 'S' && random.nextInt(4) == 0) {
+                modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, i + 1));
+            }
+        }
+        return new Peptide(sequence.toString(), modificationMatches);
+    }
+}
@@ -0,0 +1,342 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.filtering.PeptideAssumptionFilter;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.preferences.PeptideVariantsPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the filtering of the peptide assumptions.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideAssumptionFilterTest extends TestCase {
+
+    /**
+     * The number of spectra, more than a batch of the filter.
+     */
+    private static final int N_SPECTRA = 2500;
+    /**
+     * A peptide found in both a target and a decoy protein.
+     */
+    private static final String SHARED_PEPTIDE = "PEPTIDESHAREDK";
+    /**
+     * The amino acids used to draw random peptides.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    /**
+     * The mass difference between two isotopes.
+     */
+    private static final double ISOTOPE_SHIFT = 1.00335;
+
+    /**
+     * Tests that filtering the assumptions in batch removes the same
+     * assumptions as the serial validation.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testBatchFilter() throws Exception {
+
+        File folder = File.createTempFile("peptideAssumptionFilter", "");
+        folder.delete();
+        folder.mkdir();
+        folder.deleteOnExit();
+
+        File fastaFile = new File(folder, "peptideAssumptionFilter.fasta");
+        fastaFile.deleteOnExit();
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(fastaFile, true));
+        try {
+            writer.newLine();
+            writer.write(">sw|TEST_SHARED|Test protein sharing a peptide with a decoy\n");
+            writer.write("MKAAGLR" + SHARED_PEPTIDE + "GGSAMWLR\n");
+            writer.write(">sw|TEST_SHARED_REVERSED|Test protein sharing a peptide with a target-REVERSED\n");
+            writer.write("RLWMASGG" + SHARED_PEPTIDE + "RLGAAKM\n");
+        } finally {
+            writer.close();
+        }
+        new File(folder, fastaFile.getName() + ".cui").deleteOnExit();
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(fastaFile, null);
+        Assert.assertTrue(sequenceFactory.isDecoyAccession("TEST_SHARED_REVERSED"));
+        ArrayList<String> proteinSequences = new ArrayList<String>();
+        SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(false);
+        try {
+            while (proteinIterator.hasNext()) {
+                proteinSequences.add(proteinIterator.getNextProtein().getSequence());
+            }
+        } finally {
+            proteinIterator.close();
+        }
+        FMIndex fmIndex = new FMIndex(null, false, null, PeptideVariantsPreferences.getNoVariantPreferences());
+
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setPtmSettings(new PtmSettings());
+        searchParameters.getPtmSettings().addVariableModification(PTMFactory.getInstance().getPTM("Oxidation of M"));
+        searchParameters.setDigestionPreferences(DigestionPreferences.getDefaultPreferences());
+        searchParameters.setPrecursorAccuracy(10.0);
+        searchParameters.setPrecursorAccuracyType(SearchParameters.MassAccuracyType.PPM);
+        searchParameters.setMinIsotopicCorrection(0);
+        searchParameters.setMaxIsotopicCorrection(1);
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        sequenceMatchingPreferences.setLimitX(0.25);
+        PeptideAssumptionFilter peptideAssumptionFilter = new PeptideAssumptionFilter(8, 30, 10.0, true, true, null, 2, 0, 1);
+
+        File mgfFile = new File(folder, "peptideAssumptionFilter.mgf");
+        mgfFile.deleteOnExit();
+        double[] precursorMzs = new double[N_SPECTRA];
+        ArrayList<SpectrumMatch> serialMatches = getSpectrumMatches(mgfFile.getName(), proteinSequences, precursorMzs);
+        ArrayList<SpectrumMatch> batchMatches = getSpectrumMatches(mgfFile.getName(), proteinSequences, new double[N_SPECTRA]);
+        writer = new BufferedWriter(new FileWriter(mgfFile));
+        try {
+            for (int i = 0; i < N_SPECTRA; i++) {
+                writer.write("BEGIN IONS\nTITLE=spectrum " + i + "\nPEPMASS=" + precursorMzs[i] + "\nCHARGE=2+\n");
+                writer.write("200.1 10.0\n");
+                writer.write("END IONS\n");
+            }
+        } finally {
+            writer.close();
+        }
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mgfFile, null);
+
+        // serial validation
+        int nPeptide = 0, nModifications = 0, nPrecursor = 0, nProteins = 0;
+        HashMap<String, ArrayList<String>> expected = new HashMap<String, ArrayList<String>>(N_SPECTRA);
+        for (SpectrumMatch spectrumMatch : serialMatches) {
+            ArrayList<String> remaining = new ArrayList<String>();
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+            for (Integer advocate : assumptionsMap.keySet()) {
+                for (Double score : assumptionsMap.get(advocate).keySet()) {
+                    for (SpectrumIdentificationAssumption assumption : assumptionsMap.get(advocate).get(score)) {
+                        PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+                        Peptide peptide = peptideAssumption.getPeptide();
+                        if (!peptideAssumptionFilter.validatePeptide(peptide, sequenceMatchingPreferences, searchParameters.getDigestionPreferences())) {
+                            nPeptide++;
+                        } else if (!peptideAssumptionFilter.validateModifications(peptide, sequenceMatchingPreferences, sequenceMatchingPreferences, searchParameters.getPtmSettings())) {
+                            nModifications++;
+                        } else if (!peptideAssumptionFilter.validatePrecursor(peptideAssumption, spectrumMatch.getKey(), spectrumFactory, searchParameters)) {
+                            nPrecursor++;
+                        } else if (!peptideAssumptionFilter.validateProteins(peptide, sequenceMatchingPreferences, fmIndex)) {
+                            nProteins++;
+                        } else {
+                            remaining.add(getDescription(peptideAssumption));
+                        }
+                    }
+                }
+            }
+            Collections.sort(remaining);
+            expected.put(spectrumMatch.getKey(), remaining);
+        }
+        Assert.assertTrue(nPeptide > 0);
+        Assert.assertTrue(nModifications > 0);
+        Assert.assertTrue(nPrecursor > 0);
+        Assert.assertTrue(nProteins > 0);
+
+        // batch filtering
+        int nRemoved = peptideAssumptionFilter.filterAssumptions(batchMatches, spectrumFactory, searchParameters, sequenceMatchingPreferences, sequenceMatchingPreferences, fmIndex, 3, null);
+        Assert.assertEquals(nPeptide + nModifications + nPrecursor + nProteins, nRemoved);
+
+        int nRemaining = 0;
+        for (SpectrumMatch spectrumMatch : batchMatches) {
+            ArrayList<String> remaining = new ArrayList<String>();
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+            for (Integer advocate : assumptionsMap.keySet()) {
+                Assert.assertFalse(assumptionsMap.get(advocate).isEmpty());
+                for (Double score : assumptionsMap.get(advocate).keySet()) {
+                    Assert.assertFalse(assumptionsMap.get(advocate).get(score).isEmpty());
+                    for (SpectrumIdentificationAssumption assumption : assumptionsMap.get(advocate).get(score)) {
+                        remaining.add(getDescription((PeptideAssumption) assumption));
+                    }
+                }
+            }
+            Collections.sort(remaining);
+            Assert.assertEquals(expected.get(spectrumMatch.getKey()), remaining);
+            nRemaining += remaining.size();
+        }
+        Assert.assertTrue(nRemaining > 0);
+    }
+
+    /**
+     * Returns random spectrum matches. The matches are the same upon every
+     * call. Every spectrum has a precursor matching one of its peptides, and
+     * assumptions failing every filter are drawn.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param proteinSequences the sequences of the proteins to draw peptides
+     * from
+     * @param precursorMzs an array where to store the precursor m/z of every
+     * spectrum
+     *
+     * @return the spectrum matches
+     *
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private ArrayList<SpectrumMatch> getSpectrumMatches(String spectrumFile, ArrayList<String> proteinSequences, double[] precursorMzs) throws InterruptedException {
+
+        Random random = new Random(50);
+        int[] advocates = {Advocate.mascot.getIndex(), Advocate.omssa.getIndex(), Advocate.xtandem.getIndex()};
+        ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<SpectrumMatch>(N_SPECTRA);
+
+        for (int i = 0; i < N_SPECTRA; i++) {
+
+            String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, "spectrum " + i);
+            SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+
+            String sequence = getSequence(random, proteinSequences);
+            while (!isStandard(sequence)) {
+                sequence = getSequence(random, proteinSequences);
+            }
+            double isotope = random.nextInt(10) < 7 ? 0 : random.nextInt(10) < 7 ? 1 : 2;
+            precursorMzs[i] = (new Peptide(sequence, new ArrayList<ModificationMatch>()).getMass() + 2 * ElementaryIon.proton.getTheoreticMass() + isotope * ISOTOPE_SHIFT) / 2;
+
+            for (int advocate : advocates) {
+                int nScores = 1 + random.nextInt(3);
+                for (int j = 0; j < nScores; j++) {
+                    double score = random.nextInt(100) / 100.0;
+                    int nAssumptions = 1 + random.nextInt(2);
+                    for (int k = 0; k < nAssumptions; k++) {
+                        Peptide peptide = getPeptide(random, random.nextBoolean() ? sequence : getSequence(random, proteinSequences));
+                        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, j + 1, advocate, new Charge(Charge.PLUS, 2), score, "no file");
+                        spectrumMatch.addHit(advocate, peptideAssumption, false);
+                    }
+                }
+            }
+            spectrumMatches.add(spectrumMatch);
+        }
+
+        return spectrumMatches;
+    }
+
+    /**
+     * Returns a random peptide sequence: the peptide shared by a target and a
+     * decoy protein, a sequence not found in the database, a sequence with
+     * too many X's, or a part of a protein sequence.
+     *
+     * @param random the random number generator
+     * @param proteinSequences the sequences of the proteins
+     *
+     * @return a random sequence
+     */
+    private String getSequence(Random random, ArrayList<String> proteinSequences) {
+        int draw = random.nextInt(100);
+        if (draw < 10) {
+            return SHARED_PEPTIDE;
+        } else if (draw < 25) {
+            return getRandomSequence(random, 6 + random.nextInt(30));
+        } else if (draw < 30) {
+            return getRandomSequence(random, 5) + "XXX";
+        }
+        while (true) {
+            String proteinSequence = proteinSequences.get(random.nextInt(proteinSequences.size()));
+            int length = 5 + random.nextInt(31);
+            if (length < proteinSequence.length()) {
+                int start = random.nextInt(proteinSequence.length() - length);
+                String sequence = proteinSequence.substring(start, start + length);
+                if (isStandard(sequence)) {
+                    return sequence;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a random sequence of standard amino acids.
+     *
+     * @param random the random number generator
+     * @param length the length of the sequence
+     *
+     * @return a random sequence
+     */
+    private String getRandomSequence(Random random, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        return sequence.toString();
+    }
+
+    /**
+     * Indicates whether a sequence is made of standard amino acids only.
+     *
+     * @param sequence the sequence
+     *
+     * @return a boolean indicating whether a sequence is made of standard
+     * amino acids only
+     */
+    private boolean isStandard(String sequence) {
+        for (int i = 0; i < sequence.length(); i++) {
+            if (AMINO_ACIDS.indexOf(sequence.charAt(i)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a peptide of the given sequence, randomly carrying an unknown
+     * modification, an oxidation, or parent proteins.
+     *
+     * @param random the random number generator
+     * @param sequence the sequence of the peptide
+     *
+     * @return a peptide
+     */
+    private Peptide getPeptide(Random random, String sequence) {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        int draw = random.nextInt(100);
+        if (draw < 8) {
+            modificationMatches.add(new ModificationMatch(PTMFactory.unknownPTM.getName(), true, 1));
+        } else if (draw < 25) {
+            int site = sequence.indexOf('M') + 1;
+            modificationMatches.add(new ModificationMatch("Oxidation of M", true, site > 0 ? site : 1));
+        }
+        Peptide peptide = new Peptide(sequence, modificationMatches);
+        if (random.nextInt(100) < 15) {
+            ArrayList<String> proteins = new ArrayList<String>();
+            proteins.add("PRESET_PROTEIN");
+            peptide.setParentProteins(proteins);
+        }
+        return peptide;
+    }
+
+    /**
+     * Returns a description of an assumption including the parent proteins
+     * of the peptide.
+     *
+     * @param peptideAssumption the peptide assumption
+     *
+     * @return a description of the assumption
+     */
+    private String getDescription(PeptideAssumption peptideAssumption) {
+        Peptide peptide = peptideAssumption.getPeptide();
+        ArrayList<String> proteins = new ArrayList<String>(peptide.getParentProteinsNoRemapping());
+        Collections.sort(proteins);
+        return peptideAssumption.getAdvocate() + "_" + peptideAssumption.getScore() + "_" + peptideAssumption.getRank() + "_" + peptide.getKey() + "_" + proteins;
+    }
+}
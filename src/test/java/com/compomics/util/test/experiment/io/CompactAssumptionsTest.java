@@ -0,0 +1,298 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.DerbyUtil;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.IdentificationDB;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.CompactAssumptions;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the compact storage of the raw assumptions.
+ *
+ * @author Marc Vaudel
+ */
+public class CompactAssumptionsTest extends TestCase {
+
+    /**
+     * Tests that the compact assumptions return the assumptions they were
+     * created from, before and after serialization, and that identical
+     * peptides are shared in the serialized form only.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testRoundTrip() throws Exception {
+
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = getAssumptionsMap();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> reference = getAssumptionsMap();
+
+        CompactAssumptions notShared = new CompactAssumptions(assumptionsMap, false);
+        Assert.assertEquals(8, notShared.size());
+        Assert.assertNotSame(getPeptide(assumptionsMap, Advocate.mascot.getIndex(), 0.1, 0), getPeptide(assumptionsMap, Advocate.omssa.getIndex(), 0.2, 0));
+        compare(reference, notShared.getAssumptionsMap());
+
+        CompactAssumptions compactAssumptions = new CompactAssumptions(assumptionsMap, true);
+        Assert.assertEquals(8, compactAssumptions.size());
+
+        // the given assumptions are not modified
+        Assert.assertNotSame(getPeptide(assumptionsMap, Advocate.mascot.getIndex(), 0.1, 0), getPeptide(assumptionsMap, Advocate.mascot.getIndex(), 0.5, 0));
+        Assert.assertNotSame(getPeptide(assumptionsMap, Advocate.mascot.getIndex(), 0.1, 0), getPeptide(assumptionsMap, Advocate.omssa.getIndex(), 0.2, 0));
+        Assert.assertNotSame(getPeptide(assumptionsMap, Advocate.mascot.getIndex(), 0.5, 1), getPeptide(assumptionsMap, Advocate.xtandem.getIndex(), 0.3, 0));
+
+        int[] advocates = compactAssumptions.getAdvocates();
+        Assert.assertEquals(3, advocates.length);
+        for (int i = 1; i < advocates.length; i++) {
+            Assert.assertTrue(advocates[i - 1] < advocates[i]);
+        }
+        for (int advocate : advocates) {
+            double[] scores = compactAssumptions.getScores(advocate);
+            ArrayList<SpectrumIdentificationAssumption> assumptions = compactAssumptions.getAssumptions(advocate);
+            Assert.assertEquals(scores.length, assumptions.size());
+            for (int i = 0; i < scores.length; i++) {
+                Assert.assertTrue(i == 0 || scores[i - 1] <= scores[i]);
+                Assert.assertTrue(assumptionsMap.get(advocate).get(scores[i]).contains(assumptions.get(i)));
+            }
+        }
+        Assert.assertEquals(0, compactAssumptions.getScores(Advocate.andromeda.getIndex()).length);
+        Assert.assertTrue(compactAssumptions.getAssumptions(Advocate.andromeda.getIndex()).isEmpty());
+        compare(reference, compactAssumptions.getAssumptionsMap());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(compactAssumptions);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        CompactAssumptions deserialized = (CompactAssumptions) in.readObject();
+        in.close();
+
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> deserializedMap = deserialized.getAssumptionsMap();
+        compare(reference, deserializedMap);
+
+        // identical peptides share the instance of the first assumption once deserialized
+        Peptide sharedPeptide = getPeptide(deserializedMap, Advocate.mascot.getIndex(), 0.1, 0);
+        Assert.assertSame(sharedPeptide, getPeptide(deserializedMap, Advocate.mascot.getIndex(), 0.5, 0));
+        Assert.assertSame(sharedPeptide, getPeptide(deserializedMap, Advocate.omssa.getIndex(), 0.2, 0));
+        Peptide modifiedPeptide = getPeptide(deserializedMap, Advocate.mascot.getIndex(), 0.5, 1);
+        Assert.assertSame(modifiedPeptide, getPeptide(deserializedMap, Advocate.xtandem.getIndex(), 0.3, 0));
+        // different modification site, different proteins or different sequence
+        Assert.assertNotSame(modifiedPeptide, getPeptide(deserializedMap, Advocate.xtandem.getIndex(), 0.3, 1));
+        Assert.assertNotSame(sharedPeptide, getPeptide(deserializedMap, Advocate.xtandem.getIndex(), 0.4, 0));
+        Assert.assertNotSame(sharedPeptide, getPeptide(deserializedMap, Advocate.omssa.getIndex(), 0.2, 1));
+
+        // serializing does not modify the given assumptions either
+        for (int advocate : advocates) {
+            ArrayList<SpectrumIdentificationAssumption> assumptions = compactAssumptions.getAssumptions(advocate);
+            for (int i = 0; i < assumptions.size(); i++) {
+                Assert.assertTrue(assumptionsMap.get(advocate).get(compactAssumptions.getScores(advocate)[i]).contains(assumptions.get(i)));
+            }
+        }
+        Assert.assertNotSame(getPeptide(assumptionsMap, Advocate.mascot.getIndex(), 0.1, 0), getPeptide(assumptionsMap, Advocate.omssa.getIndex(), 0.2, 0));
+        Assert.assertTrue(bytes.size() < getSerialized(notShared).length);
+
+        // without sharing the peptides are not shared after deserialization either
+        in = new ObjectInputStream(new ByteArrayInputStream(getSerialized(notShared)));
+        deserializedMap = ((CompactAssumptions) in.readObject()).getAssumptionsMap();
+        in.close();
+        compare(reference, deserializedMap);
+        Assert.assertNotSame(getPeptide(deserializedMap, Advocate.mascot.getIndex(), 0.1, 0), getPeptide(deserializedMap, Advocate.omssa.getIndex(), 0.2, 0));
+    }
+
+    /**
+     * Returns the serialized form of the given object.
+     *
+     * @param object the object
+     *
+     * @return the serialized object
+     *
+     * @throws IOException if an IOException occurs
+     */
+    private byte[] getSerialized(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Tests that the raw assumptions stored as compact assumptions and the
+     * raw assumptions stored as maps by previous versions are read back from
+     * the database.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testLegacyRawAssumptions() throws Exception {
+
+        File folder = File.createTempFile("compactAssumptions", "");
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            ObjectsCache cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(0);
+            IdentificationDB idDB = new IdentificationDB(folder.getAbsolutePath(), "compactAssumptions", true, cache);
+            try {
+                String compactKey = Spectrum.getSpectrumKey("file.mgf", "compact spectrum");
+                String legacyKey = Spectrum.getSpectrumKey("file.mgf", "legacy spectrum");
+                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> reference = getAssumptionsMap();
+
+                idDB.addRawAssumptions(compactKey, getAssumptionsMap());
+                String tableName = idDB.getRawAssumptionTable(compactKey);
+                Assert.assertTrue(idDB.getObjectsDB().retrieveObject(tableName, compactKey, true) instanceof CompactAssumptions);
+                compare(reference, idDB.getRawAssumptions(compactKey, true));
+
+                // raw assumptions as stored before the compact representation
+                Assert.assertEquals(tableName, idDB.getRawAssumptionTable(legacyKey));
+                idDB.getObjectsDB().insertObject(tableName, legacyKey, getAssumptionsMap(), false);
+                Assert.assertTrue(idDB.getObjectsDB().retrieveObject(tableName, legacyKey, true) instanceof HashMap);
+                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> legacyAssumptions = idDB.getRawAssumptions(legacyKey, true);
+                compare(reference, legacyAssumptions);
+
+                // updating a legacy row stores it in the compact representation
+                idDB.updateRawAssumptions(legacyKey, legacyAssumptions);
+                Assert.assertTrue(idDB.getObjectsDB().retrieveObject(tableName, legacyKey, true) instanceof CompactAssumptions);
+                compare(reference, idDB.getRawAssumptions(legacyKey, true));
+
+            } finally {
+                idDB.close();
+            }
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Returns a map of assumptions with identical peptides across scores and
+     * advocates, and peptides differing only by their modifications or
+     * proteins.
+     *
+     * @return a map of assumptions
+     */
+    private HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> getAssumptionsMap() {
+
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>();
+
+        addAssumption(assumptionsMap, Advocate.mascot.getIndex(), 0.5, getPeptide("PEPTIDEK", -1, "P1"));
+        addAssumption(assumptionsMap, Advocate.mascot.getIndex(), 0.5, getPeptide("PEPTIDEK", 4, "P1"));
+        addAssumption(assumptionsMap, Advocate.mascot.getIndex(), 0.1, getPeptide("PEPTIDEK", -1, "P1"));
+        addAssumption(assumptionsMap, Advocate.omssa.getIndex(), 0.2, getPeptide("PEPTIDEK", -1, "P1"));
+        addAssumption(assumptionsMap, Advocate.omssa.getIndex(), 0.2, getPeptide("PEPTIDEK", -1, "P2"));
+        addAssumption(assumptionsMap, Advocate.xtandem.getIndex(), 0.3, getPeptide("PEPTIDEK", 4, "P1"));
+        addAssumption(assumptionsMap, Advocate.xtandem.getIndex(), 0.3, getPeptide("PEPTIDEK", 7, "P1"));
+        addAssumption(assumptionsMap, Advocate.xtandem.getIndex(), 0.4, getPeptide("PEPTLDEK", -1, "P1"));
+
+        return assumptionsMap;
+    }
+
+    /**
+     * Adds a peptide assumption to the given map.
+     *
+     * @param assumptionsMap the assumptions map
+     * @param advocate the advocate
+     * @param score the score
+     * @param peptide the peptide
+     */
+    private void addAssumption(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap, int advocate, double score, Peptide peptide) {
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(advocate);
+        if (advocateMap == null) {
+            advocateMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>();
+            assumptionsMap.put(advocate, advocateMap);
+        }
+        ArrayList<SpectrumIdentificationAssumption> assumptions = advocateMap.get(score);
+        if (assumptions == null) {
+            assumptions = new ArrayList<SpectrumIdentificationAssumption>();
+            advocateMap.put(score, assumptions);
+        }
+        assumptions.add(new PeptideAssumption(peptide, assumptions.size() + 1, advocate, new Charge(Charge.PLUS, 2), score, "no file"));
+    }
+
+    /**
+     * Returns a peptide.
+     *
+     * @param sequence the sequence of the peptide
+     * @param modificationSite the site of an oxidation, -1 for none
+     * @param protein the parent protein
+     *
+     * @return a peptide
+     */
+    private Peptide getPeptide(String sequence, int modificationSite, String protein) {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        if (modificationSite != -1) {
+            modificationMatches.add(new ModificationMatch("oxidation of m", true, modificationSite));
+        }
+        Peptide peptide = new Peptide(sequence, modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add(protein);
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+
+    /**
+     * Returns the peptide of the given assumption.
+     *
+     * @param assumptionsMap the assumptions map
+     * @param advocate the advocate
+     * @param score the score
+     * @param index the index of the assumption in the list
+     *
+     * @return the peptide of the given assumption
+     */
+    private Peptide getPeptide(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap, int advocate, double score, int index) {
+        return ((PeptideAssumption) assumptionsMap.get(advocate).get(score).get(index)).getPeptide();
+    }
+
+    /**
+     * Asserts that two assumptions maps contain the same assumptions in the
+     * same order.
+     *
+     * @param expected the expected assumptions
+     * @param actual the actual assumptions
+     */
+    private void compare(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> expected, HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Integer advocate : expected.keySet()) {
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> expectedAdvocateMap = expected.get(advocate);
+            HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> actualAdvocateMap = actual.get(advocate);
+            Assert.assertEquals(expectedAdvocateMap.keySet(), actualAdvocateMap.keySet());
+            for (Double score : expectedAdvocateMap.keySet()) {
+                ArrayList<SpectrumIdentificationAssumption> expectedAssumptions = expectedAdvocateMap.get(score);
+                ArrayList<SpectrumIdentificationAssumption> actualAssumptions = actualAdvocateMap.get(score);
+                Assert.assertEquals(expectedAssumptions.size(), actualAssumptions.size());
+                for (int i = 0; i < expectedAssumptions.size(); i++) {
+                    PeptideAssumption expectedAssumption = (PeptideAssumption) expectedAssumptions.get(i);
+                    PeptideAssumption actualAssumption = (PeptideAssumption) actualAssumptions.get(i);
+                    Assert.assertEquals(expectedAssumption.getAdvocate(), actualAssumption.getAdvocate());
+                    Assert.assertEquals(expectedAssumption.getRank(), actualAssumption.getRank());
+                    Assert.assertEquals(expectedAssumption.getScore(), actualAssumption.getScore());
+                    Assert.assertEquals(expectedAssumption.getIdentificationCharge().value, actualAssumption.getIdentificationCharge().value);
+                    Peptide expectedPeptide = expectedAssumption.getPeptide();
+                    Peptide actualPeptide = actualAssumption.getPeptide();
+                    Assert.assertEquals(expectedPeptide.getKey(), actualPeptide.getKey());
+                    Assert.assertEquals(expectedPeptide.getParentProteinsNoRemapping(), actualPeptide.getParentProteinsNoRemapping());
+                    Assert.assertEquals(expectedPeptide.getNModifications(), actualPeptide.getNModifications());
+                    for (int j = 0; j < expectedPeptide.getNModifications(); j++) {
+                        Assert.assertEquals(expectedPeptide.getModificationMatches().get(j).getModificationSite(), actualPeptide.getModificationMatches().get(j).getModificationSite());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
 import com.compomics.util.experiment.identification.IdentificationDB;
+import com.compomics.util.experiment.identification.ImportCheckpoint;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
@@ -21,6 +22,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import junit.framework.TestCase;
 
 /**
@@ -118,4 +120,72 @@ public class IdentificationDBTest extends TestCase {
             Util.deleteDir(dbFolder);
         }
     }
+
+    public void testIncrementalImport() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        String path = this.getClass().getResource("IdentificationDBTest.class").getPath();
+        path = path.substring(1, path.indexOf("/target/"));
+        path += "/src/test/resources/experiment/testImportDB";
+        try {
+            String spectrumKey1 = "spectrum_file_cus_spectrum_title_1";
+            String spectrumKey2 = "spectrum_file_cus_spectrum_title_2";
+            String fileName = "search_results.dat";
+
+            ObjectsCache cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(0);
+            IdentificationDB idDB = new IdentificationDB(path, "testImport", true, cache);
+            try {
+                idDB.beginTransaction();
+                idDB.addSpectrumMatch(new SpectrumMatch(spectrumKey1));
+                idDB.setImportCheckpoint(new ImportCheckpoint(fileName, 1024, spectrumKey1, 1, false), null);
+                idDB.addSpectrumMatch(new SpectrumMatch(spectrumKey2));
+                Assert.assertNotNull(idDB.getSpectrumMatch(spectrumKey2, true));
+            } finally {
+                // interrupted import, the second match is not committed
+                idDB.close();
+            }
+
+            cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(0);
+            idDB = new IdentificationDB(path, "testImport", false, cache);
+            try {
+                HashMap<String, HashSet<String>> spectrumKeys = idDB.restoreTables();
+                Assert.assertEquals(1, spectrumKeys.size());
+                HashSet<String> fileKeys = spectrumKeys.get("spectrum_file");
+                Assert.assertEquals(1, fileKeys.size());
+                Assert.assertTrue(fileKeys.contains(spectrumKey1));
+
+                ImportCheckpoint importCheckpoint = idDB.getImportCheckpoint(fileName);
+                Assert.assertEquals(1024, importCheckpoint.getByteOffset());
+                Assert.assertEquals(spectrumKey1, importCheckpoint.getLastSpectrumKey());
+                Assert.assertFalse(importCheckpoint.isComplete());
+                Assert.assertNull(idDB.getImportCheckpoint("other_file.dat"));
+                Assert.assertNotNull(idDB.getSpectrumMatch(spectrumKey1, true));
+                Assert.assertNull(idDB.getSpectrumMatch(spectrumKey2, true));
+
+                idDB.beginTransaction();
+                idDB.addSpectrumMatch(new SpectrumMatch(spectrumKey2));
+                idDB.setImportCheckpoint(new ImportCheckpoint(fileName, 2048, spectrumKey2, 2, true), null);
+                idDB.endTransaction(null);
+                Assert.assertTrue(idDB.getImportCheckpoint(fileName).isComplete());
+            } finally {
+                idDB.close();
+            }
+
+            cache = new ObjectsCache();
+            idDB = new IdentificationDB(path, "testImport", false, cache);
+            try {
+                Assert.assertEquals(2, idDB.restoreTables().get("spectrum_file").size());
+                Assert.assertNotNull(idDB.getSpectrumMatch(spectrumKey2, true));
+            } finally {
+                idDB.close();
+            }
+        } finally {
+            File dbFolder = new File(path);
+            DerbyUtil.closeConnection();
+            Util.deleteDir(dbFolder);
+        }
+    }
 }
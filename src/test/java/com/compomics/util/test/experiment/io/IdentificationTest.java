@@ -0,0 +1,383 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.DerbyUtil;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the creation of the peptide and protein matches of an
+ * identification.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationTest extends TestCase {
+
+    /**
+     * The amino acids used to draw random peptides.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Tests that building the peptides and proteins in parallel gives the
+     * same matches as the serial method.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testParallelBuildPeptidesAndProteins() throws Exception {
+
+        File folder = File.createTempFile("identification", "");
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+            Identification serialIdentification = getIdentification(new File(folder, "serial"), "serial", 0);
+            Identification parallelIdentification = getIdentification(new File(folder, "parallel"), "parallel", 0);
+            try {
+                serialIdentification.buildPeptidesAndProteins((WaitingHandler) null, sequenceMatchingPreferences);
+                parallelIdentification.buildPeptidesAndProteins(null, sequenceMatchingPreferences, 4);
+
+                Assert.assertTrue(!serialIdentification.getPeptideIdentification().isEmpty());
+                Assert.assertEquals(serialIdentification.getPeptideIdentification(), parallelIdentification.getPeptideIdentification());
+                Assert.assertEquals(serialIdentification.getProteinIdentification(), parallelIdentification.getProteinIdentification());
+                Assert.assertEquals(serialIdentification.getProteinMap(), parallelIdentification.getProteinMap());
+
+                for (String peptideKey : serialIdentification.getPeptideIdentification()) {
+                    PeptideMatch serialMatch = serialIdentification.getPeptideMatch(peptideKey);
+                    PeptideMatch parallelMatch = parallelIdentification.getPeptideMatch(peptideKey);
+                    Assert.assertNotNull(parallelMatch);
+                    Assert.assertEquals(serialMatch.getTheoreticPeptide().getSequence(), parallelMatch.getTheoreticPeptide().getSequence());
+                    ArrayList<String> serialKeys = new ArrayList<String>(serialMatch.getSpectrumMatchesKeys());
+                    Collections.sort(serialKeys);
+                    ArrayList<String> parallelKeys = new ArrayList<String>(parallelMatch.getSpectrumMatchesKeys());
+                    Collections.sort(parallelKeys);
+                    Assert.assertEquals(serialKeys, parallelKeys);
+                }
+
+                for (String proteinKey : serialIdentification.getProteinIdentification()) {
+                    ProteinMatch serialMatch = serialIdentification.getProteinMatch(proteinKey);
+                    ProteinMatch parallelMatch = parallelIdentification.getProteinMatch(proteinKey);
+                    Assert.assertNotNull(parallelMatch);
+                    Assert.assertEquals(serialMatch.getTheoreticProteinsAccessions(), parallelMatch.getTheoreticProteinsAccessions());
+                    Assert.assertEquals(new HashSet<String>(serialMatch.getPeptideMatchesKeys()), new HashSet<String>(parallelMatch.getPeptideMatchesKeys()));
+                    Assert.assertEquals(serialMatch.getPeptideMatchesKeys().size(), parallelMatch.getPeptideMatchesKeys().size());
+                }
+            } finally {
+                serialIdentification.close();
+                parallelIdentification.close();
+            }
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the iterators loading the matches in the background return
+     * the same matches as the serial retrieval, when consumed by one or
+     * several threads.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMatchesIterators() throws Exception {
+
+        File folder = File.createTempFile("identification", "");
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            final Identification identification = getIdentification(new File(folder, "iterators"), "iterators", 500);
+            try {
+                identification.buildPeptidesAndProteins((WaitingHandler) null, SequenceMatchingPreferences.getDefaultSequenceMatching());
+
+                ArrayList<String> spectrumKeys = new ArrayList<String>();
+                for (String spectrumFile : identification.getOrderedSpectrumFileNames()) {
+                    spectrumKeys.addAll(identification.getSpectrumIdentification(spectrumFile));
+                }
+                ArrayList<String> peptideKeys = new ArrayList<String>(identification.getPeptideIdentification());
+                ArrayList<String> proteinKeys = new ArrayList<String>(identification.getProteinIdentification());
+
+                // one consumer, the matches are returned in the order of the keys
+                PsmIterator psmIterator = new PsmIterator(spectrumKeys, identification, true, null);
+                psmIterator.setBatchSize(37);
+                psmIterator.setBatchesInFlight(3);
+                for (String spectrumKey : spectrumKeys) {
+                    SpectrumMatch spectrumMatch = psmIterator.next();
+                    Assert.assertNotNull(spectrumMatch);
+                    Assert.assertEquals(spectrumKey, spectrumMatch.getKey());
+                    Assert.assertEquals(getBestSequence(identification.getSpectrumMatch(spectrumKey)), getBestSequence(spectrumMatch));
+                }
+                Assert.assertNull(psmIterator.next());
+                Assert.assertEquals(spectrumKeys.size(), psmIterator.getNMatchesReturned());
+
+                PeptideMatchesIterator peptideMatchesIterator = new PeptideMatchesIterator(peptideKeys, identification, null, true, null, null);
+                peptideMatchesIterator.setBatchSize(7);
+                for (String peptideKey : peptideKeys) {
+                    PeptideMatch peptideMatch = peptideMatchesIterator.next();
+                    Assert.assertNotNull(peptideMatch);
+                    Assert.assertEquals(peptideKey, peptideMatch.getKey());
+                    Assert.assertEquals(identification.getPeptideMatch(peptideKey).getSpectrumMatchesKeys(), peptideMatch.getSpectrumMatchesKeys());
+                }
+                Assert.assertNull(peptideMatchesIterator.next());
+
+                ProteinMatchesIterator proteinMatchesIterator = new ProteinMatchesIterator(proteinKeys, identification, null, true, null, true, null, null);
+                proteinMatchesIterator.setBatchSize(5);
+                for (String proteinKey : proteinKeys) {
+                    ProteinMatch proteinMatch = proteinMatchesIterator.next();
+                    Assert.assertNotNull(proteinMatch);
+                    Assert.assertEquals(proteinKey, proteinMatch.getKey());
+                    Assert.assertEquals(identification.getProteinMatch(proteinKey).getPeptideMatchesKeys(), proteinMatch.getPeptideMatchesKeys());
+                }
+                Assert.assertNull(proteinMatchesIterator.next());
+
+                // several consumers, every match is returned once
+                final PsmIterator sharedIterator = new PsmIterator(spectrumKeys, identification, false, null);
+                sharedIterator.setBatchSize(23);
+                final ArrayList<String> returnedKeys = new ArrayList<String>();
+                ExecutorService pool = Executors.newFixedThreadPool(4);
+                ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+                for (int i = 0; i < 4; i++) {
+                    futures.add(pool.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            SpectrumMatch spectrumMatch;
+                            while ((spectrumMatch = sharedIterator.next()) != null) {
+                                if (!spectrumMatch.getKey().equals(identification.getSpectrumMatch(spectrumMatch.getKey()).getKey())) {
+                                    throw new IllegalArgumentException("Wrong match returned for " + spectrumMatch.getKey() + ".");
+                                }
+                                synchronized (returnedKeys) {
+                                    returnedKeys.add(spectrumMatch.getKey());
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                pool.shutdown();
+                for (Future<Object> future : futures) {
+                    future.get();
+                }
+                Collections.sort(returnedKeys);
+                ArrayList<String> sortedKeys = new ArrayList<String>(spectrumKeys);
+                Collections.sort(sortedKeys);
+                Assert.assertEquals(sortedKeys, returnedKeys);
+            } finally {
+                identification.close();
+            }
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the split iterators cover the same matches as a single
+     * iterator, when the splits are processed sequentially or by a thread
+     * pool.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSplitIterators() throws Exception {
+
+        File folder = File.createTempFile("identification", "");
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            Identification identification = getIdentification(new File(folder, "splits"), "splits", 500);
+            try {
+                identification.buildPeptidesAndProteins((WaitingHandler) null, SequenceMatchingPreferences.getDefaultSequenceMatching());
+                int nFiles = identification.getOrderedSpectrumFileNames().size();
+
+                ArrayList<String> spectrumKeys = new ArrayList<String>();
+                PsmIterator psmIterator = new PsmIterator(identification, false, null);
+                SpectrumMatch spectrumMatch;
+                while ((spectrumMatch = psmIterator.next()) != null) {
+                    spectrumKeys.add(spectrumMatch.getKey());
+                }
+                ArrayList<String> peptideKeys = new ArrayList<String>();
+                PeptideMatchesIterator peptideMatchesIterator = new PeptideMatchesIterator(identification, null, false, null, null);
+                PeptideMatch peptideMatch;
+                while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+                    peptideKeys.add(peptideMatch.getKey());
+                }
+                ArrayList<String> proteinKeys = new ArrayList<String>();
+                ProteinMatchesIterator proteinMatchesIterator = new ProteinMatchesIterator(identification, null, false, null, false, null, null);
+                ProteinMatch proteinMatch;
+                while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+                    proteinKeys.add(proteinMatch.getKey());
+                }
+
+                for (int nSplits : new int[]{1, 7, 5000}) {
+
+                    // sequential processing, the splits follow the order of the single iterator
+                    ArrayList<PsmIterator> psmIterators = identification.getPsmIterators(nSplits, null, false, null);
+                    Assert.assertTrue(psmIterators.size() <= Math.min(nSplits, spectrumKeys.size()) + nFiles);
+                    ArrayList<String> splitKeys = new ArrayList<String>();
+                    for (PsmIterator iterator : psmIterators) {
+                        while ((spectrumMatch = iterator.next()) != null) {
+                            splitKeys.add(spectrumMatch.getKey());
+                        }
+                    }
+                    Assert.assertEquals(spectrumKeys, splitKeys);
+
+                    ArrayList<PeptideMatchesIterator> peptideMatchesIterators = identification.getPeptideMatchesIterators(nSplits, null, true, null, null);
+                    Assert.assertTrue(peptideMatchesIterators.size() <= nSplits);
+                    splitKeys.clear();
+                    for (PeptideMatchesIterator iterator : peptideMatchesIterators) {
+                        while ((peptideMatch = iterator.next()) != null) {
+                            splitKeys.add(peptideMatch.getKey());
+                        }
+                    }
+                    Assert.assertEquals(peptideKeys, splitKeys);
+
+                    ArrayList<ProteinMatchesIterator> proteinMatchesIterators = identification.getProteinMatchesIterators(nSplits, null, true, null, true, null, null);
+                    Assert.assertTrue(proteinMatchesIterators.size() <= nSplits);
+                    splitKeys.clear();
+                    for (ProteinMatchesIterator iterator : proteinMatchesIterators) {
+                        while ((proteinMatch = iterator.next()) != null) {
+                            splitKeys.add(proteinMatch.getKey());
+                        }
+                    }
+                    Assert.assertEquals(proteinKeys, splitKeys);
+
+                    // parallel processing, every match is returned once
+                    final ArrayList<String> returnedKeys = new ArrayList<String>();
+                    ExecutorService pool = Executors.newFixedThreadPool(3);
+                    ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+                    for (final PsmIterator iterator : identification.getPsmIterators(nSplits, null, true, null)) {
+                        futures.add(pool.submit(new Callable<Object>() {
+                            @Override
+                            public Object call() throws Exception {
+                                SpectrumMatch spectrumMatch;
+                                while ((spectrumMatch = iterator.next()) != null) {
+                                    synchronized (returnedKeys) {
+                                        returnedKeys.add(spectrumMatch.getKey());
+                                    }
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    pool.shutdown();
+                    for (Future<Object> future : futures) {
+                        future.get();
+                    }
+                    Collections.sort(returnedKeys);
+                    ArrayList<String> sortedKeys = new ArrayList<String>(spectrumKeys);
+                    Collections.sort(sortedKeys);
+                    Assert.assertEquals(sortedKeys, returnedKeys);
+                }
+            } finally {
+                identification.close();
+            }
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Returns the sequence of the best peptide assumption of the given
+     * spectrum match, null if none.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @return the sequence of the best peptide assumption
+     */
+    private String getBestSequence(SpectrumMatch spectrumMatch) {
+        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+        return peptideAssumption == null ? null : peptideAssumption.getPeptide().getSequence();
+    }
+
+    /**
+     * Returns an identification populated with random spectrum matches. The
+     * same matches are returned at every call.
+     *
+     * @param dbFolder the folder where to store the database
+     * @param reference the reference of the identification
+     * @param cacheSize the size of the cache in number of objects
+     *
+     * @return an identification populated with random spectrum matches
+     *
+     * @throws SQLException if an SQLException occurs
+     * @throws IOException if an IOException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    private Identification getIdentification(File dbFolder, String reference, int cacheSize) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(cacheSize);
+        Identification identification = new Ms2Identification(reference);
+        identification.establishConnection(dbFolder.getAbsolutePath(), true, objectsCache);
+
+        Random random = new Random(9);
+
+        ArrayList<String> sequences = new ArrayList<String>();
+        ArrayList<ArrayList<String>> proteins = new ArrayList<ArrayList<String>>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder sequence = new StringBuilder();
+            int length = 7 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+            }
+            sequences.add(sequence.toString());
+            ArrayList<String> accessions = new ArrayList<String>();
+            int nProteins = 1 + random.nextInt(3);
+            for (int j = 0; j < nProteins; j++) {
+                String accession = "P" + random.nextInt(15);
+                if (!accessions.contains(accession)) {
+                    accessions.add(accession);
+                }
+            }
+            proteins.add(accessions);
+        }
+
+        for (int i = 0; i < 1200; i++) {
+            String spectrumKey = Spectrum.getSpectrumKey("file" + (i % 3) + ".mgf", "spectrum " + i);
+            SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+            if (i % 50 != 0) {
+                int index = random.nextInt(sequences.size());
+                Peptide peptide = new Peptide(sequences.get(index), new ArrayList<ModificationMatch>());
+                peptide.setParentProteins(new ArrayList<String>(proteins.get(index)));
+                PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), random.nextDouble(), "no file");
+                spectrumMatch.addHit(Advocate.mascot.getIndex(), peptideAssumption, false);
+                spectrumMatch.setBestPeptideAssumption(peptideAssumption);
+            }
+            identification.addSpectrumMatch(spectrumMatch);
+        }
+
+        return identification;
+    }
+}
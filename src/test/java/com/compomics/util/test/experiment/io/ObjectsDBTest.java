@@ -0,0 +1,219 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.DerbyUtil;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the storage of objects in the database.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsDBTest extends TestCase {
+
+    /**
+     * The name of the table used for the test.
+     */
+    private static final String TABLE_NAME = "test_table";
+
+    /**
+     * Tests the insertion, update and reloading of objects with short keys
+     * and with keys too long for the database.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testLongKeys() throws Exception {
+
+        File folder = File.createTempFile("objectsDB", "");
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            StringBuilder longPrefix = new StringBuilder(ObjectsDB.MAX_KEY_LENGTH);
+            for (int i = 0; i < ObjectsDB.MAX_KEY_LENGTH; i++) {
+                longPrefix.append('A');
+            }
+            ArrayList<String> keys = new ArrayList<String>();
+            for (int i = 0; i < 50; i++) {
+                keys.add("key_" + i);
+                keys.add(longPrefix + "_" + i);
+            }
+
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "objectsTest", true, getCache());
+            try {
+                objectsDB.addTable(TABLE_NAME);
+
+                // insert all keys in batch but the last two
+                HashMap<String, Object> objects = new HashMap<String, Object>();
+                for (int i = 0; i < keys.size() - 2; i++) {
+                    objects.put(keys.get(i), "first " + i);
+                }
+                objectsDB.insertObjects(TABLE_NAME, objects, null);
+                objectsDB.insertObject(TABLE_NAME, keys.get(keys.size() - 2), "first " + (keys.size() - 2), false);
+                objectsDB.insertObject(TABLE_NAME, keys.get(keys.size() - 1), "first " + (keys.size() - 1), false);
+                checkContent(objectsDB, keys, "first ");
+
+                // update all keys, in batch and one by one
+                objects.clear();
+                for (int i = 0; i < keys.size(); i += 2) {
+                    objects.put(keys.get(i), "second " + i);
+                    objects.put(keys.get(i + 1), "second " + (i + 1));
+                }
+                objectsDB.insertObjects(TABLE_NAME, objects, null);
+                checkContent(objectsDB, keys, "second ");
+                for (int i = 0; i < keys.size(); i++) {
+                    objectsDB.updateObject(TABLE_NAME, keys.get(i), "third " + i, false);
+                }
+                checkContent(objectsDB, keys, "third ");
+            } finally {
+                objectsDB.close();
+            }
+
+            // reload with a new instance
+            objectsDB = new ObjectsDB(folder.getAbsolutePath(), "objectsTest", false, getCache());
+            try {
+                checkContent(objectsDB, keys, "third ");
+                String newKey = longPrefix + "_new";
+                objectsDB.insertObject(TABLE_NAME, newKey, "new", false);
+                Assert.assertEquals("new", objectsDB.retrieveObject(TABLE_NAME, newKey, true, false));
+                Assert.assertEquals("third 1", objectsDB.retrieveObject(TABLE_NAME, keys.get(1), true, false));
+            } finally {
+                objectsDB.close();
+            }
+
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests the storage of all keys as numeric ids with a dictionary saved
+     * upon every commit of a transaction, and the reloading of the database.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testNumericKeys() throws Exception {
+
+        File folder = File.createTempFile("objectsDB", "");
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            StringBuilder longPrefix = new StringBuilder(ObjectsDB.MAX_KEY_LENGTH);
+            for (int i = 0; i < ObjectsDB.MAX_KEY_LENGTH; i++) {
+                longPrefix.append('A');
+            }
+            ArrayList<String> keys = new ArrayList<String>();
+            for (int i = 0; i < 50; i++) {
+                keys.add("key_" + i);
+                keys.add(longPrefix + "_" + i);
+            }
+
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "objectsTest", true, getCache());
+            try {
+                objectsDB.setNumericKeys(true);
+                objectsDB.addTable(TABLE_NAME);
+                objectsDB.beginTransaction();
+
+                // insert half of the keys, commit, and insert the rest over several commits
+                HashMap<String, Object> objects = new HashMap<String, Object>();
+                for (int i = 0; i < keys.size() / 2; i++) {
+                    objects.put(keys.get(i), "first " + i);
+                }
+                objectsDB.insertObjects(TABLE_NAME, objects, null);
+                objectsDB.commitTransaction();
+                for (int i = keys.size() / 2; i < keys.size(); i++) {
+                    objectsDB.insertObject(TABLE_NAME, keys.get(i), "first " + i, false);
+                    if (i % 10 == 0) {
+                        objectsDB.commitTransaction();
+                    }
+                }
+                objectsDB.endTransaction();
+                checkContent(objectsDB, keys, "first ");
+
+                // the keys are not saved with the other attributes
+                Assert.assertTrue(objectsDB.hasTable(ObjectsDB.NUMERIC_KEYS_TABLE));
+                HashMap<String, ArrayList<String>> longKeysMap = (HashMap<String, ArrayList<String>>) objectsDB.retrieveObject(ObjectsDB.DB_ATTRIBUTES, ObjectsDB.LONG_KEY_PREFIX, true, false);
+                Assert.assertNull(longKeysMap.get(TABLE_NAME));
+
+                for (int i = 0; i < keys.size(); i++) {
+                    objectsDB.updateObject(TABLE_NAME, keys.get(i), "second " + i, false);
+                }
+                checkContent(objectsDB, keys, "second ");
+
+                try {
+                    objectsDB.setNumericKeys(false);
+                    fail("The key space was changed after objects were stored.");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            } finally {
+                objectsDB.close();
+            }
+
+            // reload with a new instance
+            objectsDB = new ObjectsDB(folder.getAbsolutePath(), "objectsTest", false, getCache());
+            try {
+                Assert.assertTrue(objectsDB.isNumericKeys());
+                checkContent(objectsDB, keys, "second ");
+                objectsDB.insertObject(TABLE_NAME, "new", "new", false);
+                Assert.assertEquals("new", objectsDB.retrieveObject(TABLE_NAME, "new", true, false));
+            } finally {
+                objectsDB.close();
+            }
+
+            // the key added after reloading is saved along with the previous ones
+            objectsDB = new ObjectsDB(folder.getAbsolutePath(), "objectsTest", false, getCache());
+            try {
+                keys.add("new");
+                Assert.assertEquals(new HashSet<String>(keys), objectsDB.getTableContent(TABLE_NAME));
+                Assert.assertEquals("new", objectsDB.retrieveObject(TABLE_NAME, "new", true, false));
+            } finally {
+                objectsDB.close();
+            }
+
+        } finally {
+            DerbyUtil.closeConnection();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Verifies that the table contains the given keys only, with the values
+     * made of the given prefix and the index of the key.
+     *
+     * @param objectsDB the database
+     * @param keys the keys
+     * @param prefix the prefix of the values
+     *
+     * @throws Exception if an exception occurs
+     */
+    private void checkContent(ObjectsDB objectsDB, ArrayList<String> keys, String prefix) throws Exception {
+        Assert.assertEquals(new HashSet<String>(keys), objectsDB.getTableContent(TABLE_NAME));
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            Assert.assertTrue(objectsDB.inDB(TABLE_NAME, key, false));
+            Assert.assertEquals(prefix + i, objectsDB.retrieveObject(TABLE_NAME, key, true, false));
+        }
+    }
+
+    /**
+     * Returns a cache which does not keep any object.
+     *
+     * @return a cache which does not keep any object
+     */
+    private ObjectsCache getCache() {
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(0);
+        return objectsCache;
+    }
+}
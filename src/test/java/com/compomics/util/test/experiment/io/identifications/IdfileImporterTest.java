@@ -0,0 +1,137 @@
+package com.compomics.util.test.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.io.identifications.IdfileImporter;
+import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.IdfileReaderFactory;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the import of identification files.
+ *
+ * @author Marc Vaudel
+ */
+public class IdfileImporterTest extends TestCase {
+
+    /**
+     * Extension of the files whose parsing fails.
+     */
+    private static final String FAILING_EXTENSION = ".failingImportTest";
+    /**
+     * Extension of the files whose parsing never ends.
+     */
+    private static final String BLOCKING_EXTENSION = ".blockingImportTest";
+
+    /**
+     * Tests that the import stops as soon as the parsing of a file fails,
+     * while the parsing of another file is still running.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testParsingError() throws Exception {
+
+        IdfileReaderFactory.registerIdFileReader(TestReader.class, FAILING_EXTENSION);
+        IdfileReaderFactory.registerIdFileReader(TestReader.class, BLOCKING_EXTENSION);
+
+        File blockingFile = File.createTempFile("importTest", BLOCKING_EXTENSION);
+        blockingFile.deleteOnExit();
+        File failingFile = File.createTempFile("importTest", FAILING_EXTENSION);
+        failingFile.deleteOnExit();
+
+        final ArrayList<File> idFiles = new ArrayList<File>();
+        idFiles.add(blockingFile);
+        idFiles.add(failingFile);
+
+        final IdfileImporter idfileImporter = new IdfileImporter(new Ms2Identification("importTest"), 2, 10, 10);
+        final Exception[] error = new Exception[1];
+        Thread importThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    idfileImporter.importFiles(idFiles, new SearchParameters(), null, false, null);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        });
+        importThread.setDaemon(true);
+        importThread.start();
+        importThread.join(60000);
+
+        Assert.assertFalse(importThread.isAlive());
+        Assert.assertTrue(error[0] instanceof IOException);
+        Assert.assertEquals(TestReader.ERROR_MESSAGE, error[0].getMessage());
+    }
+
+    /**
+     * Reader failing for the files with the failing extension and waiting
+     * until interrupted for the others.
+     */
+    public static class TestReader implements IdfileReader {
+
+        /**
+         * The message of the exception thrown by the failing files.
+         */
+        public static final String ERROR_MESSAGE = "Corrupted test file.";
+        /**
+         * The file to parse.
+         */
+        private final File idFile;
+
+        /**
+         * Constructor.
+         *
+         * @param idFile the file to parse
+         */
+        public TestReader(File idFile) {
+            this.idFile = idFile;
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters)
+                throws IOException, InterruptedException {
+            return getAllSpectrumMatches(waitingHandler, searchParameters, null, false);
+        }
+
+        @Override
+        public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+                SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations) throws IOException, InterruptedException {
+            if (idFile.getName().endsWith(FAILING_EXTENSION)) {
+                throw new IOException(ERROR_MESSAGE);
+            }
+            while (true) {
+                Thread.sleep(1000);
+            }
+        }
+
+        @Override
+        public String getExtension() {
+            return idFile.getName().endsWith(FAILING_EXTENSION) ? FAILING_EXTENSION : BLOCKING_EXTENSION;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Does nothing.
+        }
+
+        @Override
+        public HashMap<String, ArrayList<String>> getSoftwareVersions() {
+            return null;
+        }
+
+        @Override
+        public boolean hasDeNovoTags() {
+            return false;
+        }
+    }
+}
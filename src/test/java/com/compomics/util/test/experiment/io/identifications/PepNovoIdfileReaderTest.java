@@ -1,10 +1,20 @@
 package com.compomics.util.test.experiment.io.identifications;
 
 import com.compomics.util.experiment.io.identifications.idfilereaders.PepNovoIdfileReader;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchIterator;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
 import java.io.File;
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import javax.xml.bind.JAXBException;
+import org.xmlpull.v1.XmlPullParserException;
 import junit.framework.TestCase;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,4 +42,66 @@ public class PepNovoIdfileReaderTest extends TestCase {
             }
         }
     }
+
+    @Test
+    public void testSpectrumMatchIterator() throws Exception {
+        LinkedList<SpectrumMatch> allSpectrumMatches = idfileReader.getAllSpectrumMatches(null, null);
+        SpectrumMatchIterator spectrumMatchIterator = new SpectrumMatchIterator(idfileReader, null, null, null, false, 2);
+        for (SpectrumMatch sm : allSpectrumMatches) {
+            assertTrue(spectrumMatchIterator.hasNext());
+            SpectrumMatch streamedMatch = spectrumMatchIterator.getNextSpectrumMatch();
+            assertEquals(sm.getKey(), streamedMatch.getKey());
+            assertEquals(sm.getAllAssumptions().size(), streamedMatch.getAllAssumptions().size());
+        }
+        assertFalse(spectrumMatchIterator.hasNext());
+        assertNull(spectrumMatchIterator.getNextSpectrumMatch());
+    }
+
+    @Test
+    public void testSpectrumMatchIteratorListReader() throws Exception {
+        LinkedList<SpectrumMatch> allSpectrumMatches = idfileReader.getAllSpectrumMatches(null, null);
+        IdfileReader listReader = new IdfileReader() {
+
+            @Override
+            public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters)
+                    throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+                return idfileReader.getAllSpectrumMatches(waitingHandler, searchParameters);
+            }
+
+            @Override
+            public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+                    SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
+                    throws IOException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+                return idfileReader.getAllSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations);
+            }
+
+            @Override
+            public String getExtension() {
+                return idfileReader.getExtension();
+            }
+
+            @Override
+            public void close() throws IOException {
+                idfileReader.close();
+            }
+
+            @Override
+            public HashMap<String, ArrayList<String>> getSoftwareVersions() {
+                return idfileReader.getSoftwareVersions();
+            }
+
+            @Override
+            public boolean hasDeNovoTags() {
+                return idfileReader.hasDeNovoTags();
+            }
+        };
+        SpectrumMatchIterator spectrumMatchIterator = new SpectrumMatchIterator(listReader, null, null, null, false, 2);
+        for (SpectrumMatch sm : allSpectrumMatches) {
+            assertTrue(spectrumMatchIterator.hasNext());
+            SpectrumMatch streamedMatch = spectrumMatchIterator.getNextSpectrumMatch();
+            assertEquals(sm.getKey(), streamedMatch.getKey());
+            assertEquals(sm.getAllAssumptions().size(), streamedMatch.getAllAssumptions().size());
+        }
+        assertFalse(spectrumMatchIterator.hasNext());
+    }
 }
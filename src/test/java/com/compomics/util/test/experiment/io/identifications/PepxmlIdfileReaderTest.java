@@ -0,0 +1,115 @@
+package com.compomics.util.test.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchCollector;
+import com.compomics.util.experiment.io.identifications.idfilereaders.PepxmlIdfileReader;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test class for the PepxmlIdfileReader.
+ *
+ * @author Marc Vaudel
+ */
+public class PepxmlIdfileReaderTest extends TestCase {
+
+    /**
+     * Tests that the spectrum queries of a spectrum separated by queries of
+     * other spectra are merged without duplicate peptides.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testSeparatedQueries() throws Exception {
+
+        File pepxmlFile = File.createTempFile("separatedQueries", ".pep.xml");
+        pepxmlFile.deleteOnExit();
+        FileWriter writer = new FileWriter(pepxmlFile);
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<msms_pipeline_analysis>\n");
+            writer.write("<msms_run_summary base_name=\"separatedQueries\" raw_data=\".mgf\">\n");
+            writer.write("<search_summary search_engine=\"Comet\" search_engine_version=\"2015.02 rev. 5\">\n");
+            writer.write("</search_summary>\n");
+            writeQuery(writer, 1, "PEPTIDEK", "LESSPEPTIDEK");
+            writeQuery(writer, 2, "AAAAAK");
+            writeQuery(writer, 1, "PEPTIDEK", "PEPTIDER");
+            writer.write("</msms_run_summary>\n");
+            writer.write("</msms_pipeline_analysis>\n");
+        } finally {
+            writer.close();
+        }
+
+        PepxmlIdfileReader idfileReader = new PepxmlIdfileReader(pepxmlFile);
+        LinkedList<SpectrumMatch> spectrumMatches = idfileReader.getAllSpectrumMatches(null, null);
+        Assert.assertEquals(2, spectrumMatches.size());
+        Assert.assertEquals("spectrum 1", Spectrum.getSpectrumTitle(spectrumMatches.get(0).getKey()));
+        Assert.assertEquals("spectrum 2", Spectrum.getSpectrumTitle(spectrumMatches.get(1).getKey()));
+
+        ArrayList<String> sequences = getSequences(spectrumMatches.get(0));
+        ArrayList<String> expected = new ArrayList<String>();
+        expected.add("LESSPEPTIDEK");
+        expected.add("PEPTIDEK");
+        expected.add("PEPTIDER");
+        Assert.assertEquals(expected, sequences);
+
+        // the matches are parsed once
+        Assert.assertSame(spectrumMatches, idfileReader.getAllSpectrumMatches(null, null));
+        idfileReader.close();
+
+        // streaming hands over the separated queries in several matches which merge into the same result
+        idfileReader = new PepxmlIdfileReader(pepxmlFile);
+        SpectrumMatchCollector spectrumMatchCollector = new SpectrumMatchCollector();
+        idfileReader.parseSpectrumMatches(null, null, null, true, spectrumMatchCollector);
+        LinkedList<SpectrumMatch> streamedMatches = spectrumMatchCollector.getSpectrumMatches();
+        Assert.assertEquals(2, streamedMatches.size());
+        Assert.assertEquals(spectrumMatches.get(0).getKey(), streamedMatches.get(0).getKey());
+        Assert.assertEquals(expected, getSequences(streamedMatches.get(0)));
+        idfileReader.close();
+    }
+
+    /**
+     * Writes a spectrum query with the given peptides as search hits.
+     *
+     * @param writer the writer
+     * @param index the index of the spectrum
+     * @param sequences the sequences of the peptides
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static void writeQuery(FileWriter writer, int index, String... sequences) throws Exception {
+        writer.write("<spectrum_query spectrum=\"separatedQueries." + index + "." + index + ".2\" spectrumNativeID=\"spectrum " + index + "\" index=\"" + index + "\" assumed_charge=\"2\">\n");
+        writer.write("<search_result>\n");
+        for (int i = 0; i < sequences.length; i++) {
+            writer.write("<search_hit hit_rank=\"" + (i + 1) + "\" peptide=\"" + sequences[i] + "\">\n");
+            writer.write("<search_score name=\"expect\" value=\"0.0" + (i + 1) + "\"/>\n");
+            writer.write("</search_hit>\n");
+        }
+        writer.write("</search_result>\n");
+        writer.write("</spectrum_query>\n");
+    }
+
+    /**
+     * Returns the sorted sequences of the peptide assumptions of a spectrum
+     * match.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @return the sorted sequences of the peptide assumptions
+     */
+    private static ArrayList<String> getSequences(SpectrumMatch spectrumMatch) {
+        ArrayList<String> sequences = new ArrayList<String>();
+        for (SpectrumIdentificationAssumption assumption : spectrumMatch.getAllAssumptions()) {
+            sequences.add(((PeptideAssumption) assumption).getPeptide().getSequence());
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+}
@@ -0,0 +1,228 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.SimpleNoiseDistribution;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.experiment.massspectrometry.SpectrumIntensityStatistics;
+import com.compomics.util.math.BasicMathFunctions;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the statistics on the peak intensities of the spectra and their
+ * storage in the mgf index.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumIntensityStatisticsTest extends TestCase {
+
+    /**
+     * The intensity fractions tested, including fractions between whole
+     * percents.
+     */
+    private static final double[] FRACTIONS = {0.0, 0.01, 0.123, 0.145, 0.5, 0.75, 0.8765, 0.999, 1.0};
+
+    /**
+     * Tests the intensity limits of a known spectrum.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testKnownSpectrum() throws Exception {
+
+        HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+        peakList.put(150.0, new Peak(150.0, 5000.0));
+        double[] intensities = {64, 2, 1000, 8, 1, 32, 4, 16};
+        for (int i = 0; i < intensities.length; i++) {
+            double mz = 250.0 + 100 * i;
+            peakList.put(mz, new Peak(mz, intensities[i]));
+        }
+        Spectrum spectrum = getSpectrum(peakList);
+
+        // the peak below 200 m/z is not used, 0.145 falls between 2 and 4
+        Assert.assertEquals(2.03, spectrum.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, 0.145), 1e-10);
+        Assert.assertEquals(1.01, spectrum.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, 0.01 / 7), 1e-10);
+        Assert.assertEquals(12.0, spectrum.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, 0.5), 1e-10);
+        Assert.assertEquals(5000.0, spectrum.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, 1.0), 1e-10);
+        Assert.assertEquals(0.0, spectrum.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, 0.0), 1e-10);
+        compareToBaseline(spectrum.getIntensityStatistics(), peakList);
+
+        // no peak above 200 m/z
+        peakList = new HashMap<Double, Peak>();
+        peakList.put(150.0, new Peak(150.0, 5000.0));
+        spectrum = getSpectrum(peakList);
+        Assert.assertEquals(0.0, spectrum.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, 0.5), 1e-10);
+    }
+
+    /**
+     * Tests the intensity limits of random spectra against the computation of
+     * the limits from the peak list.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testRandomSpectra() throws Exception {
+        Random random = new Random(26);
+        for (int i = 0; i < 50; i++) {
+            HashMap<Double, Peak> peakList = getRandomPeakList(random, 1 + random.nextInt(500));
+            compareToBaseline(new SpectrumIntensityStatistics(peakList), peakList);
+        }
+    }
+
+    /**
+     * Tests that the statistics computed when loading the spectra are saved
+     * in the mgf index and loaded in later sessions.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMgfIndex() throws Exception {
+
+        File folder = File.createTempFile("intensityStatistics", "");
+        folder.delete();
+        folder.mkdir();
+        File mgfFile = new File(folder, "intensityStatistics.mgf");
+        File indexFile = new File(folder, SpectrumFactory.getIndexName(mgfFile.getName()));
+        int nSpectra = 5;
+
+        Random random = new Random(260);
+        ArrayList<HashMap<Double, Peak>> peakLists = new ArrayList<HashMap<Double, Peak>>(nSpectra);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(mgfFile));
+        try {
+            for (int i = 0; i < nSpectra; i++) {
+                HashMap<Double, Peak> peakList = getRandomPeakList(random, 50 + random.nextInt(200));
+                peakLists.add(peakList);
+                writer.write("BEGIN IONS\nTITLE=spectrum " + i + "\nPEPMASS=800.4\nCHARGE=2+\n");
+                for (Peak peak : peakList.values()) {
+                    writer.write(peak.mz + " " + peak.intensity + "\n");
+                }
+                writer.write("END IONS\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        try {
+            spectrumFactory.addSpectra(mgfFile, null);
+            Assert.assertNull(spectrumFactory.getIndex(indexFile).getIntensityStatistics("spectrum 0"));
+
+            spectrumFactory.setComputeIntensityStatistics(true);
+            for (int i = 0; i < nSpectra; i++) {
+                spectrumFactory.getSpectrum(mgfFile.getName(), "spectrum " + i, false);
+            }
+            spectrumFactory.writeIndexes();
+
+            MgfIndex mgfIndex = spectrumFactory.getIndex(indexFile);
+            for (int i = 0; i < nSpectra; i++) {
+                SpectrumIntensityStatistics intensityStatistics = mgfIndex.getIntensityStatistics("spectrum " + i);
+                Assert.assertNotNull(intensityStatistics);
+                compareToBaseline(intensityStatistics, peakLists.get(i));
+            }
+
+            // a new session loads the statistics from the index
+            spectrumFactory.clearFactory();
+            spectrumFactory.setComputeIntensityStatistics(false);
+            spectrumFactory.addSpectra(mgfFile, null);
+            for (int i = 0; i < nSpectra; i++) {
+                Spectrum spectrum = spectrumFactory.getSpectrum(mgfFile.getName(), "spectrum " + i, false);
+                Assert.assertEquals(peakLists.get(i).size(), spectrum.getIntensityStatistics().getNPeaks());
+                compareToBaseline(spectrum.getIntensityStatistics(), peakLists.get(i));
+            }
+
+        } finally {
+            spectrumFactory.setComputeIntensityStatistics(false);
+            spectrumFactory.closeFiles();
+            spectrumFactory.clearFactory();
+            indexFile.delete();
+            mgfFile.delete();
+            folder.delete();
+        }
+    }
+
+    /**
+     * Compares the intensity limits of the given statistics to the limits
+     * computed from the peak list as done before the statistics were stored.
+     *
+     * @param intensityStatistics the statistics on the peak intensities
+     * @param peakList the peak list
+     *
+     * @throws Exception if an exception occurs
+     */
+    private void compareToBaseline(SpectrumIntensityStatistics intensityStatistics, HashMap<Double, Peak> peakList) throws Exception {
+
+        ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
+        double maxIntensity = 0.0;
+        for (Peak peak : peakList.values()) {
+            if (peak.mz > 200) {
+                intensities.add(peak.intensity);
+            }
+            maxIntensity = Math.max(maxIntensity, peak.intensity);
+        }
+        SimpleNoiseDistribution noiseDistribution = new SimpleNoiseDistribution(peakList);
+
+        for (double fraction : FRACTIONS) {
+
+            double expected;
+            if (fraction == 0) {
+                expected = 0.0;
+            } else if (fraction == 1.0) {
+                expected = maxIntensity;
+            } else if (intensities.isEmpty()) {
+                expected = 0.0;
+            } else {
+                expected = BasicMathFunctions.percentile(intensities, fraction);
+            }
+            Assert.assertEquals(expected, intensityStatistics.getIntensityLimit(AnnotationSettings.IntensityThresholdType.percentile, fraction), 0.0);
+
+            if (fraction == 0) {
+                expected = 0.0;
+            } else if (fraction == 1.0) {
+                expected = maxIntensity;
+            } else {
+                expected = noiseDistribution.getIntensityAtP(1 - fraction);
+            }
+            Assert.assertEquals(expected, intensityStatistics.getIntensityLimit(AnnotationSettings.IntensityThresholdType.snp, fraction), 1e-9 * expected);
+        }
+    }
+
+    /**
+     * Returns a random peak list.
+     *
+     * @param random the random number generator
+     * @param nPeaks the number of peaks
+     *
+     * @return a random peak list
+     */
+    private HashMap<Double, Peak> getRandomPeakList(Random random, int nPeaks) {
+        HashMap<Double, Peak> peakList = new HashMap<Double, Peak>(nPeaks);
+        while (peakList.size() < nPeaks) {
+            double mz = Math.round((100 + 1400 * random.nextDouble()) * 10000) / 10000.0;
+            double intensity = Math.round(Math.pow(10, 1 + 5 * random.nextDouble()) * 100) / 100.0;
+            peakList.put(mz, new Peak(mz, intensity));
+        }
+        return peakList;
+    }
+
+    /**
+     * Returns a spectrum with the given peaks.
+     *
+     * @param peakList the peak list
+     *
+     * @return a spectrum
+     */
+    private Spectrum getSpectrum(HashMap<Double, Peak> peakList) {
+        ArrayList<Charge> charges = new ArrayList<Charge>();
+        charges.add(new Charge(Charge.PLUS, 2));
+        return new MSnSpectrum(2, new Precursor(0.0, 800.4, charges), "spectrum", peakList, "file.mgf");
+    }
+}
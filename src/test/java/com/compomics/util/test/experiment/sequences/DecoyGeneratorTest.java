@@ -0,0 +1,227 @@
+package com.compomics.util.test.experiment.sequences;
+
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.AccessionIndex;
+import com.compomics.util.experiment.identification.protein_sequences.DecoyGenerator;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.protein.Header;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the streaming generation of target/decoy databases against
+ * the serial generation.
+ *
+ * @author Marc Vaudel
+ */
+public class DecoyGeneratorTest extends TestCase {
+
+    /**
+     * The number of target proteins, more than a batch of the generator.
+     */
+    private static final int N_TARGET = 1500;
+
+    /**
+     * Compares the reversed target/decoy database and its index to the
+     * database written serially and to a new index of the file.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testReversed() throws Exception {
+
+        File fastaFile = SequenceFactoryTest.writeFasta(N_TARGET, 3, false);
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(fastaFile, null);
+        String expected = writeSerially(sequenceFactory);
+
+        File destinationFile = getDestinationFile(fastaFile, "concatenated");
+        DecoyGenerator decoyGenerator = new DecoyGenerator(DecoyGenerator.DecoyType.reversed, null, 0, 3);
+        FastaIndex fastaIndex = decoyGenerator.generate(fastaFile, destinationFile, null);
+        Assert.assertEquals(expected, readFile(destinationFile));
+
+        Assert.assertEquals(2 * N_TARGET, fastaIndex.getNSequences());
+        Assert.assertEquals(N_TARGET, fastaIndex.getNTarget());
+        Assert.assertTrue(fastaIndex.isDefaultReversed());
+        FastaIndex newIndex = SequenceFactory.getFastaIndex(destinationFile, true, null);
+        Assert.assertEquals(newIndex.getIndexes(), fastaIndex.getIndexes());
+        Assert.assertEquals(newIndex.getDecoyAccesions(), fastaIndex.getDecoyAccesions());
+        Assert.assertEquals(newIndex.getNTarget(), fastaIndex.getNTarget());
+        Assert.assertTrue(Arrays.equals(newIndex.getResidueCounts(), fastaIndex.getResidueCounts()));
+    }
+
+    /**
+     * Tests that shuffled decoys are reproducible permutations of the
+     * targets.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testShuffled() throws Exception {
+
+        File fastaFile = SequenceFactoryTest.writeFasta(N_TARGET, 4, false);
+        File destinationFile = getDestinationFile(fastaFile, "shuffled");
+        DecoyGenerator decoyGenerator = new DecoyGenerator(DecoyGenerator.DecoyType.shuffled, null, 42, 3);
+        decoyGenerator.generate(fastaFile, destinationFile, null);
+
+        File secondFile = getDestinationFile(fastaFile, "shuffled2");
+        new DecoyGenerator(DecoyGenerator.DecoyType.shuffled, null, 42, 1).generate(fastaFile, secondFile, null);
+        Assert.assertEquals(readFile(destinationFile), readFile(secondFile));
+
+        HashMap<String, String> sequences = readSequences(destinationFile);
+        Assert.assertEquals(2 * N_TARGET, sequences.size());
+        int nDifferent = 0;
+        for (String accession : sequences.keySet()) {
+            if (!accession.endsWith("_SHUFFLED")) {
+                String decoySequence = sequences.get(decoyGenerator.getDecoyAccession(accession));
+                Assert.assertNotNull(decoySequence);
+                Assert.assertEquals(decoyGenerator.getDecoySequence(accession, sequences.get(accession)), decoySequence);
+                char[] targetResidues = sequences.get(accession).toCharArray();
+                char[] decoyResidues = decoySequence.toCharArray();
+                Arrays.sort(targetResidues);
+                Arrays.sort(decoyResidues);
+                Assert.assertTrue(Arrays.equals(targetResidues, decoyResidues));
+                if (!decoySequence.equals(sequences.get(accession))) {
+                    nDifferent++;
+                }
+            }
+        }
+        Assert.assertEquals(N_TARGET, nDifferent);
+    }
+
+    /**
+     * Tests that pseudo-reversed decoys keep the cleavage sites of the enzyme
+     * in place and reverse the residues in between.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testPseudoReversed() throws Exception {
+
+        Enzyme trypsin = DigestionPreferences.getDefaultPreferences().getEnzymes().get(0);
+        DecoyGenerator decoyGenerator = new DecoyGenerator(DecoyGenerator.DecoyType.pseudoReversed, trypsin, 0, 1);
+        // no cleavage before a proline
+        Assert.assertEquals("EDCBAKOMLNQPRIHGFR", decoyGenerator.getDecoySequence("P1", "ABCDEKFGHIRPQNLMOR"));
+
+        File fastaFile = SequenceFactoryTest.writeFasta(N_TARGET, 5, false);
+        File destinationFile = getDestinationFile(fastaFile, "pseudoReversed");
+        new DecoyGenerator(DecoyGenerator.DecoyType.pseudoReversed, trypsin, 0, 3).generate(fastaFile, destinationFile, null);
+
+        HashMap<String, String> sequences = readSequences(destinationFile);
+        Assert.assertEquals(2 * N_TARGET, sequences.size());
+        for (String accession : sequences.keySet()) {
+            if (!accession.endsWith("_DECOY")) {
+                String targetSequence = sequences.get(accession);
+                String decoySequence = sequences.get(decoyGenerator.getDecoyAccession(accession));
+                Assert.assertEquals(targetSequence.length(), decoySequence.length());
+                for (int i = 0; i < targetSequence.length(); i++) {
+                    char aa = targetSequence.charAt(i);
+                    if ((aa == 'K' || aa == 'R') && (i == targetSequence.length() - 1 || targetSequence.charAt(i + 1) != 'P')) {
+                        Assert.assertEquals(aa, decoySequence.charAt(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the target/decoy database of the loaded FASTA file one protein
+     * at a time as done before the streaming generator.
+     *
+     * @param sequenceFactory the sequence factory
+     *
+     * @return the content of the target/decoy database
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static String writeSerially(SequenceFactory sequenceFactory) throws Exception {
+
+        StringBuilder result = new StringBuilder();
+        String lineBreak = System.getProperty("line.separator");
+        SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(true);
+        try {
+            while (proteinIterator.hasNext()) {
+                Protein protein = proteinIterator.getNextProtein();
+                String accession = protein.getAccession();
+                Header header = sequenceFactory.getHeader(accession);
+                String decoyHeader = header.getRawHeader().replaceAll(Pattern.quote(accession), SequenceFactory.getDefaultDecoyAccession(accession));
+                decoyHeader = decoyHeader.replaceAll(Pattern.quote(header.getDescription()), SequenceFactory.getDefaultDecoyDescription(header.getDescription()));
+                result.append(header.getRawHeader()).append(lineBreak);
+                result.append(protein.getSequence()).append(lineBreak);
+                result.append(decoyHeader).append(lineBreak);
+                result.append(SequenceFactory.reverseSequence(protein.getSequence())).append(lineBreak);
+            }
+        } finally {
+            proteinIterator.close();
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the sequences of the given FASTA file indexed by accession.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the sequences indexed by accession
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static HashMap<String, String> readSequences(File fastaFile) throws Exception {
+        HashMap<String, String> result = new HashMap<String, String>();
+        SequenceFactory.ProteinIterator proteinIterator = SequenceFactory.getInstance().new ProteinIterator(fastaFile, false);
+        try {
+            while (proteinIterator.hasNext()) {
+                Protein protein = proteinIterator.getNextProtein();
+                result.put(protein.getAccession(), protein.getSequence());
+            }
+        } finally {
+            proteinIterator.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns a destination file next to the given FASTA file, deleted on exit
+     * with its indexes.
+     *
+     * @param fastaFile the FASTA file
+     * @param suffix the suffix of the destination file
+     *
+     * @return the destination file
+     */
+    private static File getDestinationFile(File fastaFile, String suffix) {
+        File destinationFile = new File(fastaFile.getParentFile(), "randomSequences_" + suffix + ".fasta");
+        destinationFile.deleteOnExit();
+        new File(fastaFile.getParentFile(), SequenceFactory.getIndexName(destinationFile.getName())).deleteOnExit();
+        new File(fastaFile.getParentFile(), AccessionIndex.getIndexName(destinationFile.getName())).deleteOnExit();
+        return destinationFile;
+    }
+
+    /**
+     * Returns the content of the given file, one byte per character.
+     *
+     * @param file the file
+     *
+     * @return the content of the file
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static String readFile(File file) throws Exception {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                offset += inputStream.read(content, offset, content.length - offset);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return new String(content, "ISO-8859-1");
+    }
+}
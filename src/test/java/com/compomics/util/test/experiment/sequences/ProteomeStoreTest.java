@@ -0,0 +1,79 @@
+package com.compomics.util.test.experiment.sequences;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.ProteomeStore;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import java.io.File;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests that the in-memory proteome store contains the proteins
+ * read serially from the FASTA file.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteomeStoreTest extends TestCase {
+
+    /**
+     * Compares the content of the store to the proteins of the FASTA file.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testStore() throws Exception {
+
+        File fastaFile = SequenceFactoryTest.writeFasta(100, 2, true);
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(fastaFile, null);
+
+        ArrayList<Protein> expectedProteins = new ArrayList<Protein>();
+        SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(false);
+        try {
+            while (proteinIterator.hasNext()) {
+                expectedProteins.add(proteinIterator.getNextProtein());
+            }
+        } finally {
+            proteinIterator.close();
+        }
+
+        ProteomeStore proteomeStore = sequenceFactory.loadProteomeStore(null);
+        Assert.assertSame(proteomeStore, sequenceFactory.getProteomeStore());
+        Assert.assertEquals(expectedProteins.size(), proteomeStore.size());
+
+        int nResidues = 0;
+        for (int rank = 0; rank < expectedProteins.size(); rank++) {
+            Protein expectedProtein = expectedProteins.get(rank);
+            String expectedSequence = expectedProtein.getSequence();
+            nResidues += expectedSequence.length();
+            Assert.assertEquals(expectedProtein.getAccession(), proteomeStore.getAccession(rank));
+            Assert.assertEquals(rank, proteomeStore.getRank(expectedProtein.getAccession()));
+            Assert.assertEquals(expectedSequence.length(), proteomeStore.getLength(rank));
+            Assert.assertEquals(expectedSequence, proteomeStore.getSequence(rank).toString());
+            Assert.assertEquals(expectedSequence, proteomeStore.getSequence(expectedProtein.getAccession()).toString());
+            Assert.assertEquals(expectedSequence.substring(5, 20), proteomeStore.getSequence(rank).subSequence(5, 20).toString());
+            Assert.assertEquals(expectedProtein.isDecoy(), proteomeStore.isDecoy(rank));
+            Assert.assertEquals(expectedProtein.getDatabaseType(), proteomeStore.getDatabaseType(rank));
+
+            byte[] residues = new byte[expectedSequence.length() + 2];
+            proteomeStore.copyResidues(rank, residues, 1);
+            Assert.assertEquals(expectedSequence, new String(residues, 1, expectedSequence.length(), "ISO-8859-1"));
+        }
+        Assert.assertEquals(nResidues, proteomeStore.getNResidues());
+        Assert.assertEquals(-1, proteomeStore.getRank("P99999"));
+        Assert.assertNull(proteomeStore.getSequence("P99999"));
+
+        // Proteins built from the store are cached by the factory
+        for (Protein expectedProtein : expectedProteins) {
+            String accession = expectedProtein.getAccession();
+            Protein protein = sequenceFactory.getProtein(accession);
+            Assert.assertEquals(expectedProtein.getSequence(), protein.getSequence());
+            Assert.assertEquals(expectedProtein.isDecoy(), protein.isDecoy());
+            Assert.assertSame(protein, sequenceFactory.getProtein(accession));
+            Assert.assertEquals(expectedProtein.getSequence(), sequenceFactory.getSequence(accession).toString());
+        }
+
+        sequenceFactory.clearFactory();
+        Assert.assertNull(sequenceFactory.getProteomeStore());
+    }
+}
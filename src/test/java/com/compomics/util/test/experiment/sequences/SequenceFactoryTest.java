@@ -0,0 +1,172 @@
+package com.compomics.util.test.experiment.sequences;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.AccessionIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.protein.Header;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests that the proteins served concurrently by the sequence
+ * factory are those read serially from the FASTA file.
+ *
+ * @author Marc Vaudel
+ */
+public class SequenceFactoryTest extends TestCase {
+
+    /**
+     * The amino acids used to build random sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Reads random proteins from several threads with a cache smaller than
+     * the database and compares them to the serial reading of the file.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testConcurrentCache() throws Exception {
+
+        File fastaFile = writeFasta(200, 1, true);
+        final SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        int nCache = sequenceFactory.getnCache();
+        sequenceFactory.setnCache(10);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+
+        try {
+            sequenceFactory.loadFastaFile(fastaFile, null);
+            Assert.assertTrue(sequenceFactory.isDefaultReversed());
+
+            final HashMap<String, String> expectedSequences = new HashMap<String, String>();
+            final HashMap<String, String> expectedDescriptions = new HashMap<String, String>();
+            SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(false);
+            try {
+                while (proteinIterator.hasNext()) {
+                    Protein protein = proteinIterator.getNextProtein();
+                    expectedSequences.put(protein.getAccession(), protein.getSequence());
+                }
+            } finally {
+                proteinIterator.close();
+            }
+            SequenceFactory.HeaderIterator headerIterator = sequenceFactory.getHeaderIterator(false);
+            try {
+                while (headerIterator.hasNext()) {
+                    Header header = headerIterator.getNext();
+                    expectedDescriptions.put(header.getAccession(), header.getDescription());
+                }
+            } finally {
+                headerIterator.close();
+            }
+            Assert.assertEquals(400, expectedSequences.size());
+            Assert.assertEquals(400, expectedDescriptions.size());
+
+            final ArrayList<String> accessions = new ArrayList<String>(expectedSequences.keySet());
+            ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                final Random random = new Random(i);
+                futures.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int nChecked = 0;
+                        for (int j = 0; j < 2000; j++) {
+                            String accession = accessions.get(random.nextInt(accessions.size()));
+                            Protein protein = sequenceFactory.getProtein(accession);
+                            Assert.assertEquals(accession, protein.getAccession());
+                            Assert.assertEquals(expectedSequences.get(accession), protein.getSequence());
+                            Assert.assertEquals(expectedDescriptions.get(accession), sequenceFactory.getHeader(accession).getDescription());
+                            nChecked++;
+                        }
+                        return nChecked;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(2000, future.get().intValue());
+            }
+        } finally {
+            pool.shutdownNow();
+            sequenceFactory.setnCache(nCache);
+            sequenceFactory.emptyCache();
+        }
+    }
+
+    /**
+     * Writes a FASTA file of random target proteins, eventually followed by
+     * their reversed decoys.
+     *
+     * @param nTarget the number of target proteins
+     * @param seed the seed of the random generator
+     * @param decoys boolean indicating whether reversed decoys should be
+     * written
+     *
+     * @return the FASTA file, deleted on exit with its indexes
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public static File writeFasta(int nTarget, long seed, boolean decoys) throws Exception {
+
+        File folder = File.createTempFile("sequenceFactory", "");
+        folder.delete();
+        folder.mkdir();
+        folder.deleteOnExit();
+        File fastaFile = new File(folder, "randomSequences.fasta");
+        fastaFile.deleteOnExit();
+        new File(folder, SequenceFactory.getIndexName(fastaFile.getName())).deleteOnExit();
+        new File(folder, AccessionIndex.getIndexName(fastaFile.getName())).deleteOnExit();
+
+        Random random = new Random(seed);
+        ArrayList<String> sequences = new ArrayList<String>(nTarget);
+        for (int i = 0; i < nTarget; i++) {
+            int length = 50 + random.nextInt(500);
+            StringBuilder sequence = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+            }
+            sequences.add(sequence.toString());
+        }
+
+        BufferedWriter writer = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            for (int i = 0; i < nTarget; i++) {
+                writeEntry(writer, String.format("P%05d", i), "Random protein " + i, sequences.get(i));
+            }
+            for (int i = 0; decoys && i < nTarget; i++) {
+                String accession = SequenceFactory.getDefaultDecoyAccession(String.format("P%05d", i));
+                writeEntry(writer, accession, SequenceFactory.getDefaultDecoyDescription("Random protein " + i), SequenceFactory.reverseSequence(sequences.get(i)));
+            }
+        } finally {
+            writer.close();
+        }
+        return fastaFile;
+    }
+
+    /**
+     * Writes a UniProt entry with the sequence on lines of 60 residues.
+     *
+     * @param writer the writer
+     * @param accession the accession of the protein
+     * @param description the description of the protein
+     * @param sequence the sequence of the protein
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static void writeEntry(BufferedWriter writer, String accession, String description, String sequence) throws Exception {
+        writer.write(">sp|" + accession + "|RANDOM_HUMAN " + description + " OS=Homo sapiens");
+        writer.newLine();
+        for (int i = 0; i < sequence.length(); i += 60) {
+            writer.write(sequence, i, Math.min(60, sequence.length() - i));
+            writer.newLine();
+        }
+    }
+}
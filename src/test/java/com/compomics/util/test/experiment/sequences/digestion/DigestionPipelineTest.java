@@ -0,0 +1,230 @@
+package com.compomics.util.test.experiment.sequences.digestion;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.DigestionPipeline;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.DigestionPipeline.BatchIterator;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.DigestionPipeline.PeptideBatch;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the parallel digestion pipeline against the serial
+ * digestion of the proteins.
+ *
+ * @author Marc Vaudel
+ */
+public class DigestionPipelineTest extends TestCase {
+
+    /**
+     * The minimal peptide mass.
+     */
+    private static final double MASS_MIN = 400;
+    /**
+     * The maximal peptide mass.
+     */
+    private static final double MASS_MAX = 4000;
+
+    /**
+     * Tests that the batches contain the peptides of the serial digestion in
+     * the order of the database.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testDigestion() throws Exception {
+
+        loadFasta();
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        ArrayList<PeptideWithProtein> expected = digestSerially(digestionPreferences);
+        Assert.assertTrue(expected.size() > 10);
+
+        DigestionPipeline digestionPipeline = new DigestionPipeline(SequenceFactory.getInstance(), digestionPreferences, new ArrayList<String>(), MASS_MIN, MASS_MAX, 3);
+        digestionPipeline.setBatchSize(2);
+        digestionPipeline.setQueueSize(2);
+        BatchIterator batchIterator = digestionPipeline.digest(null);
+        int index = 0;
+        PeptideBatch peptideBatch;
+        while ((peptideBatch = batchIterator.next()) != null) {
+            for (int i = 0; i < peptideBatch.size(); i++) {
+                PeptideWithProtein expectedPeptide = expected.get(index++);
+                Assert.assertEquals(expectedPeptide.peptide.getKey(), peptideBatch.getPeptide(i).getKey());
+                Assert.assertEquals(expectedPeptide.mass, peptideBatch.getMass(i), 0.0);
+                Assert.assertEquals(expectedPeptide.accession, peptideBatch.getProteinAccession(i));
+                Assert.assertEquals(expectedPeptide.position, peptideBatch.getPosition(i));
+            }
+        }
+        Assert.assertEquals(expected.size(), index);
+    }
+
+    /**
+     * Tests the deduplication and the sorting by mass of the peptides.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testGetPeptides() throws Exception {
+
+        loadFasta();
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        ArrayList<PeptideWithProtein> expected = digestSerially(digestionPreferences);
+
+        DigestionPipeline digestionPipeline = new DigestionPipeline(SequenceFactory.getInstance(), digestionPreferences, new ArrayList<String>(), MASS_MIN, MASS_MAX, 2);
+        digestionPipeline.setBatchSize(3);
+        digestionPipeline.setDeduplicate(true);
+
+        LinkedHashSet<String> expectedKeys = new LinkedHashSet<String>();
+        for (PeptideWithProtein peptideWithProtein : expected) {
+            expectedKeys.add(peptideWithProtein.peptide.getKey());
+        }
+        ArrayList<Peptide> peptides = digestionPipeline.getPeptides(false, null);
+        ArrayList<String> keys = new ArrayList<String>(peptides.size());
+        for (Peptide peptide : peptides) {
+            keys.add(peptide.getKey());
+        }
+        Assert.assertEquals(new ArrayList<String>(expectedKeys), keys);
+
+        // Sorting by mass must keep peptides of equal mass in database order
+        ArrayList<PeptideWithProtein> peptidesWithMass = new ArrayList<PeptideWithProtein>(peptides.size());
+        for (Peptide peptide : peptides) {
+            peptidesWithMass.add(new PeptideWithProtein(peptide, peptide.getMass(), null, 0));
+        }
+        Collections.sort(peptidesWithMass, new Comparator<PeptideWithProtein>() {
+            @Override
+            public int compare(PeptideWithProtein o1, PeptideWithProtein o2) {
+                return Double.compare(o1.mass, o2.mass);
+            }
+        });
+        ArrayList<Peptide> sortedPeptides = digestionPipeline.getPeptides(true, null);
+        Assert.assertEquals(peptidesWithMass.size(), sortedPeptides.size());
+        for (int i = 0; i < peptidesWithMass.size(); i++) {
+            Assert.assertEquals(peptidesWithMass.get(i).peptide.getKey(), sortedPeptides.get(i).getKey());
+        }
+    }
+
+    /**
+     * Tests that an error thrown while reading the database is passed to the
+     * consumer instead of leaving it waiting.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testReadingError() throws Exception {
+
+        File fastaFile = loadFasta();
+        // a sequence without header cannot be parsed by the protein iterator
+        FileWriter writer = new FileWriter(fastaFile);
+        try {
+            writer.write("PEPTIDEKPEPTIDER\n");
+        } finally {
+            writer.close();
+        }
+
+        DigestionPipeline digestionPipeline = new DigestionPipeline(SequenceFactory.getInstance(), DigestionPreferences.getDefaultPreferences(),
+                new ArrayList<String>(), MASS_MIN, MASS_MAX, 2);
+        BatchIterator batchIterator = digestionPipeline.digest(null);
+        try {
+            batchIterator.next();
+            Assert.fail("The reading error was not thrown.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        Assert.assertNull(batchIterator.next());
+    }
+
+    /**
+     * Digests the proteins of the sequence factory in a single thread.
+     *
+     * @param digestionPreferences the digestion preferences
+     *
+     * @return the peptides in the order of the database
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static ArrayList<PeptideWithProtein> digestSerially(DigestionPreferences digestionPreferences) throws Exception {
+        ArrayList<PeptideWithProtein> result = new ArrayList<PeptideWithProtein>();
+        IteratorFactory iteratorFactory = new IteratorFactory(new ArrayList<String>());
+        SequenceFactory.ProteinIterator proteinIterator = SequenceFactory.getInstance().getProteinIterator(false);
+        try {
+            while (proteinIterator.hasNext()) {
+                Protein protein = proteinIterator.getNextProtein();
+                SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(protein.getSequence(), digestionPreferences, MASS_MIN, MASS_MAX);
+                PeptideWithPosition peptideWithPosition;
+                while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+                    Peptide peptide = peptideWithPosition.getPeptide();
+                    result.add(new PeptideWithProtein(peptide, peptide.getMass(), protein.getAccession(), peptideWithPosition.getPosition()));
+                }
+            }
+        } finally {
+            proteinIterator.close();
+        }
+        return result;
+    }
+
+    /**
+     * Loads a copy of the test database in the sequence factory.
+     *
+     * @return the copy of the database
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static File loadFasta() throws Exception {
+        File folder = File.createTempFile("digestionPipeline", "");
+        folder.delete();
+        folder.mkdir();
+        folder.deleteOnExit();
+        File fastaFile = new File(folder, "proteinTreeTestSequences.fasta");
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+        fastaFile.deleteOnExit();
+        new File(folder, fastaFile.getName() + ".cui").deleteOnExit();
+        SequenceFactory.getInstance().loadFastaFile(fastaFile, null);
+        return fastaFile;
+    }
+
+    /**
+     * A peptide digested from a protein.
+     */
+    private static class PeptideWithProtein {
+
+        /**
+         * The peptide.
+         */
+        private final Peptide peptide;
+        /**
+         * The mass of the peptide.
+         */
+        private final double mass;
+        /**
+         * The accession of the protein.
+         */
+        private final String accession;
+        /**
+         * The position of the peptide on the protein.
+         */
+        private final int position;
+
+        /**
+         * Constructor.
+         *
+         * @param peptide the peptide
+         * @param mass the mass of the peptide
+         * @param accession the accession of the protein
+         * @param position the position of the peptide on the protein
+         */
+        private PeptideWithProtein(Peptide peptide, double mass, String accession, int position) {
+            this.peptide = peptide;
+            this.mass = mass;
+            this.accession = accession;
+            this.position = position;
+        }
+    }
+}
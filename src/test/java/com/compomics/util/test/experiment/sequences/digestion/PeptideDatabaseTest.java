@@ -0,0 +1,357 @@
+package com.compomics.util.test.experiment.sequences.digestion;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideDatabase;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests that the peptide database written to disk contains the
+ * peptides of the serial digestion of the proteins.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideDatabaseTest extends TestCase {
+
+    /**
+     * The minimal peptide mass.
+     */
+    private static final double MASS_MIN = 400;
+    /**
+     * The maximal peptide mass.
+     */
+    private static final double MASS_MAX = 4000;
+
+    /**
+     * Writes the database of the test FASTA file, reads it back, and compares
+     * the peptides to the serial digestion.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testWriteRead() throws Exception {
+
+        File folder = getTempFolder();
+        File fastaFile = new File(folder, "proteinTreeTestSequences.fasta");
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+        loadFasta(fastaFile);
+
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        HashMap<String, ExpectedPeptide> expected = digestSerially(digestionPreferences);
+        Assert.assertTrue(expected.size() > 10);
+
+        File databaseFile = new File(folder, "test" + PeptideDatabase.EXTENSION);
+        databaseFile.deleteOnExit();
+        Assert.assertTrue(PeptideDatabase.writePeptideDatabase(databaseFile, SequenceFactory.getInstance(), digestionPreferences, new ArrayList<String>(), MASS_MIN, MASS_MAX, 3, null));
+
+        PeptideDatabase peptideDatabase = new PeptideDatabase(databaseFile);
+        try {
+            checkDatabase(peptideDatabase, expected);
+            String settingsKey = PeptideDatabase.getSettingsKey(digestionPreferences, new ArrayList<String>(), MASS_MIN, MASS_MAX);
+            Assert.assertTrue(peptideDatabase.isValid(fastaFile, settingsKey));
+            String otherSettingsKey = PeptideDatabase.getSettingsKey(digestionPreferences, new ArrayList<String>(), MASS_MIN, 2 * MASS_MAX);
+            Assert.assertFalse(peptideDatabase.isValid(fastaFile, otherSettingsKey));
+
+            // The peptides in a mass range are those of the serial digestion in this range
+            double rangeMin = 1000;
+            double rangeMax = 2000;
+            int expectedCount = 0;
+            for (ExpectedPeptide expectedPeptide : expected.values()) {
+                if (expectedPeptide.mass >= rangeMin && expectedPeptide.mass <= rangeMax) {
+                    expectedCount++;
+                }
+            }
+            int count = 0;
+            PeptideDatabase.PeptideIterator peptideIterator = peptideDatabase.getPeptides(rangeMin, rangeMax);
+            while (peptideIterator.next()) {
+                double mass = peptideIterator.getMass();
+                Assert.assertTrue(mass >= rangeMin && mass <= rangeMax);
+                count++;
+            }
+            Assert.assertEquals(expectedCount, count);
+        } finally {
+            peptideDatabase.close();
+        }
+
+        // An up to date database is reopened as it is
+        long lastModified = databaseFile.lastModified();
+        peptideDatabase = PeptideDatabase.getPeptideDatabase(databaseFile, SequenceFactory.getInstance(), digestionPreferences, new ArrayList<String>(), MASS_MIN, MASS_MAX, 2, null);
+        try {
+            Assert.assertEquals(lastModified, databaseFile.lastModified());
+            checkDatabase(peptideDatabase, expected);
+        } finally {
+            peptideDatabase.close();
+        }
+    }
+
+    /**
+     * Tests that peptides with residues which cannot be stored are skipped
+     * instead of aborting the build.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testUnsupportedResidues() throws Exception {
+
+        File folder = getTempFolder();
+        File fastaFile = new File(folder, "unsupportedResidues.fasta");
+        FileWriter writer = new FileWriter(fastaFile);
+        try {
+            writer.write(">sp|P00001|TEST1_HUMAN Test protein 1" + System.getProperty("line.separator"));
+            writer.write("MTEVLDSHPAGRAGSTWNQLKAVNDESTPLYR" + System.getProperty("line.separator"));
+            // the last sequence of a FASTA file is not validated when indexing
+            writer.write(">sp|P00002|TEST2_HUMAN Test protein 2" + System.getProperty("line.separator"));
+            writer.write("MLSEQVDGTPAHGKAGDNASPRWNLLTEGHAVYNKPQESSRfedcbaGSTWNQLK" + System.getProperty("line.separator"));
+        } finally {
+            writer.close();
+        }
+        loadFasta(fastaFile);
+
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        File databaseFile = new File(folder, "unsupportedResidues" + PeptideDatabase.EXTENSION);
+        databaseFile.deleteOnExit();
+        Assert.assertTrue(PeptideDatabase.writePeptideDatabase(databaseFile, SequenceFactory.getInstance(), digestionPreferences, new ArrayList<String>(), 0, MASS_MAX, 2, null));
+
+        PeptideDatabase peptideDatabase = new PeptideDatabase(databaseFile);
+        try {
+            Assert.assertTrue(peptideDatabase.getnPeptides() > 0);
+            boolean found = false;
+            for (int i = 0; i < peptideDatabase.getnPeptides(); i++) {
+                String sequence = peptideDatabase.getSequence(i);
+                for (int j = 0; j < sequence.length(); j++) {
+                    char aa = sequence.charAt(j);
+                    Assert.assertTrue(aa >= 'A' && aa <= 'Z');
+                }
+                if (sequence.equals("WNLLTEGHAVYNKPQESSR")) {
+                    found = true;
+                }
+            }
+            Assert.assertTrue(found);
+        } finally {
+            peptideDatabase.close();
+        }
+    }
+
+    /**
+     * Tests that variable modifications targeting the same amino acid are not
+     * placed on more residues than the peptide contains, and that the variants
+     * are those of an exhaustive enumeration.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testSharedModificationSites() throws Exception {
+
+        File folder = getTempFolder();
+        File fastaFile = new File(folder, "sharedSites.fasta");
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+        loadFasta(fastaFile);
+
+        DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+        File databaseFile = new File(folder, "sharedSites" + PeptideDatabase.EXTENSION);
+        databaseFile.deleteOnExit();
+        Assert.assertTrue(PeptideDatabase.writePeptideDatabase(databaseFile, SequenceFactory.getInstance(), digestionPreferences, new ArrayList<String>(), MASS_MIN, MASS_MAX, 2, null));
+
+        ArrayList<String> variableModifications = new ArrayList<String>(3);
+        variableModifications.add("Acetylation of K");
+        variableModifications.add("Dimethylation of K");
+        variableModifications.add("Phosphorylation of S");
+        PTMFactory ptmFactory = PTMFactory.getInstance();
+        double acetylation = ptmFactory.getPTM("Acetylation of K").getMass();
+        double dimethylation = ptmFactory.getPTM("Dimethylation of K").getMass();
+        double phosphorylation = ptmFactory.getPTM("Phosphorylation of S").getMass();
+        int maxModifications = 3;
+
+        PeptideDatabase peptideDatabase = new PeptideDatabase(databaseFile);
+        try {
+            HashSet<String> variants = new HashSet<String>();
+            boolean shared = false;
+            PeptideDatabase.PeptideIterator peptideIterator = peptideDatabase.getPeptides(MASS_MIN, MASS_MAX, variableModifications, maxModifications);
+            while (peptideIterator.next()) {
+                String sequence = peptideDatabase.getSequence(peptideIterator.getPeptideId());
+                int nK = count(sequence, 'K');
+                int nAcetylation = peptideIterator.getVariableModificationCount(0);
+                int nDimethylation = peptideIterator.getVariableModificationCount(1);
+                Assert.assertEquals(nK, peptideIterator.getVariableModificationSites(0));
+                Assert.assertEquals(nK, peptideIterator.getVariableModificationSites(1));
+                Assert.assertTrue(nAcetylation + nDimethylation <= nK);
+                shared = shared || nAcetylation > 0 && nDimethylation > 0;
+                String key = peptideIterator.getPeptideId() + "_" + nAcetylation + "_" + nDimethylation + "_" + peptideIterator.getVariableModificationCount(2);
+                Assert.assertTrue(variants.add(key));
+            }
+            Assert.assertTrue(shared);
+
+            HashSet<String> expected = new HashSet<String>();
+            for (int i = 0; i < peptideDatabase.getnPeptides(); i++) {
+                String sequence = peptideDatabase.getSequence(i);
+                int nK = count(sequence, 'K');
+                int nS = count(sequence, 'S');
+                for (int a = 0; a <= nK; a++) {
+                    for (int d = 0; a + d <= nK; d++) {
+                        for (int p = 0; p <= nS && a + d + p <= maxModifications; p++) {
+                            double mass = peptideDatabase.getMass(i) + a * acetylation + d * dimethylation + p * phosphorylation;
+                            if (mass >= MASS_MIN && mass <= MASS_MAX) {
+                                expected.add(i + "_" + a + "_" + d + "_" + p);
+                            }
+                        }
+                    }
+                }
+            }
+            Assert.assertEquals(expected, variants);
+        } finally {
+            peptideDatabase.close();
+        }
+    }
+
+    /**
+     * Returns the number of occurrences of an amino acid in a sequence.
+     *
+     * @param sequence the sequence
+     * @param aa the amino acid
+     *
+     * @return the number of occurrences of the amino acid
+     */
+    private static int count(String sequence, char aa) {
+        int result = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            if (sequence.charAt(i) == aa) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Verifies that the database contains the expected peptides.
+     *
+     * @param peptideDatabase the peptide database
+     * @param expected the expected peptides indexed by sequence
+     */
+    private static void checkDatabase(PeptideDatabase peptideDatabase, HashMap<String, ExpectedPeptide> expected) {
+        Assert.assertEquals(expected.size(), peptideDatabase.getnPeptides());
+        double previousMass = 0;
+        for (int i = 0; i < peptideDatabase.getnPeptides(); i++) {
+            String sequence = peptideDatabase.getSequence(i);
+            ExpectedPeptide expectedPeptide = expected.get(sequence);
+            Assert.assertNotNull(expectedPeptide);
+            double mass = peptideDatabase.getMass(i);
+            Assert.assertEquals(expectedPeptide.mass, mass, 0.0);
+            Assert.assertTrue(mass >= previousMass);
+            previousMass = mass;
+            Peptide peptide = peptideDatabase.getPeptide(i);
+            Assert.assertEquals(sequence, peptide.getSequence());
+            HashMap<String, ArrayList<Integer>> proteinMapping = peptideDatabase.getProteinMapping(i);
+            for (ArrayList<Integer> positions : proteinMapping.values()) {
+                Collections.sort(positions);
+            }
+            Assert.assertEquals(expectedPeptide.proteinMapping, proteinMapping);
+        }
+    }
+
+    /**
+     * Digests the proteins of the sequence factory in a single thread.
+     *
+     * @param digestionPreferences the digestion preferences
+     *
+     * @return the peptides indexed by sequence
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static HashMap<String, ExpectedPeptide> digestSerially(DigestionPreferences digestionPreferences) throws Exception {
+        HashMap<String, ExpectedPeptide> result = new HashMap<String, ExpectedPeptide>();
+        IteratorFactory iteratorFactory = new IteratorFactory(new ArrayList<String>());
+        SequenceFactory.ProteinIterator proteinIterator = SequenceFactory.getInstance().getProteinIterator(false);
+        try {
+            while (proteinIterator.hasNext()) {
+                Protein protein = proteinIterator.getNextProtein();
+                SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(protein.getSequence(), digestionPreferences, MASS_MIN, MASS_MAX);
+                PeptideWithPosition peptideWithPosition;
+                while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+                    Peptide peptide = peptideWithPosition.getPeptide();
+                    ExpectedPeptide expectedPeptide = result.get(peptide.getSequence());
+                    if (expectedPeptide == null) {
+                        expectedPeptide = new ExpectedPeptide(peptide.getMass());
+                        result.put(peptide.getSequence(), expectedPeptide);
+                    }
+                    ArrayList<Integer> positions = expectedPeptide.proteinMapping.get(protein.getAccession());
+                    if (positions == null) {
+                        positions = new ArrayList<Integer>(1);
+                        expectedPeptide.proteinMapping.put(protein.getAccession(), positions);
+                    }
+                    positions.add(peptideWithPosition.getPosition());
+                }
+            }
+        } finally {
+            proteinIterator.close();
+        }
+        for (ExpectedPeptide expectedPeptide : result.values()) {
+            for (ArrayList<Integer> positions : expectedPeptide.proteinMapping.values()) {
+                Collections.sort(positions);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new temporary folder deleted on exit.
+     *
+     * @return a new temporary folder
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static File getTempFolder() throws Exception {
+        File folder = File.createTempFile("peptideDatabase", "");
+        folder.delete();
+        folder.mkdir();
+        folder.deleteOnExit();
+        return folder;
+    }
+
+    /**
+     * Loads the given FASTA file in the sequence factory.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static void loadFasta(File fastaFile) throws Exception {
+        fastaFile.deleteOnExit();
+        new File(fastaFile.getParentFile(), fastaFile.getName() + ".cui").deleteOnExit();
+        SequenceFactory.getInstance().loadFastaFile(fastaFile, null);
+    }
+
+    /**
+     * The expected properties of a peptide.
+     */
+    private static class ExpectedPeptide {
+
+        /**
+         * The mass of the peptide.
+         */
+        private final double mass;
+        /**
+         * The positions of the peptide on the proteins.
+         */
+        private final HashMap<String, ArrayList<Integer>> proteinMapping = new HashMap<String, ArrayList<Integer>>(1);
+
+        /**
+         * Constructor.
+         *
+         * @param mass the mass of the peptide
+         */
+        private ExpectedPeptide(double mass) {
+            this.mass = mass;
+        }
+    }
+}
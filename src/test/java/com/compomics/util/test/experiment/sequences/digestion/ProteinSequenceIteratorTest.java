@@ -1,12 +1,21 @@
 package com.compomics.util.test.experiment.sequences.digestion;
 
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.EnzymeFactory;
 import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
 import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.iterators.PrefixMassIterator;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.iterators.SpecificSingleEnzymeIterator;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.iterators.UnspecificIterator;
 import com.compomics.util.preferences.DigestionPreferences;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import org.xmlpull.v1.XmlPullParserException;
@@ -271,4 +280,142 @@ public class ProteinSequenceIteratorTest extends TestCase {
 //        
 //        
     }
+
+    public void testPrefixMassDigestion() throws XmlPullParserException, IOException, InterruptedException {
+
+        ProteinIteratorUtils proteinIteratorUtils = new ProteinIteratorUtils(new ArrayList<String>(), 2);
+        Enzyme trypsin = DigestionPreferences.getDefaultPreferences().getEnzymes().get(0);
+        String testSequence = "TESTKCTESCTKTEST";
+
+        // Tryptic
+        SequenceIterator sequenceIterator = new PrefixMassIterator(proteinIteratorUtils, testSequence, trypsin, DigestionPreferences.Specificity.specific, 2, 0.0, Double.MAX_VALUE);
+        Assert.assertEquals(6, countPeptides(sequenceIterator));
+
+        // Semi-tryptic N
+        sequenceIterator = new PrefixMassIterator(proteinIteratorUtils, testSequence, trypsin, DigestionPreferences.Specificity.specificNTermOnly, 2, 0.0, Double.MAX_VALUE);
+        Assert.assertEquals(31, countPeptides(sequenceIterator));
+
+        // Semi-tryptic C
+        sequenceIterator = new PrefixMassIterator(proteinIteratorUtils, testSequence, trypsin, DigestionPreferences.Specificity.specificCTermOnly, 2, 0.0, Double.MAX_VALUE);
+        Assert.assertEquals(33, countPeptides(sequenceIterator));
+
+        // Semi-tryptic
+        sequenceIterator = new PrefixMassIterator(proteinIteratorUtils, testSequence, trypsin, DigestionPreferences.Specificity.semiSpecific, 2, 0.0, Double.MAX_VALUE);
+        Assert.assertEquals(58, countPeptides(sequenceIterator));
+
+        // Unspecific
+        sequenceIterator = new PrefixMassIterator(proteinIteratorUtils, testSequence, 667.0, 668.0);
+        Assert.assertEquals(8, countPeptides(sequenceIterator));
+    }
+
+    /**
+     * Tests that the prefix mass iterator returns the same peptides as the
+     * specific and unspecific iterators, with the same sequence, start index
+     * and modifications, for different enzymes, missed cleavages and fixed
+     * modifications. The unspecific peptides are returned in the same order.
+     * The enzymatic peptides are returned by start index while the specific
+     * iterator returns them by end index, they are compared after sorting.
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public void testPrefixMassEquivalence() throws InterruptedException {
+
+        String[][] fixedModificationSets = {
+            {},
+            {"Carbamidomethylation of C", "Oxidation of M"},
+            {"Acetylation of protein N-term", "Amidation of the protein C-term", "Carbamidomethylation of C"},
+            {"TMT 6-plex of peptide N-term", "TMT 6-plex of K", "18O(2) of peptide C-term"},
+            {"Pyrolidone from Q", "Homoserine of peptide C-term M"}};
+        String[] enzymeNames = {"Trypsin", "Trypsin (no P rule)", "Lys-C", "Asp-N", "Glu-C", "Chymotrypsin", "CNBr"};
+        EnzymeFactory enzymeFactory = EnzymeFactory.getInstance();
+
+        Random random = new Random(33);
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        ArrayList<String> sequences = new ArrayList<String>();
+        sequences.add("TESTKCTESCTKTEST");
+        sequences.add("KRPKKPRRMQDEKRP");
+        for (int i = 0; i < 20; i++) {
+            int length = 1 + random.nextInt(400);
+            StringBuilder sequence = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+            }
+            sequences.add(sequence.toString());
+        }
+
+        for (String[] fixedModificationSet : fixedModificationSets) {
+
+            ArrayList<String> fixedModifications = new ArrayList<String>();
+            for (String fixedModification : fixedModificationSet) {
+                fixedModifications.add(fixedModification);
+            }
+            ProteinIteratorUtils proteinIteratorUtils = new ProteinIteratorUtils(fixedModifications, 2);
+            Assert.assertFalse(proteinIteratorUtils.hasModificationPatterns());
+
+            for (String sequence : sequences) {
+
+                for (String enzymeName : enzymeNames) {
+                    Enzyme enzyme = enzymeFactory.getEnzyme(enzymeName);
+                    for (int nMissedCleavages = 0; nMissedCleavages <= 3; nMissedCleavages++) {
+                        ArrayList<String> expected = getPeptides(new SpecificSingleEnzymeIterator(proteinIteratorUtils, sequence, enzyme, nMissedCleavages, 400.0, 4000.0));
+                        ArrayList<String> actual = getPeptides(new PrefixMassIterator(proteinIteratorUtils, sequence, enzyme, DigestionPreferences.Specificity.specific, nMissedCleavages, 400.0, 4000.0));
+                        Collections.sort(expected);
+                        Collections.sort(actual);
+                        Assert.assertEquals(expected, actual);
+                    }
+                }
+
+                if (sequence.length() <= 150) {
+                    ArrayList<String> expected = getPeptides(new UnspecificIterator(proteinIteratorUtils, sequence, 500.0, 1500.0));
+                    ArrayList<String> actual = getPeptides(new PrefixMassIterator(proteinIteratorUtils, sequence, 500.0, 1500.0));
+                    Assert.assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the peptides returned by the given iterator as strings
+     * containing the sequence, the start index and the modifications in the
+     * order of the iterator.
+     *
+     * @param sequenceIterator the sequence iterator
+     *
+     * @return the peptides returned by the given iterator
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private ArrayList<String> getPeptides(SequenceIterator sequenceIterator) throws InterruptedException {
+        ArrayList<String> peptides = new ArrayList<String>();
+        PeptideWithPosition peptideWithPosition;
+        while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+            Peptide peptide = peptideWithPosition.getPeptide();
+            StringBuilder description = new StringBuilder();
+            description.append(peptide.getSequence()).append('@').append(peptideWithPosition.getPosition());
+            if (peptide.getModificationMatches() != null) {
+                for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                    description.append(' ').append(modificationMatch.getTheoreticPtm()).append('@').append(modificationMatch.getModificationSite());
+                }
+            }
+            peptides.add(description.toString());
+        }
+        return peptides;
+    }
+
+    /**
+     * Returns the number of peptides returned by the given iterator.
+     *
+     * @param sequenceIterator the sequence iterator
+     *
+     * @return the number of peptides returned by the given iterator
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    private int countPeptides(SequenceIterator sequenceIterator) throws InterruptedException {
+        int count = 0;
+        while (sequenceIterator.getNextPeptide() != null) {
+            count++;
+        }
+        return count;
+    }
 }
@@ -80,6 +80,8 @@ public class FMIndexTest extends TestCase {
         PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
 
         FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+        // the sequences loaded for the construction of the index are not kept in memory
+        Assert.assertNull(sequenceFactory.getProteomeStore());
 
         SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
         sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
@@ -467,6 +469,69 @@ public class FMIndexTest extends TestCase {
     
     
 
+    /**
+     * Tests that the insertions found while mapping with variants do not
+     * exceed the limit of X in the peptide sequence.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testXLimitWithVariants() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+
+        // ECTQDRGKTAFTEAVLLP with one X, at most one X is allowed
+        String query = "ECTQXDRGKTAFTEAVLLP";
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.1);
+        int xLimit = (int) (sequenceMatchingPreferences.getLimitX() * query.length());
+
+        for (boolean specificCount : new boolean[]{false, true}) {
+
+            PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+            peptideVariantsPreferences.setnVariants(1);
+            peptideVariantsPreferences.setUseSpecificCount(specificCount);
+            if (specificCount) {
+                peptideVariantsPreferences.setnAaDeletions(1);
+                peptideVariantsPreferences.setnAaInsertions(1);
+                peptideVariantsPreferences.setnAaSubstitutions(1);
+            }
+
+            FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+            ArrayList<PeptideProteinMapping> peptideProteinMappings = fmIndex.getProteinMapping(query, sequenceMatchingPreferences);
+            Assert.assertTrue(!peptideProteinMappings.isEmpty());
+            int nPresent = 0;
+            for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+                String peptideSequence = peptideProteinMapping.getPeptideSequence();
+                int nX = 0;
+                for (int i = 0; i < peptideSequence.length(); i++) {
+                    if (peptideSequence.charAt(i) == 'X') {
+                        nX++;
+                    }
+                }
+                Assert.assertTrue(peptideSequence, nX <= xLimit);
+                for (VariantMatch v : peptideProteinMapping.getVariantMatches()) {
+                    Assert.assertFalse(peptideSequence, v.getVariant() instanceof Insertion && ((Insertion) v.getVariant()).getInsertedAminoAcid() == 'X');
+                }
+                if (peptideSequence.equals("ECTQDDRXKTAFTEAVLLP") || peptideSequence.equals("ECTQQDRXKTAFTEAVLLP")) {
+                    nPresent++;
+                }
+            }
+            Assert.assertTrue(nPresent == 2);
+        }
+    }
+
     /**
      * Tests the mapping of de novo sequence tags to the database.
      *
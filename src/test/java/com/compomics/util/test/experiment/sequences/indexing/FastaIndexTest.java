@@ -0,0 +1,166 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.AccessionIndex;
+import com.compomics.util.experiment.identification.protein_sequences.DecoyGenerator;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.io.SerializationUtils;
+import com.compomics.util.test.experiment.sequences.SequenceFactoryTest;
+import java.io.File;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the compatibility of the FASTA index with the indexes
+ * written by previous versions.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexTest extends TestCase {
+
+    /**
+     * The index of the test database written by a previous version.
+     */
+    private static final File LEGACY_INDEX = new File("src/test/resources/experiment/proteinTreeTestSequences_legacy.cui");
+    /**
+     * The last modification time of the FASTA file stored in the legacy
+     * index.
+     */
+    private static final long LEGACY_LAST_MODIFIED = 1400000000000L;
+
+    /**
+     * Tests that the accessions of a legacy index are available after
+     * deserialization.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testLegacyIndex() throws Exception {
+
+        FastaIndex fastaIndex = (FastaIndex) SerializationUtils.readObject(LEGACY_INDEX);
+
+        Assert.assertEquals("Legacy test database", fastaIndex.getName());
+        Assert.assertEquals(6, fastaIndex.getNSequences());
+        Assert.assertEquals(3, fastaIndex.getNTarget());
+        Assert.assertFalse(fastaIndex.isDecoy("Q9FHX5"));
+        Assert.assertTrue(fastaIndex.isDecoy("Q9FHX5_REVERSED"));
+        Assert.assertEquals(Long.valueOf(0), fastaIndex.getIndex("Q9FHX5"));
+        Assert.assertEquals(Long.valueOf(1086), fastaIndex.getIndex("Q9FI94"));
+        Assert.assertNull(fastaIndex.getIndex("P00000"));
+        Assert.assertEquals(3, fastaIndex.getDecoyAccesions().size());
+    }
+
+    /**
+     * Tests that a legacy index is replaced by a new index keeping the user
+     * settings, and that the new index gives the same accessions.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testReindexLegacy() throws Exception {
+
+        File folder = File.createTempFile("fastaIndex", "");
+        folder.delete();
+        folder.mkdir();
+        folder.deleteOnExit();
+        File fastaFile = new File(folder, "proteinTreeTestSequences.fasta");
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+        fastaFile.deleteOnExit();
+        Assert.assertTrue(fastaFile.setLastModified(LEGACY_LAST_MODIFIED));
+        File indexFile = new File(folder, SequenceFactory.getIndexName(fastaFile.getName()));
+        Util.copyFile(LEGACY_INDEX, indexFile);
+        indexFile.deleteOnExit();
+        File accessionIndexFile = new File(folder, AccessionIndex.getIndexName(fastaFile.getName()));
+        accessionIndexFile.deleteOnExit();
+
+        FastaIndex legacyIndex = (FastaIndex) SerializationUtils.readObject(LEGACY_INDEX);
+        FastaIndex fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+
+        Assert.assertTrue(accessionIndexFile.exists());
+        Assert.assertEquals(legacyIndex.getName(), fastaIndex.getName());
+        Assert.assertEquals(legacyIndex.getVersion(), fastaIndex.getVersion());
+        Assert.assertEquals(legacyIndex.getDecoyTag(), fastaIndex.getDecoyTag());
+        Assert.assertEquals(legacyIndex.getIndexes(), fastaIndex.getIndexes());
+        Assert.assertEquals(legacyIndex.getDecoyAccesions(), fastaIndex.getDecoyAccesions());
+
+        // The new index is reopened as it is
+        fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+        Assert.assertEquals(legacyIndex.getIndexes(), fastaIndex.getIndexes());
+
+        // Without its accession index, the index fails with an explicit error
+        FastaIndex deserializedIndex = (FastaIndex) SerializationUtils.readObject(indexFile);
+        Assert.assertNull(deserializedIndex.getAccessionIndex());
+        try {
+            deserializedIndex.getNSequences();
+            Assert.fail("No exception thrown when querying an index without accessions.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the residue counts and molecular weights computed while
+     * indexing are those computed from the proteins, for a database indexed
+     * by the FASTA indexer and for a database written by the decoy generator.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testResidueCountsAndWeights() throws Exception {
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+
+        File fastaFile = SequenceFactoryTest.writeFasta(300, 8, true);
+        sequenceFactory.loadFastaFile(fastaFile, null);
+        checkResidueCountsAndWeights(sequenceFactory);
+
+        File targetFile = SequenceFactoryTest.writeFasta(300, 9, false);
+        File destinationFile = new File(targetFile.getParentFile(), "randomSequences_shuffled.fasta");
+        destinationFile.deleteOnExit();
+        new File(destinationFile.getParentFile(), SequenceFactory.getIndexName(destinationFile.getName())).deleteOnExit();
+        new File(destinationFile.getParentFile(), AccessionIndex.getIndexName(destinationFile.getName())).deleteOnExit();
+        new DecoyGenerator(DecoyGenerator.DecoyType.shuffled, null, 0, 2).generate(targetFile, destinationFile, null);
+        sequenceFactory.loadFastaFile(destinationFile, null);
+        Assert.assertNotNull(sequenceFactory.getCurrentFastaIndex().getResidueCounts());
+        checkResidueCountsAndWeights(sequenceFactory);
+    }
+
+    /**
+     * Compares the residue counts and molecular weights of the index of the
+     * loaded database to the values computed from the proteins.
+     *
+     * @param sequenceFactory the sequence factory
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private static void checkResidueCountsAndWeights(SequenceFactory sequenceFactory) throws Exception {
+
+        AccessionIndex accessionIndex = sequenceFactory.getCurrentFastaIndex().getAccessionIndex();
+        HashMap<String, Long> expectedOccurrences = new HashMap<String, Long>();
+        int nProteins = 0;
+
+        SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(false);
+        try {
+            while (proteinIterator.hasNext()) {
+                Protein protein = proteinIterator.getNextProtein();
+                String accession = protein.getAccession();
+                nProteins++;
+                Assert.assertEquals(protein.computeMolecularWeight() / 1000, accessionIndex.getMolecularWeight(accession), 0.0);
+                if (!sequenceFactory.isDecoyAccession(accession)) {
+                    Assert.assertEquals(protein.computeMolecularWeight() / 1000, sequenceFactory.computeMolecularWeight(accession), 0.0);
+                    String sequence = protein.getSequence();
+                    for (int i = 0; i < sequence.length(); i++) {
+                        String aa = String.valueOf(sequence.charAt(i));
+                        Long n = expectedOccurrences.get(aa);
+                        expectedOccurrences.put(aa, n == null ? 1 : n + 1);
+                    }
+                }
+            }
+        } finally {
+            proteinIterator.close();
+        }
+
+        Assert.assertEquals(600, nProteins);
+        Assert.assertEquals(expectedOccurrences, sequenceFactory.getAAOccurrences(null));
+    }
+}
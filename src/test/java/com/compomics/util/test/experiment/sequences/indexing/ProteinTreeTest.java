@@ -6,6 +6,7 @@ import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.AminoAcidPattern;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Protein;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
@@ -13,6 +14,7 @@ import com.compomics.util.experiment.identification.amino_acid_tags.matchers.Tag
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.test.experiment.sequences.SequenceFactoryTest;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -20,6 +22,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Random;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import org.xmlpull.v1.XmlPullParserException;
@@ -176,4 +179,79 @@ public class ProteinTreeTest extends TestCase {
 
         proteinTree.deleteDb();
     }
+
+    /**
+     * Tests that the trees imported with one and several threads map peptides
+     * to the same proteins as a serial search of the sequences.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testShardedImport() throws Exception {
+
+        File fastaFile = SequenceFactoryTest.writeFasta(60, 6, true);
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(fastaFile, null);
+
+        HashMap<String, String> sequences = new HashMap<String, String>();
+        SequenceFactory.ProteinIterator proteinIterator = sequenceFactory.getProteinIterator(false);
+        try {
+            while (proteinIterator.hasNext()) {
+                Protein protein = proteinIterator.getNextProtein();
+                sequences.put(protein.getAccession(), protein.getSequence());
+            }
+        } finally {
+            proteinIterator.close();
+        }
+
+        // peptides taken from the proteins and a peptide absent from the database
+        ArrayList<String> accessions = new ArrayList<String>(sequences.keySet());
+        Collections.sort(accessions);
+        ArrayList<String> peptides = new ArrayList<String>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            String sequence = sequences.get(accessions.get(random.nextInt(accessions.size())));
+            int length = 4 + random.nextInt(10);
+            int start = random.nextInt(sequence.length() - length);
+            peptides.add(sequence.substring(start, start + length));
+        }
+        peptides.add("WWWWWWWWWW");
+
+        for (int nThreads = 1; nThreads <= 3; nThreads += 2) {
+
+            ProteinTree proteinTree = new ProteinTree(1000, 1000);
+            proteinTree.initiateTree(3, 5, 50, new WaitingHandlerCLIImpl(), new CommandLineExceptionHandler(), false, false, nThreads);
+
+            try {
+                for (String peptide : peptides) {
+
+                    HashMap<String, ArrayList<Integer>> expected = new HashMap<String, ArrayList<Integer>>();
+                    for (String accession : accessions) {
+                        String sequence = sequences.get(accession);
+                        int index = sequence.indexOf(peptide);
+                        while (index != -1) {
+                            ArrayList<Integer> indexes = expected.get(accession);
+                            if (indexes == null) {
+                                indexes = new ArrayList<Integer>(1);
+                                expected.put(accession, indexes);
+                            }
+                            indexes.add(index);
+                            index = sequence.indexOf(peptide, index + 1);
+                        }
+                    }
+
+                    ArrayList<PeptideProteinMapping> peptideProteinMappings = proteinTree.getProteinMapping(peptide, SequenceMatchingPreferences.defaultStringMatching);
+                    HashMap<String, ArrayList<Integer>> proteinMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(peptideProteinMappings).get(peptide);
+                    if (proteinMapping == null) {
+                        proteinMapping = new HashMap<String, ArrayList<Integer>>(0);
+                    }
+                    for (ArrayList<Integer> indexes : proteinMapping.values()) {
+                        Collections.sort(indexes);
+                    }
+                    Assert.assertEquals(peptide + " with " + nThreads + " threads", expected, proteinMapping);
+                }
+            } finally {
+                proteinTree.deleteDb();
+            }
+        }
+    }
 }
@@ -0,0 +1,271 @@
+package com.compomics.util.test.experiment.spectrum.annotation;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.NeutralLoss;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationPlan;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.math.MathException;
+
+/**
+ * Tests that the annotation using the annotation plan returns the same ion
+ * matches as the validation of the neutral losses and charges of every ion.
+ *
+ * @author Marc Vaudel
+ */
+public class AnnotationPlanTest extends TestCase {
+
+    /**
+     * The amino acids used to draw random peptides.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Tests the annotation of random peptides with the settings of the
+     * annotation settings.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testAnnotation() throws Exception {
+
+        AnnotationSettings annotationSettings = new AnnotationSettings(new SearchParameters());
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        LegacyPeptideSpectrumAnnotator legacyAnnotator = new LegacyPeptideSpectrumAnnotator();
+        Random random = new Random(29);
+        int nIonMatches = 0;
+
+        for (int i = 0; i < 100; i++) {
+
+            Peptide peptide = getRandomPeptide(random, 5 + random.nextInt(20));
+            int precursorCharge = 1 + random.nextInt(4);
+            PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, new Charge(Charge.PLUS, precursorCharge));
+            SpecificAnnotationSettings specificAnnotationSettings = annotationSettings.getSpecificAnnotationPreferences("spectrum " + i,
+                    peptideAssumption, sequenceMatchingPreferences, sequenceMatchingPreferences);
+            if (i % 3 == 0) {
+                specificAnnotationSettings.addIonType(Ion.IonType.PRECURSOR_ION);
+                specificAnnotationSettings.addIonType(Ion.IonType.IMMONIUM_ION);
+                specificAnnotationSettings.addIonType(Ion.IonType.RELATED_ION);
+            }
+            if (i % 5 == 0) {
+                specificAnnotationSettings.addNeutralLoss(NeutralLoss.H2O);
+                specificAnnotationSettings.addNeutralLoss(NeutralLoss.NH3);
+            }
+            MSnSpectrum spectrum = getRandomSpectrum(random, precursorCharge);
+
+            nIonMatches += compare(annotationSettings, specificAnnotationSettings, spectrum, peptide, peptideSpectrumAnnotator, legacyAnnotator);
+        }
+
+        Assert.assertTrue(nIonMatches > 0);
+    }
+
+    /**
+     * Tests that the annotation plan is updated when the settings are
+     * modified.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testModifiedSettings() throws Exception {
+
+        AnnotationSettings annotationSettings = new AnnotationSettings(new SearchParameters());
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        LegacyPeptideSpectrumAnnotator legacyAnnotator = new LegacyPeptideSpectrumAnnotator();
+        Random random = new Random(290);
+
+        Peptide peptide = getRandomPeptide(random, 15);
+        int precursorCharge = 3;
+        PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, new Charge(Charge.PLUS, precursorCharge));
+        SpecificAnnotationSettings specificAnnotationSettings = annotationSettings.getSpecificAnnotationPreferences("spectrum",
+                peptideAssumption, sequenceMatchingPreferences, sequenceMatchingPreferences);
+        specificAnnotationSettings.clearIonTypes();
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION);
+        specificAnnotationSettings.setFragmentIonAccuracy(0.5);
+        MSnSpectrum spectrum = getRandomSpectrum(random, precursorCharge);
+
+        int nIonMatches = compare(annotationSettings, specificAnnotationSettings, spectrum, peptide, peptideSpectrumAnnotator, legacyAnnotator);
+
+        specificAnnotationSettings.addIonType(Ion.IonType.PRECURSOR_ION);
+        int nIonMatchesWithPrecursor = compare(annotationSettings, specificAnnotationSettings, spectrum, peptide, peptideSpectrumAnnotator, legacyAnnotator);
+        Assert.assertTrue(nIonMatchesWithPrecursor > nIonMatches);
+
+        specificAnnotationSettings.clearNeutralLosses();
+        int nIonMatchesNoLoss = compare(annotationSettings, specificAnnotationSettings, spectrum, peptide, peptideSpectrumAnnotator, legacyAnnotator);
+        Assert.assertTrue(nIonMatchesNoLoss < nIonMatchesWithPrecursor);
+
+        specificAnnotationSettings.addNeutralLoss(NeutralLoss.NH3);
+        int nIonMatchesWithLoss = compare(annotationSettings, specificAnnotationSettings, spectrum, peptide, peptideSpectrumAnnotator, legacyAnnotator);
+        Assert.assertTrue(nIonMatchesWithLoss > nIonMatchesNoLoss);
+
+        specificAnnotationSettings.clearCharges();
+        specificAnnotationSettings.addSelectedCharge(1);
+        int nIonMatchesSingleCharge = compare(annotationSettings, specificAnnotationSettings, spectrum, peptide, peptideSpectrumAnnotator, legacyAnnotator);
+        Assert.assertTrue(nIonMatchesSingleCharge < nIonMatchesWithLoss);
+
+        AnnotationPlan annotationPlan = new AnnotationPlan(specificAnnotationSettings, precursorCharge);
+        Assert.assertTrue(annotationPlan.isCompiledFrom(specificAnnotationSettings, precursorCharge));
+        Assert.assertTrue(annotationPlan.isCompiledFrom(specificAnnotationSettings.clone(), precursorCharge));
+        Assert.assertFalse(annotationPlan.isCompiledFrom(specificAnnotationSettings, precursorCharge + 1));
+        specificAnnotationSettings.getIonTypes().get(Ion.IonType.PRECURSOR_ION).clear();
+        Assert.assertFalse(annotationPlan.isCompiledFrom(specificAnnotationSettings, precursorCharge));
+    }
+
+    /**
+     * Compares the annotation of the given peptide using the annotation plan
+     * to the legacy annotation, and returns the number of ion matches.
+     *
+     * @param annotationSettings the annotation settings
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param spectrum the spectrum
+     * @param peptide the peptide
+     * @param peptideSpectrumAnnotator the annotator using the annotation plan
+     * @param legacyAnnotator the legacy annotator
+     *
+     * @return the number of ion matches
+     *
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws MathException if a MathException occurs
+     */
+    private int compare(AnnotationSettings annotationSettings, SpecificAnnotationSettings specificAnnotationSettings, MSnSpectrum spectrum, Peptide peptide,
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator, LegacyPeptideSpectrumAnnotator legacyAnnotator) throws InterruptedException, MathException {
+
+        ArrayList<IonMatch> expectedMatches = legacyAnnotator.getLegacyAnnotation(annotationSettings, specificAnnotationSettings, spectrum, peptide);
+        ArrayList<IonMatch> ionMatches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings, spectrum, peptide, false);
+
+        Assert.assertEquals(peptide.getSequence(), expectedMatches.size(), ionMatches.size());
+        for (int i = 0; i < ionMatches.size(); i++) {
+            IonMatch expected = expectedMatches.get(i);
+            IonMatch ionMatch = ionMatches.get(i);
+            Assert.assertEquals(expected.getPeakAnnotation(), ionMatch.getPeakAnnotation());
+            Assert.assertEquals(expected.peak.mz, ionMatch.peak.mz, 0.0);
+            Assert.assertEquals(expected.charge, ionMatch.charge);
+        }
+        return ionMatches.size();
+    }
+
+    /**
+     * Returns a random peptide carrying random modifications.
+     *
+     * @param random the random number generator
+     * @param length the length of the peptide
+     *
+     * @return a random peptide
+     */
+    private Peptide getRandomPeptide(Random random, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        for (int i = 0; i < length; i++) {
+            char aa = sequence.charAt(i);
+            if (aa == 'C') {
+                modificationMatches.add(new ModificationMatch("Carbamidomethylation of C", false, i + 1));
+            } else if (aa == 'M' && random.nextBoolean()) {
+                modificationMatches.add(new ModificationMatch("Oxidation of M", true, i + 1));
+            } else if (aa == 'S' && random.nextBoolean()) {
+                modificationMatches.add(new ModificationMatch("Phosphorylation of S", true, i + 1));
+            }
+        }
+        return new Peptide(sequence.toString(), modificationMatches);
+    }
+
+    /**
+     * Returns a random spectrum with dense peaks.
+     *
+     * @param random the random number generator
+     * @param precursorCharge the precursor charge
+     *
+     * @return a random spectrum
+     */
+    private MSnSpectrum getRandomSpectrum(Random random, int precursorCharge) {
+        HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+        for (double mz = 50 + random.nextDouble(); mz < 3000; mz += 0.2 + random.nextDouble()) {
+            peakList.put(mz, new Peak(mz, 1 + random.nextInt(1000)));
+        }
+        ArrayList<Charge> charges = new ArrayList<Charge>();
+        charges.add(new Charge(Charge.PLUS, precursorCharge));
+        return new MSnSpectrum(2, new Precursor(0.0, 800.4, charges), "spectrum", peakList, "file.mgf");
+    }
+
+    /**
+     * Peptide spectrum annotator validating the neutral losses and charges of
+     * every ion as done before the annotation plan.
+     */
+    private static class LegacyPeptideSpectrumAnnotator extends PeptideSpectrumAnnotator {
+
+        /**
+         * Returns the spectrum annotation validating the neutral losses and
+         * charges of every ion.
+         *
+         * @param annotationSettings the annotation settings
+         * @param specificAnnotationSettings the specific annotation settings
+         * @param spectrum the spectrum to match
+         * @param peptide the peptide of interest
+         *
+         * @return the ion matches
+         *
+         * @throws InterruptedException if an InterruptedException occurs
+         * @throws MathException if a MathException occurs
+         */
+        public ArrayList<IonMatch> getLegacyAnnotation(AnnotationSettings annotationSettings,
+                SpecificAnnotationSettings specificAnnotationSettings, MSnSpectrum spectrum, Peptide peptide) throws InterruptedException, MathException {
+
+            ArrayList<IonMatch> result = new ArrayList<IonMatch>();
+
+            setMassTolerance(specificAnnotationSettings.getFragmentIonAccuracy(), specificAnnotationSettings.isFragmentIonPpm(), annotationSettings.getTiesResolution());
+            setSpectrum(spectrum, 0.0);
+            theoreticalFragmentIons = fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+            precursorCharge = specificAnnotationSettings.getPrecursorCharge();
+
+            ArrayList<Integer> precursorCharges = new ArrayList<Integer>();
+            for (int i = 1; i <= precursorCharge; i++) {
+                precursorCharges.add(i);
+            }
+
+            HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+            for (Ion.IonType ionType : ionTypes.keySet()) {
+                HashMap<Integer, ArrayList<Ion>> ionMap = theoreticalFragmentIons.get(ionType.index);
+                if (ionMap != null) {
+                    for (int subType : ionTypes.get(ionType)) {
+                        ArrayList<Ion> ions = ionMap.get(subType);
+                        if (ions != null) {
+                            for (Ion ion : ions) {
+                                if (lossesValidated(specificAnnotationSettings.getNeutralLossesMap(), ion)) {
+                                    ArrayList<Integer> ionPossibleCharges = (ionType == Ion.IonType.PRECURSOR_ION) ? precursorCharges : specificAnnotationSettings.getSelectedCharges();
+                                    for (Integer charge : ionPossibleCharges) {
+                                        if (chargeValidated(ion, charge, precursorCharge)) {
+                                            IonMatch ionMatch = matchInSpectrum(ion, charge);
+                                            if (ionMatch != null) {
+                                                result.add(ionMatch);
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            return result;
+        }
+    }
+}
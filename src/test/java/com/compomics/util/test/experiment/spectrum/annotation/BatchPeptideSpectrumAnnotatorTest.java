@@ -0,0 +1,138 @@
+package com.compomics.util.test.experiment.spectrum.annotation;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.BatchPeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.BatchPeptideSpectrumAnnotator.AnnotationIterator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.BatchPeptideSpectrumAnnotator.PsmAnnotation;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the batch annotation of peptide spectrum matches.
+ *
+ * @author Marc Vaudel
+ */
+public class BatchPeptideSpectrumAnnotatorTest extends TestCase {
+
+    /**
+     * Tests that the batch annotation returns the annotations of the
+     * PeptideSpectrumAnnotator in the order of the input.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testAnnotation() throws Exception {
+
+        File mgfFile = File.createTempFile("batchAnnotation", ".mgf");
+        mgfFile.deleteOnExit();
+        int nSpectra = 20;
+        BufferedWriter writer = new BufferedWriter(new FileWriter(mgfFile));
+        try {
+            for (int i = 0; i < nSpectra; i++) {
+                writer.write("BEGIN IONS\nTITLE=spectrum " + i + "\nPEPMASS=800.4\nCHARGE=2+\n");
+                for (double mz = 100 + i * 0.05; mz < 1500; mz += 0.73) {
+                    writer.write(mz + " " + (1 + (int) (mz * 7) % 100) + "\n");
+                }
+                writer.write("END IONS\n");
+            }
+        } finally {
+            writer.close();
+        }
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mgfFile, null);
+
+        String[] sequences = {"PEPTIDEK", "TESTPEPTIDER", "ACDEFGHIK", "LMNPQRSTVWY"};
+        ArrayList<PsmAnnotation> psms = new ArrayList<PsmAnnotation>();
+        for (int i = 0; i < nSpectra; i++) {
+            String spectrumKey = Spectrum.getSpectrumKey(mgfFile.getName(), "spectrum " + i);
+            for (String sequence : sequences) {
+                Peptide peptide = new Peptide(sequence, new ArrayList<ModificationMatch>());
+                psms.add(new PsmAnnotation(spectrumKey, new PeptideAssumption(peptide, new Charge(Charge.PLUS, 2))));
+            }
+        }
+
+        AnnotationSettings annotationSettings = new AnnotationSettings(new SearchParameters());
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        BatchPeptideSpectrumAnnotator batchAnnotator = new BatchPeptideSpectrumAnnotator(annotationSettings, sequenceMatchingPreferences, sequenceMatchingPreferences, 3);
+        batchAnnotator.setBufferSize(7);
+        AnnotationIterator annotationIterator = batchAnnotator.annotate(psms.iterator(), false, null);
+
+        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+        int nAnnotated = 0, nIonMatches = 0;
+        PsmAnnotation psmAnnotation;
+        while ((psmAnnotation = annotationIterator.next()) != null) {
+            PsmAnnotation expected = psms.get(nAnnotated++);
+            Assert.assertSame(expected, psmAnnotation);
+            PeptideAssumption peptideAssumption = psmAnnotation.getPeptideAssumption();
+            SpecificAnnotationSettings specificAnnotationSettings = annotationSettings.getSpecificAnnotationPreferences(psmAnnotation.getSpectrumKey(),
+                    peptideAssumption, sequenceMatchingPreferences, sequenceMatchingPreferences);
+            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(psmAnnotation.getSpectrumKey());
+            ArrayList<IonMatch> expectedMatches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificAnnotationSettings,
+                    spectrum, peptideAssumption.getPeptide(), false);
+            ArrayList<IonMatch> ionMatches = psmAnnotation.getIonMatches();
+            Assert.assertNotNull(ionMatches);
+            Assert.assertEquals(expectedMatches.size(), ionMatches.size());
+            nIonMatches += ionMatches.size();
+            for (int i = 0; i < ionMatches.size(); i++) {
+                Assert.assertEquals(expectedMatches.get(i).peak.mz, ionMatches.get(i).peak.mz, 0.0);
+                Assert.assertEquals(expectedMatches.get(i).getPeakAnnotation(), ionMatches.get(i).getPeakAnnotation());
+            }
+        }
+        Assert.assertEquals(psms.size(), nAnnotated);
+        Assert.assertTrue(nIonMatches > 0);
+        Assert.assertNull(annotationIterator.next());
+    }
+
+    /**
+     * Tests that an error thrown by the input is passed to the consumer
+     * instead of leaving it waiting.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testInputError() throws Exception {
+
+        Iterator<PsmAnnotation> psms = new Iterator<PsmAnnotation>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public PsmAnnotation next() {
+                throw new IllegalStateException("Input error.");
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        BatchPeptideSpectrumAnnotator batchAnnotator = new BatchPeptideSpectrumAnnotator(new AnnotationSettings(), sequenceMatchingPreferences, sequenceMatchingPreferences, 2);
+        AnnotationIterator annotationIterator = batchAnnotator.annotate(psms, false, null);
+        try {
+            annotationIterator.next();
+            Assert.fail("The input error was not thrown.");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Input error.", e.getMessage());
+        }
+        Assert.assertNull(annotationIterator.next());
+    }
+}
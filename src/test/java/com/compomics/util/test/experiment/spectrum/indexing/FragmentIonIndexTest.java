@@ -0,0 +1,138 @@
+package com.compomics.util.test.experiment.spectrum.indexing;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.indexes.FragmentIonIndex;
+import com.compomics.util.experiment.massspectrometry.indexes.FragmentIonIndex.Candidate;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the fragment ion index.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonIndexTest extends TestCase {
+
+    /**
+     * Tests that the spectrum of a peptide returns this peptide as best
+     * candidate and that the parallel queries return the results of the
+     * single spectrum queries.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testCandidates() throws Exception {
+
+        loadFasta();
+        FragmentIonIndex fragmentIonIndex = new FragmentIonIndex(SequenceFactory.getInstance(), DigestionPreferences.getDefaultPreferences(),
+                new ArrayList<String>(), 500, 3000, 0.02, 2, null);
+        Assert.assertFalse(fragmentIonIndex.isCanceled());
+        int nPeptides = fragmentIonIndex.getnPeptides();
+        Assert.assertTrue(nPeptides > 10);
+
+        ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>();
+        for (int peptideId = 0; peptideId < nPeptides; peptideId += nPeptides / 10) {
+            spectra.add(getSpectrum(fragmentIonIndex.getPeptide(peptideId), fragmentIonIndex.getPeptideMass(peptideId), "spectrum " + peptideId));
+        }
+
+        HashMap<String, HashMap<Integer, ArrayList<Candidate>>> batchCandidates = fragmentIonIndex.getCandidates(spectra, -0.01, 0.01, 5, 1, 3);
+        Assert.assertEquals(spectra.size(), batchCandidates.size());
+
+        for (MSnSpectrum spectrum : spectra) {
+            ArrayList<Candidate> candidates = fragmentIonIndex.getCandidates(spectrum, spectrum.getPrecursor().getMass(2), -0.01, 0.01, 1, 5, 1);
+            Assert.assertFalse(candidates.isEmpty());
+            String title = spectrum.getSpectrumTitle();
+            int peptideId = Integer.parseInt(title.substring(title.indexOf(' ') + 1));
+            Candidate best = candidates.get(0);
+            Assert.assertEquals(fragmentIonIndex.getPeptide(peptideId).getSequence(), best.getPeptide().getSequence());
+            Assert.assertTrue(best.nSharedPeaks >= best.getPeptide().getSequence().length() - 1);
+
+            ArrayList<Candidate> parallelCandidates = batchCandidates.get(spectrum.getSpectrumKey()).get(2);
+            Assert.assertEquals(candidates.size(), parallelCandidates.size());
+            for (int i = 0; i < candidates.size(); i++) {
+                Assert.assertEquals(candidates.get(i).peptideId, parallelCandidates.get(i).peptideId);
+                Assert.assertEquals(candidates.get(i).nSharedPeaks, parallelCandidates.get(i).nSharedPeaks);
+            }
+        }
+    }
+
+    /**
+     * Tests that an index whose construction was canceled cannot be queried.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    public void testCanceled() throws Exception {
+
+        loadFasta();
+        WaitingHandlerCLIImpl waitingHandler = new WaitingHandlerCLIImpl();
+        waitingHandler.setRunCanceled();
+        FragmentIonIndex fragmentIonIndex = new FragmentIonIndex(SequenceFactory.getInstance(), DigestionPreferences.getDefaultPreferences(),
+                new ArrayList<String>(), 500, 3000, 0.02, 2, waitingHandler);
+        Assert.assertTrue(fragmentIonIndex.isCanceled());
+
+        MSnSpectrum spectrum = new MSnSpectrum(2, new Precursor(0, 500, new ArrayList<Charge>()), "spectrum", new HashMap<Double, Peak>(), "file");
+        try {
+            fragmentIonIndex.getCandidates(spectrum, 1000, -0.01, 0.01, 1, 5, 1);
+            Assert.fail("A canceled index was queried.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Loads a copy of the test database in the sequence factory.
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private void loadFasta() throws Exception {
+        File folder = File.createTempFile("fragmentIonIndex", "");
+        folder.delete();
+        folder.mkdir();
+        folder.deleteOnExit();
+        File fastaFile = new File(folder, "proteinTreeTestSequences.fasta");
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), fastaFile);
+        fastaFile.deleteOnExit();
+        new File(folder, fastaFile.getName() + ".cui").deleteOnExit();
+        SequenceFactory.getInstance().loadFastaFile(fastaFile, null);
+    }
+
+    /**
+     * Returns a spectrum containing the singly charged b and y ions of the
+     * given peptide, doubly charged precursor.
+     *
+     * @param peptide the peptide
+     * @param peptideMass the mass of the peptide
+     * @param title the title of the spectrum
+     *
+     * @return the spectrum
+     */
+    private static MSnSpectrum getSpectrum(Peptide peptide, double peptideMass, String title) {
+        HashMap<Double, Peak> peaks = new HashMap<Double, Peak>();
+        String sequence = peptide.getSequence();
+        double proton = ElementaryIon.proton.getTheoreticMass();
+        double forwardMass = 0;
+        for (int i = 0; i < sequence.length() - 1; i++) {
+            forwardMass += AminoAcid.getAminoAcid(sequence.charAt(i)).getMonoisotopicMass();
+            double bIon = forwardMass + proton;
+            double yIon = peptideMass - forwardMass + proton;
+            peaks.put(bIon, new Peak(bIon, 100));
+            peaks.put(yIon, new Peak(yIon, 100));
+        }
+        ArrayList<Charge> charges = new ArrayList<Charge>(1);
+        charges.add(new Charge(Charge.PLUS, 2));
+        Precursor precursor = new Precursor(0, (peptideMass + 2 * proton) / 2, charges);
+        return new MSnSpectrum(2, precursor, title, peaks, "test.mgf");
+    }
+}
@@ -0,0 +1,59 @@
+package com.compomics.util.test.math;
+
+import com.compomics.util.math.PermutationSort;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the sorting of values along with their indexes.
+ *
+ * @author Marc Vaudel
+ */
+public class TestPermutationSort extends TestCase {
+
+    /**
+     * Tests the sorting of random values with and without ties against the
+     * sorting of the values alone.
+     */
+    public void testSort() {
+        Random random = new Random(31);
+        for (int length : new int[]{0, 1, 2, 15, 16, 17, 100, 10000}) {
+            for (int nDistinct : new int[]{1, 3, 50, Integer.MAX_VALUE}) {
+
+                double[] original = new double[length];
+                for (int i = 0; i < length; i++) {
+                    original[i] = nDistinct == Integer.MAX_VALUE ? random.nextGaussian() : random.nextInt(nDistinct) - 1;
+                }
+                double[] values = Arrays.copyOf(original, length);
+                int[] indexes = new int[length];
+                for (int i = 0; i < length; i++) {
+                    indexes[i] = i;
+                }
+                PermutationSort.sort(values, indexes);
+
+                double[] expected = Arrays.copyOf(original, length);
+                Arrays.sort(expected);
+                for (int i = 0; i < length; i++) {
+                    Assert.assertEquals(expected[i], values[i], 0.0);
+                    Assert.assertEquals(original[indexes[i]], values[i], 0.0);
+                    if (i > 0 && values[i] == values[i - 1]) {
+                        Assert.assertTrue(indexes[i] > indexes[i - 1]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that only the given range is sorted.
+     */
+    public void testRange() {
+        double[] values = {5, 4, 3, 2, 1, 0};
+        int[] indexes = {0, 1, 2, 3, 4, 5};
+        PermutationSort.sort(values, indexes, 1, 4);
+        Assert.assertTrue(Arrays.equals(new double[]{5, 2, 3, 4, 1, 0}, values));
+        Assert.assertTrue(Arrays.equals(new int[]{0, 3, 2, 1, 4, 5}, indexes));
+    }
+}